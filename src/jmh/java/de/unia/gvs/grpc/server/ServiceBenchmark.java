@@ -0,0 +1,77 @@
+package de.unia.gvs.grpc.server;
+
+import de.unia.gvs.grpc.Coordinate;
+import de.unia.gvs.grpc.DeleteUserRequest;
+import de.unia.gvs.grpc.LengthReply;
+import de.unia.gvs.grpc.LengthRequest;
+import de.unia.gvs.grpc.ListUsersReply;
+import de.unia.gvs.grpc.ListUsersRequest;
+import de.unia.gvs.grpc.PointsRequest;
+import de.unia.gvs.grpc.server.store.TrackStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the service methods, called directly without any transport or serialization.
+ * <p>
+ * Measures the cost of the store and of creating the response messages.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ServiceBenchmark {
+    @Param({"1000", "100000"})
+    int trackLength;
+
+    @Param({"1", "64"})
+    int users;
+
+    @Param({"1", "100"})
+    int batchSize;
+
+    private Workload workload;
+    private PositionLogServiceImpl service;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        workload = new Workload(users, trackLength, batchSize);
+        final TrackStore store = new TrackStore();
+        workload.fill(request -> store.append(request.getUserId(), request.getPointsList()));
+        service = new PositionLogServiceImpl(store);
+    }
+
+    @Benchmark
+    public void logPosition(Blackhole blackhole) {
+        final int user = workload.randomUser();
+        service.logPosition(workload.batch(user), new BlackholeObserver<>(blackhole));
+        workload.appended(user, id -> service.deleteUser(DeleteUserRequest.newBuilder().setUserId(id).build(),
+                new BlackholeObserver<>(blackhole)));
+    }
+
+    @Benchmark
+    public void getPoints(Blackhole blackhole) {
+        final PointsRequest request = PointsRequest.newBuilder().setUserId(workload.randomUser()).build();
+        service.getPoints(request, new BlackholeObserver<Coordinate>(blackhole));
+    }
+
+    @Benchmark
+    public void getTrackLength(Blackhole blackhole) {
+        final LengthRequest request = LengthRequest.newBuilder().setUserId(workload.randomUser()).build();
+        service.getTrackLength(request, new BlackholeObserver<LengthReply>(blackhole));
+    }
+
+    @Benchmark
+    public void listUsers(Blackhole blackhole) {
+        service.listUsers(ListUsersRequest.getDefaultInstance(), new BlackholeObserver<ListUsersReply>(blackhole));
+    }
+}
@@ -0,0 +1,112 @@
+package de.unia.gvs.grpc.server;
+
+import de.unia.gvs.grpc.DeleteUserRequest;
+import de.unia.gvs.grpc.LengthRequest;
+import de.unia.gvs.grpc.ListUsersRequest;
+import de.unia.gvs.grpc.PointsRequest;
+import de.unia.gvs.grpc.PositionLogServiceGrpc;
+import de.unia.gvs.grpc.PositionLogServiceGrpc.PositionLogServiceBlockingStub;
+import de.unia.gvs.grpc.server.store.TrackStore;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end benchmarks of the service through a blocking client.
+ * <p>
+ * The in-process transport passes messages between client and server without serializing them, Netty sends them over
+ * a loopback TCP connection like remote clients.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TransportBenchmark {
+    public enum Transport {
+        IN_PROCESS,
+        NETTY
+    }
+
+    @Param({"IN_PROCESS", "NETTY"})
+    Transport transport;
+
+    @Param({"1000", "100000"})
+    int trackLength;
+
+    @Param({"1", "64"})
+    int users;
+
+    @Param({"1", "100"})
+    int batchSize;
+
+    private Workload workload;
+    private Server server;
+    private ManagedChannel channel;
+    private PositionLogServiceBlockingStub stub;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        workload = new Workload(users, trackLength, batchSize);
+        final TrackStore store = new TrackStore();
+        workload.fill(request -> store.append(request.getUserId(), request.getPointsList()));
+        final PositionLogServiceImpl service = new PositionLogServiceImpl(store);
+
+        if (transport == Transport.IN_PROCESS) {
+            final String name = InProcessServerBuilder.generateName();
+            server = InProcessServerBuilder.forName(name).addService(service).build().start();
+            channel = InProcessChannelBuilder.forName(name).build();
+        } else {
+            server = ServerBuilder.forPort(0).addService(service).build().start();
+            channel = ManagedChannelBuilder.forAddress("localhost", server.getPort()).usePlaintext().build();
+        }
+        stub = PositionLogServiceGrpc.newBlockingStub(channel);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public void logPosition(Blackhole blackhole) {
+        final int user = workload.randomUser();
+        blackhole.consume(stub.logPosition(workload.batch(user)));
+        workload.appended(user, id -> stub.deleteUser(DeleteUserRequest.newBuilder().setUserId(id).build()));
+    }
+
+    @Benchmark
+    public void getPoints(Blackhole blackhole) {
+        final Iterator<?> points = stub.getPoints(PointsRequest.newBuilder().setUserId(workload.randomUser()).build());
+        while (points.hasNext()) {
+            blackhole.consume(points.next());
+        }
+    }
+
+    @Benchmark
+    public void getTrackLength(Blackhole blackhole) {
+        blackhole.consume(stub.getTrackLength(LengthRequest.newBuilder().setUserId(workload.randomUser()).build()));
+    }
+
+    @Benchmark
+    public void listUsers(Blackhole blackhole) {
+        blackhole.consume(stub.listUsers(ListUsersRequest.getDefaultInstance()));
+    }
+}
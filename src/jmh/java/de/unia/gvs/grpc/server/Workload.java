@@ -0,0 +1,107 @@
+package de.unia.gvs.grpc.server;
+
+import com.google.protobuf.util.Timestamps;
+import de.unia.gvs.grpc.Coordinate;
+import de.unia.gvs.grpc.LogPositionRequest;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/**
+ * Tracks of the benchmarked users and the batches appended to them.
+ * <p>
+ * Points form a random walk with one point per second, so track lengths and time ranges behave like real tracks.
+ * Appended tracks are deleted once they have doubled in size, so tracks keep about the benchmarked length instead of
+ * growing for the whole run.
+ */
+class Workload {
+    // Points per request when filling the tracks
+    private static final int FILL_BATCH_SIZE = 4096;
+
+    private final int users;
+    private final int trackLength;
+    private final int batchSize;
+    private final LogPositionRequest[] batches;
+    private final AtomicIntegerArray sizes;
+
+    /**
+     * @param users number of users, with IDs from 0
+     * @param trackLength initial number of points per user
+     * @param batchSize number of points per appended request
+     */
+    Workload(int users, int trackLength, int batchSize) {
+        this.users = users;
+        this.trackLength = trackLength;
+        this.batchSize = batchSize;
+        this.batches = new LogPositionRequest[users];
+        this.sizes = new AtomicIntegerArray(users);
+
+        final Random random = new Random(42);
+        for (int user = 0; user < users; ++user) {
+            final LogPositionRequest.Builder batch = LogPositionRequest.newBuilder().setUserId(user);
+            addPoints(batch, random, batchSize, trackLength);
+            batches[user] = batch.build();
+        }
+    }
+
+    /**
+     * Log the initial tracks of all users.
+     *
+     * @param logPosition logs a single request
+     */
+    void fill(Consumer<LogPositionRequest> logPosition) {
+        final Random random = new Random(4711);
+        for (int user = 0; user < users; ++user) {
+            for (int logged = 0; logged < trackLength; logged += FILL_BATCH_SIZE) {
+                final LogPositionRequest.Builder request = LogPositionRequest.newBuilder().setUserId(user);
+                addPoints(request, random, Math.min(FILL_BATCH_SIZE, trackLength - logged), logged);
+                logPosition.accept(request.build());
+            }
+            sizes.set(user, trackLength);
+        }
+    }
+
+    private static void addPoints(LogPositionRequest.Builder request, Random random, int count, int first) {
+        double latitude = 48.3 + random.nextDouble() * 0.1;
+        double longitude = 10.9 + random.nextDouble() * 0.1;
+        for (int i = 0; i < count; ++i) {
+            latitude += (random.nextDouble() - 0.5) * 1e-4;
+            longitude += (random.nextDouble() - 0.5) * 1e-4;
+            request.addPoints(Coordinate.newBuilder()
+                    .setLatitude(latitude)
+                    .setLongitude(longitude)
+                    .setTimestamp(Timestamps.fromSeconds(1_546_300_800L + first + i)));
+        }
+    }
+
+    /**
+     * @return a random user
+     */
+    int randomUser() {
+        return ThreadLocalRandom.current().nextInt(users);
+    }
+
+    /**
+     * @param user
+     * @return request appending a batch of points to the user's track
+     */
+    LogPositionRequest batch(int user) {
+        return batches[user];
+    }
+
+    /**
+     * Record that a batch has been appended, deleting the track once it has doubled in size.
+     *
+     * @param user
+     * @param deleteUser deletes a user
+     */
+    void appended(int user, IntConsumer deleteUser) {
+        final int size = sizes.addAndGet(user, batchSize);
+        if (size >= 2 * Math.max(trackLength, batchSize) && sizes.compareAndSet(user, size, 0)) {
+            deleteUser.accept(user);
+        }
+    }
+}
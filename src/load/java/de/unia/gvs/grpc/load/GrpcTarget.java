@@ -0,0 +1,109 @@
+package de.unia.gvs.grpc.load;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import de.unia.gvs.grpc.Coordinate;
+import de.unia.gvs.grpc.LogPositionRequest;
+import de.unia.gvs.grpc.PointsRequest;
+import de.unia.gvs.grpc.client.PointsObserver;
+import de.unia.gvs.grpc.client.PointsSubscription;
+import de.unia.gvs.grpc.client.PositionLogClient;
+import de.unia.gvs.grpc.client.PositionLogClientImpl;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the requests to the gRPC port through the asynchronous methods of the {@link PositionLogClient}.
+ */
+class GrpcTarget implements Target {
+    private final ManagedChannel channel;
+    private final PositionLogClient client;
+
+    /**
+     * @param host
+     * @param port
+     */
+    GrpcTarget(String host, int port) {
+        this.channel = ManagedChannelBuilder.forAddress(host, port).usePlaintext().build();
+        this.client = new PositionLogClientImpl(channel);
+    }
+
+    @Override
+    public CompletableFuture<?> logPosition(int userId, List<Coordinate> points) {
+        return toCompletable(client.logPointsAsync(LogPositionRequest.newBuilder()
+                .setUserId(userId)
+                .addAllPoints(points)
+                .build()));
+    }
+
+    @Override
+    public CompletableFuture<?> getPoints(int userId) {
+        final CompletableFuture<Integer> future = new CompletableFuture<>();
+        client.getPoints(PointsRequest.newBuilder().setUserId(userId).build(), new PointsObserver() {
+            private int count;
+
+            @Override
+            public void onStart(PointsSubscription subscription) {
+                subscription.request(Integer.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(Coordinate value) {
+                ++count;
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                future.completeExceptionally(t);
+            }
+
+            @Override
+            public void onCompleted() {
+                future.complete(count);
+            }
+        });
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<?> getTrackLength(int userId) {
+        return toCompletable(client.getTrackLengthAsync(userId));
+    }
+
+    @Override
+    public CompletableFuture<?> listUsers() {
+        return toCompletable(client.listUsersAsync());
+    }
+
+    @Override
+    public void close() {
+        channel.shutdown();
+        try {
+            channel.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static <T> CompletableFuture<T> toCompletable(ListenableFuture<T> listenable) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        Futures.addCallback(listenable, new FutureCallback<T>() {
+            @Override
+            public void onSuccess(T result) {
+                future.complete(result);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                future.completeExceptionally(t);
+            }
+        }, MoreExecutors.directExecutor());
+        return future;
+    }
+}
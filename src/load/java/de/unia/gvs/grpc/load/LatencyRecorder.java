@@ -0,0 +1,165 @@
+package de.unia.gvs.grpc.load;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+import org.HdrHistogram.Recorder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records the latencies of the load generator's requests in HdrHistograms, per operation and in microseconds.
+ * <p>
+ * The response time of a request is measured from the time the request was scheduled to be sent, not from the time
+ * it was actually sent. Requests delayed because the server or the generator was stalled therefore include the delay,
+ * which corrects the coordinated omission of measuring from the send time. The uncorrected service times are recorded
+ * as well, the difference between both shows how much of the latency was spent waiting.
+ * <p>
+ * Response times of every reporting interval are written to a histogram log per operation, which can be analyzed with
+ * HdrHistogram's <code>HistogramLogProcessor</code>.
+ */
+class LatencyRecorder implements Closeable {
+    private static final int SIGNIFICANT_DIGITS = 3;
+    private static final double MICROS_PER_MILLI = 1000.0;
+
+    private final Map<Operation, Stats> stats = new EnumMap<>(Operation.class);
+    private final Path directory;
+    private final String prefix;
+
+    /**
+     * @param directory directory for the histogram files, which is created if necessary
+     * @param prefix prefix of the file names
+     * @param operations operations to record
+     * @throws IOException if the histogram logs cannot be created
+     */
+    LatencyRecorder(Path directory, String prefix, Iterable<Operation> operations) throws IOException {
+        this.directory = directory;
+        this.prefix = prefix;
+        Files.createDirectories(directory);
+        final long start = System.currentTimeMillis();
+        for (Operation operation : operations) {
+            final HistogramLogWriter log = new HistogramLogWriter(file(operation, ".hlog").toFile());
+            log.outputLogFormatVersion();
+            log.outputStartTime(start);
+            log.setBaseTime(start);
+            log.outputLegend();
+            stats.put(operation, new Stats(log));
+        }
+    }
+
+    /**
+     * Record a completed request, may be called concurrently.
+     *
+     * @param operation
+     * @param intendedNanos {@link System#nanoTime()} at which the request was scheduled
+     * @param sentNanos {@link System#nanoTime()} at which the request was sent
+     * @param failed whether the request failed, which is only counted
+     */
+    void record(Operation operation, long intendedNanos, long sentNanos, boolean failed) {
+        final Stats operationStats = stats.get(operation);
+        if (failed) {
+            operationStats.errors.increment();
+            return;
+        }
+        final long now = System.nanoTime();
+        operationStats.responseTimes.recordValue(TimeUnit.NANOSECONDS.toMicros(now - intendedNanos));
+        operationStats.serviceTimes.recordValue(TimeUnit.NANOSECONDS.toMicros(now - sentNanos));
+    }
+
+    /**
+     * End a reporting interval, logging its histograms and adding them to the totals.
+     *
+     * @param seconds length of the interval
+     * @return summary of the interval for the console
+     */
+    String interval(double seconds) {
+        final Histogram combined = new Histogram(SIGNIFICANT_DIGITS);
+        long errors = 0;
+        for (Stats operationStats : stats.values()) {
+            final Histogram responseTimes = operationStats.responseTimes.getIntervalHistogram();
+            operationStats.log.outputIntervalHistogram(responseTimes);
+            operationStats.totalResponseTimes.add(responseTimes);
+            operationStats.totalServiceTimes.add(operationStats.serviceTimes.getIntervalHistogram());
+            combined.add(responseTimes);
+
+            final long total = operationStats.errors.sum();
+            errors += total - operationStats.reportedErrors;
+            operationStats.reportedErrors = total;
+        }
+        return String.format("%8.0f req/s  %6d errors  p50 %9.3f ms  p99 %9.3f ms  max %9.3f ms",
+                combined.getTotalCount() / seconds, errors,
+                combined.getValueAtPercentile(50) / MICROS_PER_MILLI,
+                combined.getValueAtPercentile(99) / MICROS_PER_MILLI,
+                combined.getMaxValue() / MICROS_PER_MILLI);
+    }
+
+    /**
+     * Print the response and service time percentiles of the whole run and write the percentile distribution of every
+     * operation's response times, in milliseconds.
+     *
+     * @param out
+     * @param seconds measured time
+     * @throws IOException if a distribution cannot be written
+     */
+    void report(PrintStream out, double seconds) throws IOException {
+        out.printf("%-8s %-8s %10s %8s %9s %9s %9s %9s %9s%n",
+                "op", "time", "count", "errors", "rate/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+        for (Map.Entry<Operation, Stats> entry : stats.entrySet()) {
+            final Stats operationStats = entry.getValue();
+            printRow(out, entry.getKey().key(), "response", operationStats.totalResponseTimes,
+                    operationStats.errors.sum(), seconds);
+            printRow(out, "", "service", operationStats.totalServiceTimes, operationStats.errors.sum(), seconds);
+
+            try (PrintStream distribution = new PrintStream(file(entry.getKey(), ".hgrm").toFile(), "UTF-8")) {
+                operationStats.totalResponseTimes.outputPercentileDistribution(distribution, MICROS_PER_MILLI);
+            }
+        }
+        out.println("Histograms written to " + directory.toAbsolutePath());
+    }
+
+    private static void printRow(PrintStream out, String operation, String kind, Histogram histogram, long errors,
+                                 double seconds) {
+        out.printf("%-8s %-8s %10d %8d %9.1f %9.3f %9.3f %9.3f %9.3f%n",
+                operation, kind, histogram.getTotalCount(), errors, histogram.getTotalCount() / seconds,
+                histogram.getValueAtPercentile(50) / MICROS_PER_MILLI,
+                histogram.getValueAtPercentile(99) / MICROS_PER_MILLI,
+                histogram.getValueAtPercentile(99.9) / MICROS_PER_MILLI,
+                histogram.getMaxValue() / MICROS_PER_MILLI);
+    }
+
+    private Path file(Operation operation, String extension) {
+        return directory.resolve(prefix + "-" + operation.key() + extension);
+    }
+
+    @Override
+    public void close() {
+        for (Stats operationStats : stats.values()) {
+            operationStats.log.close();
+        }
+    }
+
+    /**
+     * Histograms of one operation. The recorders are written by completing requests, everything else is only used by
+     * the reporting thread.
+     */
+    private static class Stats {
+        final Recorder responseTimes = new Recorder(SIGNIFICANT_DIGITS);
+        final Recorder serviceTimes = new Recorder(SIGNIFICANT_DIGITS);
+        final LongAdder errors = new LongAdder();
+        final Histogram totalResponseTimes = new Histogram(SIGNIFICANT_DIGITS);
+        final Histogram totalServiceTimes = new Histogram(SIGNIFICANT_DIGITS);
+        final HistogramLogWriter log;
+        long reportedErrors;
+
+        Stats(HistogramLogWriter log) {
+            this.log = log;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package de.unia.gvs.grpc.load;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives a running position log server with a mix of requests at a fixed rate and reports latency percentiles.
+ * <p>
+ * The generator first logs synthesized tracks for all users, then issues requests open-loop: request <i>i</i> is
+ * scheduled at <i>i / rate</i> seconds after the start and sent at that time, no matter how many earlier requests are
+ * still running. Response times are measured from the scheduled time, see {@link LatencyRecorder}. Only if
+ * <code>--maxOutstanding</code> requests are in flight, the generator waits, which still counts against the response
+ * times of the delayed requests.
+ * <p>
+ * Run with <code>./gradlew loadTest -PloadArgs="--protocol=REST --rate=2000"</code> against a server started with
+ * <code>./gradlew run</code>, see {@link LoadOptions#USAGE} for all options.
+ */
+public class LoadGenerator {
+    // Points per request and requests in flight while seeding the tracks
+    private static final int SEED_BATCH_SIZE = 500;
+    private static final int SEED_OUTSTANDING = 64;
+
+    // Seconds to wait for outstanding requests after the run
+    private static final int DRAIN_SECONDS = 30;
+
+    private final LoadOptions options;
+    private final Target target;
+    private final TrackSynthesizer tracks;
+    private final Operation[] operations;
+    private final int[] cumulativeWeights;
+
+    /**
+     * @param options
+     * @param target API under test
+     */
+    LoadGenerator(LoadOptions options, Target target) {
+        this.options = options;
+        this.target = target;
+        this.tracks = new TrackSynthesizer(options.firstUser, options.users, 4711);
+
+        final List<Operation> mixed = new ArrayList<>();
+        final List<Integer> weights = new ArrayList<>();
+        int total = 0;
+        for (Map.Entry<Operation, Integer> entry : options.mix.entrySet()) {
+            if (entry.getValue() > 0) {
+                total += entry.getValue();
+                mixed.add(entry.getKey());
+                weights.add(total);
+            }
+        }
+        this.operations = mixed.toArray(new Operation[0]);
+        this.cumulativeWeights = weights.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    public static void main(String[] args) throws Exception {
+        final LoadOptions options;
+        try {
+            options = LoadOptions.parse(args);
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println(LoadOptions.USAGE);
+            System.exit(2);
+            return;
+        }
+
+        try (Target target = options.protocol == LoadOptions.Protocol.REST
+                ? new RestTarget(options.host, options.httpPort)
+                : new GrpcTarget(options.host, options.grpcPort)) {
+            final LoadGenerator generator = new LoadGenerator(options, target);
+            generator.seed();
+            generator.run();
+        }
+    }
+
+    /**
+     * Log the first points of every user's track.
+     */
+    void seed() throws InterruptedException {
+        if (options.seedPoints == 0) {
+            return;
+        }
+        System.out.printf("Seeding %d points for each of %d users%n", options.seedPoints, options.users);
+        final Semaphore outstanding = new Semaphore(SEED_OUTSTANDING);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        for (int userId = options.firstUser; userId < options.firstUser + options.users; ++userId) {
+            for (int logged = 0; logged < options.seedPoints && failure.get() == null; logged += SEED_BATCH_SIZE) {
+                final int count = Math.min(SEED_BATCH_SIZE, options.seedPoints - logged);
+                outstanding.acquire();
+                target.logPosition(userId, tracks.next(userId, count)).whenComplete((result, t) -> {
+                    if (t != null) {
+                        failure.compareAndSet(null, t);
+                    }
+                    outstanding.release();
+                });
+            }
+        }
+        outstanding.acquire(SEED_OUTSTANDING);
+        if (failure.get() != null) {
+            throw new IllegalStateException("Could not seed the tracks", failure.get());
+        }
+    }
+
+    /**
+     * Issue requests for the warmup and measured time and report the results.
+     */
+    void run() throws Exception {
+        final String prefix = options.protocol.name().toLowerCase(Locale.ROOT);
+        final ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "load-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (LatencyRecorder recorder = new LatencyRecorder(options.output, prefix, Arrays.asList(operations))) {
+            final Semaphore outstanding = new Semaphore(options.maxOutstanding);
+            final double intervalNanos = TimeUnit.SECONDS.toNanos(1) / options.rate;
+            final long start = System.nanoTime();
+            final long measureStart = start + TimeUnit.SECONDS.toNanos(options.warmupSeconds);
+            final long end = measureStart + TimeUnit.SECONDS.toNanos(options.durationSeconds);
+
+            System.out.printf("Sending %.0f requests per second via %s, %d seconds warmup, %d seconds measured%n",
+                    options.rate, options.protocol, options.warmupSeconds, options.durationSeconds);
+            reporter.scheduleAtFixedRate(() -> System.out.println(recorder.interval(1)),
+                    TimeUnit.SECONDS.toNanos(options.warmupSeconds + 1), TimeUnit.SECONDS.toNanos(1),
+                    TimeUnit.NANOSECONDS);
+
+            for (long i = 0; ; ++i) {
+                final long intended = start + (long) (i * intervalNanos);
+                if (intended - end >= 0) {
+                    break;
+                }
+                long now;
+                while ((now = System.nanoTime()) - intended < 0) {
+                    LockSupport.parkNanos(intended - now);
+                }
+
+                final Operation operation = nextOperation();
+                final boolean measured = intended - measureStart >= 0;
+                outstanding.acquireUninterruptibly();
+                final long sent = System.nanoTime();
+                CompletableFuture<?> future;
+                try {
+                    future = issue(operation);
+                } catch (RuntimeException ex) {
+                    future = new CompletableFuture<>();
+                    future.completeExceptionally(ex);
+                }
+                future.whenComplete((result, t) -> {
+                    if (measured) {
+                        recorder.record(operation, intended, sent, t != null);
+                    }
+                    outstanding.release();
+                });
+            }
+
+            if (!outstanding.tryAcquire(options.maxOutstanding, DRAIN_SECONDS, TimeUnit.SECONDS)) {
+                System.out.println("Requests still outstanding after " + DRAIN_SECONDS + " seconds");
+            }
+            reporter.shutdown();
+            reporter.awaitTermination(DRAIN_SECONDS, TimeUnit.SECONDS);
+            System.out.println(recorder.interval(1));
+            recorder.report(System.out, options.durationSeconds);
+        } finally {
+            reporter.shutdownNow();
+        }
+    }
+
+    private Operation nextOperation() {
+        final int value = (int) (tracks.nextDouble() * cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < operations.length; ++i) {
+            if (value < cumulativeWeights[i]) {
+                return operations[i];
+            }
+        }
+        return operations[operations.length - 1];
+    }
+
+    private CompletableFuture<?> issue(Operation operation) {
+        final int userId = tracks.randomUser();
+        switch (operation) {
+            case LOG_POSITION:
+                return target.logPosition(userId, tracks.next(userId, options.batchSize));
+            case GET_POINTS:
+                return target.getPoints(userId);
+            case GET_TRACK_LENGTH:
+                return target.getTrackLength(userId);
+            default:
+                return target.listUsers();
+        }
+    }
+}
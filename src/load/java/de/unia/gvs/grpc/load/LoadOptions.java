@@ -0,0 +1,153 @@
+package de.unia.gvs.grpc.load;
+
+import de.unia.gvs.grpc.server.PositionLogServer;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Command line options of the {@link LoadGenerator}, given as <code>--name=value</code>.
+ */
+final class LoadOptions {
+    /**
+     * API the requests are sent to
+     */
+    enum Protocol {
+        GRPC,
+        REST
+    }
+
+    static final String USAGE = String.join("\n",
+            "Options (--name=value):",
+            "  --protocol=GRPC|REST    API under test (GRPC)",
+            "  --host=<name>           server host (localhost)",
+            "  --grpcPort=<port>       gRPC port (" + PositionLogServer.GRPC_PORT + ")",
+            "  --httpPort=<port>       REST port (8080)",
+            "  --rate=<n>              requests per second, issued regardless of response times (1000)",
+            "  --duration=<s>          measured seconds (60)",
+            "  --warmup=<s>            seconds of load before measuring (10)",
+            "  --users=<n>             number of users (1000)",
+            "  --firstUser=<id>        ID of the first user (1000)",
+            "  --seedPoints=<n>        points logged per user before the run (500)",
+            "  --batchSize=<n>         points per LogPosition request (10)",
+            "  --mix=<op>=<weight>,... weights of log, points, length and users (log=70,points=10,length=15,users=5)",
+            "  --maxOutstanding=<n>    requests in flight before issuing waits (10000)",
+            "  --output=<dir>          directory for histogram logs (build/reports/load)");
+
+    Protocol protocol = Protocol.GRPC;
+    String host = "localhost";
+    int grpcPort = PositionLogServer.GRPC_PORT;
+    int httpPort = 8080;
+    double rate = 1000;
+    int durationSeconds = 60;
+    int warmupSeconds = 10;
+    int users = 1000;
+    int firstUser = 1000;
+    int seedPoints = 500;
+    int batchSize = 10;
+    int maxOutstanding = 10_000;
+    Path output = Paths.get("build", "reports", "load");
+    final Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+
+    private LoadOptions() {
+        mix.put(Operation.LOG_POSITION, 70);
+        mix.put(Operation.GET_POINTS, 10);
+        mix.put(Operation.GET_TRACK_LENGTH, 15);
+        mix.put(Operation.LIST_USERS, 5);
+    }
+
+    /**
+     * @param args command line arguments
+     * @return the options
+     * @throws IllegalArgumentException if an option is unknown or invalid
+     */
+    static LoadOptions parse(String[] args) {
+        final LoadOptions options = new LoadOptions();
+        for (String arg : args) {
+            final int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Expected --name=value instead of " + arg);
+            }
+            final String name = arg.substring(2, separator);
+            final String value = arg.substring(separator + 1);
+            switch (name) {
+                case "protocol":
+                    options.protocol = Protocol.valueOf(value.toUpperCase(Locale.ROOT));
+                    break;
+                case "host":
+                    options.host = value;
+                    break;
+                case "grpcPort":
+                    options.grpcPort = Integer.parseInt(value);
+                    break;
+                case "httpPort":
+                    options.httpPort = Integer.parseInt(value);
+                    break;
+                case "rate":
+                    options.rate = Double.parseDouble(value);
+                    break;
+                case "duration":
+                    options.durationSeconds = Integer.parseInt(value);
+                    break;
+                case "warmup":
+                    options.warmupSeconds = Integer.parseInt(value);
+                    break;
+                case "users":
+                    options.users = Integer.parseInt(value);
+                    break;
+                case "firstUser":
+                    options.firstUser = Integer.parseInt(value);
+                    break;
+                case "seedPoints":
+                    options.seedPoints = Integer.parseInt(value);
+                    break;
+                case "batchSize":
+                    options.batchSize = Integer.parseInt(value);
+                    break;
+                case "mix":
+                    options.parseMix(value);
+                    break;
+                case "maxOutstanding":
+                    options.maxOutstanding = Integer.parseInt(value);
+                    break;
+                case "output":
+                    options.output = Paths.get(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + name);
+            }
+        }
+
+        if (options.rate <= 0 || options.durationSeconds <= 0 || options.warmupSeconds < 0) {
+            throw new IllegalArgumentException("Rate and duration must be positive");
+        }
+        if (options.users <= 0 || options.batchSize <= 0 || options.seedPoints < 0 || options.maxOutstanding <= 0) {
+            throw new IllegalArgumentException("Users, batch size and outstanding requests must be positive");
+        }
+        return options;
+    }
+
+    /**
+     * Replace the operation mix, operations which are not listed are not issued.
+     */
+    private void parseMix(String value) {
+        mix.clear();
+        for (String entry : value.split(",")) {
+            final String[] weight = entry.split("=", 2);
+            if (weight.length != 2) {
+                throw new IllegalArgumentException("Expected <op>=<weight> instead of " + entry);
+            }
+            final int parsed = Integer.parseInt(weight[1].trim());
+            if (parsed < 0) {
+                throw new IllegalArgumentException("Negative weight for " + weight[0]);
+            }
+            mix.put(Operation.fromKey(weight[0].trim()), parsed);
+        }
+        if (mix.values().stream().mapToInt(Integer::intValue).sum() <= 0) {
+            throw new IllegalArgumentException("The mix contains no operation");
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package de.unia.gvs.grpc.load;
+
+import java.util.Locale;
+
+/**
+ * Requests issued by the load generator.
+ */
+enum Operation {
+    LOG_POSITION("log"),
+    GET_POINTS("points"),
+    GET_TRACK_LENGTH("length"),
+    LIST_USERS("users");
+
+    private final String key;
+
+    Operation(String key) {
+        this.key = key;
+    }
+
+    /**
+     * @return short name used in the operation mix and for result files
+     */
+    String key() {
+        return key;
+    }
+
+    /**
+     * @param key short name or enum constant name
+     * @return the operation
+     */
+    static Operation fromKey(String key) {
+        for (Operation operation : values()) {
+            if (operation.key.equals(key) || operation.name().equals(key.toUpperCase(Locale.ROOT))) {
+                return operation;
+            }
+        }
+        throw new IllegalArgumentException("Unknown operation " + key);
+    }
+}
@@ -0,0 +1,91 @@
+package de.unia.gvs.grpc.load;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.util.JsonFormat;
+import de.unia.gvs.grpc.Coordinate;
+import de.unia.gvs.grpc.LogPositionRequest;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Sends the requests to the REST API of the <code>UserEndpoint</code> with the JDK's HTTP client. Response bodies are
+ * read completely and discarded, responses with a status other than 2xx fail the request.
+ */
+class RestTarget implements Target {
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    private final String baseUri;
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        final Thread thread = new Thread(runnable, "rest-target");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final HttpClient client = HttpClient.newBuilder()
+            .executor(executor)
+            .connectTimeout(TIMEOUT)
+            .build();
+
+    /**
+     * @param host
+     * @param port
+     */
+    RestTarget(String host, int port) {
+        this.baseUri = "http://" + host + ":" + port + "/users";
+    }
+
+    @Override
+    public CompletableFuture<?> logPosition(int userId, List<Coordinate> points) {
+        final String body;
+        try {
+            body = JsonFormat.printer().print(LogPositionRequest.newBuilder().addAllPoints(points));
+        } catch (InvalidProtocolBufferException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return send(request("/" + userId + "/points")
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build());
+    }
+
+    @Override
+    public CompletableFuture<?> getPoints(int userId) {
+        return send(request("/" + userId + "/points").GET().build());
+    }
+
+    @Override
+    public CompletableFuture<?> getTrackLength(int userId) {
+        return send(request("/" + userId + "/trackLength").GET().build());
+    }
+
+    @Override
+    public CompletableFuture<?> listUsers() {
+        return send(request("").GET().build());
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    private HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder(URI.create(baseUri + path)).timeout(TIMEOUT);
+    }
+
+    private CompletableFuture<?> send(HttpRequest request) {
+        return client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).thenApply(response -> {
+            if (response.statusCode() / 100 != 2) {
+                throw new IllegalStateException(
+                        request.method() + " " + request.uri() + " returned " + response.statusCode());
+            }
+            return response;
+        });
+    }
+}
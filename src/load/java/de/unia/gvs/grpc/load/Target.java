@@ -0,0 +1,37 @@
+package de.unia.gvs.grpc.load;
+
+import de.unia.gvs.grpc.Coordinate;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * API of the position log under test. All requests are asynchronous, so the load generator keeps issuing requests at
+ * its rate while earlier ones are still running.
+ */
+interface Target extends Closeable {
+    /**
+     * @param userId
+     * @param points
+     * @return completes once the points have been logged
+     */
+    CompletableFuture<?> logPosition(int userId, List<Coordinate> points);
+
+    /**
+     * @param userId
+     * @return completes once all points of the user's track have been received
+     */
+    CompletableFuture<?> getPoints(int userId);
+
+    /**
+     * @param userId
+     * @return completes with the length of the user's track
+     */
+    CompletableFuture<?> getTrackLength(int userId);
+
+    /**
+     * @return completes with the IDs of all users
+     */
+    CompletableFuture<?> listUsers();
+}
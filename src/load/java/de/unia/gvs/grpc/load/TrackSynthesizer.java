@@ -0,0 +1,129 @@
+package de.unia.gvs.grpc.load;
+
+import com.google.protobuf.util.Timestamps;
+import de.unia.gvs.grpc.Coordinate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Synthesizes GPS tracks which look like recorded ones.
+ * <p>
+ * Every user starts near one of a few cities and walks, cycles or drives with one fix per second. The heading and
+ * speed drift, users stop now and then, and every fix has a few meters of measurement noise, so consecutive points
+ * are close together and tracks bend like real ones. Not thread-safe.
+ */
+class TrackSynthesizer {
+    private static final double METERS_PER_DEGREE = 111_320;
+
+    // Standard deviation of the measurement noise in meters
+    private static final double NOISE_METERS = 3;
+
+    // Probability of starting and ending a stop per second
+    private static final double STOP_PROBABILITY = 0.005;
+    private static final double MOVE_PROBABILITY = 0.05;
+
+    // Latitude and longitude of the cities the tracks start in
+    private static final double[][] CITIES = {
+            {48.3705, 10.8978}, // Augsburg
+            {48.1374, 11.5755}, // Munich
+            {52.5200, 13.4050}, // Berlin
+            {53.5511, 9.9937},  // Hamburg
+            {50.9375, 6.9603},  // Cologne
+    };
+
+    // Typical speeds in meters per second of pedestrians, cyclists and cars
+    private static final double[] SPEEDS = {1.4, 5, 14};
+
+    private final Random random;
+    private final int firstUser;
+    private final double[] latitude;
+    private final double[] longitude;
+    private final double[] altitude;
+    private final double[] heading;
+    private final double[] speed;
+    private final boolean[] stopped;
+    private final long[] seconds;
+
+    /**
+     * @param firstUser ID of the first user
+     * @param users number of users
+     * @param seed seed of the random walks
+     */
+    TrackSynthesizer(int firstUser, int users, long seed) {
+        this.random = new Random(seed);
+        this.firstUser = firstUser;
+        this.latitude = new double[users];
+        this.longitude = new double[users];
+        this.altitude = new double[users];
+        this.heading = new double[users];
+        this.speed = new double[users];
+        this.stopped = new boolean[users];
+        this.seconds = new long[users];
+
+        // Tracks start during the last day, so they end around now after a long run
+        final long now = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+        for (int i = 0; i < users; ++i) {
+            final double[] city = CITIES[random.nextInt(CITIES.length)];
+            latitude[i] = city[0] + random.nextGaussian() * 0.05;
+            longitude[i] = city[1] + random.nextGaussian() * 0.05;
+            altitude[i] = 400 + random.nextGaussian() * 50;
+            heading[i] = random.nextDouble() * 2 * Math.PI;
+            speed[i] = SPEEDS[random.nextInt(SPEEDS.length)];
+            seconds[i] = now - TimeUnit.DAYS.toSeconds(1) + random.nextInt((int) TimeUnit.HOURS.toSeconds(1));
+        }
+    }
+
+    /**
+     * @return a uniformly chosen user
+     */
+    int randomUser() {
+        return firstUser + random.nextInt(latitude.length);
+    }
+
+    /**
+     * @return random number in [0, 1) from the synthesizer's generator
+     */
+    double nextDouble() {
+        return random.nextDouble();
+    }
+
+    /**
+     * Continue the track of a user.
+     *
+     * @param userId
+     * @param count number of points
+     * @return the next points of the user's track, one second apart
+     */
+    List<Coordinate> next(int userId, int count) {
+        final int i = userId - firstUser;
+        final List<Coordinate> points = new ArrayList<>(count);
+        for (int n = 0; n < count; ++n) {
+            if (stopped[i]) {
+                stopped[i] = random.nextDouble() >= MOVE_PROBABILITY;
+            } else {
+                stopped[i] = random.nextDouble() < STOP_PROBABILITY;
+                heading[i] += random.nextGaussian() * Math.toRadians(10);
+                final double distance = speed[i] * Math.max(0, 1 + random.nextGaussian() * 0.2);
+                latitude[i] += distance * Math.cos(heading[i]) / METERS_PER_DEGREE;
+                longitude[i] += distance * Math.sin(heading[i])
+                        / (METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude[i])));
+                altitude[i] += random.nextGaussian() * 0.5;
+            }
+            ++seconds[i];
+
+            final double noiseLatitude = random.nextGaussian() * NOISE_METERS / METERS_PER_DEGREE;
+            final double noiseLongitude = random.nextGaussian() * NOISE_METERS
+                    / (METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude[i])));
+            points.add(Coordinate.newBuilder()
+                    .setLatitude(latitude[i] + noiseLatitude)
+                    .setLongitude(longitude[i] + noiseLongitude)
+                    .setAltitude(altitude[i] + random.nextGaussian() * NOISE_METERS)
+                    .setTimestamp(Timestamps.fromSeconds(seconds[i]))
+                    .build());
+        }
+        return points;
+    }
+}
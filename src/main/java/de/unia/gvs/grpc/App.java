@@ -1,39 +1,97 @@
 package de.unia.gvs.grpc;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import de.unia.gvs.grpc.client.CachingPositionLogClient;
 import de.unia.gvs.grpc.client.PositionLogClient;
 import de.unia.gvs.grpc.client.PositionLogClientImpl;
+import de.unia.gvs.grpc.client.ShardedPositionLogClient;
+import de.unia.gvs.grpc.metrics.Metrics;
+import de.unia.gvs.grpc.rest.MetricsEndpoint;
 import de.unia.gvs.grpc.rest.UserEndpoint;
+import de.unia.gvs.grpc.server.ExecutionMode;
 import de.unia.gvs.grpc.server.PositionLogServer;
+import de.unia.gvs.grpc.server.store.Durability;
+import de.unia.gvs.grpc.server.store.SegmentStorage;
+import de.unia.gvs.grpc.server.store.StoreConfig;
+import io.grpc.ClientInterceptors;
 import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
 import io.undertow.Undertow;
 import io.undertow.server.handlers.resource.ClassPathResourceManager;
 import io.undertow.server.handlers.resource.ResourceHandler;
 import io.undertow.server.handlers.resource.ResourceManager;
+import io.undertow.servlet.api.DeploymentInfo;
 import org.jboss.logging.Logger;
 import org.jboss.resteasy.plugins.server.undertow.UndertowJaxrsServer;
+import org.jboss.resteasy.spi.ResteasyDeployment;
 
 import javax.ws.rs.core.Application;
 import java.io.IOException;
-import java.util.Collections;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Main entry point for the application.
  * <p>
  * Manages the following tasks:
  * <ul>
- * <li>Instantiate the gRPC server on port 4711</li>
+ * <li>Instantiate the gRPC server on port 4711, or <code>positionlog.port</code></li>
  * <li>Instantiate a gRPC client for this server</li>
- * <li>Seed the gRPC service with some test data</li>
- * <li>Provide a REST web service on port 8080, which accesses the gRPC service through the above client</li>
+ * <li>Seed the gRPC service with some test data, unless tracks were recovered from disk</li>
+ * <li>Provide a REST web service on port 8080, or <code>positionlog.httpPort</code>, which accesses the gRPC service
+ * through the above client</li>
  * </ul>
+ * Tracks are kept in memory unless the system property <code>positionlog.data</code> names a data directory. The
+ * system property <code>positionlog.durability</code> then selects one of the {@link Durability} modes. Older points
+ * of long tracks are moved out of the heap into a memory-mapped file if <code>positionlog.offHeap</code> names a
+ * directory for it.
+ * <p>
+ * The system property <code>positionlog.execution</code> selects the {@link ExecutionMode} for gRPC call handlers and
+ * REST requests, for example <code>VIRTUAL</code> to run them on virtual threads.
+ * <p>
+ * The REST web service reaches the co-located gRPC server through the in-process transport, or through its TCP port
+ * if <code>positionlog.transport</code> is <code>TCP</code>. If <code>positionlog.remote</code> names the
+ * <code>host:port</code> of another gRPC server, only the REST web service is started and connects to it. If
+ * <code>positionlog.shards</code> instead names the comma separated <code>host:port</code> of several gRPC servers,
+ * the REST web service spreads the users across them with a {@link ShardedPositionLogClient}.
+ * <p>
+ * The REST web service caches responses in a {@link CachingPositionLogClient} of up to
+ * <code>positionlog.cachedPoints</code> points, which is disabled by 0.
+ * <p>
+ * Metrics of the gRPC server, the gRPC client and the track store are provided for Prometheus under
+ * <code>/metrics</code>.
  */
 public class App {
     private static final Logger log = Logger.getLogger(App.class);
-    private static final int HTTP_PORT = 8080;
+    private static final int HTTP_PORT = Integer.getInteger("positionlog.httpPort", 8080);
+    // Number of points per sealed segment of off-heap tracks
+    private static final int OFF_HEAP_SEGMENT_SIZE = 16_384;
+    // Number of points cached by the REST gateway
+    private static final long DEFAULT_CACHED_POINTS = 1_000_000;
 
+    /**
+     * Transport between the REST gateway and the gRPC server running in the same JVM
+     */
+    private enum Transport {
+        /**
+         * gRPC's in-process transport, which passes messages without serialization
+         */
+        IN_PROCESS,
+
+        /**
+         * Loopback TCP connection to the gRPC server's port
+         */
+        TCP
+    }
+
+    private final Metrics metrics = new Metrics();
     private PositionLogClient client;
 
     public static void main(String[] args) throws IOException {
@@ -41,25 +99,82 @@ public class App {
     }
 
     private void run() throws IOException {
-        log.info("Starting gRPC server");
-        final PositionLogServer positionLogServer = new PositionLogServer();
-        positionLogServer.start();
+        final ExecutionMode executionMode =
+                ExecutionMode.valueOf(System.getProperty("positionlog.execution", ExecutionMode.DEFAULT.name()));
 
-        log.info("Starting gRPC client");
-        final ManagedChannel channel = ManagedChannelBuilder.forAddress("localhost", PositionLogServer.GRPC_PORT)
-                .usePlaintext()
-                .build();
-        client = new PositionLogClientImpl(channel);
+        final String remoteServer = System.getProperty("positionlog.remote");
+        final String shards = System.getProperty("positionlog.shards");
+        if (remoteServer != null) {
+            // Only run the REST gateway, for a gRPC server on a different host
+            log.info("Starting gRPC client for " + remoteServer);
+            client = remoteClient(remoteServer);
+        } else if (shards != null) {
+            // Only run the REST gateway, for gRPC servers holding a shard of the users each
+            log.info("Starting gRPC clients for shards " + shards);
+            final Map<String, PositionLogClient> nodes = new LinkedHashMap<>();
+            for (String shard : shards.split(",")) {
+                nodes.put(shard.trim(), remoteClient(shard.trim()));
+            }
+            client = new ShardedPositionLogClient(nodes);
+        } else {
+            log.info("Starting gRPC server");
+            final int port = Integer.getInteger("positionlog.port", PositionLogServer.GRPC_PORT);
+            final PositionLogServer positionLogServer = new PositionLogServer(port, storeConfig(), executionMode,
+                    metrics);
+            positionLogServer.start();
+
+            final Transport transport = Transport.valueOf(System.getProperty("positionlog.transport",
+                    Transport.IN_PROCESS.name()));
+            log.info("Starting gRPC client using " + transport + " transport");
+            final ManagedChannel channel = transport == Transport.TCP
+                    ? ManagedChannelBuilder.forAddress("localhost", positionLogServer.getPort()).usePlaintext().build()
+                    : positionLogServer.inProcessChannel();
+            client = new PositionLogClientImpl(ClientInterceptors.intercept(channel, metrics.clientInterceptor()));
+
+            // Add some sample data
+            if (client.listUsers().isEmpty()) {
+                log.info("Adding sample data");
+                createSampleData(client);
+            }
+        }
 
-        // Add some sample data
-        log.info("Adding sample data");
-        createSampleData(client);
+        final long cachedPoints = Long.getLong("positionlog.cachedPoints", DEFAULT_CACHED_POINTS);
+        if (cachedPoints > 0) {
+            client = new CachingPositionLogClient(client, cachedPoints);
+        }
 
         log.info("Starting Undertow HTTP server");
-        initUndertow();
+        initUndertow(executionMode);
         log.info("HTTP server running on http://localhost:" + HTTP_PORT);
     }
 
+    /**
+     * @param target <code>host:port</code> of a gRPC server
+     * @return client for the server, measured by the client metrics
+     */
+    private PositionLogClient remoteClient(String target) {
+        return new PositionLogClientImpl(ManagedChannelBuilder.forTarget(target)
+                .usePlaintext()
+                .intercept(metrics.clientInterceptor())
+                .build());
+    }
+
+    private static StoreConfig storeConfig() {
+        final StoreConfig.Builder builder = StoreConfig.newBuilder();
+        final String dataDirectory = System.getProperty("positionlog.data");
+        if (dataDirectory != null) {
+            builder.setDataDirectory(Paths.get(dataDirectory))
+                    .setDurability(Durability.valueOf(System.getProperty("positionlog.durability", "GROUP_COMMIT")));
+        }
+        final String offHeapDirectory = System.getProperty("positionlog.offHeap");
+        if (offHeapDirectory != null) {
+            builder.setSegmentStorage(SegmentStorage.OFF_HEAP)
+                    .setSegmentSize(OFF_HEAP_SEGMENT_SIZE)
+                    .setOffHeapDirectory(Paths.get(offHeapDirectory));
+        }
+        return builder.build();
+    }
+
     /**
      * Create sample data and add it via the supplied gRPC client
      *
@@ -85,16 +200,37 @@ public class App {
 
     /**
      * Launch an Undertow HTTP service which provides the REST web service and serves static pages (under <code>/web</code>)
+     *
+     * @param executionMode threads running the REST requests instead of Undertow's worker pool
      */
-    private void initUndertow() {
+    private void initUndertow(ExecutionMode executionMode) {
+        // Streamed responses occupy a thread until their gRPC call ends, so they do not take worker threads
+        final ExecutorService responseExecutor = executionMode == ExecutionMode.VIRTUAL
+                ? executionMode.createExecutor("rest-response")
+                : Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                        .setNameFormat("rest-response-%d")
+                        .setDaemon(true)
+                        .build());
+
         // Configure the JAX-RS REST web service and add the endpoint implementation
         final UndertowJaxrsServer rest = new UndertowJaxrsServer();
-        rest.deploy(new Application() {
+        final ResteasyDeployment deployment = new ResteasyDeployment();
+        deployment.setApplication(new Application() {
             @Override
             public Set<Object> getSingletons() {
-                return Collections.singleton(new UserEndpoint(client));
+                return new HashSet<>(Arrays.asList(new UserEndpoint(client, responseExecutor),
+                        new MetricsEndpoint(metrics)));
             }
         });
+        final DeploymentInfo deploymentInfo = rest.undertowDeployment(deployment)
+                .setClassLoader(App.class.getClassLoader())
+                .setContextPath("/")
+                .setDeploymentName("rest");
+        final ExecutorService executor = executionMode.createExecutor("rest-handler");
+        if (executor != null) {
+            deploymentInfo.setExecutor(executor);
+        }
+        rest.deploy(deploymentInfo);
 
         // Launch an Undertow instance for, listens on :8080
         final Undertow.Builder undertow = Undertow.builder()
@@ -106,5 +242,14 @@ public class App {
         rest.addResourcePrefixPath("/web", resourceHandler);
 
         rest.start(undertow);
+
+        // Stop accepting requests before shutting down the executors running them
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            rest.stop();
+            responseExecutor.shutdown();
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }));
     }
 }
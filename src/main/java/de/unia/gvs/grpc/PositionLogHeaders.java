@@ -0,0 +1,23 @@
+package de.unia.gvs.grpc;
+
+import io.grpc.Metadata;
+
+/**
+ * Metadata keys used by the Position Log service in addition to the messages defined in the service definition.
+ */
+public final class PositionLogHeaders {
+    /**
+     * Response header of a paged GetPoints call, containing the token for requesting the next page
+     */
+    public static final Metadata.Key<String> NEXT_PAGE_TOKEN =
+            Metadata.Key.of("x-next-page-token", Metadata.ASCII_STRING_MARSHALLER);
+
+    /**
+     * Response header of GetPoints calls, containing the version of the track the points were taken from
+     */
+    public static final Metadata.Key<String> TRACK_VERSION =
+            Metadata.Key.of("x-track-version", Metadata.ASCII_STRING_MARSHALLER);
+
+    private PositionLogHeaders() {
+    }
+}
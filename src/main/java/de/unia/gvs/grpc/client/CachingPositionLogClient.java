@@ -0,0 +1,580 @@
+package de.unia.gvs.grpc.client;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import de.unia.gvs.grpc.BatchLogPositionRequest;
+import de.unia.gvs.grpc.ChangeEvent;
+import de.unia.gvs.grpc.Coordinate;
+import de.unia.gvs.grpc.LengthReply;
+import de.unia.gvs.grpc.LengthRequest;
+import de.unia.gvs.grpc.LengthsRequest;
+import de.unia.gvs.grpc.ListUsersRequest;
+import de.unia.gvs.grpc.LogPositionRequest;
+import de.unia.gvs.grpc.LogSummary;
+import de.unia.gvs.grpc.NearbyRequest;
+import de.unia.gvs.grpc.PointsRequest;
+import de.unia.gvs.grpc.RegionRequest;
+import de.unia.gvs.grpc.WatchRequest;
+import io.grpc.Status;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import io.grpc.stub.StreamObserver;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Client which caches the user list, track lengths and asynchronously retrieved points of another client.
+ * <p>
+ * Cached responses are kept up to date through a WatchChanges call: every change reported by the server advances the
+ * stamp of the changed user, and of the user list if a user was created or deleted. Entries remember the stamp at the
+ * time their call was started and are only used while it has not advanced, so a response is never cached if a change
+ * arrives while it is being fetched. Changes made through this client advance the stamps as soon as they complete,
+ * so callers always read their own writes. Stamps are taken from a single counter and never repeat, which allows
+ * dropping the stamps of deleted users: users without a stamp share one which advances whenever a user is deleted.
+ * <p>
+ * Responses are only cached while the WatchChanges call is running. If it fails, all entries are dropped and the call
+ * is restarted after {@link #RECONNECT_DELAY_MILLIS}. The size of the cache is bounded by the number of cached
+ * points, least recently used entries are evicted first.
+ */
+public class CachingPositionLogClient implements PositionLogClient, Closeable {
+    // Maximum number of points of a single cached GetPoints response, larger responses are not cached
+    static final int MAX_CACHED_POINTS = 10_000;
+
+    static final long RECONNECT_DELAY_MILLIS = 1000;
+
+    private static final Logger log = Logger.getLogger(CachingPositionLogClient.class.getSimpleName());
+
+    // Stamp key of the user list, other stamps are keyed by user ID
+    private static final Object USERS = new Object();
+
+    private final PositionLogClient client;
+    private final Cache<Object, Entry> cache;
+    private final ConcurrentMap<Object, Long> stamps = new ConcurrentHashMap<>();
+    private final AtomicLong lastStamp = new AtomicLong();
+    // Stamp of users without an own stamp, advanced whenever the stamp of a deleted user is dropped
+    private volatile long removedStamp;
+    private final ScheduledExecutorService reconnects;
+
+    // Incremented whenever changes may have been missed, which invalidates all entries
+    private volatile long epoch;
+    private volatile boolean watching;
+    private volatile boolean closed;
+    private ClientCallStreamObserver<WatchRequest> watchCall;
+
+    /**
+     * Create a cache and start watching for changes.
+     *
+     * @param client client for the actual calls
+     * @param maximumPoints maximum number of cached points, every cached response counts as at least one point
+     */
+    public CachingPositionLogClient(PositionLogClient client, long maximumPoints) {
+        this.client = client;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maximumPoints)
+                .weigher((Object key, Entry entry) -> entry.weight)
+                .build();
+        this.reconnects = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("cache-reconnect-%d")
+                .setDaemon(true)
+                .build());
+        watch();
+    }
+
+    /**
+     * Entry of the cache together with the stamp and epoch it was fetched at.
+     */
+    private static final class Entry {
+        final Object value;
+        final long stamp;
+        final long epoch;
+        final int weight;
+
+        Entry(Object value, long stamp, long epoch, int weight) {
+            this.value = value;
+            this.stamp = stamp;
+            this.epoch = epoch;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Points of a cached GetPoints response.
+     */
+    private static final class CachedPoints {
+        final List<Coordinate> points;
+        final Optional<String> nextPageToken;
+        final OptionalLong trackVersion;
+
+        CachedPoints(List<Coordinate> points, Optional<String> nextPageToken, OptionalLong trackVersion) {
+            this.points = points;
+            this.nextPageToken = nextPageToken;
+            this.trackVersion = trackVersion;
+        }
+    }
+
+    /**
+     * State of the cache when a call is started, which decides whether its response may be cached.
+     */
+    private final class Fetch {
+        final Object key;
+        final Object scope;
+        final long stamp;
+        final long epoch;
+        final boolean cacheable;
+
+        Fetch(Object key, Object scope) {
+            this.key = key;
+            this.scope = scope;
+            // Read the epoch first, so a reconnect in between is noticed
+            this.epoch = CachingPositionLogClient.this.epoch;
+            this.cacheable = watching;
+            this.stamp = stamp(scope);
+        }
+
+        void complete(Object value, int weight) {
+            if (cacheable && watching && epoch == CachingPositionLogClient.this.epoch && stamp == stamp(scope)) {
+                cache.put(key, new Entry(value, stamp, epoch, weight));
+            }
+        }
+    }
+
+    private long stamp(Object scope) {
+        // Read the own stamp first, it is dropped after the shared stamp advanced
+        final Long stamp = stamps.get(scope);
+        return stamp != null ? stamp : removedStamp;
+    }
+
+    private void advance(Object scope) {
+        stamps.put(scope, lastStamp.incrementAndGet());
+    }
+
+    /**
+     * Advance the stamps of a deleted user and of the user list, dropping the user's own stamp.
+     *
+     * @param userId
+     */
+    private void removed(int userId) {
+        removedStamp = lastStamp.incrementAndGet();
+        stamps.remove(userId);
+        advance(USERS);
+    }
+
+    /**
+     * @return number of users and the user list having an own stamp
+     */
+    int stampedScopes() {
+        return stamps.size();
+    }
+
+    /**
+     * @param key
+     * @param scope stamp key the entry depends on
+     * @return the cached value, or null if there is no valid entry
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T lookup(Object key, Object scope) {
+        if (!watching) {
+            return null;
+        }
+        final Entry entry = cache.getIfPresent(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.epoch != epoch || entry.stamp != stamp(scope)) {
+            cache.invalidate(key);
+            return null;
+        }
+        return (T) entry.value;
+    }
+
+    private <T> T cached(Object key, Object scope, Supplier<T> call) {
+        final T cached = lookup(key, scope);
+        if (cached != null) {
+            return cached;
+        }
+        final Fetch fetch = new Fetch(key, scope);
+        final T value = call.get();
+        fetch.complete(value, 1);
+        return value;
+    }
+
+    private <T> ListenableFuture<T> cachedAsync(Object key, Object scope, Supplier<ListenableFuture<T>> call) {
+        final T cached = lookup(key, scope);
+        if (cached != null) {
+            return Futures.immediateFuture(cached);
+        }
+        final Fetch fetch = new Fetch(key, scope);
+        return Futures.transform(call.get(), value -> {
+            fetch.complete(value, 1);
+            return value;
+        }, MoreExecutors.directExecutor());
+    }
+
+    private static LengthRequest lengthKey(int userId) {
+        return LengthRequest.newBuilder().setUserId(userId).build();
+    }
+
+    @Override
+    public Iterator<Coordinate> getPoints(int userId) {
+        return client.getPoints(userId);
+    }
+
+    @Override
+    public PointsPage getPoints(PointsRequest request) {
+        return client.getPoints(request);
+    }
+
+    @Override
+    public PointsPage getPointsChunked(PointsRequest request) {
+        return client.getPointsChunked(request);
+    }
+
+    @Override
+    public List<Integer> listUsers() {
+        return cached(ListUsersRequest.getDefaultInstance(), USERS, client::listUsers);
+    }
+
+    @Override
+    public void removeUser(int userId) {
+        try {
+            client.removeUser(userId);
+        } finally {
+            removed(userId);
+        }
+    }
+
+    @Override
+    public void logPoints(LogPositionRequest request) {
+        try {
+            client.logPoints(request);
+        } finally {
+            advance(request.getUserId());
+            advance(USERS);
+        }
+    }
+
+    @Override
+    public LogSummary batchLogPoints(BatchLogPositionRequest request) {
+        try {
+            return client.batchLogPoints(request);
+        } finally {
+            advance(request);
+        }
+    }
+
+    /**
+     * Advance the stamps of all users of a batch and of the user list.
+     *
+     * @param request
+     */
+    private void advance(BatchLogPositionRequest request) {
+        for (LogPositionRequest group : request.getGroupsList()) {
+            advance(group.getUserId());
+        }
+        advance(USERS);
+    }
+
+    @Override
+    public LogSummary streamPositions(Iterator<LogPositionRequest> requests) {
+        return client.streamPositions(requests);
+    }
+
+    @Override
+    public StreamObserver<LogPositionRequest> logPositionStream(StreamObserver<LogSummary> acks) {
+        return client.logPositionStream(acks);
+    }
+
+    @Override
+    public LengthReply getTrackLength(int userId) {
+        return cached(lengthKey(userId), userId, () -> client.getTrackLength(userId));
+    }
+
+    @Override
+    public List<LengthReply> getTrackLengths(LengthsRequest request) {
+        return client.getTrackLengths(request);
+    }
+
+    @Override
+    public List<Integer> queryRegion(RegionRequest request) {
+        return client.queryRegion(request);
+    }
+
+    @Override
+    public List<Integer> queryNearby(NearbyRequest request) {
+        return client.queryNearby(request);
+    }
+
+    @Override
+    public void getPoints(PointsRequest request, PointsObserver observer) {
+        final CachedPoints cached = lookup(request, request.getUserId());
+        if (cached != null) {
+            new Replay(cached, observer).start();
+            return;
+        }
+        client.getPoints(request, new RecordingObserver(new Fetch(request, request.getUserId()), observer));
+    }
+
+    @Override
+    public void subscribeTrack(PointsRequest request, PointsObserver observer) {
+        client.subscribeTrack(request, observer);
+    }
+
+    @Override
+    public ListenableFuture<List<Integer>> listUsersAsync() {
+        return cachedAsync(ListUsersRequest.getDefaultInstance(), USERS, client::listUsersAsync);
+    }
+
+    @Override
+    public ListenableFuture<Void> removeUserAsync(int userId) {
+        final ListenableFuture<Void> result = client.removeUserAsync(userId);
+        result.addListener(() -> removed(userId), MoreExecutors.directExecutor());
+        return result;
+    }
+
+    @Override
+    public ListenableFuture<Void> logPointsAsync(LogPositionRequest request) {
+        final ListenableFuture<Void> result = client.logPointsAsync(request);
+        result.addListener(() -> {
+            advance(request.getUserId());
+            advance(USERS);
+        }, MoreExecutors.directExecutor());
+        return result;
+    }
+
+    @Override
+    public ListenableFuture<LogSummary> batchLogPointsAsync(BatchLogPositionRequest request) {
+        final ListenableFuture<LogSummary> result = client.batchLogPointsAsync(request);
+        result.addListener(() -> advance(request), MoreExecutors.directExecutor());
+        return result;
+    }
+
+    @Override
+    public ListenableFuture<LengthReply> getTrackLengthAsync(int userId) {
+        return cachedAsync(lengthKey(userId), userId, () -> client.getTrackLengthAsync(userId));
+    }
+
+    @Override
+    public ListenableFuture<List<LengthReply>> getTrackLengthsAsync(LengthsRequest request) {
+        return client.getTrackLengthsAsync(request);
+    }
+
+    @Override
+    public ListenableFuture<List<Integer>> queryRegionAsync(RegionRequest request) {
+        return client.queryRegionAsync(request);
+    }
+
+    @Override
+    public ListenableFuture<List<Integer>> queryNearbyAsync(NearbyRequest request) {
+        return client.queryNearbyAsync(request);
+    }
+
+    @Override
+    public void watchChanges(StreamObserver<ChangeEvent> observer) {
+        client.watchChanges(observer);
+    }
+
+    /**
+     * Stop watching for changes, the underlying client is not closed.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        reconnects.shutdownNow();
+        final ClientCallStreamObserver<WatchRequest> call;
+        synchronized (this) {
+            call = watchCall;
+        }
+        if (call != null) {
+            call.cancel("Cache closed", null);
+        }
+    }
+
+    private void watch() {
+        if (closed) {
+            return;
+        }
+        client.watchChanges(new ClientResponseObserver<WatchRequest, ChangeEvent>() {
+            @Override
+            public void beforeStart(ClientCallStreamObserver<WatchRequest> requestStream) {
+                synchronized (CachingPositionLogClient.this) {
+                    watchCall = requestStream;
+                }
+            }
+
+            @Override
+            public void onNext(ChangeEvent event) {
+                switch (event.getType()) {
+                    case STARTED:
+                        // Changes may have been missed before, so entries of earlier calls are not used anymore
+                        ++epoch;
+                        watching = true;
+                        break;
+                    case CREATED:
+                        advance(event.getUserId());
+                        advance(USERS);
+                        break;
+                    case DELETED:
+                        removed(event.getUserId());
+                        break;
+                    default:
+                        advance(event.getUserId());
+                }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                disconnected();
+                if (!closed) {
+                    log.warning("Watching changes failed, retrying: " + t.getMessage());
+                    reconnects.schedule(CachingPositionLogClient.this::watch, RECONNECT_DELAY_MILLIS,
+                            TimeUnit.MILLISECONDS);
+                }
+            }
+
+            @Override
+            public void onCompleted() {
+                disconnected();
+                if (!closed) {
+                    reconnects.schedule(CachingPositionLogClient.this::watch, RECONNECT_DELAY_MILLIS,
+                            TimeUnit.MILLISECONDS);
+                }
+            }
+        });
+    }
+
+    private void disconnected() {
+        watching = false;
+        ++epoch;
+        cache.invalidateAll();
+    }
+
+    /**
+     * Forwards the points of a GetPoints call and caches them once the call completes, unless there are too many.
+     */
+    private final class RecordingObserver implements PointsObserver {
+        private final Fetch fetch;
+        private final PointsObserver observer;
+        private PointsSubscription subscription;
+        private List<Coordinate> points = new ArrayList<>();
+
+        RecordingObserver(Fetch fetch, PointsObserver observer) {
+            this.fetch = fetch;
+            this.observer = observer;
+        }
+
+        @Override
+        public void onStart(PointsSubscription subscription) {
+            this.subscription = subscription;
+            observer.onStart(subscription);
+        }
+
+        @Override
+        public void onNext(Coordinate value) {
+            if (points != null) {
+                if (points.size() < MAX_CACHED_POINTS) {
+                    points.add(value);
+                } else {
+                    points = null;
+                }
+            }
+            observer.onNext(value);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            observer.onError(t);
+        }
+
+        @Override
+        public void onCompleted() {
+            if (points != null) {
+                fetch.complete(new CachedPoints(Collections.unmodifiableList(points),
+                        subscription.getNextPageToken(), subscription.getTrackVersion()), 1 + points.size());
+            }
+            observer.onCompleted();
+        }
+    }
+
+    /**
+     * Delivers cached points as the observer requests them.
+     * <p>
+     * Requests made while points are delivered only extend the current delivery, so observers requesting more points
+     * from {@link PointsObserver#onNext(Object)} do not recurse.
+     */
+    private static final class Replay implements PointsSubscription {
+        private final CachedPoints cached;
+        private final PointsObserver observer;
+        private long requested;
+        private int position;
+        private boolean delivering;
+        private boolean done;
+
+        Replay(CachedPoints cached, PointsObserver observer) {
+            this.cached = cached;
+            this.observer = observer;
+        }
+
+        void start() {
+            observer.onStart(this);
+            // Deliver the completion of empty responses, which is not requested
+            request(0);
+        }
+
+        @Override
+        public synchronized void request(int count) {
+            requested += count;
+            if (delivering) {
+                return;
+            }
+            delivering = true;
+            try {
+                while (!done && requested > 0 && position < cached.points.size()) {
+                    --requested;
+                    observer.onNext(cached.points.get(position++));
+                }
+                if (!done && position == cached.points.size()) {
+                    done = true;
+                    observer.onCompleted();
+                }
+            } finally {
+                delivering = false;
+            }
+        }
+
+        @Override
+        public synchronized void cancel() {
+            if (!done) {
+                done = true;
+                observer.onError(Status.CANCELLED.withDescription("Cancelled by client").asRuntimeException());
+            }
+        }
+
+        @Override
+        public Optional<String> getNextPageToken() {
+            return cached.nextPageToken;
+        }
+
+        @Override
+        public OptionalLong getTrackVersion() {
+            return cached.trackVersion;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package de.unia.gvs.grpc.client;
+
+import com.google.protobuf.util.Timestamps;
+import de.unia.gvs.grpc.Coordinate;
+import de.unia.gvs.grpc.PointsChunk;
+import de.unia.gvs.grpc.codec.CompactPointCodec;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Flattens a stream of {@link PointsChunk} messages back into single points.
+ */
+class ChunkedPointsIterator implements Iterator<Coordinate> {
+    private final Iterator<PointsChunk> chunks;
+    private PointsChunk chunk = PointsChunk.getDefaultInstance();
+    private int position;
+
+    ChunkedPointsIterator(Iterator<PointsChunk> chunks) {
+        this.chunks = chunks;
+    }
+
+    @Override
+    public boolean hasNext() {
+        // Skip empty chunks, if any
+        while (position >= chunk.getLatitudeCount() && chunks.hasNext()) {
+            chunk = expand(chunks.next());
+            position = 0;
+        }
+        return position < chunk.getLatitudeCount();
+    }
+
+    /**
+     * Convert chunks in the COMPACT encoding to columns.
+     */
+    private static PointsChunk expand(PointsChunk chunk) {
+        if (chunk.getCompact().isEmpty()) {
+            return chunk;
+        }
+        final PointsChunk.Builder columns = PointsChunk.newBuilder();
+        CompactPointCodec.decode(chunk.getCompact().toByteArray(), (latitude, longitude, altitude, timestamp) ->
+                columns.addLatitude(latitude)
+                        .addLongitude(longitude)
+                        .addAltitude(altitude)
+                        .addTimestamp(timestamp));
+        return columns.build();
+    }
+
+    @Override
+    public Coordinate next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        final Coordinate.Builder point = Coordinate.newBuilder()
+                .setLatitude(chunk.getLatitude(position))
+                .setLongitude(chunk.getLongitude(position))
+                .setAltitude(chunk.getAltitude(position));
+        final long timestamp = chunk.getTimestamp(position);
+        if (timestamp != CompactPointCodec.NO_TIMESTAMP) {
+            point.setTimestamp(Timestamps.fromNanos(timestamp));
+        }
+        ++position;
+        return point.build();
+    }
+}
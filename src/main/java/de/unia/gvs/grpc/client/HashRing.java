@@ -0,0 +1,67 @@
+package de.unia.gvs.grpc.client;
+
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+
+/**
+ * Consistent hash ring assigning users to named nodes.
+ * <p>
+ * Every node is placed on the ring at {@link #VIRTUAL_NODES} positions derived from its name, and a user belongs to
+ * the node at the first position at or after the hash of its ID. Adding a node therefore only moves the users it
+ * takes over from the other nodes, about 1/n of all users, while removing one only moves its own users. The
+ * positions depend on nothing but the names, so every client builds the same ring from the same nodes.
+ */
+public final class HashRing {
+    // Positions per node, which spread the users evenly across the nodes
+    static final int VIRTUAL_NODES = 128;
+
+    private static final HashFunction HASH = Hashing.murmur3_32();
+
+    private final SortedSet<String> nodes;
+    private final NavigableMap<Integer, String> positions = new TreeMap<>();
+
+    /**
+     * @param nodes names of the nodes
+     * @throws IllegalArgumentException if there are no nodes
+     */
+    public HashRing(Collection<String> nodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("A ring needs at least one node");
+        }
+        this.nodes = ImmutableSortedSet.copyOf(nodes);
+        // Nodes are placed in sorted order, so colliding positions go to the same node regardless of the given order
+        for (String node : this.nodes) {
+            for (int i = 0; i < VIRTUAL_NODES; ++i) {
+                positions.putIfAbsent(HASH.newHasher()
+                        .putString(node, StandardCharsets.UTF_8)
+                        .putInt(i)
+                        .hash()
+                        .asInt(), node);
+            }
+        }
+    }
+
+    /**
+     * @param userId
+     * @return name of the node owning the user
+     */
+    public String owner(int userId) {
+        final Map.Entry<Integer, String> position = positions.ceilingEntry(HASH.hashInt(userId).asInt());
+        return position != null ? position.getValue() : positions.firstEntry().getValue();
+    }
+
+    /**
+     * @return names of all nodes in ascending order
+     */
+    public SortedSet<String> nodes() {
+        return nodes;
+    }
+}
@@ -0,0 +1,21 @@
+package de.unia.gvs.grpc.client;
+
+import de.unia.gvs.grpc.Coordinate;
+import io.grpc.stub.StreamObserver;
+
+/**
+ * Receives the points of an asynchronous GetPoints call, see
+ * {@link PositionLogClient#getPoints(de.unia.gvs.grpc.PointsRequest, PointsObserver)}.
+ * <p>
+ * All methods are called on gRPC threads and must not block.
+ */
+public interface PointsObserver extends StreamObserver<Coordinate> {
+    /**
+     * Called once before any other method.
+     * <p>
+     * No points are delivered until they are requested through the subscription.
+     *
+     * @param subscription
+     */
+    void onStart(PointsSubscription subscription);
+}
@@ -0,0 +1,85 @@
+package de.unia.gvs.grpc.client;
+
+import de.unia.gvs.grpc.Coordinate;
+import de.unia.gvs.grpc.PositionLogHeaders;
+import io.grpc.Metadata;
+
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A page of points returned by a paged GetPoints call.
+ * <p>
+ * Iterates over the points of the page and provides the token for requesting the next page as well as the version
+ * of the track.
+ */
+public class PointsPage implements Iterator<Coordinate> {
+    private final Iterator<Coordinate> points;
+    private final AtomicReference<Metadata> headers;
+    private final AtomicReference<Metadata> trailers;
+
+    PointsPage(Iterator<Coordinate> points, AtomicReference<Metadata> headers, AtomicReference<Metadata> trailers) {
+        this.points = points;
+        this.headers = headers;
+        this.trailers = trailers;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return points.hasNext();
+    }
+
+    @Override
+    public Coordinate next() {
+        return points.next();
+    }
+
+    /**
+     * Return the token for the next page.
+     * <p>
+     * The token is sent before the first point, so it is available as soon as {@link #hasNext()} has been called.
+     *
+     * @return the token, or empty if this is the last page
+     */
+    public Optional<String> getNextPageToken() {
+        return nextPageToken(headers, trailers);
+    }
+
+    /**
+     * Return the version of the track the points are taken from, which changes whenever points are appended.
+     * <p>
+     * The version is available at the same time as the token.
+     *
+     * @return the version, or empty if it has not been received
+     */
+    public OptionalLong getTrackVersion() {
+        return trackVersion(headers, trailers);
+    }
+
+    /**
+     * @param headers captured response headers of a GetPoints call
+     * @param trailers captured trailers, which carry the token if the call did not return any point
+     * @return the token, or empty if it has not been received or this is the last page
+     */
+    static Optional<String> nextPageToken(AtomicReference<Metadata> headers, AtomicReference<Metadata> trailers) {
+        return Optional.ofNullable(header(headers, trailers, PositionLogHeaders.NEXT_PAGE_TOKEN));
+    }
+
+    /**
+     * @param headers captured response headers of a GetPoints call
+     * @param trailers captured trailers, which carry the version if the call did not return any point
+     * @return the version, or empty if it has not been received
+     */
+    static OptionalLong trackVersion(AtomicReference<Metadata> headers, AtomicReference<Metadata> trailers) {
+        final String version = header(headers, trailers, PositionLogHeaders.TRACK_VERSION);
+        return version == null ? OptionalLong.empty() : OptionalLong.of(Long.parseUnsignedLong(version));
+    }
+
+    private static <T> T header(AtomicReference<Metadata> headers, AtomicReference<Metadata> trailers,
+                                Metadata.Key<T> key) {
+        final Metadata metadata = headers.get() != null ? headers.get() : trailers.get();
+        return metadata == null ? null : metadata.get(key);
+    }
+}
@@ -0,0 +1,38 @@
+package de.unia.gvs.grpc.client;
+
+import java.util.Optional;
+import java.util.OptionalLong;
+
+/**
+ * Controls the flow of points of an asynchronous GetPoints call.
+ */
+public interface PointsSubscription {
+    /**
+     * Request delivery of additional points.
+     *
+     * @param count
+     */
+    void request(int count);
+
+    /**
+     * Cancel the call, the observer receives an error with status CANCELLED.
+     */
+    void cancel();
+
+    /**
+     * Return the token for the next page.
+     * <p>
+     * The token is sent before the first point, so it is available once the first point or the completion has been
+     * delivered.
+     *
+     * @return the token, or empty if this is the last page
+     */
+    Optional<String> getNextPageToken();
+
+    /**
+     * Return the version of the track the points are taken from, which is available at the same time as the token.
+     *
+     * @return the version, or empty if it has not been received
+     */
+    OptionalLong getTrackVersion();
+}
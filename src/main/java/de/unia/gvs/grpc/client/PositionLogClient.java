@@ -1,14 +1,26 @@
 package de.unia.gvs.grpc.client;
 
+import com.google.common.util.concurrent.ListenableFuture;
+import de.unia.gvs.grpc.BatchLogPositionRequest;
+import de.unia.gvs.grpc.ChangeEvent;
 import de.unia.gvs.grpc.Coordinate;
 import de.unia.gvs.grpc.LengthReply;
+import de.unia.gvs.grpc.LengthsRequest;
 import de.unia.gvs.grpc.LogPositionRequest;
+import de.unia.gvs.grpc.LogSummary;
+import de.unia.gvs.grpc.NearbyRequest;
+import de.unia.gvs.grpc.PointsRequest;
+import de.unia.gvs.grpc.RegionRequest;
+import io.grpc.stub.StreamObserver;
 
 import java.util.Iterator;
 import java.util.List;
 
 /**
  * Interface for a client to the gRPC Position Log service.
+ * <p>
+ * Every call is available in a blocking flavour and in an asynchronous flavour, which returns immediately and
+ * completes on a gRPC thread.
  */
 public interface PositionLogClient {
     /**
@@ -19,6 +31,24 @@ public interface PositionLogClient {
      */
     Iterator<Coordinate> getPoints(int userId);
 
+    /**
+     * Retrieve logged points for a single user, limited to a time range and/or a single page.
+     *
+     * @param request
+     * @return
+     */
+    PointsPage getPoints(PointsRequest request);
+
+    /**
+     * Retrieve the same points as {@link #getPoints(PointsRequest)}, transferred in chunks of many points per message.
+     * <p>
+     * Preferable for bulk exports of large tracks.
+     *
+     * @param request
+     * @return
+     */
+    PointsPage getPointsChunked(PointsRequest request);
+
     /**
      * Retrieve all users.
      *
@@ -40,6 +70,35 @@ public interface PositionLogClient {
      */
     void logPoints(LogPositionRequest request);
 
+    /**
+     * Add points for many users within a single call, creating users if necessary.
+     * <p>
+     * No points are added if any of them is invalid.
+     *
+     * @param request
+     * @return number of groups and points added
+     */
+    LogSummary batchLogPoints(BatchLogPositionRequest request);
+
+    /**
+     * Add points from a stream of requests within a single call, requests may target different users.
+     * <p>
+     * The iterator is consumed on a gRPC thread whenever the transport can accept more data, so it must not block
+     * for long.
+     *
+     * @param requests
+     * @return summary of the committed requests
+     */
+    LogSummary streamPositions(Iterator<LogPositionRequest> requests);
+
+    /**
+     * Open a bidirectional stream for adding points, the server periodically acknowledges committed requests.
+     *
+     * @param acks receives the acknowledgements and the final summary
+     * @return observer for sending requests, must be completed by the caller
+     */
+    StreamObserver<LogPositionRequest> logPositionStream(StreamObserver<LogSummary> acks);
+
     /**
      * Calculate the track length for a single user.
      *
@@ -47,4 +106,123 @@ public interface PositionLogClient {
      * @return
      */
     LengthReply getTrackLength(int userId);
+
+    /**
+     * Calculate the track lengths of many users, or of all users if the request names none.
+     * <p>
+     * Users who do not exist are skipped, every reply carries the ID of its user.
+     *
+     * @param request
+     * @return
+     */
+    List<LengthReply> getTrackLengths(LengthsRequest request);
+
+    /**
+     * Retrieve all users with at least one point in a rectangular region.
+     *
+     * @param request
+     * @return
+     */
+    List<Integer> queryRegion(RegionRequest request);
+
+    /**
+     * Retrieve all users with at least one point within a radius.
+     *
+     * @param request
+     * @return
+     */
+    List<Integer> queryNearby(NearbyRequest request);
+
+    /**
+     * Retrieve logged points like {@link #getPoints(PointsRequest)} without blocking, the points are passed to the
+     * observer as it requests them.
+     *
+     * @param request
+     * @param observer
+     */
+    void getPoints(PointsRequest request, PointsObserver observer);
+
+    /**
+     * Retrieve the points of a user's track and then every point logged later, until the subscription is cancelled.
+     * <p>
+     * The points are passed to the observer as it requests them. Observers which fall too far behind are either
+     * disconnected or skip the missed points, according to the request's backlog policy.
+     *
+     * @param request
+     * @param observer
+     */
+    void subscribeTrack(PointsRequest request, PointsObserver observer);
+
+    /**
+     * Asynchronous version of {@link #listUsers()}.
+     *
+     * @return
+     */
+    ListenableFuture<List<Integer>> listUsersAsync();
+
+    /**
+     * Asynchronous version of {@link #removeUser(int)}.
+     *
+     * @param userId
+     * @return
+     */
+    ListenableFuture<Void> removeUserAsync(int userId);
+
+    /**
+     * Asynchronous version of {@link #logPoints(LogPositionRequest)}.
+     *
+     * @param request
+     * @return
+     */
+    ListenableFuture<Void> logPointsAsync(LogPositionRequest request);
+
+    /**
+     * Asynchronous version of {@link #batchLogPoints(BatchLogPositionRequest)}.
+     *
+     * @param request
+     * @return
+     */
+    ListenableFuture<LogSummary> batchLogPointsAsync(BatchLogPositionRequest request);
+
+    /**
+     * Asynchronous version of {@link #getTrackLength(int)}.
+     *
+     * @param userId
+     * @return
+     */
+    ListenableFuture<LengthReply> getTrackLengthAsync(int userId);
+
+    /**
+     * Asynchronous version of {@link #getTrackLengths(LengthsRequest)}.
+     *
+     * @param request
+     * @return
+     */
+    ListenableFuture<List<LengthReply>> getTrackLengthsAsync(LengthsRequest request);
+
+    /**
+     * Asynchronous version of {@link #queryRegion(RegionRequest)}.
+     *
+     * @param request
+     * @return
+     */
+    ListenableFuture<List<Integer>> queryRegionAsync(RegionRequest request);
+
+    /**
+     * Asynchronous version of {@link #queryNearby(NearbyRequest)}.
+     *
+     * @param request
+     * @return
+     */
+    ListenableFuture<List<Integer>> queryNearbyAsync(NearbyRequest request);
+
+    /**
+     * Receive all changes to any track until the call is cancelled or fails.
+     * <p>
+     * The first event has type STARTED, all changes after it are reported. Observers implementing
+     * {@link io.grpc.stub.ClientResponseObserver} receive the call for cancelling it.
+     *
+     * @param observer
+     */
+    void watchChanges(StreamObserver<ChangeEvent> observer);
 }
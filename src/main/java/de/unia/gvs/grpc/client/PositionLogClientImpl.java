@@ -1,20 +1,44 @@
 package de.unia.gvs.grpc.client;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import de.unia.gvs.grpc.BatchLogPositionRequest;
+import de.unia.gvs.grpc.ChangeEvent;
 import de.unia.gvs.grpc.Coordinate;
 import de.unia.gvs.grpc.DeleteUserRequest;
 import de.unia.gvs.grpc.LengthReply;
 import de.unia.gvs.grpc.LengthRequest;
+import de.unia.gvs.grpc.LengthsRequest;
+import de.unia.gvs.grpc.ListUsersReply;
 import de.unia.gvs.grpc.ListUsersRequest;
 import de.unia.gvs.grpc.LogPositionRequest;
 import de.unia.gvs.grpc.LogPositionRequestOrBuilder;
+import de.unia.gvs.grpc.LogSummary;
+import de.unia.gvs.grpc.NearbyRequest;
+import de.unia.gvs.grpc.PointsChunk;
 import de.unia.gvs.grpc.PointsRequest;
 import de.unia.gvs.grpc.PointsRequestOrBuilder;
 import de.unia.gvs.grpc.PositionLogServiceGrpc;
-import io.grpc.ManagedChannel;
+import de.unia.gvs.grpc.RegionRequest;
+import de.unia.gvs.grpc.WatchRequest;
+import io.grpc.Channel;
+import io.grpc.Metadata;
+import io.grpc.Status;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import io.grpc.stub.MetadataUtils;
+import io.grpc.stub.StreamObserver;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Implementation of the gRPC service client for the Position Log service.
@@ -23,9 +47,16 @@ import java.util.List;
  */
 public class PositionLogClientImpl implements PositionLogClient {
     private PositionLogServiceGrpc.PositionLogServiceBlockingStub stub;
+    private PositionLogServiceGrpc.PositionLogServiceStub asyncStub;
+    private PositionLogServiceGrpc.PositionLogServiceFutureStub futureStub;
 
-    public PositionLogClientImpl(ManagedChannel channel) {
+    /**
+     * @param channel channel to the server, which may be intercepted
+     */
+    public PositionLogClientImpl(Channel channel) {
         stub = PositionLogServiceGrpc.newBlockingStub(channel);
+        asyncStub = PositionLogServiceGrpc.newStub(channel);
+        futureStub = PositionLogServiceGrpc.newFutureStub(channel);
     }
 
     @Override
@@ -35,6 +66,22 @@ public class PositionLogClientImpl implements PositionLogClient {
         return stub.getPoints(points);
     }
 
+    @Override
+    public PointsPage getPoints(PointsRequest request) {
+        final AtomicReference<Metadata> headers = new AtomicReference<>();
+        final AtomicReference<Metadata> trailers = new AtomicReference<>();
+        final Iterator<Coordinate> points = MetadataUtils.captureMetadata(stub, headers, trailers).getPoints(request);
+        return new PointsPage(points, headers, trailers);
+    }
+
+    @Override
+    public PointsPage getPointsChunked(PointsRequest request) {
+        final AtomicReference<Metadata> headers = new AtomicReference<>();
+        final AtomicReference<Metadata> trailers = new AtomicReference<>();
+        final Iterator<PointsChunk> chunks = MetadataUtils.captureMetadata(stub, headers, trailers).getPointsChunked(request);
+        return new PointsPage(new ChunkedPointsIterator(chunks), headers, trailers);
+    }
+
     @Override
     public List<Integer> listUsers() {
         ListUsersRequest.Builder builder = ListUsersRequest.newBuilder();
@@ -65,9 +112,262 @@ public class PositionLogClientImpl implements PositionLogClient {
         stub.logPosition(request);
     }
 
+    @Override
+    public LogSummary batchLogPoints(BatchLogPositionRequest request) {
+        return stub.batchLogPosition(request);
+    }
+
+    @Override
+    public LogSummary streamPositions(Iterator<LogPositionRequest> requests) {
+        final SettableFuture<LogSummary> summary = SettableFuture.create();
+        asyncStub.streamPositions(new ClientResponseObserver<LogPositionRequest, LogSummary>() {
+            private boolean completed;
+
+            @Override
+            public void beforeStart(ClientCallStreamObserver<LogPositionRequest> requestStream) {
+                // Only send while the transport is ready, instead of buffering the whole stream in memory
+                requestStream.setOnReadyHandler(() -> {
+                    while (requestStream.isReady() && requests.hasNext()) {
+                        requestStream.onNext(requests.next());
+                    }
+                    if (!requests.hasNext() && !completed) {
+                        completed = true;
+                        requestStream.onCompleted();
+                    }
+                });
+            }
+
+            @Override
+            public void onNext(LogSummary value) {
+                summary.set(value);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                summary.setException(t);
+            }
+
+            @Override
+            public void onCompleted() {
+            }
+        });
+
+        try {
+            return summary.get();
+        } catch (ExecutionException ex) {
+            throw Status.fromThrowable(ex.getCause()).asRuntimeException();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw Status.CANCELLED.withCause(ex).asRuntimeException();
+        }
+    }
+
+    @Override
+    public StreamObserver<LogPositionRequest> logPositionStream(StreamObserver<LogSummary> acks) {
+        return asyncStub.logPositionStream(acks);
+    }
+
     @Override
     public LengthReply getTrackLength(int userId) {
         LengthRequest.Builder builder = LengthRequest.newBuilder().setUserId(userId);
         return stub.getTrackLength(builder.build());
     }
+
+    @Override
+    public List<LengthReply> getTrackLengths(LengthsRequest request) {
+        final List<LengthReply> replies = new ArrayList<>();
+        stub.getTrackLengths(request).forEachRemaining(replies::add);
+        return replies;
+    }
+
+    @Override
+    public List<Integer> queryRegion(RegionRequest request) {
+        return stub.queryRegion(request).getUsersIdsList();
+    }
+
+    @Override
+    public List<Integer> queryNearby(NearbyRequest request) {
+        return stub.queryNearby(request).getUsersIdsList();
+    }
+
+    @Override
+    public void getPoints(PointsRequest request, PointsObserver observer) {
+        streamPoints(request, observer, PositionLogServiceGrpc.PositionLogServiceStub::getPoints);
+    }
+
+    @Override
+    public void subscribeTrack(PointsRequest request, PointsObserver observer) {
+        streamPoints(request, observer, PositionLogServiceGrpc.PositionLogServiceStub::subscribeTrack);
+    }
+
+    /**
+     * Start a call streaming points with flow control by the observer.
+     *
+     * @param request
+     * @param observer
+     * @param method either GetPoints or SubscribeTrack
+     */
+    private void streamPoints(PointsRequest request, PointsObserver observer, PointsMethod method) {
+        final AtomicReference<Metadata> headers = new AtomicReference<>();
+        final AtomicReference<Metadata> trailers = new AtomicReference<>();
+        final FlowControl flowControl = new FlowControl(headers, trailers);
+        method.call(MetadataUtils.captureMetadata(asyncStub, headers, trailers), request,
+                new ClientResponseObserver<PointsRequest, Coordinate>() {
+                    @Override
+                    public void beforeStart(ClientCallStreamObserver<PointsRequest> requestStream) {
+                        requestStream.disableAutoInboundFlowControl();
+                        flowControl.call = requestStream;
+                        observer.onStart(flowControl);
+                    }
+
+                    @Override
+                    public void onNext(Coordinate value) {
+                        observer.onNext(value);
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        observer.onError(t);
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        observer.onCompleted();
+                    }
+                });
+        flowControl.start();
+    }
+
+    @Override
+    public ListenableFuture<List<Integer>> listUsersAsync() {
+        return Futures.transform(futureStub.listUsers(ListUsersRequest.getDefaultInstance()),
+                ListUsersReply::getUsersIdsList, MoreExecutors.directExecutor());
+    }
+
+    @Override
+    public ListenableFuture<Void> removeUserAsync(int userId) {
+        return Futures.transform(futureStub.deleteUser(DeleteUserRequest.newBuilder().setUserId(userId).build()),
+                empty -> null, MoreExecutors.directExecutor());
+    }
+
+    @Override
+    public ListenableFuture<Void> logPointsAsync(LogPositionRequest request) {
+        return Futures.transform(futureStub.logPosition(request), empty -> null, MoreExecutors.directExecutor());
+    }
+
+    @Override
+    public ListenableFuture<LogSummary> batchLogPointsAsync(BatchLogPositionRequest request) {
+        return futureStub.batchLogPosition(request);
+    }
+
+    @Override
+    public ListenableFuture<LengthReply> getTrackLengthAsync(int userId) {
+        return futureStub.getTrackLength(LengthRequest.newBuilder().setUserId(userId).build());
+    }
+
+    @Override
+    public ListenableFuture<List<LengthReply>> getTrackLengthsAsync(LengthsRequest request) {
+        // Future stubs only support unary calls, so the streamed replies are collected here
+        final SettableFuture<List<LengthReply>> result = SettableFuture.create();
+        asyncStub.getTrackLengths(request, new StreamObserver<LengthReply>() {
+            private final List<LengthReply> replies = new ArrayList<>();
+
+            @Override
+            public void onNext(LengthReply value) {
+                replies.add(value);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                result.setException(t);
+            }
+
+            @Override
+            public void onCompleted() {
+                result.set(replies);
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public ListenableFuture<List<Integer>> queryRegionAsync(RegionRequest request) {
+        return Futures.transform(futureStub.queryRegion(request), ListUsersReply::getUsersIdsList,
+                MoreExecutors.directExecutor());
+    }
+
+    @Override
+    public ListenableFuture<List<Integer>> queryNearbyAsync(NearbyRequest request) {
+        return Futures.transform(futureStub.queryNearby(request), ListUsersReply::getUsersIdsList,
+                MoreExecutors.directExecutor());
+    }
+
+    @Override
+    public void watchChanges(StreamObserver<ChangeEvent> observer) {
+        asyncStub.watchChanges(WatchRequest.getDefaultInstance(), observer);
+    }
+
+    @FunctionalInterface
+    private interface PointsMethod {
+        void call(PositionLogServiceGrpc.PositionLogServiceStub stub, PointsRequest request,
+                  StreamObserver<Coordinate> observer);
+    }
+
+    /**
+     * Subscription of an asynchronous GetPoints or SubscribeTrack call.
+     * <p>
+     * Observers may request points as soon as they are started, but gRPC only accepts requests once the call has
+     * been started, so earlier requests are deferred until then. gRPC also requests the first point by itself,
+     * which is deducted from the first request.
+     */
+    private static class FlowControl implements PointsSubscription {
+        private final AtomicReference<Metadata> headers;
+        private final AtomicReference<Metadata> trailers;
+        private ClientCallStreamObserver<PointsRequest> call;
+        private boolean started;
+        private boolean cancelled;
+        private int pending = -1;
+
+        FlowControl(AtomicReference<Metadata> headers, AtomicReference<Metadata> trailers) {
+            this.headers = headers;
+            this.trailers = trailers;
+        }
+
+        synchronized void start() {
+            started = true;
+            if (cancelled) {
+                call.cancel("Cancelled by client", null);
+            } else if (pending > 0) {
+                call.request(pending);
+                pending = 0;
+            }
+        }
+
+        @Override
+        public synchronized void request(int count) {
+            pending += count;
+            if (started && pending > 0) {
+                call.request(pending);
+                pending = 0;
+            }
+        }
+
+        @Override
+        public synchronized void cancel() {
+            cancelled = true;
+            if (started) {
+                call.cancel("Cancelled by client", null);
+            }
+        }
+
+        @Override
+        public Optional<String> getNextPageToken() {
+            return PointsPage.nextPageToken(headers, trailers);
+        }
+
+        @Override
+        public OptionalLong getTrackVersion() {
+            return PointsPage.trackVersion(headers, trailers);
+        }
+    }
 }
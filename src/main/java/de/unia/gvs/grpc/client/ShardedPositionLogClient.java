@@ -0,0 +1,989 @@
+package de.unia.gvs.grpc.client;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import de.unia.gvs.grpc.BatchLogPositionRequest;
+import de.unia.gvs.grpc.ChangeEvent;
+import de.unia.gvs.grpc.ChangeType;
+import de.unia.gvs.grpc.Coordinate;
+import de.unia.gvs.grpc.LengthReply;
+import de.unia.gvs.grpc.LengthsRequest;
+import de.unia.gvs.grpc.LogPositionRequest;
+import de.unia.gvs.grpc.LogSummary;
+import de.unia.gvs.grpc.NearbyRequest;
+import de.unia.gvs.grpc.PointsRequest;
+import de.unia.gvs.grpc.RegionRequest;
+import de.unia.gvs.grpc.WatchRequest;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import io.grpc.stub.StreamObserver;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * Client which spreads the users across several Position Log servers, called nodes, each holding a shard of the
+ * tracks.
+ * <p>
+ * Users are assigned to the nodes by a {@link HashRing} over their names. Calls for a single user are sent to the
+ * node owning it, calls for many users are split by node, and calls for all users are sent to every node with their
+ * results merged. Only the users a node owns are taken from its results, so tracks which are being moved are not
+ * reported twice. Each node validates its part of a batch before adding any of it, but the parts are sent to the nodes
+ * independently, so one node may reject its part after others added theirs. Neither is persisting a part atomic, a
+ * node failing to persist it may already have added some of its groups.
+ * <p>
+ * {@link #rebalance(Map)} moves the tracks to a new set of nodes while calls continue. Tracks whose owner changes are
+ * first copied while they are still appended to. Appends to them then wait until the points appended in the meantime
+ * have been copied as well, after which calls are routed by the new ring and the old copies are deleted. Reads of a
+ * user's points still routed by the old ring delay the deletion until their first point has arrived. Deleting a
+ * user waits while its track is moved. This is only safe if all changes go through this client, such as through a
+ * single REST gateway in front of the nodes.
+ */
+public class ShardedPositionLogClient implements PositionLogClient {
+    // Maximum number of points copied with one LogPosition call when a track is moved
+    static final int MOVE_BATCH_SIZE = 10_000;
+
+    // Number of requests of a stream which are sent as one batch and acknowledged together
+    static final int STREAM_BATCH_SIZE = 32;
+
+    private static final Logger log = Logger.getLogger(ShardedPositionLogClient.class.getSimpleName());
+
+    // Merged WatchChanges calls, which have to be restarted when nodes are added
+    private final Set<ShardWatch> watches = ConcurrentHashMap.newKeySet();
+    private volatile Routing routing;
+
+    /**
+     * @param nodes clients of the nodes by name, the names determine the owner of each user
+     */
+    public ShardedPositionLogClient(Map<String, PositionLogClient> nodes) {
+        this.routing = new Routing(new HashRing(nodes.keySet()), new HashMap<>(nodes));
+    }
+
+    /**
+     * Kind of a call, which decides whether it waits while the track of its user is moved.
+     */
+    private enum Access {
+        READ,
+        APPEND,
+        DELETE
+    }
+
+    /**
+     * Ring and nodes used by calls, replaced as a whole when they change.
+     * <p>
+     * Calls register with the routing they use, so a replaced routing can wait until the calls it routed completed.
+     */
+    private static final class Routing {
+        final HashRing ring;
+        // May contain nodes outside of the ring while tracks are moved
+        final Map<String, PositionLogClient> nodes;
+        // Ring the tracks are moved to, null if no tracks are moved
+        final HashRing target;
+        final boolean holdAppends;
+        // Completes once the moved tracks are routed by the target ring
+        final ListenableFuture<Void> released;
+        private final AtomicInteger calls = new AtomicInteger();
+        private volatile boolean retired;
+
+        Routing(HashRing ring, Map<String, PositionLogClient> nodes) {
+            this(ring, nodes, null, false, Futures.immediateFuture(null));
+        }
+
+        Routing(HashRing ring, Map<String, PositionLogClient> nodes, HashRing target, boolean holdAppends,
+                ListenableFuture<Void> released) {
+            this.ring = ring;
+            this.nodes = nodes;
+            this.target = target;
+            this.holdAppends = holdAppends;
+            this.released = released;
+        }
+
+        PositionLogClient owner(int userId) {
+            return nodes.get(ring.owner(userId));
+        }
+
+        boolean moves(int userId) {
+            return target != null && !ring.owner(userId).equals(target.owner(userId));
+        }
+
+        /**
+         * @param userId
+         * @param access
+         * @return whether the call has to wait for {@link #released}
+         */
+        boolean waits(int userId, Access access) {
+            return (access == Access.DELETE || access == Access.APPEND && holdAppends) && moves(userId);
+        }
+
+        void exit() {
+            if (calls.decrementAndGet() == 0 && retired) {
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+        }
+
+        /**
+         * Wait until all calls routed by this instance completed, it must have been replaced before.
+         *
+         * @throws InterruptedException
+         */
+        synchronized void retire() throws InterruptedException {
+            retired = true;
+            while (calls.get() != 0) {
+                wait();
+            }
+        }
+    }
+
+    /**
+     * @return the current routing, registered for a call which must {@link Routing#exit()} it when completed
+     */
+    private Routing enter() {
+        while (true) {
+            final Routing current = routing;
+            current.calls.incrementAndGet();
+            // Only register with a routing which has not been replaced yet, otherwise retiring it could miss the call
+            if (current == routing) {
+                return current;
+            }
+            current.exit();
+        }
+    }
+
+    /**
+     * Run a blocking call on the node owning a user.
+     *
+     * @param userId
+     * @param access
+     * @param call
+     * @return result of the call
+     */
+    private <T> T route(int userId, Access access, Function<PositionLogClient, T> call) {
+        while (true) {
+            final Routing current = enter();
+            if (current.waits(userId, access)) {
+                current.exit();
+                Futures.getUnchecked(current.released);
+                continue;
+            }
+            try {
+                return call.apply(current.owner(userId));
+            } finally {
+                current.exit();
+            }
+        }
+    }
+
+    /**
+     * Start a blocking read of a user's points on the node owning it.
+     * <p>
+     * The call only leaves the routing once the first point or the end of the response has arrived. The node has
+     * taken its snapshot of the track by then, so a rebalance does not delete the copy read from before that.
+     *
+     * @param userId
+     * @param call
+     * @return the points, the first of which has been received
+     */
+    private <T extends Iterator<Coordinate>> T routeRead(int userId, Function<PositionLogClient, T> call) {
+        return route(userId, Access.READ, node -> {
+            final T points = call.apply(node);
+            points.hasNext();
+            return points;
+        });
+    }
+
+    /**
+     * Start an asynchronous call on the node owning a user.
+     *
+     * @param userId
+     * @param access
+     * @param call
+     * @return result of the call
+     */
+    private <T> ListenableFuture<T> routeAsync(int userId, Access access,
+                                               Function<PositionLogClient, ListenableFuture<T>> call) {
+        final Routing current = enter();
+        if (current.waits(userId, access)) {
+            current.exit();
+            return Futures.transformAsync(current.released, released -> routeAsync(userId, access, call),
+                    MoreExecutors.directExecutor());
+        }
+        final List<ListenableFuture<T>> result = new ArrayList<>(1);
+        try {
+            result.add(call.apply(current.owner(userId)));
+        } finally {
+            exitAfter(current, result);
+        }
+        return result.get(0);
+    }
+
+    /**
+     * Start an asynchronous call on every node of the ring and merge the results.
+     *
+     * @param call
+     * @param merge combines the results by node name, given the ring they were routed by
+     * @return merged result, fails if any call fails
+     */
+    private <T, R> ListenableFuture<R> scatter(Function<PositionLogClient, ListenableFuture<T>> call,
+                                               BiFunction<HashRing, Map<String, T>, R> merge) {
+        final Routing current = enter();
+        final Map<String, ListenableFuture<T>> results = new LinkedHashMap<>();
+        try {
+            for (String node : current.ring.nodes()) {
+                results.put(node, call.apply(current.nodes.get(node)));
+            }
+        } finally {
+            exitAfter(current, results.values());
+        }
+        return Futures.transform(gather(results), byNode -> merge.apply(current.ring, byNode),
+                MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Exit a routing once all calls started with it completed.
+     *
+     * @param current
+     * @param calls
+     */
+    private static void exitAfter(Routing current, Collection<? extends ListenableFuture<?>> calls) {
+        Futures.successfulAsList(calls).addListener(current::exit, MoreExecutors.directExecutor());
+    }
+
+    private static <T> ListenableFuture<Map<String, T>> gather(Map<String, ListenableFuture<T>> results) {
+        return Futures.whenAllSucceed(results.values()).call(() -> {
+            final Map<String, T> values = new LinkedHashMap<>();
+            for (Map.Entry<String, ListenableFuture<T>> result : results.entrySet()) {
+                values.put(result.getKey(), Futures.getDone(result.getValue()));
+            }
+            return values;
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * @param ring
+     * @param usersByNode
+     * @return users reported by the node owning them, in ascending order
+     */
+    private static List<Integer> ownedUsers(HashRing ring, Map<String, List<Integer>> usersByNode) {
+        final List<Integer> users = new ArrayList<>();
+        usersByNode.forEach((node, nodeUsers) -> {
+            for (int user : nodeUsers) {
+                if (ring.owner(user).equals(node)) {
+                    users.add(user);
+                }
+            }
+        });
+        Collections.sort(users);
+        return users;
+    }
+
+    private static LogSummary add(LogSummary a, LogSummary b) {
+        return LogSummary.newBuilder()
+                .setNumRequests(a.getNumRequests() + b.getNumRequests())
+                .setNumPoints(a.getNumPoints() + b.getNumPoints())
+                .build();
+    }
+
+    private static <T> T await(ListenableFuture<T> future) {
+        try {
+            return future.get();
+        } catch (ExecutionException ex) {
+            throw Status.fromThrowable(ex.getCause()).asRuntimeException();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            throw Status.CANCELLED.withCause(ex).asRuntimeException();
+        }
+    }
+
+    /**
+     * @param userId
+     * @return name of the node owning a user
+     */
+    public String owner(int userId) {
+        return routing.ring.owner(userId);
+    }
+
+    @Override
+    public Iterator<Coordinate> getPoints(int userId) {
+        return routeRead(userId, node -> node.getPoints(userId));
+    }
+
+    @Override
+    public PointsPage getPoints(PointsRequest request) {
+        return routeRead(request.getUserId(), node -> node.getPoints(request));
+    }
+
+    @Override
+    public PointsPage getPointsChunked(PointsRequest request) {
+        return routeRead(request.getUserId(), node -> node.getPointsChunked(request));
+    }
+
+    @Override
+    public List<Integer> listUsers() {
+        return await(listUsersAsync());
+    }
+
+    @Override
+    public void removeUser(int userId) {
+        route(userId, Access.DELETE, node -> {
+            node.removeUser(userId);
+            return null;
+        });
+    }
+
+    @Override
+    public void logPoints(LogPositionRequest request) {
+        route(request.getUserId(), Access.APPEND, node -> {
+            node.logPoints(request);
+            return null;
+        });
+    }
+
+    @Override
+    public LogSummary batchLogPoints(BatchLogPositionRequest request) {
+        return await(batchLogPointsAsync(request));
+    }
+
+    /**
+     * Add points from requests for any users, which are sent to the nodes in batches of {@link #STREAM_BATCH_SIZE}
+     * requests instead of a stream to every node.
+     *
+     * @param requests
+     * @return summary of the committed requests
+     */
+    @Override
+    public LogSummary streamPositions(Iterator<LogPositionRequest> requests) {
+        LogSummary summary = LogSummary.getDefaultInstance();
+        final BatchLogPositionRequest.Builder batch = BatchLogPositionRequest.newBuilder();
+        while (requests.hasNext()) {
+            batch.addGroups(requests.next());
+            if (batch.getGroupsCount() == STREAM_BATCH_SIZE || !requests.hasNext()) {
+                summary = add(summary, batchLogPoints(batch.build()));
+                batch.clear();
+            }
+        }
+        return summary;
+    }
+
+    /**
+     * Open a stream for adding points, whose requests are sent to the nodes in batches of
+     * {@link #STREAM_BATCH_SIZE} requests. Each full batch is acknowledged once all nodes committed it.
+     *
+     * @param acks receives the acknowledgements and the final summary
+     * @return observer for sending requests, must be completed by the caller
+     */
+    @Override
+    public StreamObserver<LogPositionRequest> logPositionStream(StreamObserver<LogSummary> acks) {
+        return new BatchingStream(acks);
+    }
+
+    @Override
+    public LengthReply getTrackLength(int userId) {
+        return route(userId, Access.READ, node -> node.getTrackLength(userId));
+    }
+
+    @Override
+    public List<LengthReply> getTrackLengths(LengthsRequest request) {
+        return await(getTrackLengthsAsync(request));
+    }
+
+    @Override
+    public List<Integer> queryRegion(RegionRequest request) {
+        return await(queryRegionAsync(request));
+    }
+
+    @Override
+    public List<Integer> queryNearby(NearbyRequest request) {
+        return await(queryNearbyAsync(request));
+    }
+
+    @Override
+    public void getPoints(PointsRequest request, PointsObserver observer) {
+        // Reads never wait for a rebalance, the routing is left once the first point or the end has arrived
+        final Routing current = enter();
+        final RoutedPointsObserver routed = new RoutedPointsObserver(current, observer);
+        try {
+            current.owner(request.getUserId()).getPoints(request, routed);
+        } catch (RuntimeException ex) {
+            routed.exit();
+            throw ex;
+        }
+    }
+
+    /**
+     * Subscribe to a user's track on the node owning it. The subscription fails when the track is moved to another
+     * node, after which the observer may subscribe again from the last received point.
+     *
+     * @param request
+     * @param observer
+     */
+    @Override
+    public void subscribeTrack(PointsRequest request, PointsObserver observer) {
+        route(request.getUserId(), Access.READ, node -> {
+            node.subscribeTrack(request, observer);
+            return null;
+        });
+    }
+
+    @Override
+    public ListenableFuture<List<Integer>> listUsersAsync() {
+        return scatter(PositionLogClient::listUsersAsync, ShardedPositionLogClient::ownedUsers);
+    }
+
+    @Override
+    public ListenableFuture<Void> removeUserAsync(int userId) {
+        return routeAsync(userId, Access.DELETE, node -> node.removeUserAsync(userId));
+    }
+
+    @Override
+    public ListenableFuture<Void> logPointsAsync(LogPositionRequest request) {
+        return routeAsync(request.getUserId(), Access.APPEND, node -> node.logPointsAsync(request));
+    }
+
+    @Override
+    public ListenableFuture<LogSummary> batchLogPointsAsync(BatchLogPositionRequest request) {
+        final Routing current = enter();
+        for (LogPositionRequest group : request.getGroupsList()) {
+            if (current.waits(group.getUserId(), Access.APPEND)) {
+                current.exit();
+                return Futures.transformAsync(current.released, released -> batchLogPointsAsync(request),
+                        MoreExecutors.directExecutor());
+            }
+        }
+
+        final Map<String, BatchLogPositionRequest.Builder> batches = new LinkedHashMap<>();
+        for (LogPositionRequest group : request.getGroupsList()) {
+            batches.computeIfAbsent(current.ring.owner(group.getUserId()),
+                    node -> BatchLogPositionRequest.newBuilder()).addGroups(group);
+        }
+        final Map<String, ListenableFuture<LogSummary>> summaries = new LinkedHashMap<>();
+        try {
+            batches.forEach((node, batch) -> summaries.put(node,
+                    current.nodes.get(node).batchLogPointsAsync(batch.build())));
+        } finally {
+            exitAfter(current, summaries.values());
+        }
+        return Futures.transform(gather(summaries),
+                byNode -> byNode.values().stream().reduce(LogSummary.getDefaultInstance(),
+                        ShardedPositionLogClient::add),
+                MoreExecutors.directExecutor());
+    }
+
+    @Override
+    public ListenableFuture<LengthReply> getTrackLengthAsync(int userId) {
+        return routeAsync(userId, Access.READ, node -> node.getTrackLengthAsync(userId));
+    }
+
+    @Override
+    public ListenableFuture<List<LengthReply>> getTrackLengthsAsync(LengthsRequest request) {
+        if (request.getUserIdsCount() == 0) {
+            return scatter(node -> node.getTrackLengthsAsync(request), (ring, repliesByNode) -> {
+                final List<LengthReply> replies = new ArrayList<>();
+                repliesByNode.forEach((node, nodeReplies) -> {
+                    for (LengthReply reply : nodeReplies) {
+                        if (ring.owner(reply.getUserId()).equals(node)) {
+                            replies.add(reply);
+                        }
+                    }
+                });
+                replies.sort(Comparator.comparingInt(LengthReply::getUserId));
+                return replies;
+            });
+        }
+
+        // Every node measures the tracks it owns, the replies are put back into the requested order
+        final Routing current = enter();
+        final Map<String, LengthsRequest.Builder> requests = new LinkedHashMap<>();
+        for (int userId : request.getUserIdsList()) {
+            requests.computeIfAbsent(current.ring.owner(userId),
+                    node -> LengthsRequest.newBuilder().setAlgorithm(request.getAlgorithm())).addUserIds(userId);
+        }
+        final Map<String, ListenableFuture<List<LengthReply>>> results = new LinkedHashMap<>();
+        try {
+            requests.forEach((node, nodeRequest) -> results.put(node,
+                    current.nodes.get(node).getTrackLengthsAsync(nodeRequest.build())));
+        } finally {
+            exitAfter(current, results.values());
+        }
+        return Futures.transform(gather(results), repliesByNode -> {
+            final Map<Integer, LengthReply> byUser = new HashMap<>();
+            for (List<LengthReply> nodeReplies : repliesByNode.values()) {
+                for (LengthReply reply : nodeReplies) {
+                    byUser.put(reply.getUserId(), reply);
+                }
+            }
+            final List<LengthReply> replies = new ArrayList<>();
+            for (int userId : request.getUserIdsList()) {
+                final LengthReply reply = byUser.get(userId);
+                if (reply != null) {
+                    replies.add(reply);
+                }
+            }
+            return replies;
+        }, MoreExecutors.directExecutor());
+    }
+
+    @Override
+    public ListenableFuture<List<Integer>> queryRegionAsync(RegionRequest request) {
+        return scatter(node -> node.queryRegionAsync(request), ShardedPositionLogClient::ownedUsers);
+    }
+
+    @Override
+    public ListenableFuture<List<Integer>> queryNearbyAsync(NearbyRequest request) {
+        return scatter(node -> node.queryNearbyAsync(request), ShardedPositionLogClient::ownedUsers);
+    }
+
+    /**
+     * Receive the changes of all nodes until the call is cancelled or the call of any node ends.
+     * <p>
+     * The STARTED event is sent once all nodes started. Moving a track is reported like any other change, as
+     * creation and appends on the new node and deletion on the old one. Calls end with status UNAVAILABLE when
+     * nodes are added, so they can be restarted including the new nodes.
+     *
+     * @param observer
+     */
+    @Override
+    public void watchChanges(StreamObserver<ChangeEvent> observer) {
+        new ShardWatch(observer).start();
+    }
+
+    /**
+     * Move the tracks to the nodes owning them in the ring of other nodes, then route all calls by that ring.
+     * <p>
+     * Blocks until all tracks have been moved. If a track cannot be copied, calls remain routed by the previous ring
+     * and the copies made so far are replaced by the next attempt.
+     *
+     * @param nodes clients of the new nodes by name, may include current nodes
+     * @return number of moved tracks
+     * @throws StatusRuntimeException if a track cannot be copied
+     * @throws InterruptedException if interrupted while waiting for calls, the tracks are then moved partially
+     */
+    public synchronized int rebalance(Map<String, PositionLogClient> nodes) throws InterruptedException {
+        final Routing previous = routing;
+        final HashRing ring = new HashRing(nodes.keySet());
+        final Map<String, PositionLogClient> all = new HashMap<>(previous.nodes);
+        all.putAll(nodes);
+        final SettableFuture<Void> released = SettableFuture.create();
+        final Map<Integer, Move> moves = new LinkedHashMap<>();
+        final Routing holding = new Routing(previous.ring, all, ring, true, released);
+        boolean switched = false;
+        try {
+            // Copy the tracks while they may be appended to, only deletions wait
+            final Routing copying = new Routing(previous.ring, all, ring, false, released);
+            routing = copying;
+            if (!previous.nodes.keySet().containsAll(nodes.keySet())) {
+                for (ShardWatch watch : watches) {
+                    watch.end(Status.UNAVAILABLE.withDescription("Nodes have been added").asRuntimeException());
+                }
+            }
+            previous.retire();
+            planMoves(copying, moves);
+            for (Move move : moves.values()) {
+                move.copy();
+            }
+
+            // Hold appends to the moved tracks and copy the points appended in the meantime
+            routing = holding;
+            copying.retire();
+            planMoves(holding, moves);
+            for (Move move : moves.values()) {
+                move.copy();
+            }
+
+            routing = new Routing(ring, new HashMap<>(nodes));
+            switched = true;
+        } finally {
+            if (!switched) {
+                routing = new Routing(previous.ring, all);
+            }
+            released.set(null);
+        }
+
+        // Reads may still be running on the old nodes until the previous routing is retired
+        holding.retire();
+        for (Move move : moves.values()) {
+            try {
+                move.source.removeUser(move.userId);
+            } catch (StatusRuntimeException ex) {
+                log.warning("Could not delete moved track of user " + move.userId + ": " + ex.getMessage());
+            }
+        }
+        log.info("Moved " + moves.size() + " tracks to " + ring.nodes());
+        return moves.size();
+    }
+
+    /**
+     * Add the users whose owner changes to the moves, skipping tracks left on other nodes by interrupted moves.
+     *
+     * @param current routing with the target ring
+     * @param moves moves by user
+     */
+    private static void planMoves(Routing current, Map<Integer, Move> moves) {
+        for (String node : current.ring.nodes()) {
+            final PositionLogClient source = current.nodes.get(node);
+            for (int userId : source.listUsers()) {
+                if (moves.containsKey(userId)) {
+                    // Either the track or its copy on the new node
+                    continue;
+                }
+                if (!current.ring.owner(userId).equals(node)) {
+                    log.warning("Skipping track of user " + userId + " on " + node + ", which does not own it");
+                } else if (current.moves(userId)) {
+                    moves.put(userId, new Move(userId, source, current.nodes.get(current.target.owner(userId))));
+                }
+            }
+        }
+    }
+
+    /**
+     * Track which is copied from one node to another.
+     */
+    private static final class Move {
+        final int userId;
+        final PositionLogClient source;
+        final PositionLogClient target;
+        // Number of points copied so far, the track only grows while it is moved
+        private int copied;
+
+        Move(int userId, PositionLogClient source, PositionLogClient target) {
+            this.userId = userId;
+            this.source = source;
+            this.target = target;
+        }
+
+        /**
+         * Copy the points appended since the last copy, replacing a track left by an interrupted move first.
+         */
+        void copy() {
+            if (copied == 0) {
+                try {
+                    target.removeUser(userId);
+                } catch (StatusRuntimeException ex) {
+                    if (ex.getStatus().getCode() != Status.Code.NOT_FOUND) {
+                        throw ex;
+                    }
+                }
+            }
+            final PointsPage points = source.getPointsChunked(PointsRequest.newBuilder()
+                    .setUserId(userId)
+                    .setOffset(copied)
+                    .build());
+            final LogPositionRequest.Builder batch = LogPositionRequest.newBuilder().setUserId(userId);
+            while (points.hasNext()) {
+                batch.addPoints(points.next());
+                if (batch.getPointsCount() == MOVE_BATCH_SIZE) {
+                    append(batch);
+                }
+            }
+            append(batch);
+        }
+
+        private void append(LogPositionRequest.Builder batch) {
+            if (batch.getPointsCount() > 0) {
+                target.logPoints(batch.build());
+                copied += batch.getPointsCount();
+                batch.clearPoints();
+            }
+        }
+    }
+
+    /**
+     * Forwards a GetPoints call to the observer and leaves the routing of the call once the first point or the end of
+     * the response has arrived.
+     */
+    private static final class RoutedPointsObserver implements PointsObserver {
+        private final Routing routing;
+        private final PointsObserver observer;
+        private final AtomicBoolean exited = new AtomicBoolean();
+
+        RoutedPointsObserver(Routing routing, PointsObserver observer) {
+            this.routing = routing;
+            this.observer = observer;
+        }
+
+        void exit() {
+            if (exited.compareAndSet(false, true)) {
+                routing.exit();
+            }
+        }
+
+        @Override
+        public void onStart(PointsSubscription subscription) {
+            observer.onStart(subscription);
+        }
+
+        @Override
+        public void onNext(Coordinate value) {
+            exit();
+            observer.onNext(value);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            exit();
+            observer.onError(t);
+        }
+
+        @Override
+        public void onCompleted() {
+            exit();
+            observer.onCompleted();
+        }
+    }
+
+    /**
+     * Sends the requests of a stream in batches, one after another so the points of each user stay in order.
+     * <p>
+     * Requests are buffered while earlier batches are sent.
+     */
+    private final class BatchingStream implements StreamObserver<LogPositionRequest> {
+        private final StreamObserver<LogSummary> acks;
+        private final BatchLogPositionRequest.Builder batch = BatchLogPositionRequest.newBuilder();
+        // Summary after the last batch sent so far, fails with the first failed batch
+        private ListenableFuture<LogSummary> committed = Futures.immediateFuture(LogSummary.getDefaultInstance());
+        private boolean closed;
+
+        BatchingStream(StreamObserver<LogSummary> acks) {
+            this.acks = acks;
+        }
+
+        @Override
+        public synchronized void onNext(LogPositionRequest value) {
+            if (closed) {
+                return;
+            }
+            batch.addGroups(value);
+            if (batch.getGroupsCount() == STREAM_BATCH_SIZE) {
+                send(true);
+            }
+        }
+
+        @Override
+        public synchronized void onError(Throwable t) {
+            // Batches which have already been sent remain committed
+            if (!closed) {
+                closed = true;
+                acks.onError(Status.CANCELLED.withDescription("Cancelled by client").withCause(t).asRuntimeException());
+            }
+        }
+
+        @Override
+        public synchronized void onCompleted() {
+            if (closed) {
+                return;
+            }
+            if (batch.getGroupsCount() > 0) {
+                send(false);
+            }
+            Futures.addCallback(committed, new FutureCallback<LogSummary>() {
+                @Override
+                public void onSuccess(LogSummary summary) {
+                    synchronized (BatchingStream.this) {
+                        if (!closed) {
+                            closed = true;
+                            acks.onNext(summary);
+                            acks.onCompleted();
+                        }
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    fail(t);
+                }
+            }, MoreExecutors.directExecutor());
+        }
+
+        private void send(boolean acknowledge) {
+            final BatchLogPositionRequest request = batch.build();
+            batch.clear();
+            committed = Futures.transformAsync(committed, summary -> Futures.transform(batchLogPointsAsync(request),
+                    batchSummary -> {
+                        final LogSummary total = add(summary, batchSummary);
+                        if (acknowledge) {
+                            synchronized (BatchingStream.this) {
+                                if (!closed) {
+                                    acks.onNext(total);
+                                }
+                            }
+                        }
+                        return total;
+                    }, MoreExecutors.directExecutor()), MoreExecutors.directExecutor());
+            Futures.addCallback(committed, new FutureCallback<LogSummary>() {
+                @Override
+                public void onSuccess(LogSummary result) {
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    fail(t);
+                }
+            }, MoreExecutors.directExecutor());
+        }
+
+        private synchronized void fail(Throwable t) {
+            if (!closed) {
+                closed = true;
+                acks.onError(Status.fromThrowable(t).asRuntimeException());
+            }
+        }
+    }
+
+    /**
+     * WatchChanges calls of all nodes merged into one, which can be cancelled like a single call.
+     */
+    private final class ShardWatch extends ClientCallStreamObserver<WatchRequest> {
+        private final StreamObserver<ChangeEvent> observer;
+        private final List<ClientCallStreamObserver<WatchRequest>> calls = new ArrayList<>();
+        private int nodes;
+        private int started;
+        private boolean done;
+
+        ShardWatch(StreamObserver<ChangeEvent> observer) {
+            this.observer = observer;
+        }
+
+        @SuppressWarnings("unchecked")
+        void start() {
+            // Registered before the nodes are read, so nodes added in the meantime end this call
+            watches.add(this);
+            if (observer instanceof ClientResponseObserver) {
+                ((ClientResponseObserver<WatchRequest, ChangeEvent>) observer).beforeStart(this);
+            }
+            final Collection<PositionLogClient> clients = routing.nodes.values();
+            synchronized (this) {
+                nodes = clients.size();
+            }
+            for (PositionLogClient client : clients) {
+                client.watchChanges(new ClientResponseObserver<WatchRequest, ChangeEvent>() {
+                    @Override
+                    public void beforeStart(ClientCallStreamObserver<WatchRequest> requestStream) {
+                        synchronized (ShardWatch.this) {
+                            calls.add(requestStream);
+                        }
+                    }
+
+                    @Override
+                    public void onNext(ChangeEvent event) {
+                        event(event);
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        end(t);
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        end(null);
+                    }
+                });
+            }
+            // Calls which started after the merged call ended
+            synchronized (this) {
+                if (done) {
+                    cancelCalls();
+                }
+            }
+        }
+
+        private synchronized void event(ChangeEvent event) {
+            if (done) {
+                return;
+            }
+            if (event.getType() == ChangeType.STARTED) {
+                if (++started == nodes) {
+                    observer.onNext(event);
+                }
+            } else if (started == nodes) {
+                // Changes before all nodes started are not reported
+                observer.onNext(event);
+            }
+        }
+
+        /**
+         * @param t cause, or null if a node completed the call
+         */
+        synchronized void end(Throwable t) {
+            if (done) {
+                return;
+            }
+            done = true;
+            watches.remove(this);
+            cancelCalls();
+            if (t == null) {
+                observer.onCompleted();
+            } else {
+                observer.onError(t);
+            }
+        }
+
+        private void cancelCalls() {
+            for (ClientCallStreamObserver<WatchRequest> call : calls) {
+                call.cancel("Merged call ended", null);
+            }
+        }
+
+        @Override
+        public void cancel(String message, Throwable cause) {
+            end(Status.CANCELLED.withDescription(message).withCause(cause).asRuntimeException());
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setOnReadyHandler(Runnable onReadyHandler) {
+        }
+
+        @Override
+        public void disableAutoInboundFlowControl() {
+        }
+
+        @Override
+        public void request(int count) {
+        }
+
+        @Override
+        public void setMessageCompression(boolean enable) {
+        }
+
+        @Override
+        public void onNext(WatchRequest value) {
+            throw new IllegalStateException("WatchChanges has no request stream");
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            cancel("Cancelled by client", t);
+        }
+
+        @Override
+        public void onCompleted() {
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package de.unia.gvs.grpc.codec;
+
+import java.util.Arrays;
+
+/**
+ * Compact binary encoding for track points.
+ * <p>
+ * Coordinates are converted to fixed-point integers with a configurable number of decimals and stored as zigzag
+ * varint deltas between consecutive points, timestamps as zigzag varint delta-of-deltas. Consecutive GPS fixes are
+ * close in space and regular in time, so most values take one to three bytes instead of eight.
+ * <p>
+ * Decoding is lossless up to the configured precision: every decoded value differs from the original by at most
+ * half a unit in the last decimal, and decoded values encode to identical bytes again. Timestamps are always
+ * lossless.
+ * <p>
+ * Layout: varint point count, one byte each for the coordinate and altitude decimals, the latitude, longitude and
+ * altitude columns, one byte timestamp mode (all present, none present or mixed followed by a presence bitmap) and
+ * finally the timestamp column.
+ */
+public final class CompactPointCodec {
+    /**
+     * Marks points without a timestamp, consistent with the timestamp column of PointsChunk
+     */
+    public static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+    /**
+     * 1e-7 degrees, about 1 cm
+     */
+    public static final int DEFAULT_COORDINATE_DECIMALS = 7;
+
+    /**
+     * 1 mm
+     */
+    public static final int DEFAULT_ALTITUDE_DECIMALS = 3;
+
+    private static final int MAX_DECIMALS = 12;
+
+    private static final byte TIMESTAMPS_ALL = 0;
+    private static final byte TIMESTAMPS_NONE = 1;
+    private static final byte TIMESTAMPS_MIXED = 2;
+
+    /**
+     * Receives decoded points.
+     */
+    @FunctionalInterface
+    public interface PointSink {
+        void accept(double latitude, double longitude, double altitude, long timestamp);
+    }
+
+    private final int coordinateDecimals;
+    private final int altitudeDecimals;
+
+    public CompactPointCodec() {
+        this(DEFAULT_COORDINATE_DECIMALS, DEFAULT_ALTITUDE_DECIMALS);
+    }
+
+    /**
+     * @param coordinateDecimals decimals of latitude and longitude in degrees to keep
+     * @param altitudeDecimals decimals of the altitude in meters to keep
+     */
+    public CompactPointCodec(int coordinateDecimals, int altitudeDecimals) {
+        if (coordinateDecimals < 0 || coordinateDecimals > MAX_DECIMALS
+                || altitudeDecimals < 0 || altitudeDecimals > MAX_DECIMALS) {
+            throw new IllegalArgumentException("Decimals must be between 0 and " + MAX_DECIMALS);
+        }
+        this.coordinateDecimals = coordinateDecimals;
+        this.altitudeDecimals = altitudeDecimals;
+    }
+
+    /**
+     * Encode a range of points given in columnar form.
+     *
+     * @param latitudes
+     * @param longitudes
+     * @param altitudes
+     * @param timestamps in nanoseconds since the epoch, or {@link #NO_TIMESTAMP}
+     * @param from index of the first point
+     * @param to index after the last point
+     * @return
+     * @throws IllegalArgumentException if a value is not finite or too large for the configured precision
+     */
+    public byte[] encode(double[] latitudes, double[] longitudes, double[] altitudes, long[] timestamps,
+                         int from, int to) {
+        final int count = to - from;
+        final Output out = new Output(16 + count * 8);
+        out.writeVarint(count);
+        out.writeByte(coordinateDecimals);
+        out.writeByte(altitudeDecimals);
+
+        writeFixedPoint(out, latitudes, from, to, coordinateDecimals);
+        writeFixedPoint(out, longitudes, from, to, coordinateDecimals);
+        writeFixedPoint(out, altitudes, from, to, altitudeDecimals);
+
+        int present = 0;
+        for (int i = from; i < to; ++i) {
+            if (timestamps[i] != NO_TIMESTAMP) {
+                ++present;
+            }
+        }
+        if (present == count) {
+            out.writeByte(TIMESTAMPS_ALL);
+        } else if (present == 0) {
+            out.writeByte(TIMESTAMPS_NONE);
+        } else {
+            out.writeByte(TIMESTAMPS_MIXED);
+            final byte[] bitmap = new byte[(count + 7) / 8];
+            for (int i = from; i < to; ++i) {
+                if (timestamps[i] != NO_TIMESTAMP) {
+                    bitmap[(i - from) / 8] |= 1 << ((i - from) % 8);
+                }
+            }
+            out.writeBytes(bitmap);
+        }
+
+        long previous = 0, previousDelta = 0;
+        for (int i = from; i < to; ++i) {
+            if (timestamps[i] != NO_TIMESTAMP) {
+                // Regular sampling intervals make the delta-of-delta zero
+                final long delta = timestamps[i] - previous;
+                out.writeVarint(zigzag(delta - previousDelta));
+                previous = timestamps[i];
+                previousDelta = delta;
+            }
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * @param data
+     * @return number of points in the encoded data
+     */
+    public static int count(byte[] data) {
+        return (int) new Input(data).readVarint();
+    }
+
+    /**
+     * Decode all points, passing them to the sink in order.
+     *
+     * @param data
+     * @param sink
+     * @throws IllegalArgumentException if the data is malformed
+     */
+    public static void decode(byte[] data, PointSink sink) {
+        try {
+            final Input in = new Input(data);
+            final int count = (int) in.readVarint();
+            final double coordinateScale = scale(in.readByte());
+            final double altitudeScale = scale(in.readByte());
+            if (count < 0 || count > data.length) {
+                throw new IllegalArgumentException("Invalid point count " + count);
+            }
+
+            final long[] latitudes = readFixedPoint(in, count);
+            final long[] longitudes = readFixedPoint(in, count);
+            final long[] altitudes = readFixedPoint(in, count);
+
+            final byte mode = in.readByte();
+            final byte[] bitmap = mode == TIMESTAMPS_MIXED ? in.readBytes((count + 7) / 8) : null;
+            if (mode != TIMESTAMPS_ALL && mode != TIMESTAMPS_NONE && mode != TIMESTAMPS_MIXED) {
+                throw new IllegalArgumentException("Invalid timestamp mode " + mode);
+            }
+
+            long previous = 0, previousDelta = 0;
+            for (int i = 0; i < count; ++i) {
+                final boolean present = mode == TIMESTAMPS_ALL
+                        || (mode == TIMESTAMPS_MIXED && (bitmap[i / 8] & (1 << (i % 8))) != 0);
+                long timestamp = NO_TIMESTAMP;
+                if (present) {
+                    previousDelta += unzigzag(in.readVarint());
+                    previous += previousDelta;
+                    timestamp = previous;
+                }
+                sink.accept(latitudes[i] / coordinateScale, longitudes[i] / coordinateScale,
+                        altitudes[i] / altitudeScale, timestamp);
+            }
+        } catch (ArrayIndexOutOfBoundsException ex) {
+            throw new IllegalArgumentException("Truncated point data", ex);
+        }
+    }
+
+    private static double scale(int decimals) {
+        if (decimals < 0 || decimals > MAX_DECIMALS) {
+            throw new IllegalArgumentException("Invalid number of decimals " + decimals);
+        }
+        return Math.pow(10, decimals);
+    }
+
+    private static void writeFixedPoint(Output out, double[] values, int from, int to, int decimals) {
+        final double scale = scale(decimals);
+        long previous = 0;
+        for (int i = from; i < to; ++i) {
+            final double scaled = values[i] * scale;
+            if (!(Math.abs(scaled) < 0x1p62)) {
+                throw new IllegalArgumentException("Value " + values[i] + " cannot be encoded with " + decimals + " decimals");
+            }
+            final long fixed = Math.round(scaled);
+            out.writeVarint(zigzag(fixed - previous));
+            previous = fixed;
+        }
+    }
+
+    private static long[] readFixedPoint(Input in, int count) {
+        final long[] values = new long[count];
+        long previous = 0;
+        for (int i = 0; i < count; ++i) {
+            previous += unzigzag(in.readVarint());
+            values[i] = previous;
+        }
+        return values;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static final class Output {
+        private byte[] buffer;
+        private int size;
+
+        Output(int capacity) {
+            buffer = new byte[capacity];
+        }
+
+        void writeByte(int value) {
+            if (size == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        void writeBytes(byte[] values) {
+            for (byte value : values) {
+                writeByte(value);
+            }
+        }
+
+        void writeVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                writeByte((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            writeByte((int) value);
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+    }
+
+    private static final class Input {
+        private final byte[] data;
+        private int position;
+
+        Input(byte[] data) {
+            this.data = data;
+        }
+
+        byte readByte() {
+            return data[position++];
+        }
+
+        byte[] readBytes(int count) {
+            if (count > data.length - position) {
+                throw new IllegalArgumentException("Truncated point data");
+            }
+            final byte[] result = Arrays.copyOfRange(data, position, position + count);
+            position += count;
+            return result;
+        }
+
+        long readVarint() {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                final byte b = data[position++];
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+    }
+}
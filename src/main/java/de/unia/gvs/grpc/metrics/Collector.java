@@ -0,0 +1,11 @@
+package de.unia.gvs.grpc.metrics;
+
+/**
+ * Source of metric families which are written on every scrape.
+ */
+interface Collector {
+    /**
+     * @param writer
+     */
+    void collect(PrometheusWriter writer);
+}
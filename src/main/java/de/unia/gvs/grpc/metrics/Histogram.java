@@ -0,0 +1,100 @@
+package de.unia.gvs.grpc.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram with fixed buckets in the Prometheus format.
+ * <p>
+ * Values are recorded as integers, such as nanoseconds or bytes, and scaled to the base unit of the metric when
+ * written. Recording increments a {@link LongAdder}, so it neither allocates nor contends between threads.
+ */
+final class Histogram {
+    private static final long[] LATENCY_BOUNDS = {
+            TimeUnit.MICROSECONDS.toNanos(100), TimeUnit.MICROSECONDS.toNanos(250), TimeUnit.MICROSECONDS.toNanos(500),
+            TimeUnit.MILLISECONDS.toNanos(1), TimeUnit.MICROSECONDS.toNanos(2500), TimeUnit.MILLISECONDS.toNanos(5),
+            TimeUnit.MILLISECONDS.toNanos(10), TimeUnit.MILLISECONDS.toNanos(25), TimeUnit.MILLISECONDS.toNanos(50),
+            TimeUnit.MILLISECONDS.toNanos(100), TimeUnit.MILLISECONDS.toNanos(250), TimeUnit.MILLISECONDS.toNanos(500),
+            TimeUnit.SECONDS.toNanos(1), TimeUnit.MILLISECONDS.toNanos(2500), TimeUnit.SECONDS.toNanos(5),
+            TimeUnit.SECONDS.toNanos(10),
+    };
+    private static final long[] SIZE_BOUNDS = {64, 256, 1 << 10, 4 << 10, 16 << 10, 64 << 10, 256 << 10, 1 << 20,
+            4 << 20, 16 << 20};
+    private static final long[] COUNT_BOUNDS = {10, 100, 1_000, 10_000, 100_000, 1_000_000, 10_000_000};
+
+    private final long[] bounds;
+    // Values of the le label, the last bucket is +Inf
+    private final String[] labels;
+    private final LongAdder[] buckets;
+    private final LongAdder sum = new LongAdder();
+    private final double scale;
+
+    /**
+     * @param bounds inclusive upper bounds of the buckets in ascending order, in recorded units
+     * @param scale recorded units per base unit
+     */
+    Histogram(long[] bounds, double scale) {
+        this.bounds = bounds;
+        this.scale = scale;
+        this.labels = new String[bounds.length + 1];
+        this.buckets = new LongAdder[bounds.length + 1];
+        for (int i = 0; i < bounds.length; ++i) {
+            labels[i] = PrometheusWriter.format(bounds[i] / scale);
+        }
+        labels[bounds.length] = "+Inf";
+        for (int i = 0; i < buckets.length; ++i) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @return histogram of durations recorded in nanoseconds and written in seconds
+     */
+    static Histogram latency() {
+        return new Histogram(LATENCY_BOUNDS, TimeUnit.SECONDS.toNanos(1));
+    }
+
+    /**
+     * @return histogram of message sizes in bytes
+     */
+    static Histogram sizes() {
+        return new Histogram(SIZE_BOUNDS, 1);
+    }
+
+    /**
+     * @return histogram of counts such as points per track
+     */
+    static Histogram counts() {
+        return new Histogram(COUNT_BOUNDS, 1);
+    }
+
+    /**
+     * @param value in recorded units
+     */
+    void record(long value) {
+        int bucket = 0;
+        while (bucket < bounds.length && value > bounds[bucket]) {
+            ++bucket;
+        }
+        buckets[bucket].increment();
+        sum.add(value);
+    }
+
+    /**
+     * Write the cumulative buckets, sum and count.
+     *
+     * @param writer
+     * @param name name of the metric family
+     * @param labels labels of this histogram without braces, may be empty
+     */
+    void write(PrometheusWriter writer, String name, String labels) {
+        final String separator = labels.isEmpty() ? "" : ",";
+        long count = 0;
+        for (int i = 0; i < buckets.length; ++i) {
+            count += buckets[i].sum();
+            writer.sample(name + "_bucket", labels + separator + "le=\"" + this.labels[i] + "\"", count);
+        }
+        writer.sample(name + "_sum", labels, sum.sum() / scale);
+        writer.sample(name + "_count", labels, count);
+    }
+}
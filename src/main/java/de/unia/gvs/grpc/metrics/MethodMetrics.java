@@ -0,0 +1,84 @@
+package de.unia.gvs.grpc.metrics;
+
+import com.google.protobuf.MessageLite;
+import io.grpc.Status;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of one gRPC method on either the server or the client side.
+ * <p>
+ * Recording only updates {@link LongAdder}s and {@link Histogram}s, so it does not allocate.
+ */
+final class MethodMetrics {
+    private static final Status.Code[] CODES = Status.Code.values();
+
+    // Labels of the service and method, without braces
+    final String labels;
+
+    final LongAdder started = new LongAdder();
+    final LongAdder inFlight = new LongAdder();
+    final LongAdder[] handled = new LongAdder[CODES.length];
+    final Histogram handlingTime = Histogram.latency();
+    final Histogram receivedBytes = Histogram.sizes();
+    final Histogram sentBytes = Histogram.sizes();
+
+    /**
+     * @param fullMethodName such as <code>de.unia.gvs.grpc.PositionLogService/LogPosition</code>
+     */
+    MethodMetrics(String fullMethodName) {
+        final int separator = fullMethodName.lastIndexOf('/');
+        this.labels = PrometheusWriter.label("grpc_service", fullMethodName.substring(0, Math.max(separator, 0)))
+                + "," + PrometheusWriter.label("grpc_method", fullMethodName.substring(separator + 1));
+        for (int i = 0; i < handled.length; ++i) {
+            handled[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @return start time of the call for {@link #finish(Status.Code, long)}
+     */
+    long start() {
+        started.increment();
+        inFlight.increment();
+        return System.nanoTime();
+    }
+
+    /**
+     * @param code status of the call
+     * @param startNanos value returned by {@link #start()}
+     */
+    void finish(Status.Code code, long startNanos) {
+        handlingTime.record(System.nanoTime() - startNanos);
+        handled[code.ordinal()].increment();
+        inFlight.decrement();
+    }
+
+    void received(Object message) {
+        receivedBytes.record(size(message));
+    }
+
+    void sent(Object message) {
+        sentBytes.record(size(message));
+    }
+
+    /**
+     * Serialized sizes of generated messages are memoized, so they are only computed once per message, even if the
+     * in-process transport does not serialize it.
+     */
+    private static int size(Object message) {
+        return message instanceof MessageLite ? ((MessageLite) message).getSerializedSize() : 0;
+    }
+
+    /**
+     * @param code
+     * @return number of calls which finished with the given status
+     */
+    long handled(Status.Code code) {
+        return handled[code.ordinal()].sum();
+    }
+
+    static Status.Code[] codes() {
+        return CODES;
+    }
+}
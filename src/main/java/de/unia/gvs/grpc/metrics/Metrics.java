@@ -0,0 +1,72 @@
+package de.unia.gvs.grpc.metrics;
+
+import de.unia.gvs.grpc.server.store.TrackStore;
+import io.grpc.ClientInterceptor;
+import io.grpc.ServerInterceptor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Metrics of the gRPC server and client of a process and of its track store, written in the Prometheus text format.
+ * <p>
+ * Calls are measured by the interceptors from {@link #serverInterceptor()} and {@link #clientInterceptor()}. Metrics
+ * are recorded with striped counters on every call and message without allocating, while everything else,
+ * such as the size of the store, is computed when the metrics are written.
+ */
+public class Metrics {
+    /**
+     * Content type of {@link #write(Writer)}
+     */
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final RpcMetrics server = new RpcMetrics("server");
+    private final RpcMetrics client = new RpcMetrics("client");
+    private final List<Collector> collectors = new CopyOnWriteArrayList<>();
+
+    public Metrics() {
+        collectors.add(server);
+        collectors.add(client);
+    }
+
+    /**
+     * @return interceptor measuring the calls of a service
+     */
+    public ServerInterceptor serverInterceptor() {
+        return new MetricsServerInterceptor(server);
+    }
+
+    /**
+     * @return interceptor measuring the calls made through a channel
+     */
+    public ClientInterceptor clientInterceptor() {
+        return new MetricsClientInterceptor(client);
+    }
+
+    /**
+     * Count the changes of a store and report its size and memory usage.
+     *
+     * @param store
+     */
+    public void monitor(TrackStore store) {
+        final StoreMetrics storeMetrics = new StoreMetrics(store);
+        store.addListener(storeMetrics);
+        collectors.add(storeMetrics);
+    }
+
+    /**
+     * Write the current value of all metrics.
+     *
+     * @param writer
+     * @throws IOException if the metrics cannot be written
+     */
+    public void write(Writer writer) throws IOException {
+        final PrometheusWriter prometheus = new PrometheusWriter(writer);
+        for (Collector collector : collectors) {
+            collector.collect(prometheus);
+        }
+        prometheus.flush();
+    }
+}
@@ -0,0 +1,82 @@
+package de.unia.gvs.grpc.metrics;
+
+import io.grpc.ForwardingServerCall;
+import io.grpc.ForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Records the {@link RpcMetrics} of calls to a server.
+ * <p>
+ * A call ends when the service closes it or the client cancels it, whichever happens first. Cancelled calls are
+ * counted with status CANCELLED, even if the service still closes them later.
+ */
+class MetricsServerInterceptor implements ServerInterceptor {
+    private final RpcMetrics metrics;
+
+    MetricsServerInterceptor(RpcMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+                                                                 ServerCallHandler<ReqT, RespT> next) {
+        final MeteredCall<ReqT, RespT> metered =
+                new MeteredCall<>(call, metrics.method(call.getMethodDescriptor().getFullMethodName()));
+        final ServerCall.Listener<ReqT> listener;
+        try {
+            listener = next.startCall(metered, headers);
+        } catch (RuntimeException ex) {
+            metered.finish(Status.Code.UNKNOWN);
+            throw ex;
+        }
+        return new ForwardingServerCallListener.SimpleForwardingServerCallListener<ReqT>(listener) {
+            @Override
+            public void onMessage(ReqT message) {
+                metered.method.received(message);
+                super.onMessage(message);
+            }
+
+            @Override
+            public void onCancel() {
+                metered.finish(Status.Code.CANCELLED);
+                super.onCancel();
+            }
+        };
+    }
+
+    private static class MeteredCall<ReqT, RespT> extends ForwardingServerCall.SimpleForwardingServerCall<ReqT, RespT> {
+        private final MethodMetrics method;
+        private final long startNanos;
+        private final AtomicBoolean finished = new AtomicBoolean();
+
+        MeteredCall(ServerCall<ReqT, RespT> call, MethodMetrics method) {
+            super(call);
+            this.method = method;
+            this.startNanos = method.start();
+        }
+
+        @Override
+        public void sendMessage(RespT message) {
+            method.sent(message);
+            super.sendMessage(message);
+        }
+
+        @Override
+        public void close(Status status, Metadata trailers) {
+            finish(status.getCode());
+            super.close(status, trailers);
+        }
+
+        void finish(Status.Code code) {
+            if (finished.compareAndSet(false, true)) {
+                method.finish(code, startNanos);
+            }
+        }
+    }
+}
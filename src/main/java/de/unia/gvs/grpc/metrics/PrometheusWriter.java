@@ -0,0 +1,92 @@
+package de.unia.gvs.grpc.metrics;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+
+/**
+ * Writes metrics in the Prometheus text exposition format, version 0.0.4.
+ */
+final class PrometheusWriter {
+    private final PrintWriter out;
+
+    PrometheusWriter(Writer out) {
+        this.out = new PrintWriter(out);
+    }
+
+    /**
+     * Start a metric family, all its samples must follow.
+     *
+     * @param name
+     * @param type counter, gauge or histogram
+     * @param help description of the metric
+     */
+    void family(String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * @param name
+     * @param labels labels without braces, may be empty
+     * @param value
+     */
+    void sample(String name, String labels, double value) {
+        sample(name, labels, format(value));
+    }
+
+    /**
+     * @param name
+     * @param labels labels without braces, may be empty
+     * @param value
+     */
+    void sample(String name, String labels, long value) {
+        sample(name, labels, Long.toString(value));
+    }
+
+    private void sample(String name, String labels, String value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    /**
+     * @throws IOException if writing any sample failed
+     */
+    void flush() throws IOException {
+        // Flushes the writer before checking for errors
+        if (out.checkError()) {
+            throw new IOException("Could not write metrics");
+        }
+    }
+
+    /**
+     * @param value
+     * @return value as a Prometheus float, without a fraction for integers
+     */
+    static String format(double value) {
+        if (value == (long) value) {
+            return Long.toString((long) value);
+        }
+        if (Double.isNaN(value)) {
+            return "NaN";
+        }
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "+Inf" : "-Inf";
+        }
+        // Without an exponent, so bucket bounds read like 0.0001 instead of 1.0E-4
+        return BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+    }
+
+    /**
+     * @param name
+     * @param value
+     * @return label with the value escaped
+     */
+    static String label(String name, String value) {
+        return name + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+    }
+}
@@ -0,0 +1,81 @@
+package de.unia.gvs.grpc.metrics;
+
+import io.grpc.Status;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Metrics of all gRPC methods on one side of the calls, named like those of the Go and Java gRPC Prometheus
+ * interceptors, for example <code>grpc_server_handled_total</code>.
+ */
+final class RpcMetrics implements Collector {
+    private final String prefix;
+    private final String side;
+    private final ConcurrentMap<String, MethodMetrics> methods = new ConcurrentHashMap<>();
+
+    /**
+     * @param side <code>server</code> or <code>client</code>
+     */
+    RpcMetrics(String side) {
+        this.prefix = "grpc_" + side + "_";
+        this.side = side;
+    }
+
+    /**
+     * @param fullMethodName
+     * @return metrics of the method, created on its first call
+     */
+    MethodMetrics method(String fullMethodName) {
+        return methods.computeIfAbsent(fullMethodName, MethodMetrics::new);
+    }
+
+    @Override
+    public void collect(PrometheusWriter writer) {
+        if (methods.isEmpty()) {
+            return;
+        }
+
+        writer.family(prefix + "started_total", "counter", "Total number of RPCs started on the " + side + ".");
+        for (MethodMetrics method : methods.values()) {
+            writer.sample(prefix + "started_total", method.labels, method.started.sum());
+        }
+
+        writer.family(prefix + "handled_total", "counter",
+                "Total number of RPCs completed on the " + side + ", regardless of success or failure.");
+        for (MethodMetrics method : methods.values()) {
+            for (Status.Code code : MethodMetrics.codes()) {
+                final long count = method.handled(code);
+                // Only codes which occurred, as most methods never fail with most codes
+                if (count > 0) {
+                    writer.sample(prefix + "handled_total",
+                            method.labels + "," + PrometheusWriter.label("grpc_code", code.name()), count);
+                }
+            }
+        }
+
+        writer.family(prefix + "in_flight", "gauge", "Number of RPCs currently running on the " + side + ".");
+        for (MethodMetrics method : methods.values()) {
+            writer.sample(prefix + "in_flight", method.labels, method.inFlight.sum());
+        }
+
+        writer.family(prefix + "handling_seconds", "histogram",
+                "Histogram of response latency of RPCs on the " + side + " until completion.");
+        for (MethodMetrics method : methods.values()) {
+            method.handlingTime.write(writer, prefix + "handling_seconds", method.labels);
+        }
+
+        writer.family(prefix + "msg_received_bytes", "histogram",
+                "Histogram of serialized sizes of messages received on the " + side + ".");
+        for (MethodMetrics method : methods.values()) {
+            method.receivedBytes.write(writer, prefix + "msg_received_bytes", method.labels);
+        }
+
+        writer.family(prefix + "msg_sent_bytes", "histogram",
+                "Histogram of serialized sizes of messages sent on the " + side + ".");
+        for (MethodMetrics method : methods.values()) {
+            method.sentBytes.write(writer, prefix + "msg_sent_bytes", method.labels);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package de.unia.gvs.grpc.metrics;
+
+import de.unia.gvs.grpc.server.store.PointColumns;
+import de.unia.gvs.grpc.server.store.TrackListener;
+import de.unia.gvs.grpc.server.store.TrackSnapshot;
+import de.unia.gvs.grpc.server.store.TrackStore;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of a {@link TrackStore}.
+ * <p>
+ * Changes are counted by listening to the store, which only increments counters while the track is locked. The
+ * size of the store is measured from the snapshots of all tracks on every scrape instead of being maintained on
+ * every append. Points per user are reported as a histogram, since a label per user would create a time series for
+ * every user.
+ */
+class StoreMetrics implements TrackListener, Collector {
+    private final TrackStore store;
+    private final LongAdder appends = new LongAdder();
+    private final LongAdder appendedPoints = new LongAdder();
+    private final LongAdder deletes = new LongAdder();
+
+    StoreMetrics(TrackStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public void appended(int userId, TrackSnapshot track, int offset, PointColumns points) {
+        appends.increment();
+        appendedPoints.add(points.size());
+    }
+
+    @Override
+    public void deleted(int userId, long version) {
+        deletes.increment();
+    }
+
+    @Override
+    public void collect(PrometheusWriter writer) {
+        final Histogram trackPoints = Histogram.counts();
+        long users = 0;
+        long points = 0;
+        long heapBytes = 0;
+        long offHeapBytes = 0;
+        for (int userId : store.listUsers()) {
+            // The user may have been deleted since listing them
+            final TrackSnapshot track = store.snapshot(userId).orElse(null);
+            if (track != null) {
+                ++users;
+                points += track.size();
+                heapBytes += track.heapBytes();
+                offHeapBytes += track.offHeapBytes();
+                trackPoints.record(track.size());
+            }
+        }
+
+        writer.family("positionlog_store_users", "gauge", "Number of users with a track.");
+        writer.sample("positionlog_store_users", "", users);
+        writer.family("positionlog_store_points", "gauge", "Number of points in all tracks.");
+        writer.sample("positionlog_store_points", "", points);
+        writer.family("positionlog_store_track_points", "histogram", "Histogram of the number of points per user.");
+        trackPoints.write(writer, "positionlog_store_track_points", "");
+        writer.family("positionlog_store_bytes", "gauge", "Estimated memory used by the points of all tracks.");
+        writer.sample("positionlog_store_bytes", PrometheusWriter.label("area", "heap"), heapBytes);
+        writer.sample("positionlog_store_bytes", PrometheusWriter.label("area", "off_heap"), offHeapBytes);
+
+        writer.family("positionlog_store_appends_total", "counter", "Total number of appends to tracks.");
+        writer.sample("positionlog_store_appends_total", "", appends.sum());
+        writer.family("positionlog_store_appended_points_total", "counter", "Total number of appended points.");
+        writer.sample("positionlog_store_appended_points_total", "", appendedPoints.sum());
+        writer.family("positionlog_store_deletes_total", "counter", "Total number of deleted tracks.");
+        writer.sample("positionlog_store_deletes_total", "", deletes.sum());
+    }
+}
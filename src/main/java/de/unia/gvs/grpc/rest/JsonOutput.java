@@ -0,0 +1,141 @@
+package de.unia.gvs.grpc.rest;
+
+import com.google.protobuf.MessageOrBuilder;
+import com.google.protobuf.util.JsonFormat;
+import com.google.protobuf.util.Timestamps;
+import de.unia.gvs.grpc.Coordinate;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+/**
+ * JSON response bodies which are written to the response stream while they are produced.
+ * <p>
+ * Coordinates are written without reflection, in the same format as the protobuf {@link
+ * com.google.protobuf.util.JsonFormat} printer: fields with default values are omitted and timestamps are RFC 3339
+ * strings. Only one element is held in memory at a time, so responses of any size need constant memory.
+ */
+final class JsonOutput {
+    static final int BUFFER_SIZE = 8192;
+
+    private JsonOutput() {
+    }
+
+    /**
+     * @param points consumed while the response is written
+     * @return JSON array of all points
+     */
+    static StreamingOutput coordinates(Iterator<Coordinate> points) {
+        return output -> {
+            final Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), BUFFER_SIZE);
+            writer.write('[');
+            boolean first = true;
+            while (points.hasNext()) {
+                if (!first) {
+                    writer.write(",\n");
+                }
+                first = false;
+                writeCoordinate(writer, points.next());
+            }
+            writer.write(']');
+            writer.flush();
+        };
+    }
+
+    /**
+     * @param ids
+     * @return JSON array of all IDs
+     */
+    static StreamingOutput ids(Iterable<Integer> ids) {
+        return output -> {
+            final Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.US_ASCII), BUFFER_SIZE);
+            writer.write('[');
+            boolean first = true;
+            for (int id : ids) {
+                if (!first) {
+                    writer.write(",\n");
+                }
+                first = false;
+                writer.write(Integer.toString(id));
+            }
+            writer.write(']');
+            writer.flush();
+        };
+    }
+
+    /**
+     * @param messages
+     * @return JSON array of all messages in the protobuf JSON format
+     */
+    static StreamingOutput messages(Iterable<? extends MessageOrBuilder> messages) {
+        return output -> {
+            final Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), BUFFER_SIZE);
+            final JsonFormat.Printer printer = JsonFormat.printer().omittingInsignificantWhitespace();
+            writer.write('[');
+            boolean first = true;
+            for (MessageOrBuilder message : messages) {
+                if (!first) {
+                    writer.write(",\n");
+                }
+                first = false;
+                printer.appendTo(message, writer);
+            }
+            writer.write(']');
+            writer.flush();
+        };
+    }
+
+    /**
+     * Write a single coordinate as JSON object.
+     *
+     * @param writer
+     * @param point
+     * @throws IOException
+     */
+    static void writeCoordinate(Writer writer, Coordinate point) throws IOException {
+        writer.write('{');
+        boolean first = writeDouble(writer, "latitude", point.getLatitude(), true);
+        first = writeDouble(writer, "longitude", point.getLongitude(), first);
+        first = writeDouble(writer, "altitude", point.getAltitude(), first);
+        if (point.hasTimestamp()) {
+            if (!first) {
+                writer.write(',');
+            }
+            writer.write("\"timestamp\":\"");
+            writer.write(Timestamps.toString(point.getTimestamp()));
+            writer.write('"');
+        }
+        writer.write('}');
+    }
+
+    /**
+     * Write a field unless it has the default value, which is only positive zero.
+     *
+     * @return whether the next field is still the first one
+     */
+    private static boolean writeDouble(Writer writer, String name, double value, boolean first) throws IOException {
+        if (Double.doubleToRawLongBits(value) == 0) {
+            return first;
+        }
+        if (!first) {
+            writer.write(',');
+        }
+        writer.write('"');
+        writer.write(name);
+        writer.write("\":");
+        // Non-finite values are strings in the protobuf JSON mapping
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            writer.write('"');
+            writer.write(Double.toString(value));
+            writer.write('"');
+        } else {
+            writer.write(Double.toString(value));
+        }
+        return false;
+    }
+}
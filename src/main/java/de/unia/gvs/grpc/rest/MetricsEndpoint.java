@@ -0,0 +1,30 @@
+package de.unia.gvs.grpc.rest;
+
+import de.unia.gvs.grpc.metrics.Metrics;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Provides the metrics of the process for Prometheus.
+ */
+@Path("/metrics")
+public class MetricsEndpoint {
+    private final Metrics metrics;
+
+    public MetricsEndpoint(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @GET
+    @Produces(Metrics.CONTENT_TYPE)
+    public StreamingOutput handleScrape() {
+        return output -> metrics.write(new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8),
+                JsonOutput.BUFFER_SIZE));
+    }
+}
@@ -0,0 +1,156 @@
+package de.unia.gvs.grpc.rest;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import de.unia.gvs.grpc.Coordinate;
+import de.unia.gvs.grpc.client.PointsObserver;
+import de.unia.gvs.grpc.client.PointsSubscription;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.OptionalLong;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Passes the points of an asynchronous GetPoints call to a suspended HTTP response.
+ * <p>
+ * No thread is blocked while waiting for the gRPC server. Once the first point or the end of the call arrives, the
+ * response is resumed on a thread of the given executor, which writes its body from a queue. Resuming writes the
+ * whole body before it returns, so it must not happen on the gRPC thread delivering the points. The queue holds at
+ * most a window of points, further points are only requested from the server as the response is written. If the
+ * HTTP client goes away, the gRPC call is cancelled.
+ * <p>
+ * If the track version received with the first point matches the request's <code>If-None-Match</code> header, the
+ * call is cancelled and the response is resumed with 304 Not Modified instead.
+ */
+class PointsResponse implements PointsObserver, StreamingOutput {
+    // Maximum number of points received but not written yet
+    private static final int WINDOW = 1024;
+
+    // Queue entry marking the end of the call
+    private static final Object END = new Object();
+
+    private final AsyncResponse response;
+    private final Executor executor;
+    private final String pageTokenHeader;
+    private final String ifNoneMatch;
+    private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+    private PointsSubscription subscription;
+    private boolean resumed;
+
+    /**
+     * @param response
+     * @param executor threads resuming the response, which are busy until its body is written
+     * @param pageTokenHeader
+     * @param ifNoneMatch
+     */
+    PointsResponse(AsyncResponse response, Executor executor, String pageTokenHeader, String ifNoneMatch) {
+        this.response = response;
+        this.executor = executor;
+        this.pageTokenHeader = pageTokenHeader;
+        this.ifNoneMatch = ifNoneMatch;
+    }
+
+    @Override
+    public void onStart(PointsSubscription subscription) {
+        this.subscription = subscription;
+        subscription.request(WINDOW);
+    }
+
+    @Override
+    public void onNext(Coordinate value) {
+        queue.add(value);
+        resume();
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        synchronized (this) {
+            if (!resumed) {
+                resumed = true;
+                UserEndpoint.fail(response, t);
+                return;
+            }
+        }
+        // The response has already been started, abort it
+        queue.add(t);
+    }
+
+    @Override
+    public void onCompleted() {
+        queue.add(END);
+        resume();
+    }
+
+    private void resume() {
+        final Response result;
+        synchronized (this) {
+            if (resumed) {
+                return;
+            }
+            resumed = true;
+            final OptionalLong version = subscription.getTrackVersion();
+            final EntityTag tag = version.isPresent() ? UserEndpoint.versionTag(version.getAsLong()) : null;
+            if (tag != null && UserEndpoint.matches(ifNoneMatch, tag)) {
+                subscription.cancel();
+                result = Response.notModified(tag).build();
+            } else {
+                final Response.ResponseBuilder builder = Response.ok(this).tag(tag);
+                subscription.getNextPageToken().ifPresent(token -> builder.header(pageTokenHeader, token));
+                result = builder.build();
+            }
+        }
+        executor.execute(() -> response.resume(result));
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException {
+        try {
+            JsonOutput.coordinates(new QueueIterator()).write(output);
+        } catch (IOException | RuntimeException ex) {
+            subscription.cancel();
+            throw ex;
+        }
+    }
+
+    /**
+     * Takes points from the queue while the response is written, requesting more from the server as it goes.
+     */
+    private class QueueIterator implements Iterator<Coordinate> {
+        private Object next;
+        private int consumed;
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                next = Uninterruptibles.takeUninterruptibly(queue);
+            }
+            if (next instanceof Throwable) {
+                throw new IllegalStateException("Failed to fetch points", (Throwable) next);
+            }
+            return next != END;
+        }
+
+        @Override
+        public Coordinate next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final Coordinate point = (Coordinate) next;
+            next = null;
+            // Request in batches, so the server is not asked for every single point
+            if (++consumed == WINDOW / 2) {
+                subscription.request(consumed);
+                consumed = 0;
+            }
+            return point;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package de.unia.gvs.grpc.rest;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import de.unia.gvs.grpc.Coordinate;
+import de.unia.gvs.grpc.client.PointsObserver;
+import de.unia.gvs.grpc.client.PointsSubscription;
+import io.grpc.Status;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Passes the points of a SubscribeTrack call to a suspended HTTP response as server-sent events.
+ * <p>
+ * Every point is sent as an event with the point as JSON data. The ID of an event is the requested offset plus the
+ * number of points up to and including it, counting points the server skipped, so browsers reconnecting with the
+ * <code>Last-Event-ID</code> header continue after the last received point. Events are flushed whenever no further
+ * point is waiting, and a comment is sent after {@link #HEARTBEAT_SECONDS} without points, so closed connections are
+ * noticed.
+ * <p>
+ * The response is resumed once the call has started, on a thread of the given executor which keeps writing events
+ * until the call ends. Errors are reported by a final <code>failure</code> event with the gRPC status code as data.
+ */
+class TrackEvents implements PointsObserver, StreamingOutput {
+    static final String MEDIA_TYPE = "text/event-stream";
+
+    // Seconds without any point after which a comment is sent
+    static final int HEARTBEAT_SECONDS = 15;
+
+    // Maximum number of points received but not written yet
+    private static final int WINDOW = 1024;
+
+    // Queue entry marking the end of the call
+    private static final Object END = new Object();
+
+    private final AsyncResponse response;
+    private final Executor executor;
+    private final int offset;
+    private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+    private PointsSubscription subscription;
+
+    /**
+     * @param response
+     * @param executor threads resuming the response, which are busy until the call ends
+     * @param offset offset of the subscription, which is the ID of the event before the first one
+     */
+    TrackEvents(AsyncResponse response, Executor executor, int offset) {
+        this.response = response;
+        this.executor = executor;
+        this.offset = offset;
+    }
+
+    @Override
+    public void onStart(PointsSubscription subscription) {
+        this.subscription = subscription;
+        subscription.request(WINDOW);
+        // Resuming writes the events before it returns, while this is called before the call is started
+        final Response events = Response.ok(this, MEDIA_TYPE).header("Cache-Control", "no-cache").build();
+        executor.execute(() -> response.resume(events));
+    }
+
+    @Override
+    public void onNext(Coordinate value) {
+        queue.add(value);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        queue.add(t);
+    }
+
+    @Override
+    public void onCompleted() {
+        queue.add(END);
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException {
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8),
+                JsonOutput.BUFFER_SIZE);
+        try {
+            long id = Integer.toUnsignedLong(offset);
+            int consumed = 0;
+            while (true) {
+                Object next = queue.poll();
+                if (next == null) {
+                    writer.flush();
+                    next = Uninterruptibles.pollUninterruptibly(queue, HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+                    if (next == null) {
+                        writer.write(":\n\n");
+                        continue;
+                    }
+                }
+
+                if (next == END) {
+                    break;
+                }
+                if (next instanceof Throwable) {
+                    writer.write("event: failure\ndata: ");
+                    writer.write(Status.fromThrowable((Throwable) next).getCode().name());
+                    writer.write("\n\n");
+                    break;
+                }
+
+                // Points dropped by the server for falling behind count like received ones
+                final Coordinate point = (Coordinate) next;
+                id += 1 + Integer.toUnsignedLong(point.getSkipped());
+                writer.write("id: ");
+                writer.write(Long.toString(id));
+                writer.write("\ndata: ");
+                JsonOutput.writeCoordinate(writer, point);
+                writer.write("\n\n");
+
+                // Request in batches, so the server is not asked for every single point
+                if (++consumed == WINDOW / 2) {
+                    subscription.request(consumed);
+                    consumed = 0;
+                }
+            }
+            writer.flush();
+        } catch (IOException | RuntimeException ex) {
+            // The client went away, end the subscription
+            subscription.cancel();
+            throw ex;
+        }
+    }
+}
@@ -1,85 +1,373 @@
 package de.unia.gvs.grpc.rest;
 
-import com.diffplug.common.base.Errors;
-import com.google.common.collect.Streams;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.util.JsonFormat;
-import de.unia.gvs.grpc.Coordinate;
-import de.unia.gvs.grpc.LengthReply;
+import com.google.protobuf.util.Timestamps;
+import de.unia.gvs.grpc.BatchLogPositionRequest;
+import de.unia.gvs.grpc.DistanceAlgorithm;
+import de.unia.gvs.grpc.LengthsRequest;
 import de.unia.gvs.grpc.LogPositionRequest;
+import de.unia.gvs.grpc.NearbyRequest;
+import de.unia.gvs.grpc.PointsRequest;
+import de.unia.gvs.grpc.RegionRequest;
 import de.unia.gvs.grpc.client.PositionLogClient;
+import io.grpc.Status;
 import org.jboss.logging.Logger;
 
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
-import java.util.Iterator;
-
-import static java.util.stream.Collectors.joining;
+import java.text.ParseException;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
 
 /**
  * Contains implementations for the REST service endpoints provided via Undertow
+ * <p>
+ * All endpoints use the asynchronous client and suspend the HTTP request until the gRPC call completes, so no worker
+ * thread waits for the gRPC server. Streamed points are written by a thread of the response executor, which is busy
+ * until the gRPC call ends.
+ * <p>
+ * Responses of GET requests carry an <code>ETag</code>, the version of the track for points and track lengths and a
+ * hash of the IDs for user lists. Requests whose <code>If-None-Match</code> header contains the current tag are
+ * answered with 304 Not Modified and an empty body.
  */
 @Path("/users")
 @Produces(MediaType.APPLICATION_JSON)
 public class UserEndpoint {
     private static final Logger log = Logger.getLogger(UserEndpoint.class);
+    private static final String NEXT_PAGE_TOKEN_HEADER = "X-Next-Page-Token";
 
     private final PositionLogClient client;
+    private final Executor responseExecutor;
 
-    public UserEndpoint(PositionLogClient client) {
+    /**
+     * @param client
+     * @param responseExecutor threads writing responses which stream the points of a gRPC call
+     */
+    public UserEndpoint(PositionLogClient client, Executor responseExecutor) {
         this.client = client;
+        this.responseExecutor = responseExecutor;
+    }
+
+    @GET
+    public void handleUserList(@HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch,
+                               @Suspended AsyncResponse response) {
+        resume(response, client.listUsersAsync(), users -> userList(users, ifNoneMatch));
     }
 
+    /**
+     * Return all users with points in a viewport, which crosses the antimeridian if <code>maxLon</code> is less than
+     * <code>minLon</code>.
+     */
     @GET
-    public Response handleUserList() {
-        final String json = client.listUsers()
-                .stream()
-                .map(Object::toString)
-                .collect(joining(",\n"));
+    @Path("/region")
+    public void handleRegionQuery(@QueryParam("minLat") double minLatitude,
+                                  @QueryParam("minLon") double minLongitude,
+                                  @QueryParam("maxLat") double maxLatitude,
+                                  @QueryParam("maxLon") double maxLongitude,
+                                  @HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch,
+                                  @Suspended AsyncResponse response) {
+        resume(response, client.queryRegionAsync(RegionRequest.newBuilder()
+                .setMinLatitude(minLatitude)
+                .setMinLongitude(minLongitude)
+                .setMaxLatitude(maxLatitude)
+                .setMaxLongitude(maxLongitude)
+                .build()), users -> userList(users, ifNoneMatch));
+    }
 
+    /**
+     * Return all users with points within <code>radius</code> meters of a center.
+     */
+    @GET
+    @Path("/nearby")
+    public void handleNearbyQuery(@QueryParam("lat") double latitude,
+                                  @QueryParam("lon") double longitude,
+                                  @QueryParam("radius") double radius,
+                                  @HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch,
+                                  @Suspended AsyncResponse response) {
+        resume(response, client.queryNearbyAsync(NearbyRequest.newBuilder()
+                .setLatitude(latitude)
+                .setLongitude(longitude)
+                .setRadius(radius)
+                .build()), users -> userList(users, ifNoneMatch));
+    }
+
+    private static Response userList(List<Integer> users, String ifNoneMatch) {
+        final Hasher hasher = Hashing.murmur3_128().newHasher();
+        for (int user : users) {
+            hasher.putInt(user);
+        }
+        final EntityTag tag = new EntityTag(hasher.hash().toString());
+        if (matches(ifNoneMatch, tag)) {
+            return Response.notModified(tag).build();
+        }
         return Response.status(Response.Status.OK)
-                .entity("[" + json + "]")
+                .tag(tag)
+                .entity(JsonOutput.ids(users))
                 .build();
     }
 
+    /**
+     * Return the points of a user's track, optionally limited to a time range and paged.
+     * <p>
+     * Time bounds are RFC 3339 timestamps. A positive <code>tolerance</code> in meters returns a simplified track for
+     * drawing maps. If more points are available after a page, the token for requesting them is returned in the
+     * <code>X-Next-Page-Token</code> header.
+     */
     @GET
     @Path("/{userId}/points")
-    public String handlePointsList(@PathParam("userId") int userId) {
-        final Iterator<Coordinate> data = client.getPoints(userId);
-        final String json = Streams.stream(data)
-                .map(Errors.rethrow().wrap(JsonFormat.printer()::print))
-                .collect(joining(",\n"));
+    public void handlePointsList(@PathParam("userId") int userId,
+                                 @QueryParam("from") String from,
+                                 @QueryParam("to") String to,
+                                 @QueryParam("offset") @DefaultValue("0") int offset,
+                                 @QueryParam("limit") @DefaultValue("0") int limit,
+                                 @QueryParam("tolerance") @DefaultValue("0") double tolerance,
+                                 @QueryParam("pageToken") String pageToken,
+                                 @HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch,
+                                 @Suspended AsyncResponse response) {
+        final PointsRequest.Builder request = PointsRequest.newBuilder()
+                .setUserId(userId)
+                .setOffset(offset)
+                .setLimit(limit)
+                .setTolerance(tolerance);
+        try {
+            if (from != null) {
+                request.setFromTimestamp(Timestamps.parse(from));
+            }
+            if (to != null) {
+                request.setToTimestamp(Timestamps.parse(to));
+            }
+        } catch (ParseException ex) {
+            log.error("Could not parse time range", ex);
+            response.resume(Response.status(Response.Status.BAD_REQUEST).build());
+            return;
+        }
+        if (pageToken != null) {
+            request.setPageToken(pageToken);
+        }
 
-        return "[" + json + "]";
+        // The response is resumed with the first point and written while the remaining points arrive
+        client.getPoints(request.build(),
+                new PointsResponse(response, responseExecutor, NEXT_PAGE_TOKEN_HEADER, ifNoneMatch));
+    }
+
+    /**
+     * Stream the points of a user's track as server-sent events, first the logged ones and then every point logged
+     * later, for live maps in browsers.
+     * <p>
+     * Time bounds and the offset apply like for the points list, later points follow in the order they are logged.
+     * Browsers reconnect with the <code>Last-Event-ID</code> header, which replaces the offset. Connections which
+     * fall too far behind are closed, so browsers reconnect and continue after the last received point.
+     */
+    @GET
+    @Path("/{userId}/points/live")
+    @Produces(TrackEvents.MEDIA_TYPE)
+    public void handleLivePoints(@PathParam("userId") int userId,
+                                 @QueryParam("from") String from,
+                                 @QueryParam("to") String to,
+                                 @QueryParam("offset") @DefaultValue("0") int offset,
+                                 @HeaderParam("Last-Event-ID") String lastEventId,
+                                 @Suspended AsyncResponse response) {
+        final PointsRequest.Builder request = PointsRequest.newBuilder().setUserId(userId);
+        try {
+            if (from != null) {
+                request.setFromTimestamp(Timestamps.parse(from));
+            }
+            if (to != null) {
+                request.setToTimestamp(Timestamps.parse(to));
+            }
+            request.setOffset(lastEventId != null ? Integer.parseUnsignedInt(lastEventId.trim()) : offset);
+        } catch (ParseException | NumberFormatException ex) {
+            log.error("Could not parse subscription", ex);
+            response.resume(Response.status(Response.Status.BAD_REQUEST).build());
+            return;
+        }
+
+        client.subscribeTrack(request.build(), new TrackEvents(response, responseExecutor, request.getOffset()));
     }
 
     @DELETE
     @Path("/{userId}")
-    public void handleDeleteUser(@PathParam("userId") int userId) {
-        client.removeUser(userId);
-        Response.status(Response.Status.NO_CONTENT);
+    public void handleDeleteUser(@PathParam("userId") int userId, @Suspended AsyncResponse response) {
+        resume(response, client.removeUserAsync(userId), empty -> Response.noContent().build());
     }
 
     @GET
     @Path("/{userId}/trackLength")
-    public String handleGetTrackLength(@PathParam("userId") int userId) throws InvalidProtocolBufferException {
-        final LengthReply data = client.getTrackLength(userId);
-        final String json = JsonFormat.printer().print(data);
-        return json;
+    public void handleGetTrackLength(@PathParam("userId") int userId,
+                                     @HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch,
+                                     @Suspended AsyncResponse response) {
+        resume(response, client.getTrackLengthAsync(userId), data -> {
+            final EntityTag tag = versionTag(data.getVersion());
+            if (matches(ifNoneMatch, tag)) {
+                return Response.notModified(tag).build();
+            }
+            try {
+                return Response.ok(JsonFormat.printer().print(data)).tag(tag).build();
+            } catch (InvalidProtocolBufferException ex) {
+                throw new IllegalStateException(ex);
+            }
+        });
+    }
+
+    /**
+     * Return the track lengths of the users in the comma separated <code>ids</code>, or of all users if there are
+     * none, in the order of the IDs. Users who do not exist are left out.
+     */
+    @GET
+    @Path("/trackLengths")
+    public void handleGetTrackLengths(@QueryParam("ids") String ids,
+                                      @QueryParam("algorithm") String algorithm,
+                                      @Suspended AsyncResponse response) {
+        final LengthsRequest.Builder request = LengthsRequest.newBuilder();
+        try {
+            if (ids != null && !ids.trim().isEmpty()) {
+                for (String id : ids.split(",")) {
+                    request.addUserIds(Integer.parseUnsignedInt(id.trim()));
+                }
+            }
+            if (algorithm != null) {
+                request.setAlgorithm(DistanceAlgorithm.valueOf(algorithm));
+            }
+        } catch (IllegalArgumentException ex) {
+            log.error("Could not parse track length query", ex);
+            response.resume(Response.status(Response.Status.BAD_REQUEST).build());
+            return;
+        }
+        resume(response, client.getTrackLengthsAsync(request.build()),
+                lengths -> Response.ok(JsonOutput.messages(lengths)).build());
+    }
+
+    /**
+     * Add points for many users at once, the body contains a group of points per user. All points are validated
+     * before any is added, so an invalid batch adds nothing on a single server. If the points cannot be persisted, the
+     * groups before the failed one may have been added nonetheless.
+     */
+    @POST
+    @Path("/points")
+    public void handleBatchLogPositions(String body, @Suspended AsyncResponse response) {
+        final BatchLogPositionRequest.Builder builder = BatchLogPositionRequest.newBuilder();
+        try {
+            JsonFormat.parser().merge(body, builder);
+        } catch (InvalidProtocolBufferException ex) {
+            log.error("Could not deserialize request", ex);
+            response.resume(Response.status(Response.Status.BAD_REQUEST).build());
+            return;
+        }
+        resume(response, client.batchLogPointsAsync(builder.build()), summary -> {
+            try {
+                return Response.ok(JsonFormat.printer().print(summary)).build();
+            } catch (InvalidProtocolBufferException ex) {
+                throw new IllegalStateException(ex);
+            }
+        });
     }
 
     @POST
     @Path("/{userId}/points")
-    public void handleLogPositions(String body, @PathParam("userId") int userId) {
+    public void handleLogPositions(String body, @PathParam("userId") int userId, @Suspended AsyncResponse response) {
         final LogPositionRequest.Builder builder = LogPositionRequest.newBuilder().setUserId(userId);
         try {
             JsonFormat.parser().merge(body, builder);
-            client.logPoints(builder.build());
-            Response.status(Response.Status.CREATED);
         } catch (InvalidProtocolBufferException ex) {
             log.error("Could not deserialize request", ex);
-            Response.status(Response.Status.BAD_REQUEST);
+            response.resume(Response.status(Response.Status.BAD_REQUEST).build());
+            return;
+        }
+        resume(response, client.logPointsAsync(builder.build()), empty -> Response.noContent().build());
+    }
+
+    /**
+     * @param version
+     * @return entity tag of a response derived from a track version
+     */
+    static EntityTag versionTag(long version) {
+        return new EntityTag(Long.toUnsignedString(version));
+    }
+
+    /**
+     * Check an <code>If-None-Match</code> header with the weak comparison required for GET requests.
+     *
+     * @param ifNoneMatch header value, may be null
+     * @param tag current tag of the resource
+     * @return whether the header contains the tag or "*"
+     */
+    static boolean matches(String ifNoneMatch, EntityTag tag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals("*") || candidate.equals("\"" + tag.getValue() + "\"")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Resume a suspended request once a gRPC call completes.
+     *
+     * @param response
+     * @param future result of the gRPC call
+     * @param onSuccess creates the response from the result
+     */
+    private static <T> void resume(AsyncResponse response, ListenableFuture<T> future,
+                                   Function<T, Response> onSuccess) {
+        Futures.addCallback(future, new FutureCallback<T>() {
+            @Override
+            public void onSuccess(T result) {
+                final Response success;
+                try {
+                    success = onSuccess.apply(result);
+                } catch (RuntimeException ex) {
+                    response.resume(ex);
+                    return;
+                }
+                response.resume(success);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                fail(response, t);
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Resume a suspended request with a failed gRPC call, mapping invalid arguments and unknown users to the
+     * corresponding HTTP status.
+     *
+     * @param response
+     * @param t
+     */
+    static void fail(AsyncResponse response, Throwable t) {
+        final Status status = Status.fromThrowable(t);
+        switch (status.getCode()) {
+            case INVALID_ARGUMENT:
+                log.error("Invalid request", t);
+                response.resume(Response.status(Response.Status.BAD_REQUEST).build());
+                break;
+            case NOT_FOUND:
+                response.resume(Response.status(Response.Status.NOT_FOUND).build());
+                break;
+            default:
+                response.resume(t);
         }
     }
 }
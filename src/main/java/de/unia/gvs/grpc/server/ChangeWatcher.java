@@ -0,0 +1,99 @@
+package de.unia.gvs.grpc.server;
+
+import de.unia.gvs.grpc.ChangeEvent;
+import de.unia.gvs.grpc.ChangeType;
+import de.unia.gvs.grpc.server.store.PointColumns;
+import de.unia.gvs.grpc.server.store.TrackListener;
+import de.unia.gvs.grpc.server.store.TrackSnapshot;
+import de.unia.gvs.grpc.server.store.TrackStore;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+
+/**
+ * Reports the changes of a {@link TrackStore} to a WatchChanges call.
+ * <p>
+ * Changes are sent from the threads applying them, so writers never wait for watchers. Events which cannot be sent
+ * right away are buffered by gRPC; a watcher falling behind by more than {@link #MAX_BUFFERED_EVENTS} events is
+ * disconnected instead of buffering without bound, and has to start over with a new call.
+ */
+class ChangeWatcher implements TrackListener {
+    // Maximum number of events sent while the transport was not ready
+    static final int MAX_BUFFERED_EVENTS = 10_000;
+
+    private final TrackStore store;
+    private final ServerCallStreamObserver<ChangeEvent> observer;
+    private int buffered;
+    private boolean closed;
+
+    private ChangeWatcher(TrackStore store, ServerCallStreamObserver<ChangeEvent> observer) {
+        this.store = store;
+        this.observer = observer;
+    }
+
+    /**
+     * Start reporting changes until the call is cancelled.
+     * <p>
+     * Must be called from within the service method, so the handlers are registered before the call starts.
+     *
+     * @param store
+     * @param observer
+     */
+    static void watch(TrackStore store, StreamObserver<ChangeEvent> observer) {
+        final ServerCallStreamObserver<ChangeEvent> call = (ServerCallStreamObserver<ChangeEvent>) observer;
+        final ChangeWatcher watcher = new ChangeWatcher(store, call);
+        call.setOnCancelHandler(watcher::cancel);
+        call.setOnReadyHandler(watcher::ready);
+        synchronized (watcher) {
+            // Changes applied concurrently wait for the lock, so they are reported after STARTED
+            store.addListener(watcher);
+            watcher.send(ChangeEvent.newBuilder().setType(ChangeType.STARTED).build());
+        }
+    }
+
+    @Override
+    public void appended(int userId, TrackSnapshot track, int offset, PointColumns points) {
+        send(ChangeEvent.newBuilder()
+                .setType(offset == 0 ? ChangeType.CREATED : ChangeType.APPENDED)
+                .setUserId(userId)
+                .setVersion(track.version())
+                .setNumPoints(track.size())
+                .build());
+    }
+
+    @Override
+    public void deleted(int userId, long version) {
+        send(ChangeEvent.newBuilder()
+                .setType(ChangeType.DELETED)
+                .setUserId(userId)
+                .setVersion(version)
+                .build());
+    }
+
+    private synchronized void send(ChangeEvent event) {
+        if (closed) {
+            return;
+        }
+        if (!observer.isReady() && ++buffered > MAX_BUFFERED_EVENTS) {
+            close();
+            observer.onError(new StatusRuntimeException(Status.RESOURCE_EXHAUSTED
+                    .withDescription("Watcher fell behind by more than " + MAX_BUFFERED_EVENTS + " changes")));
+            return;
+        }
+        observer.onNext(event);
+    }
+
+    private synchronized void ready() {
+        buffered = 0;
+    }
+
+    private synchronized void cancel() {
+        close();
+    }
+
+    private void close() {
+        closed = true;
+        store.removeListener(this);
+    }
+}
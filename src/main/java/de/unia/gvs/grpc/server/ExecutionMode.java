@@ -0,0 +1,81 @@
+package de.unia.gvs.grpc.server;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Logger;
+
+/**
+ * Threads which run gRPC call handlers and blocking HTTP handlers.
+ */
+public enum ExecutionMode {
+    /**
+     * Default executors of gRPC and Undertow, which grow pools of platform threads under load
+     */
+    DEFAULT,
+
+    /**
+     * Fixed pool of platform threads, {@link #FIXED_THREADS_PER_CPU} per available processor but at least two
+     */
+    FIXED,
+
+    /**
+     * A new virtual thread per task. Falls back to {@link #FIXED} on JDKs before 21, which have no virtual threads.
+     */
+    VIRTUAL;
+
+    /**
+     * Number of threads per available processor in {@link #FIXED} pools. Undertow's default worker pool has as many
+     * per I/O thread, of which it starts one per available processor but at least two.
+     */
+    public static final int FIXED_THREADS_PER_CPU = 8;
+
+    private static final Logger log = Logger.getLogger(ExecutionMode.class.getSimpleName());
+
+    /**
+     * Create an executor for this mode, which must be shut down by the caller.
+     *
+     * @param name prefix for thread names
+     * @return the executor, or null to use the default executor
+     */
+    public ExecutorService createExecutor(String name) {
+        switch (this) {
+            case FIXED:
+                return fixedPool(name);
+            case VIRTUAL:
+                try {
+                    return virtualThreads(name);
+                } catch (ReflectiveOperationException ex) {
+                    log.warning("Virtual threads are not available before Java 21, using a fixed thread pool");
+                    return fixedPool(name);
+                }
+            default:
+                return null;
+        }
+    }
+
+    private static ExecutorService fixedPool(String name) {
+        final ThreadFactory threadFactory = new ThreadFactoryBuilder()
+                .setNameFormat(name + "-%d")
+                .setDaemon(true)
+                .build();
+        final int processors = Math.max(Runtime.getRuntime().availableProcessors(), 2);
+        return Executors.newFixedThreadPool(FIXED_THREADS_PER_CPU * processors, threadFactory);
+    }
+
+    /**
+     * Equivalent to <code>Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 0).factory())</code>,
+     * which is looked up at runtime since the build targets JDKs without virtual threads.
+     */
+    private static ExecutorService virtualThreads(String name) throws ReflectiveOperationException {
+        final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+        Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+        builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 0L);
+        final ThreadFactory threadFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        final Method newExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+        return (ExecutorService) newExecutor.invoke(null, threadFactory);
+    }
+}
@@ -0,0 +1,108 @@
+package de.unia.gvs.grpc.server;
+
+import de.unia.gvs.grpc.LogPositionRequest;
+import de.unia.gvs.grpc.LogSummary;
+import de.unia.gvs.grpc.server.store.TrackStore;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+
+import java.io.UncheckedIOException;
+
+/**
+ * Server side of the streaming LogPosition calls, commits each incoming request to the store.
+ * <p>
+ * Uses manual inbound flow control: the next request is only read once the previous one has been committed and,
+ * when acknowledgements are enabled, the client is ready to receive the next acknowledgement. A fast client
+ * therefore cannot make the server buffer an unbounded number of requests.
+ * <p>
+ * gRPC serializes all callbacks of a call, so no further synchronization is needed.
+ */
+class LogStreamObserver implements StreamObserver<LogPositionRequest> {
+    private final TrackStore store;
+    private final ServerCallStreamObserver<LogSummary> responseObserver;
+    private final int ackInterval;
+
+    private int numRequests;
+    private long numPoints;
+    private boolean waitingForReady;
+    private boolean closed;
+
+    /**
+     * @param store
+     * @param responseObserver
+     * @param ackInterval number of requests after which an acknowledgement is sent, or 0 to only send a summary
+     *                    at the end of the stream
+     */
+    LogStreamObserver(TrackStore store, StreamObserver<LogSummary> responseObserver, int ackInterval) {
+        this.store = store;
+        this.responseObserver = (ServerCallStreamObserver<LogSummary>) responseObserver;
+        this.ackInterval = ackInterval;
+
+        this.responseObserver.disableAutoInboundFlowControl();
+        this.responseObserver.setOnReadyHandler(this::onReady);
+        this.responseObserver.request(1);
+    }
+
+    private void onReady() {
+        if (waitingForReady && responseObserver.isReady()) {
+            waitingForReady = false;
+            responseObserver.request(1);
+        }
+    }
+
+    @Override
+    public void onNext(LogPositionRequest request) {
+        if (closed) {
+            return;
+        }
+
+        try {
+            store.append(request.getUserId(), request.getPointsList());
+        } catch (IllegalArgumentException ex) {
+            closed = true;
+            responseObserver.onError(new StatusRuntimeException(Status.INVALID_ARGUMENT.withDescription(ex.getMessage())));
+            return;
+        } catch (UncheckedIOException ex) {
+            closed = true;
+            responseObserver.onError(new StatusRuntimeException(Status.INTERNAL.withDescription(ex.getMessage())));
+            return;
+        }
+        ++numRequests;
+        numPoints += request.getPointsCount();
+
+        if (ackInterval > 0 && numRequests % ackInterval == 0) {
+            responseObserver.onNext(summary());
+            if (!responseObserver.isReady()) {
+                // Stop reading until the client has caught up with the acknowledgements
+                waitingForReady = true;
+                return;
+            }
+        }
+        responseObserver.request(1);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        // The client cancelled the stream, all requests received so far remain committed
+        closed = true;
+    }
+
+    @Override
+    public void onCompleted() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        responseObserver.onNext(summary());
+        responseObserver.onCompleted();
+    }
+
+    private LogSummary summary() {
+        return LogSummary.newBuilder()
+                .setNumRequests(numRequests)
+                .setNumPoints(numPoints)
+                .build();
+    }
+}
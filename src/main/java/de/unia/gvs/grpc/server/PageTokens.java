@@ -0,0 +1,66 @@
+package de.unia.gvs.grpc.server;
+
+import de.unia.gvs.grpc.server.store.PointSelection;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Page tokens for resuming paged GetPoints calls.
+ * <p>
+ * A token encodes the timestamp and index of the last point of a page together with the query's time bounds and
+ * tolerance, so it cannot be used for a different query by accident. The next page continues after that point in the
+ * order of the selection, so points appended in the meantime do not shift the pages, even if they precede earlier
+ * points in time. Service methods announce the token through {@link ResponseHeaders}, so it is sent with the response
+ * headers before the first point is streamed.
+ */
+final class PageTokens {
+    private PageTokens() {
+    }
+
+    /**
+     * @param fromTimestamp
+     * @param toTimestamp
+     * @param tolerance
+     * @param selection points selected by the query
+     * @param position position of the last point of the page in the selection
+     * @return
+     */
+    static String encode(long fromTimestamp, long toTimestamp, double tolerance, PointSelection selection,
+                         int position) {
+        final int index = selection.index(position);
+        final String token = fromTimestamp + ":" + toTimestamp + ":" + tolerance + ":"
+                + selection.track().timestamp(index) + ":" + index;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * @param token
+     * @param fromTimestamp time bounds of the current request
+     * @param toTimestamp
+     * @param tolerance tolerance of the current request
+     * @param selection points selected by the current request
+     * @return position of the first point of the requested page in the selection
+     * @throws IllegalArgumentException if the token is malformed or belongs to a different query
+     */
+    static int decode(String token, long fromTimestamp, long toTimestamp, double tolerance,
+                      PointSelection selection) {
+        final String[] parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.US_ASCII).split(":");
+        try {
+            if (parts.length != 5
+                    || Long.parseLong(parts[0]) != fromTimestamp
+                    || Long.parseLong(parts[1]) != toTimestamp
+                    || Double.parseDouble(parts[2]) != tolerance) {
+                throw new IllegalArgumentException("Page token does not match the requested time range and tolerance");
+            }
+            final long timestamp = Long.parseLong(parts[3]);
+            final int index = Integer.parseInt(parts[4]);
+            if (index < 0) {
+                throw new IllegalArgumentException("Invalid page token");
+            }
+            return selection.positionAfter(timestamp, index);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Invalid page token", ex);
+        }
+    }
+}
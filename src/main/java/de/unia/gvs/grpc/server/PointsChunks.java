@@ -0,0 +1,80 @@
+package de.unia.gvs.grpc.server;
+
+import com.google.protobuf.ByteString;
+import de.unia.gvs.grpc.PointEncoding;
+import de.unia.gvs.grpc.PointsChunk;
+import de.unia.gvs.grpc.codec.CompactPointCodec;
+import de.unia.gvs.grpc.server.store.PointColumns;
+import de.unia.gvs.grpc.server.store.PointSelection;
+import de.unia.gvs.grpc.server.store.TrackSnapshot;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Splits a selection of points into {@link PointsChunk} messages, building each chunk on demand.
+ */
+final class PointsChunks implements Iterator<PointsChunk> {
+    static final int DEFAULT_CHUNK_SIZE = 1024;
+    static final int MAX_CHUNK_SIZE = 65536;
+
+    private static final CompactPointCodec CODEC = new CompactPointCodec();
+
+    private final PointSelection selection;
+    private final int chunkSize;
+    private final PointEncoding encoding;
+    private int position;
+
+    /**
+     * @param selection
+     * @param chunkSize requested number of points per chunk, 0 for the default
+     * @param encoding
+     */
+    PointsChunks(PointSelection selection, int chunkSize, PointEncoding encoding) {
+        if (encoding != PointEncoding.COLUMNS && encoding != PointEncoding.COMPACT) {
+            throw new IllegalArgumentException("Unknown point encoding " + encoding);
+        }
+        this.selection = selection;
+        this.chunkSize = chunkSize == 0 ? DEFAULT_CHUNK_SIZE : (int) Math.min(Integer.toUnsignedLong(chunkSize), MAX_CHUNK_SIZE);
+        this.encoding = encoding;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return position < selection.size();
+    }
+
+    @Override
+    public PointsChunk next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        final TrackSnapshot track = selection.track();
+        final int end = Math.min(selection.size(), position + chunkSize);
+        if (encoding == PointEncoding.COMPACT) {
+            return nextCompact(track, end);
+        }
+
+        final PointsChunk.Builder chunk = PointsChunk.newBuilder();
+        for (; position < end; ++position) {
+            final int index = selection.index(position);
+            chunk.addLatitude(track.latitude(index))
+                    .addLongitude(track.longitude(index))
+                    .addAltitude(track.altitude(index))
+                    .addTimestamp(track.timestamp(index));
+        }
+        return chunk.build();
+    }
+
+    private PointsChunk nextCompact(TrackSnapshot track, int end) {
+        final PointColumns points = new PointColumns(end - position);
+        for (; position < end; ++position) {
+            final int index = selection.index(position);
+            points.add(track.latitude(index), track.longitude(index), track.altitude(index), track.timestamp(index));
+        }
+        return PointsChunk.newBuilder()
+                .setCompact(ByteString.copyFrom(points.encode(CODEC, 0, points.size())))
+                .build();
+    }
+}
@@ -1,37 +1,177 @@
 package de.unia.gvs.grpc.server;
 
+import de.unia.gvs.grpc.metrics.Metrics;
+import de.unia.gvs.grpc.server.store.StoreConfig;
+import de.unia.gvs.grpc.server.store.TrackStore;
+import io.grpc.ManagedChannel;
 import io.grpc.Server;
 import io.grpc.ServerBuilder;
+import io.grpc.ServerInterceptors;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
 
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * gRPC server for the Position Log service.
+ * <p>
+ * Besides the TCP port, the service is also available through gRPC's in-process transport, which passes messages
+ * between client and server without serializing them. Clients in the same JVM can connect through
+ * {@link #inProcessChannel()}.
+ * <p>
+ * Calls on both transports and the track store are measured by the server's {@link Metrics}.
  */
 public class PositionLogServer {
     public static final int GRPC_PORT = 4711;
 
     private static final Logger log = Logger.getLogger(PositionLogServer.class.getSimpleName());
 
+    private final int port;
+    private final StoreConfig storeConfig;
+    private final ExecutionMode executionMode;
+    private final Metrics metrics;
+
     private Server server;
+    private Server inProcessServer;
+    private String inProcessName;
+    private TrackStore store;
+    // Null for gRPC's default executor
+    private ExecutorService executor;
+    private boolean stopped;
+
+    /**
+     * Create a server which keeps all tracks in memory.
+     */
+    public PositionLogServer() {
+        this(StoreConfig.defaults());
+    }
+
+    /**
+     * @param storeConfig configuration of the track store, which is recovered from its data directory on start
+     */
+    public PositionLogServer(StoreConfig storeConfig) {
+        this(storeConfig, ExecutionMode.DEFAULT);
+    }
+
+    /**
+     * @param storeConfig configuration of the track store, which is recovered from its data directory on start
+     * @param executionMode threads running the call handlers
+     */
+    public PositionLogServer(StoreConfig storeConfig, ExecutionMode executionMode) {
+        this(storeConfig, executionMode, new Metrics());
+    }
+
+    /**
+     * @param storeConfig configuration of the track store, which is recovered from its data directory on start
+     * @param executionMode threads running the call handlers
+     * @param metrics records the calls and the track store, may be shared with clients in the same JVM
+     */
+    public PositionLogServer(StoreConfig storeConfig, ExecutionMode executionMode, Metrics metrics) {
+        this(GRPC_PORT, storeConfig, executionMode, metrics);
+    }
+
+    /**
+     * @param port TCP port of the server, 0 for any free port, so several servers can run on one host
+     * @param storeConfig configuration of the track store, which is recovered from its data directory on start
+     * @param executionMode threads running the call handlers
+     * @param metrics records the calls and the track store, may be shared with clients in the same JVM
+     */
+    public PositionLogServer(int port, StoreConfig storeConfig, ExecutionMode executionMode, Metrics metrics) {
+        this.port = port;
+        this.storeConfig = storeConfig;
+        this.executionMode = executionMode;
+        this.metrics = metrics;
+    }
 
     public void start() throws IOException {
-        log.info("Starting server on port " + GRPC_PORT);
-        server = ServerBuilder.forPort(GRPC_PORT)
-                .addService(new PositionLogServiceImpl())
-                .build();
+        store = TrackStore.open(storeConfig);
+        metrics.monitor(store);
+
+        log.info("Starting server on port " + port + " with " + executionMode + " execution");
+        executor = executionMode.createExecutor("grpc-handler");
+        final ServerServiceDefinition service = ServerInterceptors.intercept(executor != null
+                ? new PositionLogServiceImpl(store, executor)
+                : new PositionLogServiceImpl(store), metrics.serverInterceptor());
+        final ServerBuilder<?> builder = ServerBuilder.forPort(port).addService(service);
+        inProcessName = InProcessServerBuilder.generateName();
+        final InProcessServerBuilder inProcessBuilder = InProcessServerBuilder.forName(inProcessName)
+                .addService(service);
+        if (executor != null) {
+            builder.executor(executor);
+            inProcessBuilder.executor(executor);
+        }
+        server = builder.build();
         server.start();
+        inProcessServer = inProcessBuilder.build();
+        inProcessServer.start();
 
         // Automatically shut down the server when the JVM stops
         Runtime.getRuntime().addShutdownHook(new Thread(this::stop));
     }
 
-    private void stop() {
+    /**
+     * Create a channel to this server which bypasses the network, for clients in the same JVM.
+     * <p>
+     * Responses are delivered on the server's threads, so callers must not block in response callbacks.
+     *
+     * @return
+     * @throws IllegalStateException if the server has not been started
+     */
+    public ManagedChannel inProcessChannel() {
+        if (inProcessName == null) {
+            throw new IllegalStateException("Server has not been started");
+        }
+        return InProcessChannelBuilder.forName(inProcessName).directExecutor().build();
+    }
+
+    /**
+     * @return TCP port the server is listening on
+     * @throws IllegalStateException if the server has not been started
+     */
+    public int getPort() {
+        if (server == null) {
+            throw new IllegalStateException("Server has not been started");
+        }
+        return server.getPort();
+    }
+
+    /**
+     * Stop accepting calls, wait briefly for running calls and close the track store.
+     * <p>
+     * Called automatically when the JVM stops, stopping a server again has no effect.
+     */
+    public synchronized void stop() {
+        if (stopped) {
+            return;
+        }
+        stopped = true;
         if (server != null) {
             log.info("Shutting down server");
             server.shutdown();
-            log.info("Done.");
+            inProcessServer.shutdown();
+            try {
+                // Let running calls finish before the store stops accepting changes
+                server.awaitTermination(5, TimeUnit.SECONDS);
+                inProcessServer.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (executor != null) {
+            executor.shutdown();
+        }
+        if (store != null) {
+            try {
+                store.close();
+            } catch (IOException ex) {
+                log.log(Level.WARNING, "Failed to close track store", ex);
+            }
         }
+        log.info("Done.");
     }
 }
@@ -1,19 +1,29 @@
 package de.unia.gvs.grpc.server;
 
-import java.util.Collection;
+import java.io.UncheckedIOException;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
-import com.google.api.Advice.Builder;
-import com.google.common.collect.Multimap;
-import com.google.common.collect.MultimapBuilder;
 import com.google.protobuf.Empty;
+import com.google.protobuf.util.Timestamps;
 import de.unia.gvs.grpc.*;
+import de.unia.gvs.grpc.server.store.DistanceFunction;
+import de.unia.gvs.grpc.server.store.DistanceFunctions;
+import de.unia.gvs.grpc.server.store.PointColumns;
+import de.unia.gvs.grpc.server.store.PointSelection;
+import de.unia.gvs.grpc.server.store.Region;
+import de.unia.gvs.grpc.server.store.TrackSnapshot;
+import de.unia.gvs.grpc.server.store.TrackStore;
+import io.grpc.ServerInterceptors;
+import io.grpc.ServerServiceDefinition;
 import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
 import io.grpc.stub.StreamObserver;
-import net.sf.geographiclib.Geodesic;
-import net.sf.geographiclib.GeodesicData;
 
 /**
  * Implementation of the gPRC Position Log service.
@@ -21,12 +31,39 @@ import net.sf.geographiclib.GeodesicData;
  * <strong>TODO</strong>: Implement all missing functionality to make {@link de.unia.gvs.grpc.server.ServerTest} pass.
  */
 class PositionLogServiceImpl extends PositionLogServiceGrpc.PositionLogServiceImplBase {
+    // Number of requests in a LogPositionStream call after which the committed points are acknowledged
+    static final int ACK_INTERVAL = 32;
+
     // Stores points for each user, identified by their ID
-    private final Multimap<Integer, Coordinate> points = MultimapBuilder.treeKeys().arrayListValues().build();
+    private final TrackStore store;
+    private final TrackSubscriptions subscriptions;
+
+    PositionLogServiceImpl() {
+        this(new TrackStore());
+    }
+
+    PositionLogServiceImpl(TrackStore store) {
+        this(store, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param store
+     * @param executor sends points to SubscribeTrack calls after appends
+     */
+    PositionLogServiceImpl(TrackStore store, Executor executor) {
+        this.store = store;
+        this.subscriptions = new TrackSubscriptions(store, executor);
+        store.addListener(subscriptions);
+    }
+
+    @Override
+    public ServerServiceDefinition bindService() {
+        return ServerInterceptors.intercept(super.bindService(), ResponseHeaders.interceptor());
+    }
 
     @Override
     public void listUsers(ListUsersRequest request, StreamObserver<ListUsersReply> responseObserver) {
-        ListUsersReply.Builder builder = ListUsersReply.newBuilder().addAllUsersIds(points.keySet());
+        ListUsersReply.Builder builder = ListUsersReply.newBuilder().addAllUsersIds(store.listUsers());
         ListUsersReply listUsersReply = builder.build();
         responseObserver.onNext(listUsersReply);
         responseObserver.onCompleted();
@@ -34,60 +71,237 @@ class PositionLogServiceImpl extends PositionLogServiceGrpc.PositionLogServiceIm
 
     @Override
     public void deleteUser(DeleteUserRequest request, StreamObserver<Empty> responseObserver) {
-        if(points.get(request.getUserId()).size()==0)
-        {
+        final boolean deleted;
+        try {
+            deleted = store.delete(request.getUserId());
+        } catch (UncheckedIOException ex) {
+            responseObserver.onError(new StatusRuntimeException(Status.INTERNAL.withDescription(ex.getMessage())));
+            return;
+        }
+        if (!deleted) {
            responseObserver.onError(new StatusRuntimeException(Status.NOT_FOUND));
            return;
         }
-        points.removeAll(request.getUserId());
         responseObserver.onNext(Empty.getDefaultInstance());
         responseObserver.onCompleted();
     }
 
     @Override
     public void logPosition(LogPositionRequest request, StreamObserver<Empty> responseObserver) {
-        points.putAll(request.getUserId(), request.getPointsList());
+        try {
+            store.append(request.getUserId(), request.getPointsList());
+        } catch (IllegalArgumentException ex) {
+            responseObserver.onError(new StatusRuntimeException(Status.INVALID_ARGUMENT.withDescription(ex.getMessage())));
+            return;
+        } catch (UncheckedIOException ex) {
+            responseObserver.onError(new StatusRuntimeException(Status.INTERNAL.withDescription(ex.getMessage())));
+            return;
+        }
         responseObserver.onNext(Empty.getDefaultInstance());
         responseObserver.onCompleted();
     }
 
+    @Override
+    public void batchLogPosition(BatchLogPositionRequest request, StreamObserver<LogSummary> responseObserver) {
+        // All points are converted before the first append, so an invalid point rejects the whole batch
+        final Map<Integer, PointColumns> points = new LinkedHashMap<>();
+        long numPoints = 0;
+        try {
+            for (LogPositionRequest group : request.getGroupsList()) {
+                final PointColumns columns = PointColumns.of(group.getPointsList());
+                final PointColumns previous = points.putIfAbsent(group.getUserId(), columns);
+                if (previous != null) {
+                    previous.addAll(columns);
+                }
+                numPoints += columns.size();
+            }
+        } catch (IllegalArgumentException ex) {
+            responseObserver.onError(new StatusRuntimeException(Status.INVALID_ARGUMENT.withDescription(ex.getMessage())));
+            return;
+        }
+
+        try {
+            store.appendAll(points);
+        } catch (UncheckedIOException ex) {
+            responseObserver.onError(new StatusRuntimeException(Status.INTERNAL.withDescription(ex.getMessage())));
+            return;
+        }
+        responseObserver.onNext(LogSummary.newBuilder()
+                .setNumRequests(request.getGroupsCount())
+                .setNumPoints(numPoints)
+                .build());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public StreamObserver<LogPositionRequest> streamPositions(StreamObserver<LogSummary> responseObserver) {
+        return new LogStreamObserver(store, responseObserver, 0);
+    }
+
+    @Override
+    public StreamObserver<LogPositionRequest> logPositionStream(StreamObserver<LogSummary> responseObserver) {
+        return new LogStreamObserver(store, responseObserver, ACK_INTERVAL);
+    }
+
     @Override
     public void getPoints(PointsRequest request, StreamObserver<Coordinate> responseObserver) {
-        if(points.get(request.getUserId()).size()==0)
-        {
+        final Optional<TrackSnapshot> track = store.snapshot(request.getUserId());
+        if (!track.isPresent()) {
            responseObserver.onError(new StatusRuntimeException(Status.NOT_FOUND));
            return;
         }
-        for(Coordinate coor : points.get(request.getUserId())) {
-            responseObserver.onNext(coor);
+
+        final PointSelection page;
+        try {
+            page = selectPage(request, track.get());
+        } catch (IllegalArgumentException | ArithmeticException ex) {
+            responseObserver.onError(new StatusRuntimeException(Status.INVALID_ARGUMENT.withDescription(ex.getMessage())));
+            return;
         }
-        responseObserver.onCompleted();
 
+        // Points are materialized one at a time while the client keeps up
+        ReadyStreamer.stream(responseObserver, page.iterator());
+    }
+
+    @Override
+    public void subscribeTrack(PointsRequest request, StreamObserver<Coordinate> responseObserver) {
+        if (request.getTolerance() != 0 || request.getLimit() != 0 || !request.getPageToken().isEmpty()) {
+            responseObserver.onError(new StatusRuntimeException(Status.INVALID_ARGUMENT
+                    .withDescription("Subscriptions do not support tolerance, limit or page tokens")));
+            return;
+        }
+        try {
+            subscriptions.subscribe(request, responseObserver);
+        } catch (IllegalArgumentException | ArithmeticException ex) {
+            responseObserver.onError(new StatusRuntimeException(Status.INVALID_ARGUMENT.withDescription(ex.getMessage())));
+        }
+    }
+
+    @Override
+    public void getPointsChunked(PointsRequest request, StreamObserver<PointsChunk> responseObserver) {
+        final Optional<TrackSnapshot> track = store.snapshot(request.getUserId());
+        if (!track.isPresent()) {
+            responseObserver.onError(new StatusRuntimeException(Status.NOT_FOUND));
+            return;
+        }
+
+        final PointsChunks chunks;
+        try {
+            chunks = new PointsChunks(selectPage(request, track.get()), request.getChunkSize(), request.getEncoding());
+        } catch (IllegalArgumentException | ArithmeticException ex) {
+            responseObserver.onError(new StatusRuntimeException(Status.INVALID_ARGUMENT.withDescription(ex.getMessage())));
+            return;
+        }
+
+        ReadyStreamer.stream(responseObserver, chunks);
+    }
+
+    /**
+     * Apply the time bounds, simplification and paging parameters of a request, announcing the track version and the
+     * token for the next page if there is one.
+     *
+     * @param request
+     * @param track
+     * @return
+     */
+    private static PointSelection selectPage(PointsRequest request, TrackSnapshot track) {
+        final long from = request.hasFromTimestamp() ? Timestamps.toNanos(request.getFromTimestamp()) : Long.MIN_VALUE;
+        final long to = request.hasToTimestamp() ? Timestamps.toNanos(request.getToTimestamp()) : Long.MAX_VALUE;
+        final PointSelection selection = track.select(from, to, request.getTolerance());
+        final int offset = request.getPageToken().isEmpty()
+                ? (int) Math.min(Integer.toUnsignedLong(request.getOffset()), Integer.MAX_VALUE)
+                : PageTokens.decode(request.getPageToken(), from, to, request.getTolerance(), selection);
+        final PointSelection page = selection.slice(offset, request.getLimit());
+
+        final int next = Math.min(offset, selection.size()) + page.size();
+        if (next < selection.size()) {
+            ResponseHeaders.put(PositionLogHeaders.NEXT_PAGE_TOKEN,
+                    PageTokens.encode(from, to, request.getTolerance(), selection, next - 1));
+        }
+        ResponseHeaders.put(PositionLogHeaders.TRACK_VERSION, Long.toUnsignedString(track.version()));
+        return page;
     }
 
     @Override
     public void getTrackLength(LengthRequest request, StreamObserver<LengthReply> responseObserver) {
-        List<Coordinate> points = (List<Coordinate>) this.points.get(request.getUserId());
-        if(points.size()==0)
-        {
+        final DistanceFunction function;
+        try {
+            function = DistanceFunctions.forAlgorithm(request.getAlgorithm());
+        } catch (IllegalArgumentException ex) {
+            responseObserver.onError(new StatusRuntimeException(Status.INVALID_ARGUMENT.withDescription(ex.getMessage())));
+            return;
+        }
+
+        final Optional<TrackSnapshot> track = store.snapshot(request.getUserId());
+        if (!track.isPresent()) {
             responseObserver.onError(new StatusRuntimeException(Status.NOT_FOUND));
             return;
         }
+        final TrackSnapshot points = track.get();
 
-        double distance = 0;
-        for (int i = 0; i < points.size() - 1; ++i) {
-            final Coordinate start = points.get(i);
-            final Coordinate end = points.get(i + 1);
-            final GeodesicData data =
-                Geodesic.WGS84.Inverse(start.getLatitude(),
-                start.getLongitude(), end.getLatitude(),
-                end.getLongitude());
-            // s12 field is distance in meters
-            distance += data.s12;
-        }
-        LengthReply.Builder builder = LengthReply.newBuilder().setLength(distance).setNumPoints(points.size());
-        LengthReply lengthReply = builder.build();
-        responseObserver.onNext(lengthReply);
+        // The geodesic length is maintained incrementally by the store, other algorithms measure the whole track
+        responseObserver.onNext(lengthReply(request.getUserId(), points, function));
         responseObserver.onCompleted();
     }
+
+    @Override
+    public void getTrackLengths(LengthsRequest request, StreamObserver<LengthReply> responseObserver) {
+        final DistanceFunction function;
+        try {
+            function = DistanceFunctions.forAlgorithm(request.getAlgorithm());
+        } catch (IllegalArgumentException ex) {
+            responseObserver.onError(new StatusRuntimeException(Status.INVALID_ARGUMENT.withDescription(ex.getMessage())));
+            return;
+        }
+
+        final List<Integer> users = request.getUserIdsCount() == 0 ? store.listUsers() : request.getUserIdsList();
+        // Each track is measured only when its reply can be sent, users deleted in the meantime are skipped
+        final Iterator<LengthReply> replies = users.stream()
+                .map(userId -> store.snapshot(userId).map(track -> lengthReply(userId, track, function)))
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .iterator();
+        ReadyStreamer.stream(responseObserver, replies);
+    }
+
+    private static LengthReply lengthReply(int userId, TrackSnapshot track, DistanceFunction function) {
+        return LengthReply.newBuilder()
+                .setUserId(userId)
+                .setLength(track.length(function))
+                .setNumPoints(track.size())
+                .setVersion(track.version())
+                .build();
+    }
+
+    @Override
+    public void queryRegion(RegionRequest request, StreamObserver<ListUsersReply> responseObserver) {
+        final Region region;
+        try {
+            region = Region.box(request.getMinLatitude(), request.getMinLongitude(),
+                    request.getMaxLatitude(), request.getMaxLongitude());
+        } catch (IllegalArgumentException ex) {
+            responseObserver.onError(new StatusRuntimeException(Status.INVALID_ARGUMENT.withDescription(ex.getMessage())));
+            return;
+        }
+        responseObserver.onNext(ListUsersReply.newBuilder().addAllUsersIds(store.usersIn(region)).build());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void queryNearby(NearbyRequest request, StreamObserver<ListUsersReply> responseObserver) {
+        final Region region;
+        try {
+            region = Region.circle(request.getLatitude(), request.getLongitude(), request.getRadius());
+        } catch (IllegalArgumentException ex) {
+            responseObserver.onError(new StatusRuntimeException(Status.INVALID_ARGUMENT.withDescription(ex.getMessage())));
+            return;
+        }
+        responseObserver.onNext(ListUsersReply.newBuilder().addAllUsersIds(store.usersIn(region)).build());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void watchChanges(WatchRequest request, StreamObserver<ChangeEvent> responseObserver) {
+        ChangeWatcher.watch(store, responseObserver);
+    }
 }
@@ -0,0 +1,56 @@
+package de.unia.gvs.grpc.server;
+
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+
+import java.util.Iterator;
+
+/**
+ * Sends the items of a server streaming call only while the transport is ready to accept them.
+ * <p>
+ * The iterator acts as a cursor: sending pauses as soon as the outbound buffer is full and resumes from the same
+ * position once gRPC signals readiness again. Memory per call is therefore bounded by the transport's buffer size,
+ * regardless of how many items are streamed or how slow the client reads.
+ * <p>
+ * gRPC serializes all callbacks of a call, so no further synchronization is needed.
+ *
+ * @param <T> type of the streamed messages
+ */
+class ReadyStreamer<T> implements Runnable {
+    private final ServerCallStreamObserver<T> observer;
+    private final Iterator<T> items;
+    private boolean done;
+
+    private ReadyStreamer(ServerCallStreamObserver<T> observer, Iterator<T> items) {
+        this.observer = observer;
+        this.items = items;
+    }
+
+    /**
+     * Start streaming items to the observer, completing the call after the last item.
+     * <p>
+     * Must be called from within the service method, so the handlers are registered before the call starts.
+     *
+     * @param observer
+     * @param items
+     * @param <T>
+     */
+    static <T> void stream(StreamObserver<T> observer, Iterator<T> items) {
+        final ServerCallStreamObserver<T> call = (ServerCallStreamObserver<T>) observer;
+        final ReadyStreamer<T> streamer = new ReadyStreamer<>(call, items);
+        call.setOnReadyHandler(streamer);
+        call.setOnCancelHandler(() -> streamer.done = true);
+        streamer.run();
+    }
+
+    @Override
+    public void run() {
+        while (!done && observer.isReady() && items.hasNext()) {
+            observer.onNext(items.next());
+        }
+        if (!done && !items.hasNext()) {
+            done = true;
+            observer.onCompleted();
+        }
+    }
+}
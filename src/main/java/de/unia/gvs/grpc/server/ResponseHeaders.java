@@ -0,0 +1,91 @@
+package de.unia.gvs.grpc.server;
+
+import io.grpc.Context;
+import io.grpc.Contexts;
+import io.grpc.ForwardingServerCall;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+
+/**
+ * Response headers announced by service methods, such as page tokens and track versions.
+ * <p>
+ * Service methods announce headers through {@link #put(Metadata.Key, Object)} and the {@link #interceptor()} sends
+ * them with the response headers, before the first response message. Calls without any response message send them
+ * with the trailers instead.
+ */
+final class ResponseHeaders {
+    private static final Context.Key<Metadata> HEADERS = Context.key("response-headers");
+
+    private ResponseHeaders() {
+    }
+
+    /**
+     * Announce a header for the current call.
+     * <p>
+     * Must be called before the first response message is sent.
+     *
+     * @param key
+     * @param value
+     */
+    static <T> void put(Metadata.Key<T> key, T value) {
+        final Metadata headers = HEADERS.get();
+        if (headers != null) {
+            synchronized (headers) {
+                headers.put(key, value);
+            }
+        }
+    }
+
+    /**
+     * @return interceptor adding announced headers to the response
+     */
+    static ServerInterceptor interceptor() {
+        return new ServerInterceptor() {
+            @Override
+            public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+                                                                         ServerCallHandler<ReqT, RespT> next) {
+                final Metadata announced = new Metadata();
+                final Context context = Context.current().withValue(HEADERS, announced);
+                return Contexts.interceptCall(context, new HeaderCall<>(call, announced), headers, next);
+            }
+        };
+    }
+
+    /**
+     * Adds the announced headers to the response headers, or to the trailers if no headers are sent.
+     */
+    private static class HeaderCall<ReqT, RespT> extends ForwardingServerCall.SimpleForwardingServerCall<ReqT, RespT> {
+        private final Metadata announced;
+        private boolean headersSent;
+
+        HeaderCall(ServerCall<ReqT, RespT> call, Metadata announced) {
+            super(call);
+            this.announced = announced;
+        }
+
+        @Override
+        public void sendHeaders(Metadata headers) {
+            headersSent = true;
+            addAnnounced(headers);
+            super.sendHeaders(headers);
+        }
+
+        @Override
+        public void close(Status status, Metadata trailers) {
+            // Calls without any response message only send trailers
+            if (!headersSent) {
+                addAnnounced(trailers);
+            }
+            super.close(status, trailers);
+        }
+
+        private void addAnnounced(Metadata metadata) {
+            synchronized (announced) {
+                metadata.merge(announced);
+            }
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package de.unia.gvs.grpc.server;
+
+import com.google.protobuf.util.Timestamps;
+import de.unia.gvs.grpc.BacklogPolicy;
+import de.unia.gvs.grpc.Coordinate;
+import de.unia.gvs.grpc.PointsRequest;
+import de.unia.gvs.grpc.server.store.PointColumns;
+import de.unia.gvs.grpc.server.store.PointSelection;
+import de.unia.gvs.grpc.server.store.TrackSnapshot;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ServerCallStreamObserver;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Sends the points of a track to a SubscribeTrack call, first the existing ones and then every appended point.
+ * <p>
+ * Existing points are selected like for GetPoints, so with time bounds they are sent in chronological order and the
+ * offset counts the same points. Appended points follow in the order they are appended. The subscriber only keeps
+ * its position in the latest snapshot of the track, points are read from the snapshot while the transport is ready.
+ * No points are buffered besides gRPC's transport buffer, a subscriber falling more than {@link #MAX_BACKLOG} points
+ * behind the points appended since the call started is handled according to the request's {@link BacklogPolicy}.
+ */
+class TrackSubscriber {
+    // Maximum number of live points a subscriber may fall behind
+    static final int MAX_BACKLOG = 10_000;
+
+    private final TrackSubscriptions subscriptions;
+    private final int userId;
+    private final ServerCallStreamObserver<Coordinate> observer;
+    private final Executor executor;
+    private final BacklogPolicy policy;
+    private final boolean bounded;
+    private final long fromTimestamp;
+    private final long toTimestamp;
+    private final int offset;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    // Latest snapshot and version of the deletion, 0 if not deleted, guarded by the notification lock
+    private final Object notifications = new Object();
+    private TrackSnapshot latest;
+    private long deletedVersion;
+
+    // Guarded by this. Existing points of bounded subscriptions are sent from their selection first.
+    private PointSelection existing;
+    private int existingPosition;
+    private int position;
+    private int skip;
+    private int skipped;
+    private int liveStart;
+    private boolean started;
+    private boolean done;
+
+    TrackSubscriber(TrackSubscriptions subscriptions, PointsRequest request,
+                    ServerCallStreamObserver<Coordinate> observer, Executor executor) {
+        this.subscriptions = subscriptions;
+        this.userId = request.getUserId();
+        this.observer = observer;
+        this.executor = executor;
+        this.policy = request.getBacklogPolicy();
+        this.bounded = request.hasFromTimestamp() || request.hasToTimestamp();
+        // Points without a timestamp are excluded from time ranges, like in TrackSnapshot.select()
+        this.fromTimestamp = request.hasFromTimestamp()
+                ? Math.max(Timestamps.toNanos(request.getFromTimestamp()), PointColumns.NO_TIMESTAMP + 1)
+                : PointColumns.NO_TIMESTAMP + 1;
+        this.toTimestamp = request.hasToTimestamp() ? Timestamps.toNanos(request.getToTimestamp()) : Long.MAX_VALUE;
+        this.offset = (int) Math.min(Integer.toUnsignedLong(request.getOffset()), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Start sending points from the snapshot taken after the subscriber has been registered.
+     *
+     * @param track
+     */
+    void start(TrackSnapshot track) {
+        observer.setOnCancelHandler(this::cancel);
+        observer.setOnReadyHandler(this::send);
+        synchronized (notifications) {
+            // An append may already have published a newer snapshot
+            if (deletedVersion == 0 && (latest == null || track.version() > latest.version())) {
+                latest = track;
+            }
+        }
+        synchronized (this) {
+            liveStart = track.size();
+            if (bounded) {
+                // Matching points appended later are counted by the offset after the selected ones
+                final PointSelection selection = track.select(fromTimestamp, toTimestamp);
+                existing = selection.slice(offset, 0);
+                skip = Math.max(0, offset - selection.size());
+                position = liveStart;
+            } else {
+                // Without time bounds, the offset is a position in the track and matching points need not be counted
+                position = offset;
+            }
+            started = true;
+        }
+        send();
+    }
+
+    /**
+     * Called while holding the lock of the track, so it only publishes the snapshot.
+     */
+    void appended(TrackSnapshot track) {
+        synchronized (notifications) {
+            if (deletedVersion != 0 || (latest != null && track.version() <= latest.version())) {
+                return;
+            }
+            latest = track;
+        }
+        schedule();
+    }
+
+    /**
+     * Called while holding the lock of the track. The points which have already been appended are still sent.
+     */
+    void deleted(long version) {
+        synchronized (notifications) {
+            // Ignore the deletion of an earlier track of the user
+            if (deletedVersion != 0 || (latest != null && version < latest.version())) {
+                return;
+            }
+            deletedVersion = version;
+        }
+        schedule();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            executor.execute(() -> {
+                scheduled.set(false);
+                send();
+            });
+        }
+    }
+
+    /**
+     * Send points of the latest snapshot while the transport is ready.
+     */
+    private synchronized void send() {
+        if (!started || done) {
+            return;
+        }
+        final TrackSnapshot track;
+        final boolean deleted;
+        synchronized (notifications) {
+            track = latest;
+            deleted = deletedVersion != 0;
+        }
+
+        if (track != null) {
+            if (track.size() - Math.max(position, liveStart) > MAX_BACKLOG) {
+                if (policy != BacklogPolicy.SKIP) {
+                    close();
+                    observer.onError(new StatusRuntimeException(Status.RESOURCE_EXHAUSTED
+                            .withDescription("Subscriber fell behind by more than " + MAX_BACKLOG + " points")));
+                    return;
+                }
+                skipTo(track, track.size() - 1);
+            }
+
+            while (observer.isReady()) {
+                final int index;
+                if (existing != null && existingPosition < existing.size()) {
+                    index = existing.index(existingPosition++);
+                } else if (position < track.size()) {
+                    index = position++;
+                    if (!matches(track, index)) {
+                        continue;
+                    }
+                    if (skip > 0) {
+                        --skip;
+                        continue;
+                    }
+                } else {
+                    break;
+                }
+
+                if (skipped > 0) {
+                    observer.onNext(track.get(index).toBuilder().setSkipped(skipped).build());
+                    skipped = 0;
+                } else {
+                    observer.onNext(track.get(index));
+                }
+            }
+        }
+
+        final boolean sentExisting = existing == null || existingPosition >= existing.size();
+        if (deleted && (track == null || (sentExisting && position >= track.size()))) {
+            close();
+            observer.onCompleted();
+        }
+    }
+
+    /**
+     * Drop all points before a position in the track, counting the dropped points which the subscriber would have
+     * received, so they can be announced with the next point.
+     */
+    private void skipTo(TrackSnapshot track, int target) {
+        int dropped = 0;
+        if (existing != null) {
+            dropped += existing.size() - existingPosition;
+            existingPosition = existing.size();
+        }
+        if (bounded) {
+            for (int index = position; index < target; ++index) {
+                if (matches(track, index)) {
+                    ++dropped;
+                }
+            }
+        } else {
+            dropped += Math.max(0, target - position);
+        }
+        position = Math.max(position, target);
+
+        // Points before the requested offset do not count
+        final int consumed = Math.min(skip, dropped);
+        skip -= consumed;
+        skipped += dropped - consumed;
+    }
+
+    private boolean matches(TrackSnapshot track, int index) {
+        if (!bounded) {
+            return true;
+        }
+        final long timestamp = track.timestamp(index);
+        return timestamp >= fromTimestamp && timestamp < toTimestamp;
+    }
+
+    private synchronized void cancel() {
+        close();
+    }
+
+    private void close() {
+        done = true;
+        subscriptions.remove(userId, this);
+    }
+}
@@ -0,0 +1,99 @@
+package de.unia.gvs.grpc.server;
+
+import de.unia.gvs.grpc.Coordinate;
+import de.unia.gvs.grpc.PointsRequest;
+import de.unia.gvs.grpc.server.store.PointColumns;
+import de.unia.gvs.grpc.server.store.TrackListener;
+import de.unia.gvs.grpc.server.store.TrackSnapshot;
+import de.unia.gvs.grpc.server.store.TrackStore;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Subscribers of SubscribeTrack calls, grouped by user.
+ * <p>
+ * Appends only hand the new snapshot of the track to the user's subscribers, which is shared by all of them. The
+ * points are then sent by each subscriber on the executor, so writers never wait for slow clients.
+ */
+class TrackSubscriptions implements TrackListener {
+    private final TrackStore store;
+    private final Executor executor;
+    private final ConcurrentMap<Integer, List<TrackSubscriber>> subscribers = new ConcurrentHashMap<>();
+
+    /**
+     * @param store must notify the new instance of all changes, see {@link TrackStore#addListener(TrackListener)}
+     * @param executor runs subscribers while they send points
+     */
+    TrackSubscriptions(TrackStore store, Executor executor) {
+        this.store = store;
+        this.executor = executor;
+    }
+
+    /**
+     * Start a SubscribeTrack call.
+     * <p>
+     * Must be called from within the service method, so the handlers are registered before the call starts.
+     *
+     * @param request
+     * @param observer
+     * @throws IllegalArgumentException if a time bound is not a valid timestamp, nothing has been registered or sent
+     *                                  in this case
+     * @throws ArithmeticException if a time bound is out of the range of nanosecond timestamps, nothing has been
+     *                             registered or sent in this case
+     */
+    void subscribe(PointsRequest request, StreamObserver<Coordinate> observer) {
+        final int userId = request.getUserId();
+        final TrackSubscriber subscriber = new TrackSubscriber(this, request,
+                (ServerCallStreamObserver<Coordinate>) observer, executor);
+
+        // Register before taking the snapshot, so no append in between is missed
+        subscribers.compute(userId, (id, list) -> {
+            final List<TrackSubscriber> result = list != null ? list : new CopyOnWriteArrayList<>();
+            result.add(subscriber);
+            return result;
+        });
+        final Optional<TrackSnapshot> track = store.snapshot(userId);
+        if (!track.isPresent()) {
+            remove(userId, subscriber);
+            observer.onError(new StatusRuntimeException(Status.NOT_FOUND));
+            return;
+        }
+        subscriber.start(track.get());
+    }
+
+    void remove(int userId, TrackSubscriber subscriber) {
+        subscribers.computeIfPresent(userId, (id, list) -> {
+            list.remove(subscriber);
+            return list.isEmpty() ? null : list;
+        });
+    }
+
+    @Override
+    public void appended(int userId, TrackSnapshot track, int offset, PointColumns points) {
+        final List<TrackSubscriber> list = subscribers.get(userId);
+        if (list != null) {
+            for (TrackSubscriber subscriber : list) {
+                subscriber.appended(track);
+            }
+        }
+    }
+
+    @Override
+    public void deleted(int userId, long version) {
+        final List<TrackSubscriber> list = subscribers.get(userId);
+        if (list != null) {
+            for (TrackSubscriber subscriber : list) {
+                subscriber.deleted(version);
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package de.unia.gvs.grpc.server.store;
+
+import de.unia.gvs.grpc.codec.CompactPointCodec;
+
+import java.lang.ref.SoftReference;
+
+/**
+ * Segment stored in the {@link CompactPointCodec} format.
+ * <p>
+ * The points are decoded on first access and kept in a soft reference, so that sequential reads only decode each
+ * segment once while rarely read segments only occupy their compressed size.
+ */
+final class CompressedSegment implements Segment {
+    private final byte[] data;
+    private final int size;
+    private volatile SoftReference<PointColumns> decoded = new SoftReference<>(null);
+
+    private CompressedSegment(byte[] data, int size) {
+        this.data = data;
+        this.size = size;
+    }
+
+    /**
+     * @param codec
+     * @param points
+     * @param from index of the first point to compress
+     * @param to index after the last point to compress
+     * @return
+     */
+    static CompressedSegment compress(CompactPointCodec codec, PointColumns points, int from, int to) {
+        return new CompressedSegment(points.encode(codec, from, to), to - from);
+    }
+
+    private PointColumns columns() {
+        PointColumns columns = decoded.get();
+        if (columns == null) {
+            columns = PointColumns.decode(data);
+            decoded = new SoftReference<>(columns);
+        }
+        return columns;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public double latitude(int index) {
+        return columns().latitudes[index];
+    }
+
+    @Override
+    public double longitude(int index) {
+        return columns().longitudes[index];
+    }
+
+    @Override
+    public double altitude(int index) {
+        return columns().altitudes[index];
+    }
+
+    @Override
+    public long timestamp(int index) {
+        return columns().timestamps[index];
+    }
+
+    @Override
+    public double length(DistanceFunction function) {
+        final PointColumns columns = columns();
+        return TrackLengths.path(columns.latitudes, columns.longitudes, 0, size, function, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public long heapBytes() {
+        // Decoded points are only softly referenced and released under memory pressure
+        return data.length;
+    }
+
+    @Override
+    public long offHeapBytes() {
+        return 0;
+    }
+}
@@ -0,0 +1,14 @@
+package de.unia.gvs.grpc.server.store;
+
+/**
+ * Measures the distance between two points given in degrees.
+ *
+ * @see DistanceFunctions
+ */
+@FunctionalInterface
+public interface DistanceFunction {
+    /**
+     * @return distance in meters
+     */
+    double distance(double lat1, double lon1, double lat2, double lon2);
+}
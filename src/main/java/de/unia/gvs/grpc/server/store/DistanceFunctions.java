@@ -0,0 +1,141 @@
+package de.unia.gvs.grpc.server.store;
+
+import de.unia.gvs.grpc.DistanceAlgorithm;
+import net.sf.geographiclib.Geodesic;
+import net.sf.geographiclib.GeodesicMask;
+
+/**
+ * Implementations of the distance algorithms offered by the service.
+ * <p>
+ * See {@link DistanceAlgorithm} for the error bounds of each algorithm.
+ */
+public final class DistanceFunctions {
+    // WGS84 ellipsoid parameters
+    private static final double A = 6378137.0;
+    private static final double F = 1 / 298.257223563;
+    private static final double B = A * (1 - F);
+    private static final double E2 = F * (2 - F);
+
+    private static final int VINCENTY_MAX_ITERATIONS = 100;
+
+    /**
+     * Karney's algorithm as implemented by GeographicLib
+     */
+    public static final DistanceFunction GEODESIC = (lat1, lon1, lat2, lon2) ->
+            // Only request the distance, which skips computing azimuths and other unused quantities
+            Geodesic.WGS84.Inverse(lat1, lon1, lat2, lon2, GeodesicMask.DISTANCE).s12;
+
+    public static final DistanceFunction VINCENTY = DistanceFunctions::vincenty;
+
+    public static final DistanceFunction HAVERSINE = DistanceFunctions::haversine;
+
+    public static final DistanceFunction EQUIRECTANGULAR = DistanceFunctions::equirectangular;
+
+    private DistanceFunctions() {
+    }
+
+    /**
+     * @param algorithm
+     * @return the implementation of the given algorithm
+     * @throws IllegalArgumentException for unknown algorithms
+     */
+    public static DistanceFunction forAlgorithm(DistanceAlgorithm algorithm) {
+        switch (algorithm) {
+            case GEODESIC:
+                return GEODESIC;
+            case VINCENTY:
+                return VINCENTY;
+            case HAVERSINE:
+                return HAVERSINE;
+            case EQUIRECTANGULAR:
+                return EQUIRECTANGULAR;
+            default:
+                throw new IllegalArgumentException("Unknown distance algorithm " + algorithm);
+        }
+    }
+
+    private static double vincenty(double lat1, double lon1, double lat2, double lon2) {
+        final double l = Math.toRadians(Math.IEEEremainder(lon2 - lon1, 360));
+        final double u1 = Math.atan((1 - F) * Math.tan(Math.toRadians(lat1)));
+        final double u2 = Math.atan((1 - F) * Math.tan(Math.toRadians(lat2)));
+        final double sinU1 = Math.sin(u1), cosU1 = Math.cos(u1);
+        final double sinU2 = Math.sin(u2), cosU2 = Math.cos(u2);
+
+        double lambda = l;
+        for (int i = 0; i < VINCENTY_MAX_ITERATIONS; ++i) {
+            final double sinLambda = Math.sin(lambda), cosLambda = Math.cos(lambda);
+            final double t1 = cosU2 * sinLambda;
+            final double t2 = cosU1 * sinU2 - sinU1 * cosU2 * cosLambda;
+            final double sinSigma = Math.sqrt(t1 * t1 + t2 * t2);
+            if (sinSigma == 0) {
+                // Coincident points
+                return 0;
+            }
+            final double cosSigma = sinU1 * sinU2 + cosU1 * cosU2 * cosLambda;
+            final double sigma = Math.atan2(sinSigma, cosSigma);
+            final double sinAlpha = cosU1 * cosU2 * sinLambda / sinSigma;
+            final double cos2Alpha = 1 - sinAlpha * sinAlpha;
+            // cos2Alpha is zero for equatorial lines
+            final double cos2SigmaM = cos2Alpha != 0 ? cosSigma - 2 * sinU1 * sinU2 / cos2Alpha : 0;
+            final double c = F / 16 * cos2Alpha * (4 + F * (4 - 3 * cos2Alpha));
+
+            final double previous = lambda;
+            lambda = l + (1 - c) * F * sinAlpha
+                    * (sigma + c * sinSigma * (cos2SigmaM + c * cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)));
+
+            if (Math.abs(lambda - previous) < 1e-12) {
+                final double uSq = cos2Alpha * (A * A - B * B) / (B * B);
+                final double bigA = 1 + uSq / 16384 * (4096 + uSq * (-768 + uSq * (320 - 175 * uSq)));
+                final double bigB = uSq / 1024 * (256 + uSq * (-128 + uSq * (74 - 47 * uSq)));
+                final double deltaSigma = bigB * sinSigma * (cos2SigmaM + bigB / 4
+                        * (cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)
+                        - bigB / 6 * cos2SigmaM * (-3 + 4 * sinSigma * sinSigma) * (-3 + 4 * cos2SigmaM * cos2SigmaM)));
+                return B * bigA * (sigma - deltaSigma);
+            }
+        }
+
+        // No convergence for nearly antipodal points
+        return GEODESIC.distance(lat1, lon1, lat2, lon2);
+    }
+
+    private static double haversine(double lat1, double lon1, double lat2, double lon2) {
+        final double phi1 = Math.toRadians(lat1);
+        final double phi2 = Math.toRadians(lat2);
+        final double dPhi = phi2 - phi1;
+        final double dLambda = Math.toRadians(Math.IEEEremainder(lon2 - lon1, 360));
+
+        final double sinHalfPhi = Math.sin(dPhi / 2);
+        final double sinHalfLambda = Math.sin(dLambda / 2);
+        final double h = sinHalfPhi * sinHalfPhi + Math.cos(phi1) * Math.cos(phi2) * sinHalfLambda * sinHalfLambda;
+        final double centralAngle = 2 * Math.asin(Math.min(1, Math.sqrt(h)));
+
+        // Euler's radius of curvature at the mid-latitude in the direction of the segment
+        final double phiM = (phi1 + phi2) / 2;
+        final double x = dLambda * Math.cos(phiM);
+        final double xSq = x * x, ySq = dPhi * dPhi;
+        if (xSq + ySq == 0) {
+            return 0;
+        }
+        final double w2 = 1 - E2 * Math.sin(phiM) * Math.sin(phiM);
+        final double w = Math.sqrt(w2);
+        final double meridional = A * (1 - E2) / (w2 * w);
+        final double transverse = A / w;
+        final double radius = (xSq + ySq) / (ySq / meridional + xSq / transverse);
+
+        return radius * centralAngle;
+    }
+
+    private static double equirectangular(double lat1, double lon1, double lat2, double lon2) {
+        final double phiM = Math.toRadians((lat1 + lat2) / 2);
+        final double dPhi = Math.toRadians(lat2 - lat1);
+        final double dLambda = Math.toRadians(Math.IEEEremainder(lon2 - lon1, 360));
+
+        final double sinPhiM = Math.sin(phiM);
+        final double w2 = 1 - E2 * sinPhiM * sinPhiM;
+        final double w = Math.sqrt(w2);
+        final double dy = A * (1 - E2) / (w2 * w) * dPhi;
+        final double dx = A / w * Math.cos(phiM) * dLambda;
+
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+}
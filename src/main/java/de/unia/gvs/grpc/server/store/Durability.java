@@ -0,0 +1,19 @@
+package de.unia.gvs.grpc.server.store;
+
+/**
+ * When changes to a persistent {@link TrackStore} are forced to disk, trading write latency for safety.
+ */
+public enum Durability {
+    /**
+     * Every change is forced to disk before it is applied, concurrent writers wait for each other.
+     */
+    SYNC,
+    /**
+     * Changes are acknowledged once forced to disk, but concurrent writers share a single flush.
+     */
+    GROUP_COMMIT,
+    /**
+     * Changes are flushed in the background about once per second, a crash may lose the most recent ones.
+     */
+    ASYNC
+}
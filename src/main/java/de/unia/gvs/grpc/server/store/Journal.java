@@ -0,0 +1,54 @@
+package de.unia.gvs.grpc.server.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Records the changes of a {@link TrackStore} before they are applied.
+ * <p>
+ * Changes to a single track are recorded while holding that track's lock, so they appear in the same order in which
+ * they are applied.
+ */
+interface Journal extends Closeable {
+    /**
+     * Journal of in-memory stores, which does not record anything.
+     */
+    Journal NONE = new Journal() {
+        @Override
+        public void logAppend(int userId, int offset, PointColumns points) {
+        }
+
+        @Override
+        public void logDelete(int userId) {
+        }
+
+        @Override
+        public void commit() {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    /**
+     * @param userId
+     * @param offset number of points in the track before the append
+     * @param points
+     * @throws IOException
+     */
+    void logAppend(int userId, int offset, PointColumns points) throws IOException;
+
+    /**
+     * @param userId
+     * @throws IOException
+     */
+    void logDelete(int userId) throws IOException;
+
+    /**
+     * Wait until all changes recorded so far are durable.
+     *
+     * @throws IOException
+     */
+    void commit() throws IOException;
+}
@@ -0,0 +1,82 @@
+package de.unia.gvs.grpc.server.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Allocates memory for {@link OffHeapSegment}s.
+ * <p>
+ * Without a directory every allocation is a separate direct buffer, which is released once its segment becomes
+ * unreachable. With a directory, allocations are carved from large regions of a memory-mapped file, so the
+ * operating system can page out cold segments. Memory of deleted tracks is not reused in this case, the file is
+ * deleted when the arena is closed.
+ */
+final class OffHeapArena implements Closeable {
+    // Size of each mapping of the file
+    private static final int REGION_SIZE = 64 << 20;
+
+    private final Path file;
+    private final FileChannel channel;
+
+    private MappedByteBuffer region;
+    private long fileSize;
+
+    private OffHeapArena(Path file, FileChannel channel) {
+        this.file = file;
+        this.channel = channel;
+    }
+
+    /**
+     * @return arena allocating direct buffers
+     */
+    static OffHeapArena direct() {
+        return new OffHeapArena(null, null);
+    }
+
+    /**
+     * @param directory
+     * @return arena allocating from a new memory-mapped file in the given directory
+     * @throws IOException
+     */
+    static OffHeapArena mapped(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        final Path file = Files.createTempFile(directory, "segments-", ".dat");
+        return new OffHeapArena(file, FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE));
+    }
+
+    /**
+     * @param bytes
+     * @return a buffer of the given capacity in native byte order
+     * @throws IOException if the file cannot be extended
+     */
+    synchronized ByteBuffer allocate(int bytes) throws IOException {
+        if (channel == null) {
+            return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+        }
+
+        if (region == null || region.remaining() < bytes) {
+            final int size = Math.max(bytes, REGION_SIZE);
+            region = channel.map(FileChannel.MapMode.READ_WRITE, fileSize, size);
+            fileSize += size;
+        }
+        final ByteBuffer buffer = region.slice();
+        buffer.limit(bytes);
+        region.position(region.position() + bytes);
+        return buffer.slice().order(ByteOrder.nativeOrder());
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            Files.deleteIfExists(file);
+        }
+    }
+}
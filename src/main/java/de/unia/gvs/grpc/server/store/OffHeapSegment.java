@@ -0,0 +1,85 @@
+package de.unia.gvs.grpc.server.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Segment stored outside the Java heap, so that it neither counts towards the heap size nor needs to be traced by
+ * the garbage collector.
+ * <p>
+ * The buffer holds all latitudes, then all longitudes, altitudes and timestamps, each as 8 bytes in native byte
+ * order. Only absolute accessors are used, which makes concurrent reads safe.
+ */
+final class OffHeapSegment implements Segment {
+    private final ByteBuffer buffer;
+    private final int size;
+
+    private OffHeapSegment(ByteBuffer buffer, int size) {
+        this.buffer = buffer;
+        this.size = size;
+    }
+
+    /**
+     * @param arena
+     * @param points
+     * @param from index of the first point to copy
+     * @param to index after the last point to copy
+     * @return
+     * @throws IOException if the arena cannot provide memory
+     */
+    static OffHeapSegment copy(OffHeapArena arena, PointColumns points, int from, int to) throws IOException {
+        final int size = to - from;
+        final ByteBuffer buffer = arena.allocate(4 * Long.BYTES * size);
+        for (int i = 0; i < size; ++i) {
+            buffer.putDouble(i * Double.BYTES, points.latitudes[from + i]);
+            buffer.putDouble((size + i) * Double.BYTES, points.longitudes[from + i]);
+            buffer.putDouble((2 * size + i) * Double.BYTES, points.altitudes[from + i]);
+            buffer.putLong((3 * size + i) * Long.BYTES, points.timestamps[from + i]);
+        }
+        return new OffHeapSegment(buffer, size);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public double latitude(int index) {
+        return buffer.getDouble(index * Double.BYTES);
+    }
+
+    @Override
+    public double longitude(int index) {
+        return buffer.getDouble((size + index) * Double.BYTES);
+    }
+
+    @Override
+    public double altitude(int index) {
+        return buffer.getDouble((2 * size + index) * Double.BYTES);
+    }
+
+    @Override
+    public long timestamp(int index) {
+        return buffer.getLong((3 * size + index) * Long.BYTES);
+    }
+
+    @Override
+    public double length(DistanceFunction function) {
+        double length = 0;
+        for (int i = 0; i < size - 1; ++i) {
+            length += function.distance(latitude(i), longitude(i), latitude(i + 1), longitude(i + 1));
+        }
+        return length;
+    }
+
+    @Override
+    public long heapBytes() {
+        return 0;
+    }
+
+    @Override
+    public long offHeapBytes() {
+        return buffer.capacity();
+    }
+}
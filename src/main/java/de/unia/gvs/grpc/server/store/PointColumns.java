@@ -0,0 +1,174 @@
+package de.unia.gvs.grpc.server.store;
+
+import com.google.protobuf.util.Timestamps;
+import de.unia.gvs.grpc.Coordinate;
+import de.unia.gvs.grpc.codec.CompactPointCodec;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Growable columnar storage for track points.
+ * <p>
+ * Every field of a {@link Coordinate} is kept in a separate primitive array, which needs 32 bytes per point instead
+ * of two protobuf objects. Timestamps are stored as nanoseconds since the epoch, limiting them to the years 1677 to
+ * 2262.
+ * <p>
+ * Instances are not thread-safe.
+ */
+public final class PointColumns {
+    /**
+     * Marker in the timestamp column for points logged without a timestamp
+     */
+    public static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+    double[] latitudes;
+    double[] longitudes;
+    double[] altitudes;
+    long[] timestamps;
+    int size;
+
+    public PointColumns(int capacity) {
+        latitudes = new double[capacity];
+        longitudes = new double[capacity];
+        altitudes = new double[capacity];
+        timestamps = new long[capacity];
+    }
+
+    /**
+     * Convert a list of points into columnar form.
+     *
+     * @param points
+     * @return
+     * @throws IllegalArgumentException if a timestamp is invalid or cannot be represented
+     */
+    public static PointColumns of(List<Coordinate> points) {
+        final PointColumns columns = new PointColumns(points.size());
+        for (Coordinate point : points) {
+            columns.add(point);
+        }
+        return columns;
+    }
+
+    /**
+     * @param point
+     * @throws IllegalArgumentException if the timestamp is invalid or cannot be represented
+     */
+    public void add(Coordinate point) {
+        final long timestamp;
+        if (point.hasTimestamp()) {
+            try {
+                timestamp = Timestamps.toNanos(point.getTimestamp());
+            } catch (ArithmeticException ex) {
+                throw new IllegalArgumentException("Timestamp out of range: " + point.getTimestamp(), ex);
+            }
+            if (timestamp == NO_TIMESTAMP) {
+                throw new IllegalArgumentException("Timestamp out of range: " + point.getTimestamp());
+            }
+        } else {
+            timestamp = NO_TIMESTAMP;
+        }
+        add(point.getLatitude(), point.getLongitude(), point.getAltitude(), timestamp);
+    }
+
+    public void add(double latitude, double longitude, double altitude, long timestamp) {
+        ensureCapacity(size + 1);
+        latitudes[size] = latitude;
+        longitudes[size] = longitude;
+        altitudes[size] = altitude;
+        timestamps[size] = timestamp;
+        ++size;
+    }
+
+    /**
+     * Append all points from another instance.
+     *
+     * @param other
+     */
+    public void addAll(PointColumns other) {
+        ensureCapacity(size + other.size);
+        System.arraycopy(other.latitudes, 0, latitudes, size, other.size);
+        System.arraycopy(other.longitudes, 0, longitudes, size, other.size);
+        System.arraycopy(other.altitudes, 0, altitudes, size, other.size);
+        System.arraycopy(other.timestamps, 0, timestamps, size, other.size);
+        size += other.size;
+    }
+
+    /**
+     * @param codec
+     * @param from index of the first point to encode
+     * @param to index after the last point to encode
+     * @return the given range of points in the codec's compact format
+     */
+    public byte[] encode(CompactPointCodec codec, int from, int to) {
+        return codec.encode(latitudes, longitudes, altitudes, timestamps, from, to);
+    }
+
+    /**
+     * @param data points in the compact format
+     * @return
+     * @throws IllegalArgumentException if the data is malformed
+     */
+    public static PointColumns decode(byte[] data) {
+        final PointColumns columns = new PointColumns(CompactPointCodec.count(data));
+        CompactPointCodec.decode(data, columns::add);
+        return columns;
+    }
+
+    /**
+     * @param from index of the first point to copy
+     * @param to index after the last point to copy
+     * @return a new instance containing a copy of the given range
+     */
+    public PointColumns copyOfRange(int from, int to) {
+        final PointColumns copy = new PointColumns(0);
+        copy.latitudes = Arrays.copyOfRange(latitudes, from, to);
+        copy.longitudes = Arrays.copyOfRange(longitudes, from, to);
+        copy.altitudes = Arrays.copyOfRange(altitudes, from, to);
+        copy.timestamps = Arrays.copyOfRange(timestamps, from, to);
+        copy.size = to - from;
+        return copy;
+    }
+
+    /**
+     * Grow the columns, replacing the backing arrays.
+     * <p>
+     * Arrays are never modified below {@link #size()} and replaced instead of resized, which allows snapshots to
+     * keep referencing them.
+     *
+     * @param capacity
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity > latitudes.length) {
+            final int newCapacity = Math.max(capacity, Math.max(16, latitudes.length * 2));
+            latitudes = Arrays.copyOf(latitudes, newCapacity);
+            longitudes = Arrays.copyOf(longitudes, newCapacity);
+            altitudes = Arrays.copyOf(altitudes, newCapacity);
+            timestamps = Arrays.copyOf(timestamps, newCapacity);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public double latitude(int index) {
+        return latitudes[index];
+    }
+
+    public double longitude(int index) {
+        return longitudes[index];
+    }
+
+    public double altitude(int index) {
+        return altitudes[index];
+    }
+
+    /**
+     * @param index
+     * @return timestamp in nanoseconds since the epoch, or {@link #NO_TIMESTAMP}
+     */
+    public long timestamp(int index) {
+        return timestamps[index];
+    }
+}
@@ -0,0 +1,120 @@
+package de.unia.gvs.grpc.server.store;
+
+import de.unia.gvs.grpc.Coordinate;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Ordered subset of a track's points, as returned by {@link TrackSnapshot#select(long, long)}.
+ * <p>
+ * Positions refer to the selection's order, which is either the track order or the order by timestamp, with points of
+ * equal timestamps in track order.
+ */
+public final class PointSelection {
+    private final TrackSnapshot track;
+    // Maps positions to point indices, or null if positions are point indices
+    private final int[] order;
+    private final int start;
+    private final int end;
+    private final boolean timeOrdered;
+
+    /**
+     * @param track
+     * @param order
+     * @param start
+     * @param end
+     * @param timeOrdered whether the positions are ordered by timestamp rather than by track order
+     */
+    PointSelection(TrackSnapshot track, int[] order, int start, int end, boolean timeOrdered) {
+        this.track = track;
+        this.order = order;
+        this.start = start;
+        this.end = end;
+        this.timeOrdered = timeOrdered;
+    }
+
+    /**
+     * @return number of selected points
+     */
+    public int size() {
+        return end - start;
+    }
+
+    /**
+     * @param position position within the selection
+     * @return index of the point within the track
+     */
+    public int index(int position) {
+        if (position < 0 || position >= size()) {
+            throw new IndexOutOfBoundsException("Position " + position + " out of bounds for selection of size " + size());
+        }
+        return order == null ? start + position : order[start + position];
+    }
+
+    /**
+     * @param offset number of points to skip
+     * @param limit maximum number of points, or 0 for no limit
+     * @return the selected range of this selection
+     */
+    public PointSelection slice(int offset, int limit) {
+        final int sliceStart = start + Math.min(Math.max(offset, 0), size());
+        final int sliceEnd = limit > 0 ? Math.min(end, sliceStart + limit) : end;
+        return new PointSelection(track, order, sliceStart, sliceEnd, timeOrdered);
+    }
+
+    /**
+     * Find where to continue after a point, even if points appended since then precede it in the selection's order.
+     *
+     * @param timestamp timestamp of the point
+     * @param index index of the point within the track
+     * @return position of the first selected point following the given one in the selection's order
+     */
+    public int positionAfter(long timestamp, int index) {
+        int low = 0, high = size();
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            final int candidate = index(middle);
+            final boolean before = timeOrdered && track.timestamp(candidate) != timestamp
+                    ? track.timestamp(candidate) < timestamp
+                    : candidate <= index;
+            if (before) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the snapshot this selection was made from
+     */
+    public TrackSnapshot track() {
+        return track;
+    }
+
+    /**
+     * Iterate over the selected points, materializing each one on demand.
+     *
+     * @return
+     */
+    public Iterator<Coordinate> iterator() {
+        return new Iterator<Coordinate>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < size();
+            }
+
+            @Override
+            public Coordinate next() {
+                if (next >= size()) {
+                    throw new NoSuchElementException();
+                }
+                return track.get(index(next++));
+            }
+        };
+    }
+}
@@ -0,0 +1,202 @@
+package de.unia.gvs.grpc.server.store;
+
+/**
+ * Geographic area for {@link TrackStore#usersIn(Region)} queries.
+ */
+public abstract class Region {
+    // Mean earth radius in meters
+    static final double EARTH_RADIUS = 6_371_008.8;
+
+    /**
+     * Relation of a region to a rectangular cell.
+     */
+    enum Relation {
+        DISJOINT, INTERSECTS, CONTAINS
+    }
+
+    // Bounding box, the longitude range wraps around the antimeridian if minLongitude > maxLongitude
+    final double minLatitude;
+    final double minLongitude;
+    final double maxLatitude;
+    final double maxLongitude;
+
+    private Region(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+        this.minLatitude = minLatitude;
+        this.minLongitude = minLongitude;
+        this.maxLatitude = maxLatitude;
+        this.maxLongitude = maxLongitude;
+    }
+
+    /**
+     * Create a region bounded by two parallels and two meridians.
+     *
+     * @param minLatitude southern boundary in degrees
+     * @param minLongitude western boundary in degrees
+     * @param maxLatitude northern boundary in degrees
+     * @param maxLongitude eastern boundary in degrees, less than the western one if the box crosses the antimeridian
+     * @return
+     * @throws IllegalArgumentException if a boundary is out of range, or the southern one is north of the northern one
+     */
+    public static Region box(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+        if (!(-90 <= minLatitude && minLatitude <= maxLatitude && maxLatitude <= 90)) {
+            throw new IllegalArgumentException("Invalid latitude range [" + minLatitude + ", " + maxLatitude + "]");
+        }
+        if (!(-180 <= minLongitude && minLongitude <= 180 && -180 <= maxLongitude && maxLongitude <= 180)) {
+            throw new IllegalArgumentException("Invalid longitude range [" + minLongitude + ", " + maxLongitude + "]");
+        }
+        return new Box(minLatitude, minLongitude, maxLatitude, maxLongitude);
+    }
+
+    /**
+     * Create a region containing all points within a great-circle distance of a center, measured on a sphere with
+     * the mean earth radius.
+     *
+     * @param latitude latitude of the center in degrees
+     * @param longitude longitude of the center in degrees
+     * @param radius maximum distance in meters
+     * @return
+     * @throws IllegalArgumentException if the center is out of range or the radius is negative
+     */
+    public static Region circle(double latitude, double longitude, double radius) {
+        if (!(-90 <= latitude && latitude <= 90 && -180 <= longitude && longitude <= 180)) {
+            throw new IllegalArgumentException("Invalid center (" + latitude + ", " + longitude + ")");
+        }
+        if (!(radius >= 0 && radius < Double.POSITIVE_INFINITY)) {
+            throw new IllegalArgumentException("Invalid radius " + radius);
+        }
+        return Circle.create(latitude, longitude, radius);
+    }
+
+    /**
+     * @param latitude
+     * @param longitude
+     * @return whether the point lies within the region
+     */
+    abstract boolean contains(double latitude, double longitude);
+
+    /**
+     * @return relation of the region to the given cell, where {@link Relation#INTERSECTS} is always a safe answer
+     */
+    abstract Relation relate(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude);
+
+    /**
+     * @return whether the longitude lies within the bounding box
+     */
+    final boolean containsLongitude(double longitude) {
+        return minLongitude <= maxLongitude
+                ? minLongitude <= longitude && longitude <= maxLongitude
+                : minLongitude <= longitude || longitude <= maxLongitude;
+    }
+
+    /**
+     * @return whether the cell overlaps with the bounding box
+     */
+    final boolean intersectsBounds(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+        if (maxLatitude < this.minLatitude || minLatitude > this.maxLatitude) {
+            return false;
+        }
+        if (this.minLongitude <= this.maxLongitude) {
+            return maxLongitude >= this.minLongitude && minLongitude <= this.maxLongitude;
+        }
+        return maxLongitude >= this.minLongitude || minLongitude <= this.maxLongitude;
+    }
+
+    private static final class Box extends Region {
+        Box(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+            super(minLatitude, minLongitude, maxLatitude, maxLongitude);
+        }
+
+        @Override
+        boolean contains(double latitude, double longitude) {
+            return minLatitude <= latitude && latitude <= maxLatitude && containsLongitude(longitude);
+        }
+
+        @Override
+        Relation relate(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+            if (!intersectsBounds(minLatitude, minLongitude, maxLatitude, maxLongitude)) {
+                return Relation.DISJOINT;
+            }
+            final boolean containsLongitudes = this.minLongitude <= this.maxLongitude
+                    ? this.minLongitude <= minLongitude && maxLongitude <= this.maxLongitude
+                    : this.minLongitude <= minLongitude || maxLongitude <= this.maxLongitude;
+            return this.minLatitude <= minLatitude && maxLatitude <= this.maxLatitude && containsLongitudes
+                    ? Relation.CONTAINS
+                    : Relation.INTERSECTS;
+        }
+    }
+
+    private static final class Circle extends Region {
+        private final double latitude;
+        private final double longitude;
+        // Maximum central angle in radians
+        private final double angle;
+
+        private Circle(double latitude, double longitude, double angle, double minLatitude, double minLongitude,
+                       double maxLatitude, double maxLongitude) {
+            super(minLatitude, minLongitude, maxLatitude, maxLongitude);
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.angle = angle;
+        }
+
+        static Circle create(double latitude, double longitude, double radius) {
+            final double angle = Math.min(radius / EARTH_RADIUS, Math.PI);
+            final double minLatitude = latitude - Math.toDegrees(angle);
+            final double maxLatitude = latitude + Math.toDegrees(angle);
+            if (minLatitude <= -90 || maxLatitude >= 90) {
+                // Contains a pole, and therefore all longitudes
+                return new Circle(latitude, longitude, angle, Math.max(minLatitude, -90), -180,
+                        Math.min(maxLatitude, 90), 180);
+            }
+
+            // Meridians touching the spherical cap
+            final double ratio = Math.sin(angle) / Math.cos(Math.toRadians(latitude));
+            if (ratio >= 1) {
+                return new Circle(latitude, longitude, angle, minLatitude, -180, maxLatitude, 180);
+            }
+            final double delta = Math.toDegrees(Math.asin(ratio));
+            return new Circle(latitude, longitude, angle, minLatitude, wrap(longitude - delta), maxLatitude,
+                    wrap(longitude + delta));
+        }
+
+        private static double wrap(double longitude) {
+            return longitude < -180 ? longitude + 360 : longitude > 180 ? longitude - 360 : longitude;
+        }
+
+        /**
+         * @return central angle between the center and the given point in radians
+         */
+        private double angleTo(double latitude, double longitude) {
+            final double phi1 = Math.toRadians(this.latitude);
+            final double phi2 = Math.toRadians(latitude);
+            final double sinPhi = Math.sin((phi2 - phi1) / 2);
+            final double sinLambda = Math.sin(Math.toRadians(longitude - this.longitude) / 2);
+            final double h = sinPhi * sinPhi + Math.cos(phi1) * Math.cos(phi2) * sinLambda * sinLambda;
+            return 2 * Math.asin(Math.sqrt(Math.min(h, 1)));
+        }
+
+        @Override
+        boolean contains(double latitude, double longitude) {
+            return angleTo(latitude, longitude) <= angle;
+        }
+
+        @Override
+        Relation relate(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+            if (!intersectsBounds(minLatitude, minLongitude, maxLatitude, maxLongitude)) {
+                return Relation.DISJOINT;
+            }
+
+            // Along a parallel, the distance grows with the longitude difference up to 180 degrees. Along a
+            // meridian, it has a single minimum. Within 90 degrees of the center's meridian, the farthest point of
+            // the cell is therefore one of its corners.
+            if (Math.abs(Math.IEEEremainder(minLongitude - longitude, 360)) <= 90
+                    && Math.abs(Math.IEEEremainder(maxLongitude - longitude, 360)) <= 90
+                    && maxLongitude - minLongitude <= 90
+                    && contains(minLatitude, minLongitude) && contains(minLatitude, maxLongitude)
+                    && contains(maxLatitude, minLongitude) && contains(maxLatitude, maxLongitude)) {
+                return Relation.CONTAINS;
+            }
+            return Relation.INTERSECTS;
+        }
+    }
+}
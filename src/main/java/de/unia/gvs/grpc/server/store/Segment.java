@@ -0,0 +1,36 @@
+package de.unia.gvs.grpc.server.store;
+
+/**
+ * Immutable block of consecutive track points, sealed from the end of a track.
+ */
+interface Segment {
+    int size();
+
+    double latitude(int index);
+
+    double longitude(int index);
+
+    double altitude(int index);
+
+    /**
+     * @param index
+     * @return timestamp in nanoseconds since the epoch, or {@link PointColumns#NO_TIMESTAMP}
+     */
+    long timestamp(int index);
+
+    /**
+     * @param function
+     * @return length of the path through all points of the segment in meters
+     */
+    double length(DistanceFunction function);
+
+    /**
+     * @return bytes of the stored points on the Java heap, excluding caches
+     */
+    long heapBytes();
+
+    /**
+     * @return bytes of the stored points outside the Java heap
+     */
+    long offHeapBytes();
+}
@@ -0,0 +1,56 @@
+package de.unia.gvs.grpc.server.store;
+
+import de.unia.gvs.grpc.codec.CompactPointCodec;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Seals points into {@link Segment}s as configured by {@link StoreConfig#getSegmentStorage()}.
+ * <p>
+ * Shared by all tracks of a store.
+ */
+final class SegmentFactory implements Closeable {
+    private final CompactPointCodec codec;
+    private final OffHeapArena arena;
+
+    private SegmentFactory(CompactPointCodec codec, OffHeapArena arena) {
+        this.codec = codec;
+        this.arena = arena;
+    }
+
+    /**
+     * @param config
+     * @return
+     * @throws IOException if the memory-mapped file for off-heap segments cannot be created
+     */
+    static SegmentFactory create(StoreConfig config) throws IOException {
+        if (config.getSegmentStorage() == SegmentStorage.OFF_HEAP) {
+            return new SegmentFactory(null, config.getOffHeapDirectory() == null
+                    ? OffHeapArena.direct()
+                    : OffHeapArena.mapped(config.getOffHeapDirectory()));
+        }
+        return new SegmentFactory(new CompactPointCodec(config.getCoordinateDecimals(), config.getAltitudeDecimals()),
+                null);
+    }
+
+    /**
+     * @param points
+     * @param from index of the first point to seal
+     * @param to index after the last point to seal
+     * @return a new segment containing the given range of points
+     * @throws IOException if no off-heap memory can be allocated
+     */
+    Segment seal(PointColumns points, int from, int to) throws IOException {
+        return arena != null
+                ? OffHeapSegment.copy(arena, points, from, to)
+                : CompressedSegment.compress(codec, points, from, to);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (arena != null) {
+            arena.close();
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package de.unia.gvs.grpc.server.store;
+
+/**
+ * How sealed {@link Segment}s of a {@link TrackStore} are stored.
+ */
+public enum SegmentStorage {
+    /**
+     * On the heap in the compact point format, keeping the configured number of decimals only.
+     */
+    COMPRESSED,
+    /**
+     * Outside the heap with full precision, in direct buffers or a memory-mapped file.
+     */
+    OFF_HEAP
+}
@@ -0,0 +1,171 @@
+package de.unia.gvs.grpc.server.store;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of simplified versions of a track, one per tolerance.
+ * <p>
+ * Tracks are simplified with the Douglas-Peucker algorithm: a point is only kept if it deviates more than the
+ * tolerance from the polyline through the kept points around it. Distances are measured in a local equirectangular
+ * projection of each polyline segment, which is accurate enough for rendering at any zoom level.
+ * <p>
+ * Entries are only valid for the track size they were computed for, and are dropped by {@link #invalidate()} after
+ * every append. Only the most recently used tolerances are kept, since map views request few distinct levels.
+ */
+final class Simplifications {
+    // Number of tolerances cached per track
+    private static final int MAX_ENTRIES = 8;
+
+    // Meters per degree of latitude on a sphere with the mean earth radius
+    private static final double METERS_PER_DEGREE = Region.EARTH_RADIUS * Math.PI / 180;
+
+    private final Map<Double, Entry> entries = new LinkedHashMap<Double, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Double, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private static final class Entry {
+        final int trackSize;
+        final int[] indices;
+
+        Entry(int trackSize, int[] indices) {
+            this.trackSize = trackSize;
+            this.indices = indices;
+        }
+    }
+
+    /**
+     * Simplify a whole track, using the cached result if the track has not changed since.
+     *
+     * @param track the requesting snapshot
+     * @param tolerance maximum deviation of dropped points in meters
+     * @return indices of the kept points in track order
+     */
+    int[] indices(TrackSnapshot track, double tolerance) {
+        synchronized (this) {
+            final Entry entry = entries.get(tolerance);
+            if (entry != null && entry.trackSize == track.size()) {
+                return entry.indices;
+            }
+        }
+
+        // Simplify without holding the lock, so requests for other tolerances are not blocked by long tracks
+        final int[] indices = simplify(track.select(Long.MIN_VALUE, Long.MAX_VALUE), tolerance);
+        synchronized (this) {
+            final Entry entry = entries.get(tolerance);
+            // Do not replace the result for a newer snapshot with the one for an older snapshot
+            if (entry == null || entry.trackSize < track.size()) {
+                entries.put(tolerance, new Entry(track.size(), indices));
+            }
+        }
+        return indices;
+    }
+
+    /**
+     * Drop all cached results, called when points are appended.
+     */
+    synchronized void invalidate() {
+        entries.clear();
+    }
+
+    /**
+     * Simplify the polyline through the selected points in selection order.
+     *
+     * @param selection
+     * @param tolerance maximum deviation of dropped points in meters
+     * @return indices of the kept points within the track, in selection order
+     */
+    static int[] simplify(PointSelection selection, double tolerance) {
+        final int size = selection.size();
+        final TrackSnapshot track = selection.track();
+        final int[] indices = new int[size];
+        final double[] latitudes = new double[size];
+        final double[] longitudes = new double[size];
+        for (int position = 0; position < size; ++position) {
+            indices[position] = selection.index(position);
+            latitudes[position] = track.latitude(indices[position]);
+            longitudes[position] = track.longitude(indices[position]);
+        }
+        if (size <= 2) {
+            return indices;
+        }
+
+        final boolean[] keep = new boolean[size];
+        keep[0] = true;
+        keep[size - 1] = true;
+        int kept = 2;
+
+        // Distances are compared in degrees of latitude to save a multiplication per point
+        final double limit = tolerance / METERS_PER_DEGREE;
+        final double squaredLimit = limit * limit;
+
+        // Ranges still to be simplified, as pairs of their first and last position
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = size - 1;
+        while (top > 0) {
+            final int last = stack[--top];
+            final int first = stack[--top];
+
+            final double scale = Math.cos(Math.toRadians((latitudes[first] + latitudes[last]) / 2));
+            final double chordX = wrap(longitudes[last] - longitudes[first]) * scale;
+            final double chordY = latitudes[last] - latitudes[first];
+            final double chordLength = chordX * chordX + chordY * chordY;
+
+            double maxDistance = -1;
+            int farthest = -1;
+            for (int position = first + 1; position < last; ++position) {
+                final double x = wrap(longitudes[position] - longitudes[first]) * scale;
+                final double y = latitudes[position] - latitudes[first];
+                // Distance to the closest point of the chord, not of its extension
+                final double t = chordLength > 0
+                        ? Math.max(0, Math.min(1, (x * chordX + y * chordY) / chordLength))
+                        : 0;
+                final double dx = x - t * chordX;
+                final double dy = y - t * chordY;
+                final double distance = dx * dx + dy * dy;
+                if (distance > maxDistance) {
+                    maxDistance = distance;
+                    farthest = position;
+                }
+            }
+
+            if (maxDistance > squaredLimit) {
+                keep[farthest] = true;
+                ++kept;
+                if (top + 4 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                if (farthest - first > 1) {
+                    stack[top++] = first;
+                    stack[top++] = farthest;
+                }
+                if (last - farthest > 1) {
+                    stack[top++] = farthest;
+                    stack[top++] = last;
+                }
+            }
+        }
+
+        final int[] result = new int[kept];
+        int count = 0;
+        for (int position = 0; position < size; ++position) {
+            if (keep[position]) {
+                result[count++] = indices[position];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return longitude difference in the range [-180, 180]
+     */
+    private static double wrap(double difference) {
+        return difference > 180 ? difference - 360 : difference < -180 ? difference + 360 : difference;
+    }
+}
@@ -0,0 +1,298 @@
+package de.unia.gvs.grpc.server.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntFunction;
+
+/**
+ * Grid of cells recording which users have points in which areas.
+ * <p>
+ * The finest cells span 1/128 degree in both directions, about 870 meters north to south. They record the points of
+ * each user as runs of consecutive indices, which stay short because tracks rarely leave a cell between consecutive
+ * points. Every coarser level doubles the cell size up to 128 degrees, and only counts the points of each user.
+ * <p>
+ * Queries start at the level where few cells cover the region and only descend into cells partially covered by it,
+ * so their cost depends on the size of the region and the number of users nearby rather than the total number of
+ * points. Points in partially covered cells of the finest level are checked individually.
+ * <p>
+ * Users are spread across {@link #STRIPES} separate grids with a lock each, so appends of different users rarely
+ * wait for each other. The cells of new points are determined before taking the lock, which is only held while the
+ * grid is updated.
+ */
+final class SpatialIndex implements TrackListener {
+    private static final int CELLS_PER_DEGREE = 128;
+    private static final int LEVELS = 15;
+    private static final int COLUMNS = 360 * CELLS_PER_DEGREE;
+    private static final int ROWS = 180 * CELLS_PER_DEGREE;
+    // Maximum number of cells visited at the starting level of a query
+    private static final int START_CELLS = 64;
+    // Number of grids, each holding the users with the same ID modulo this number
+    static final int STRIPES = 16;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    SpatialIndex() {
+        for (int i = 0; i < STRIPES; ++i) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    private static int column(double longitude) {
+        return Math.max(0, Math.min(COLUMNS - 1, (int) Math.floor((longitude + 180) * CELLS_PER_DEGREE)));
+    }
+
+    private static int row(double latitude) {
+        return Math.max(0, Math.min(ROWS - 1, (int) Math.floor((latitude + 90) * CELLS_PER_DEGREE)));
+    }
+
+    private static long key(int level, int column, int row) {
+        return (long) level << 40 | (long) column << 20 | row;
+    }
+
+    private Stripe stripe(int userId) {
+        return stripes[Math.floorMod(userId, STRIPES)];
+    }
+
+    @Override
+    public void appended(int userId, TrackSnapshot track, int offset, PointColumns points) {
+        // Runs of consecutive points in the same cell as triples of cell key, start and end index
+        long[] runs = new long[12];
+        int size = 0;
+        int start = 0;
+        while (start < points.size()) {
+            final int column = column(points.longitude(start));
+            final int row = row(points.latitude(start));
+            int end = start + 1;
+            while (end < points.size()
+                    && column(points.longitude(end)) == column && row(points.latitude(end)) == row) {
+                ++end;
+            }
+            if (size == runs.length) {
+                runs = Arrays.copyOf(runs, 2 * size);
+            }
+            runs[size++] = key(0, column, row);
+            runs[size++] = offset + start;
+            runs[size++] = offset + end;
+            start = end;
+        }
+        stripe(userId).add(userId, runs, size);
+    }
+
+    @Override
+    public void deleted(int userId, long version) {
+        stripe(userId).remove(userId);
+    }
+
+    /**
+     * Find all users with at least one point in the region.
+     *
+     * @param region
+     * @param tracks current snapshot of each user's track, used to check points in partially covered cells
+     * @return IDs of the matching users in ascending order
+     */
+    List<Integer> query(Region region, IntFunction<Optional<TrackSnapshot>> tracks) {
+        final Set<Integer> users = new TreeSet<>();
+        final int minRow = row(region.minLatitude);
+        final int maxRow = row(region.maxLatitude);
+        final int minColumn = column(region.minLongitude);
+        final int maxColumn = column(region.maxLongitude);
+        for (Stripe stripe : stripes) {
+            if (minColumn <= maxColumn) {
+                stripe.query(region, minColumn, maxColumn, minRow, maxRow, tracks, users);
+            } else {
+                // Crosses the antimeridian
+                stripe.query(region, minColumn, COLUMNS - 1, minRow, maxRow, tracks, users);
+                stripe.query(region, 0, maxColumn, minRow, maxRow, tracks, users);
+            }
+        }
+        return new ArrayList<>(users);
+    }
+
+    /**
+     * Grid of the users in one stripe.
+     */
+    private static final class Stripe {
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        // Point index runs of each user, per finest cell
+        private final Map<Long, Map<Integer, IndexRuns>> cells = new HashMap<>();
+        // Number of points of each user per cell, for all coarser levels
+        private final List<Map<Long, Map<Integer, int[]>>> coarseCells = new ArrayList<>();
+        // Finest cells containing points of each user
+        private final Map<Integer, Set<Long>> userCells = new HashMap<>();
+
+        Stripe() {
+            for (int level = 1; level < LEVELS; ++level) {
+                coarseCells.add(new HashMap<>());
+            }
+        }
+
+        void add(int userId, long[] runs, int size) {
+            lock.writeLock().lock();
+            try {
+                final Set<Long> ownCells = userCells.computeIfAbsent(userId, id -> new HashSet<>());
+                for (int i = 0; i < size; i += 3) {
+                    final long key = runs[i];
+                    final int from = (int) runs[i + 1];
+                    final int to = (int) runs[i + 2];
+                    ownCells.add(key);
+                    cells.computeIfAbsent(key, k -> new HashMap<>())
+                            .computeIfAbsent(userId, id -> new IndexRuns())
+                            .add(from, to);
+
+                    final int column = (int) (key >> 20) & 0xfffff;
+                    final int row = (int) key & 0xfffff;
+                    for (int level = 1; level < LEVELS; ++level) {
+                        coarseCells.get(level - 1)
+                                .computeIfAbsent(key(level, column >> level, row >> level), k -> new HashMap<>())
+                                .computeIfAbsent(userId, id -> new int[1])[0] += to - from;
+                    }
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void remove(int userId) {
+            lock.writeLock().lock();
+            try {
+                final Set<Long> ownCells = userCells.remove(userId);
+                if (ownCells == null) {
+                    return;
+                }
+                for (long key : ownCells) {
+                    final Map<Integer, IndexRuns> users = cells.get(key);
+                    final int count = users.remove(userId).count();
+                    if (users.isEmpty()) {
+                        cells.remove(key);
+                    }
+
+                    final int column = (int) (key >> 20) & 0xfffff;
+                    final int row = (int) key & 0xfffff;
+                    for (int level = 1; level < LEVELS; ++level) {
+                        final Map<Long, Map<Integer, int[]>> levelCells = coarseCells.get(level - 1);
+                        final long coarseKey = key(level, column >> level, row >> level);
+                        final Map<Integer, int[]> coarseUsers = levelCells.get(coarseKey);
+                        if ((coarseUsers.get(userId)[0] -= count) == 0) {
+                            coarseUsers.remove(userId);
+                            if (coarseUsers.isEmpty()) {
+                                levelCells.remove(coarseKey);
+                            }
+                        }
+                    }
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void query(Region region, int minColumn, int maxColumn, int minRow, int maxRow,
+                   IntFunction<Optional<TrackSnapshot>> tracks, Set<Integer> users) {
+            int level = 0;
+            while (level < LEVELS - 1 && (long) ((maxColumn >> level) - (minColumn >> level) + 1)
+                    * ((maxRow >> level) - (minRow >> level) + 1) > START_CELLS) {
+                ++level;
+            }
+
+            lock.readLock().lock();
+            try {
+                if (userCells.isEmpty()) {
+                    return;
+                }
+                for (int column = minColumn >> level; column <= maxColumn >> level; ++column) {
+                    for (int row = minRow >> level; row <= maxRow >> level; ++row) {
+                        visit(region, level, column, row, tracks, users);
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        private void visit(Region region, int level, int column, int row,
+                           IntFunction<Optional<TrackSnapshot>> tracks, Set<Integer> users) {
+            final Map<Integer, ?> cellUsers = level == 0
+                    ? cells.get(key(0, column, row))
+                    : coarseCells.get(level - 1).get(key(level, column, row));
+            if (cellUsers == null || users.containsAll(cellUsers.keySet())) {
+                return;
+            }
+
+            final double size = (double) (1 << level) / CELLS_PER_DEGREE;
+            final double minLatitude = row * size - 90;
+            final double minLongitude = column * size - 180;
+            switch (region.relate(minLatitude, minLongitude, minLatitude + size, minLongitude + size)) {
+                case DISJOINT:
+                    return;
+                case CONTAINS:
+                    users.addAll(cellUsers.keySet());
+                    return;
+                default:
+                    break;
+            }
+
+            if (level > 0) {
+                for (int child = 0; child < 4; ++child) {
+                    visit(region, level - 1, 2 * column + (child & 1), 2 * row + (child >> 1), tracks, users);
+                }
+                return;
+            }
+
+            for (Map.Entry<Integer, IndexRuns> entry : cells.get(key(0, column, row)).entrySet()) {
+                final Optional<TrackSnapshot> track = tracks.apply(entry.getKey());
+                if (!users.contains(entry.getKey()) && track.isPresent()
+                        && entry.getValue().anyMatch(track.get(), region)) {
+                    users.add(entry.getKey());
+                }
+            }
+        }
+    }
+
+    /**
+     * Sorted, disjoint ranges of point indices.
+     */
+    private static final class IndexRuns {
+        // Start and end index of each run
+        private int[] bounds = new int[2];
+        private int size;
+
+        void add(int from, int to) {
+            if (size > 0 && bounds[size - 1] == from) {
+                bounds[size - 1] = to;
+                return;
+            }
+            if (size == bounds.length) {
+                bounds = Arrays.copyOf(bounds, 2 * size);
+            }
+            bounds[size++] = from;
+            bounds[size++] = to;
+        }
+
+        int count() {
+            int count = 0;
+            for (int i = 0; i < size; i += 2) {
+                count += bounds[i + 1] - bounds[i];
+            }
+            return count;
+        }
+
+        boolean anyMatch(TrackSnapshot track, Region region) {
+            for (int i = 0; i < size; i += 2) {
+                for (int index = bounds[i]; index < bounds[i + 1]; ++index) {
+                    if (region.contains(track.latitude(index), track.longitude(index))) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+}
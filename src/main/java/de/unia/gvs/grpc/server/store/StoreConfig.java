@@ -0,0 +1,254 @@
+package de.unia.gvs.grpc.server.store;
+
+import de.unia.gvs.grpc.codec.CompactPointCodec;
+
+import java.nio.file.Path;
+
+/**
+ * Configuration of a {@link TrackStore}.
+ */
+public final class StoreConfig {
+    // Write-ahead logs are memory-mapped during recovery, which limits their size
+    static final long MAX_SNAPSHOT_LOG_SIZE = 1L << 30;
+
+    private final int parallelThreshold;
+    private final int segmentSize;
+    private final SegmentStorage segmentStorage;
+    private final Path offHeapDirectory;
+    private final int coordinateDecimals;
+    private final int altitudeDecimals;
+    private final boolean spatialIndexEnabled;
+    private final Path dataDirectory;
+    private final Durability durability;
+    private final long snapshotLogSize;
+
+    private StoreConfig(Builder builder) {
+        this.parallelThreshold = builder.parallelThreshold;
+        this.segmentSize = builder.segmentSize;
+        this.segmentStorage = builder.segmentStorage;
+        this.offHeapDirectory = builder.offHeapDirectory;
+        this.coordinateDecimals = builder.coordinateDecimals;
+        this.altitudeDecimals = builder.altitudeDecimals;
+        this.spatialIndexEnabled = builder.spatialIndexEnabled;
+        this.dataDirectory = builder.dataDirectory;
+        this.durability = builder.durability;
+        this.snapshotLogSize = builder.snapshotLogSize;
+    }
+
+    public static StoreConfig defaults() {
+        return newBuilder().build();
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * @return minimum number of points for measuring track lengths in parallel
+     */
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * @return number of points per sealed segment, or 0 if all points are kept uncompressed on the heap
+     */
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * @return how sealed segments are stored
+     */
+    public SegmentStorage getSegmentStorage() {
+        return segmentStorage;
+    }
+
+    /**
+     * @return directory for memory-mapped off-heap segments, or null to use direct buffers
+     */
+    public Path getOffHeapDirectory() {
+        return offHeapDirectory;
+    }
+
+    /**
+     * @return decimals of latitude and longitude kept by compressed segments
+     */
+    public int getCoordinateDecimals() {
+        return coordinateDecimals;
+    }
+
+    /**
+     * @return decimals of the altitude kept by compressed segments
+     */
+    public int getAltitudeDecimals() {
+        return altitudeDecimals;
+    }
+
+    /**
+     * @return whether region queries use a spatial index
+     */
+    public boolean isSpatialIndexEnabled() {
+        return spatialIndexEnabled;
+    }
+
+    /**
+     * @return directory for the write-ahead log and snapshots, or null if the store is kept in memory only
+     */
+    public Path getDataDirectory() {
+        return dataDirectory;
+    }
+
+    /**
+     * @return when changes to a persistent store are forced to disk
+     */
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * @return size of the write-ahead log in bytes after which a snapshot is taken
+     */
+    public long getSnapshotLogSize() {
+        return snapshotLogSize;
+    }
+
+    public static final class Builder {
+        private int parallelThreshold = TrackLengths.DEFAULT_PARALLEL_THRESHOLD;
+        private int segmentSize = 0;
+        private SegmentStorage segmentStorage = SegmentStorage.COMPRESSED;
+        private Path offHeapDirectory;
+        private int coordinateDecimals = CompactPointCodec.DEFAULT_COORDINATE_DECIMALS;
+        private int altitudeDecimals = CompactPointCodec.DEFAULT_ALTITUDE_DECIMALS;
+        private boolean spatialIndexEnabled = true;
+        private Path dataDirectory;
+        private Durability durability = Durability.GROUP_COMMIT;
+        private long snapshotLogSize = 64L << 20;
+
+        private Builder() {
+        }
+
+        /**
+         * @param parallelThreshold minimum number of points for measuring track lengths in parallel
+         * @return
+         */
+        public Builder setParallelThreshold(int parallelThreshold) {
+            this.parallelThreshold = parallelThreshold;
+            return this;
+        }
+
+        /**
+         * Enable sealing of older track points.
+         * <p>
+         * Tracks keep between one and two segments of recent points uncompressed on the heap, older points are sealed
+         * into segments of the given size, which are stored as configured by {@link #setSegmentStorage}.
+         *
+         * @param segmentSize number of points per sealed segment, or 0 to keep all points on the heap
+         * @return
+         */
+        public Builder setSegmentSize(int segmentSize) {
+            this.segmentSize = segmentSize;
+            return this;
+        }
+
+        /**
+         * @param segmentStorage how sealed segments are stored
+         * @return
+         */
+        public Builder setSegmentStorage(SegmentStorage segmentStorage) {
+            this.segmentStorage = segmentStorage;
+            return this;
+        }
+
+        /**
+         * Store off-heap segments in a memory-mapped file in the given directory, see {@link TrackStore#open}.
+         *
+         * @param offHeapDirectory directory for memory-mapped segments, or null to use direct buffers
+         * @return
+         */
+        public Builder setOffHeapDirectory(Path offHeapDirectory) {
+            this.offHeapDirectory = offHeapDirectory;
+            return this;
+        }
+
+        /**
+         * @param coordinateDecimals decimals of latitude and longitude kept by compressed segments
+         * @return
+         */
+        public Builder setCoordinateDecimals(int coordinateDecimals) {
+            this.coordinateDecimals = coordinateDecimals;
+            return this;
+        }
+
+        /**
+         * @param altitudeDecimals decimals of the altitude kept by compressed segments
+         * @return
+         */
+        public Builder setAltitudeDecimals(int altitudeDecimals) {
+            this.altitudeDecimals = altitudeDecimals;
+            return this;
+        }
+
+        /**
+         * Maintain a spatial index for region queries, enabled by default.
+         * <p>
+         * The index costs a few bytes per point, and appends of users sharing one of its stripes are serialized
+         * while it is updated.
+         * Without it, region queries check every point of every track.
+         *
+         * @param spatialIndexEnabled
+         * @return
+         */
+        public Builder setSpatialIndexEnabled(boolean spatialIndexEnabled) {
+            this.spatialIndexEnabled = spatialIndexEnabled;
+            return this;
+        }
+
+        /**
+         * Persist the store in the given directory, see {@link TrackStore#open(StoreConfig)}.
+         *
+         * @param dataDirectory directory for the write-ahead log and snapshots, or null to keep the store in memory
+         * @return
+         */
+        public Builder setDataDirectory(Path dataDirectory) {
+            this.dataDirectory = dataDirectory;
+            return this;
+        }
+
+        /**
+         * @param durability when changes to a persistent store are forced to disk
+         * @return
+         */
+        public Builder setDurability(Durability durability) {
+            this.durability = durability;
+            return this;
+        }
+
+        /**
+         * @param snapshotLogSize size of the write-ahead log in bytes after which a snapshot is taken, at most 1 GiB
+         * @return
+         */
+        public Builder setSnapshotLogSize(long snapshotLogSize) {
+            this.snapshotLogSize = snapshotLogSize;
+            return this;
+        }
+
+        public StoreConfig build() {
+            if (parallelThreshold < 0 || segmentSize < 0) {
+                throw new IllegalArgumentException("Thresholds and segment sizes must not be negative");
+            }
+            if (segmentSize > Integer.MAX_VALUE / WriteAheadLog.POINT_SIZE) {
+                throw new IllegalArgumentException("Segment size too large: " + segmentSize);
+            }
+            if (durability == null || segmentStorage == null) {
+                throw new IllegalArgumentException("Durability and segment storage must be set");
+            }
+            if (snapshotLogSize <= 0 || snapshotLogSize > MAX_SNAPSHOT_LOG_SIZE) {
+                throw new IllegalArgumentException("Snapshot log size out of range: " + snapshotLogSize);
+            }
+            // Validates the precision
+            new CompactPointCodec(coordinateDecimals, altitudeDecimals);
+            return new StoreConfig(this);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package de.unia.gvs.grpc.server.store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Optional;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary snapshots of all tracks in a {@link TrackStore}.
+ * <p>
+ * A snapshot lists every user followed by their points with full precision, {@link WriteAheadLog#POINT_SIZE} bytes
+ * each, and ends with a CRC-32 of its contents. Snapshots are written to a temporary file which is atomically
+ * renamed when complete, so a crash never leaves a partial snapshot behind.
+ */
+final class StoreSnapshots {
+    private static final String FILE_PREFIX = "snapshot-";
+    private static final String FILE_SUFFIX = ".dat";
+
+    private static final int MAGIC = 0x47565354;
+    private static final int VERSION = 1;
+
+    private StoreSnapshots() {
+    }
+
+    static Path file(Path directory, long generation) {
+        return directory.resolve(String.format("%s%016x%s", FILE_PREFIX, generation, FILE_SUFFIX));
+    }
+
+    /**
+     * @param directory
+     * @return generation of the newest snapshot, or -1 if there is none
+     * @throws IOException
+     */
+    static long latest(Path directory) throws IOException {
+        final List<Long> generations = WriteAheadLog.generations(directory, FILE_PREFIX, FILE_SUFFIX);
+        return generations.isEmpty() ? -1 : generations.get(generations.size() - 1);
+    }
+
+    /**
+     * Write a snapshot of the current state of the store.
+     *
+     * @param directory
+     * @param generation first log generation not contained in the snapshot
+     * @param store
+     * @throws IOException
+     */
+    static void write(Path directory, long generation, TrackStore store) throws IOException {
+        final Path target = file(directory, generation);
+        final Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            final CheckedOutputStream checked = new CheckedOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16), new CRC32());
+            final DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            for (int userId : store.listUsers()) {
+                // Changes journaled to older generations are complete once captured, users deleted in the meantime
+                // are left out
+                final Optional<TrackSnapshot> snapshot = store.capture(userId);
+                if (!snapshot.isPresent()) {
+                    continue;
+                }
+                final TrackSnapshot track = snapshot.get();
+                out.writeBoolean(true);
+                out.writeInt(userId);
+                out.writeInt(track.size());
+                for (int i = 0; i < track.size(); ++i) {
+                    out.writeDouble(track.latitude(i));
+                    out.writeDouble(track.longitude(i));
+                    out.writeDouble(track.altitude(i));
+                    out.writeLong(track.timestamp(i));
+                }
+            }
+            out.writeBoolean(false);
+            out.writeLong(checked.getChecksum().getValue());
+            out.flush();
+            channel.force(true);
+        }
+
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Load a snapshot into an empty store.
+     *
+     * @param file
+     * @param store
+     * @throws IOException if the snapshot cannot be read or is damaged
+     */
+    static void read(Path file, TrackStore store) throws IOException {
+        try (CheckedInputStream checked = new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(file), 1 << 16), new CRC32())) {
+            final DataInputStream in = new DataInputStream(checked);
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Unsupported snapshot format in " + file);
+            }
+
+            while (in.readBoolean()) {
+                final int userId = in.readInt();
+                final int size = in.readInt();
+                if (size < 0) {
+                    throw new IOException("Snapshot " + file + " is damaged");
+                }
+                final PointColumns points = new PointColumns(size);
+                for (int i = 0; i < size; ++i) {
+                    points.add(in.readDouble(), in.readDouble(), in.readDouble(), in.readLong());
+                }
+                store.replayAppend(userId, 0, points);
+            }
+
+            final long checksum = checked.getChecksum().getValue();
+            if (in.readLong() != checksum) {
+                throw new IOException("Snapshot " + file + " is damaged");
+            }
+        }
+    }
+
+    /**
+     * Delete all snapshots older than the given generation.
+     *
+     * @param directory
+     * @param generation
+     * @throws IOException
+     */
+    static void deleteBefore(Path directory, long generation) throws IOException {
+        for (long obsolete : WriteAheadLog.generations(directory, FILE_PREFIX, FILE_SUFFIX)) {
+            if (obsolete < generation) {
+                Files.deleteIfExists(file(directory, obsolete));
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package de.unia.gvs.grpc.server.store;
+
+/**
+ * Lazily maintained permutation of a track's points sorted by timestamp.
+ * <p>
+ * Only needed for tracks whose points were not logged in chronological order. Since tracks are append-only, the
+ * index is extended by sorting the new points and merging them in, instead of sorting the whole track again.
+ * Points with equal timestamps stay in track order.
+ */
+final class TimeIndex {
+    private int[] order = new int[0];
+
+    /**
+     * @param track the requesting snapshot
+     * @return indices of all points of the snapshot, sorted by timestamp
+     */
+    synchronized int[] order(TrackSnapshot track) {
+        final int size = track.size();
+        if (order.length == size) {
+            return order;
+        }
+
+        if (order.length > size) {
+            // Requested by an older snapshot, drop all points it does not contain
+            final int[] result = new int[size];
+            int count = 0;
+            for (int index : order) {
+                if (index < size) {
+                    result[count++] = index;
+                }
+            }
+            return result;
+        }
+
+        final int[] added = new int[size - order.length];
+        for (int i = 0; i < added.length; ++i) {
+            added[i] = order.length + i;
+        }
+        sort(added, track);
+        order = merge(order, added, track);
+        return order;
+    }
+
+    private static int[] merge(int[] existing, int[] added, TrackSnapshot track) {
+        final int[] result = new int[existing.length + added.length];
+        int i = 0, j = 0, k = 0;
+        while (i < existing.length && j < added.length) {
+            // Prefer existing points on ties, they precede all added points along the track
+            result[k++] = track.timestamp(added[j]) < track.timestamp(existing[i]) ? added[j++] : existing[i++];
+        }
+        while (i < existing.length) {
+            result[k++] = existing[i++];
+        }
+        while (j < added.length) {
+            result[k++] = added[j++];
+        }
+        return result;
+    }
+
+    /**
+     * Stable merge sort of point indices by timestamp.
+     */
+    private static void sort(int[] indices, TrackSnapshot track) {
+        final int[] buffer = new int[indices.length];
+        for (int width = 1; width < indices.length; width *= 2) {
+            for (int left = 0; left < indices.length - width; left += 2 * width) {
+                final int middle = left + width;
+                final int right = Math.min(left + 2 * width, indices.length);
+                int i = left, j = middle, k = left;
+                while (i < middle && j < right) {
+                    buffer[k++] = track.timestamp(indices[j]) < track.timestamp(indices[i]) ? indices[j++] : indices[i++];
+                }
+                while (i < middle) {
+                    buffer[k++] = indices[i++];
+                }
+                while (j < right) {
+                    buffer[k++] = indices[j++];
+                }
+                System.arraycopy(buffer, left, indices, left, right - left);
+            }
+        }
+    }
+}
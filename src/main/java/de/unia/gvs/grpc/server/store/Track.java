@@ -0,0 +1,186 @@
+package de.unia.gvs.grpc.server.store;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Append-only track of a single user.
+ * <p>
+ * Writers synchronize on the track, readers only access the volatile {@link TrackSnapshot}. Points are never
+ * modified once written and the backing arrays are replaced on growth, so every published snapshot stays valid.
+ * <p>
+ * The geodesic track length is maintained incrementally, every append only measures the new segments. The track
+ * also remembers whether points were logged in chronological order, only otherwise time range queries need the
+ * separate {@link TimeIndex}.
+ * <p>
+ * If sealing is enabled, older points are sealed into compressed or off-heap {@link Segment}s of a fixed size, while
+ * recent points stay in uncompressed columns on the heap.
+ */
+class Track {
+    private static final Logger log = Logger.getLogger(Track.class.getSimpleName());
+
+    private final int parallelThreshold;
+    private final int blockSize;
+    private final SegmentFactory segmentFactory;
+    private final TrackListener listener;
+    private final LongSupplier versions;
+    private final TimeIndex timeIndex = new TimeIndex();
+    private final Simplifications simplifications = new Simplifications();
+
+    private Segment[] segments = new Segment[0];
+    private int segmentCount;
+    private PointColumns points = new PointColumns(16);
+    private double length;
+    private boolean timeSorted = true;
+    private boolean retired;
+    private long version;
+
+    private volatile TrackSnapshot snapshot;
+
+    /**
+     * @param config
+     * @param segmentFactory
+     * @param listener
+     * @param versions source of new versions for every change
+     */
+    Track(StoreConfig config, SegmentFactory segmentFactory, TrackListener listener, LongSupplier versions) {
+        this.parallelThreshold = config.getParallelThreshold();
+        this.blockSize = config.getSegmentSize();
+        this.segmentFactory = segmentFactory;
+        this.listener = listener;
+        this.versions = versions;
+        this.snapshot = createSnapshot();
+    }
+
+    /**
+     * Append points to the end of the track.
+     *
+     * @param userId owner of the track, as recorded in the journal
+     * @param newPoints
+     * @param journal records the append before it is applied
+     * @return false if the track has been retired and must not be used anymore
+     * @throws IOException if the journal fails, the points are not appended in this case
+     */
+    boolean append(int userId, PointColumns newPoints, Journal journal) throws IOException {
+        // Measure the new points before taking the lock, only the junction segment depends on the current track
+        final double addedLength = TrackLengths.path(newPoints.latitudes, newPoints.longitudes, 0, newPoints.size,
+                DistanceFunctions.GEODESIC, parallelThreshold);
+        final boolean sorted = isTimeSorted(newPoints);
+
+        synchronized (this) {
+            if (retired) {
+                return false;
+            }
+
+            final TrackSnapshot current = snapshot;
+            journal.logAppend(userId, current.size(), newPoints);
+
+            final int last = current.size() - 1;
+            if (last >= 0 && newPoints.size > 0) {
+                length += DistanceFunctions.GEODESIC.distance(current.latitude(last), current.longitude(last),
+                        newPoints.latitudes[0], newPoints.longitudes[0]);
+            }
+            length += addedLength;
+
+            if (timeSorted) {
+                timeSorted = sorted
+                        && (last < 0 || newPoints.size == 0 || current.timestamp(last) <= newPoints.timestamps[0]);
+            }
+
+            points.addAll(newPoints);
+            if (blockSize > 0 && points.size >= 2 * blockSize) {
+                seal();
+            }
+
+            version = versions.getAsLong();
+            snapshot = createSnapshot();
+            simplifications.invalidate();
+            listener.appended(userId, snapshot, current.size(), newPoints);
+            return true;
+        }
+    }
+
+    /**
+     * Seal full blocks of the oldest uncompressed points, keeping at least one block uncompressed.
+     * <p>
+     * If no segment can be allocated, the remaining points stay uncompressed until the next append.
+     */
+    private void seal() {
+        int sealed = 0;
+        try {
+            while (points.size - sealed >= 2 * blockSize) {
+                final Segment segment = segmentFactory.seal(points, sealed, sealed + blockSize);
+                if (segmentCount == segments.length) {
+                    segments = Arrays.copyOf(segments, Math.max(4, segments.length * 2));
+                }
+                segments[segmentCount++] = segment;
+                sealed += blockSize;
+            }
+        } catch (IOException ex) {
+            log.log(Level.WARNING, "Failed to seal track segment", ex);
+        }
+        if (sealed > 0) {
+            points = points.copyOfRange(sealed, points.size);
+        }
+    }
+
+    private TrackSnapshot createSnapshot() {
+        return new TrackSnapshot(segments, segmentCount, blockSize, points, length, parallelThreshold, timeSorted,
+                timeIndex, simplifications, version);
+    }
+
+    private static boolean isTimeSorted(PointColumns points) {
+        for (int i = 1; i < points.size; ++i) {
+            if (points.timestamps[i - 1] > points.timestamps[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Mark the track as removed from the store, any further appends are rejected.
+     *
+     * @param userId owner of the track, as recorded in the journal
+     * @param journal records the removal before it is applied
+     * @return false if the track has already been retired
+     * @throws IOException if the journal fails, the track is not retired in this case
+     */
+    synchronized boolean retire(int userId, Journal journal) throws IOException {
+        if (retired) {
+            return false;
+        }
+        journal.logDelete(userId);
+        retired = true;
+        listener.deleted(userId, versions.getAsLong());
+        return true;
+    }
+
+    /**
+     * Retire a track which has no points yet, without recording the removal. Used to undo the creation of a track
+     * whose first append failed, which has never been visible to listeners.
+     *
+     * @return true if the track was empty and has been retired, further appends are rejected in this case
+     */
+    synchronized boolean retireIfEmpty() {
+        if (retired || snapshot.size() > 0) {
+            return false;
+        }
+        retired = true;
+        return true;
+    }
+
+    TrackSnapshot snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @return the current snapshot once no append or removal is in progress, or null if the track has been retired
+     */
+    synchronized TrackSnapshot capture() {
+        return retired ? null : snapshot;
+    }
+}
@@ -0,0 +1,79 @@
+package de.unia.gvs.grpc.server.store;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Length calculations on columnar point data.
+ * <p>
+ * Long ranges are split into chunks which are measured in parallel on the common fork-join pool. Adjacent chunks
+ * overlap by one point, so the segment crossing each chunk boundary is measured exactly once.
+ */
+final class TrackLengths {
+    /**
+     * Default number of points above which tracks are measured in parallel
+     */
+    static final int DEFAULT_PARALLEL_THRESHOLD = 100_000;
+
+    // Number of points measured sequentially by a single fork-join task
+    private static final int CHUNK_SIZE = 16_384;
+
+    private TrackLengths() {
+    }
+
+    /**
+     * @param latitudes
+     * @param longitudes
+     * @param from index of the first point
+     * @param to index after the last point
+     * @param function
+     * @param parallelThreshold minimum number of points for a parallel calculation
+     * @return sum of all segment lengths between consecutive points in the given range in meters
+     */
+    static double path(double[] latitudes, double[] longitudes, int from, int to, DistanceFunction function,
+                       int parallelThreshold) {
+        if (to - from < parallelThreshold) {
+            return sequential(latitudes, longitudes, from, to, function);
+        }
+        return ForkJoinPool.commonPool().invoke(new PathTask(latitudes, longitudes, from, to, function));
+    }
+
+    private static double sequential(double[] latitudes, double[] longitudes, int from, int to,
+                                     DistanceFunction function) {
+        double length = 0;
+        for (int i = from; i < to - 1; ++i) {
+            length += function.distance(latitudes[i], longitudes[i], latitudes[i + 1], longitudes[i + 1]);
+        }
+        return length;
+    }
+
+    private static class PathTask extends RecursiveTask<Double> {
+        private final double[] latitudes;
+        private final double[] longitudes;
+        private final int from;
+        private final int to;
+        private final DistanceFunction function;
+
+        PathTask(double[] latitudes, double[] longitudes, int from, int to, DistanceFunction function) {
+            this.latitudes = latitudes;
+            this.longitudes = longitudes;
+            this.from = from;
+            this.to = to;
+            this.function = function;
+        }
+
+        @Override
+        protected Double compute() {
+            if (to - from <= CHUNK_SIZE) {
+                return sequential(latitudes, longitudes, from, to, function);
+            }
+
+            // Both halves share the middle point
+            final int middle = (from + to) >>> 1;
+            final PathTask left = new PathTask(latitudes, longitudes, from, middle + 1, function);
+            final PathTask right = new PathTask(latitudes, longitudes, middle, to, function);
+            left.fork();
+            return right.compute() + left.join();
+        }
+    }
+}
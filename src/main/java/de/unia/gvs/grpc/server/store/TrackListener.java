@@ -0,0 +1,36 @@
+package de.unia.gvs.grpc.server.store;
+
+/**
+ * Observes changes to the tracks of a {@link TrackStore}, see {@link TrackStore#addListener(TrackListener)}.
+ * <p>
+ * Called while holding the lock of the changed track, after the change has been applied. Listeners must therefore
+ * return quickly and must not access the store.
+ */
+public interface TrackListener {
+    /**
+     * Listener which ignores all changes.
+     */
+    TrackListener NONE = new TrackListener() {
+        @Override
+        public void appended(int userId, TrackSnapshot track, int offset, PointColumns points) {
+        }
+
+        @Override
+        public void deleted(int userId, long version) {
+        }
+    };
+
+    /**
+     * @param userId
+     * @param track snapshot of the track after the append, which also carries the new version
+     * @param offset index of the first appended point in the track, 0 if the user has just been created
+     * @param points
+     */
+    void appended(int userId, TrackSnapshot track, int offset, PointColumns points);
+
+    /**
+     * @param userId
+     * @param version version assigned to the removal
+     */
+    void deleted(int userId, long version);
+}
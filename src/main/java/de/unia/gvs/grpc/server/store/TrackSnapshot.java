@@ -0,0 +1,282 @@
+package de.unia.gvs.grpc.server.store;
+
+import com.google.protobuf.util.Timestamps;
+import de.unia.gvs.grpc.Coordinate;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.stream.IntStream;
+
+/**
+ * Immutable, consistent view of a track at a single point in time.
+ * <p>
+ * Snapshots share their storage with the live track, so taking one is cheap and does not copy any points.
+ * {@link Coordinate} messages are only created on demand by {@link #get(int)}.
+ * <p>
+ * The track consists of sealed {@link Segment}s of equal size followed by the uncompressed recent points.
+ */
+public final class TrackSnapshot {
+    private final Segment[] segments;
+    private final int segmentCount;
+    private final int blockSize;
+    // Number of points in sealed segments
+    private final int sealedSize;
+
+    // Uncompressed recent points
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final double[] altitudes;
+    private final long[] timestamps;
+
+    private final int size;
+    private final double length;
+    private final int parallelThreshold;
+    private final boolean timeSorted;
+    private final TimeIndex timeIndex;
+    private final Simplifications simplifications;
+    private final long version;
+
+    TrackSnapshot(Segment[] segments, int segmentCount, int blockSize, PointColumns columns, double length,
+                  int parallelThreshold, boolean timeSorted, TimeIndex timeIndex, Simplifications simplifications,
+                  long version) {
+        this.segments = segments;
+        this.segmentCount = segmentCount;
+        this.blockSize = blockSize;
+        this.sealedSize = segmentCount * blockSize;
+        this.latitudes = columns.latitudes;
+        this.longitudes = columns.longitudes;
+        this.altitudes = columns.altitudes;
+        this.timestamps = columns.timestamps;
+        this.size = sealedSize + columns.size;
+        this.length = length;
+        this.parallelThreshold = parallelThreshold;
+        this.timeSorted = timeSorted;
+        this.timeIndex = timeIndex;
+        this.simplifications = simplifications;
+        this.version = version;
+    }
+
+    /**
+     * @return number of points in the track
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Return the version of the track, which changes with every append.
+     * <p>
+     * Versions are unique among all tracks of a store, see {@link TrackStore}.
+     *
+     * @return
+     */
+    public long version() {
+        return version;
+    }
+
+    /**
+     * Estimate the memory used by the points of the track, which includes the spare capacity of the uncompressed
+     * points but neither caches nor indexes.
+     *
+     * @return bytes on the Java heap
+     */
+    public long heapBytes() {
+        long bytes = 4L * Long.BYTES * latitudes.length;
+        for (int i = 0; i < segmentCount; ++i) {
+            bytes += segments[i].heapBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * @return bytes of off-heap segments, either direct buffers or mapped from a file
+     */
+    public long offHeapBytes() {
+        long bytes = 0;
+        for (int i = 0; i < segmentCount; ++i) {
+            bytes += segments[i].offHeapBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * @return geodesic length of the track in meters
+     */
+    public double length() {
+        return length;
+    }
+
+    /**
+     * Measure the track with the given distance function.
+     * <p>
+     * The geodesic length is maintained by the track and returned in constant time, other functions are evaluated
+     * for every segment, in parallel for long tracks.
+     *
+     * @param function
+     * @return length of the track in meters
+     */
+    public double length(DistanceFunction function) {
+        if (function == DistanceFunctions.GEODESIC) {
+            return length;
+        }
+
+        double total = 0;
+        if (segmentCount > 0) {
+            final IntStream blocks = IntStream.range(0, segmentCount);
+            total += (sealedSize >= parallelThreshold ? blocks.parallel() : blocks)
+                    .mapToDouble(block -> segments[block].length(function))
+                    .sum();
+
+            // Junctions between consecutive segments and to the uncompressed points
+            for (int index = blockSize; index <= sealedSize && index < size; index += blockSize) {
+                total += function.distance(latitude(index - 1), longitude(index - 1), latitude(index), longitude(index));
+            }
+        }
+        return total + TrackLengths.path(latitudes, longitudes, 0, size - sealedSize, function, parallelThreshold);
+    }
+
+    public double latitude(int index) {
+        final int recent = checkIndex(index) - sealedSize;
+        return recent >= 0 ? latitudes[recent] : segments[index / blockSize].latitude(index % blockSize);
+    }
+
+    public double longitude(int index) {
+        final int recent = checkIndex(index) - sealedSize;
+        return recent >= 0 ? longitudes[recent] : segments[index / blockSize].longitude(index % blockSize);
+    }
+
+    public double altitude(int index) {
+        final int recent = checkIndex(index) - sealedSize;
+        return recent >= 0 ? altitudes[recent] : segments[index / blockSize].altitude(index % blockSize);
+    }
+
+    /**
+     * @param index
+     * @return timestamp in nanoseconds since the epoch, or {@link PointColumns#NO_TIMESTAMP}
+     */
+    public long timestamp(int index) {
+        final int recent = checkIndex(index) - sealedSize;
+        return recent >= 0 ? timestamps[recent] : segments[index / blockSize].timestamp(index % blockSize);
+    }
+
+    /**
+     * Materialize a single point as protobuf message.
+     *
+     * @param index
+     * @return the point at the given position along the track
+     */
+    public Coordinate get(int index) {
+        final Coordinate.Builder builder = Coordinate.newBuilder()
+                .setLatitude(latitude(index))
+                .setLongitude(longitude(index))
+                .setAltitude(altitude(index));
+        final long timestamp = timestamp(index);
+        if (timestamp != PointColumns.NO_TIMESTAMP) {
+            builder.setTimestamp(Timestamps.fromNanos(timestamp));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Select all points with a timestamp in the given range, using binary search.
+     * <p>
+     * Without any bounds, all points are selected in track order. Otherwise points without a timestamp are
+     * excluded and the selection is ordered by timestamp, which equals the track order if the points were logged
+     * chronologically.
+     *
+     * @param fromTimestamp inclusive lower bound in nanoseconds since the epoch, or {@link Long#MIN_VALUE}
+     * @param toTimestamp exclusive upper bound in nanoseconds since the epoch, or {@link Long#MAX_VALUE}
+     * @return
+     */
+    public PointSelection select(long fromTimestamp, long toTimestamp) {
+        if (fromTimestamp == Long.MIN_VALUE && toTimestamp == Long.MAX_VALUE) {
+            return new PointSelection(this, null, 0, size, false);
+        }
+
+        final int[] order = timeSorted ? null : timeIndex.order(this);
+        final int start = lowerBound(order, Math.max(fromTimestamp, PointColumns.NO_TIMESTAMP + 1));
+        final int end = toTimestamp == Long.MAX_VALUE ? size : lowerBound(order, toTimestamp);
+        return new PointSelection(this, order, start, Math.max(start, end), true);
+    }
+
+    /**
+     * Select points like {@link #select(long, long)}, and simplify the polyline through them for rendering.
+     * <p>
+     * Only points deviating more than the tolerance from the simplified polyline are kept, see
+     * {@link Simplifications}. Simplified versions of the whole track are cached until the next append, time ranges
+     * are simplified on every call.
+     *
+     * @param fromTimestamp inclusive lower bound in nanoseconds since the epoch, or {@link Long#MIN_VALUE}
+     * @param toTimestamp exclusive upper bound in nanoseconds since the epoch, or {@link Long#MAX_VALUE}
+     * @param tolerance maximum deviation of dropped points in meters, or 0 to keep all points
+     * @return
+     * @throws IllegalArgumentException if the tolerance is negative or not finite
+     */
+    public PointSelection select(long fromTimestamp, long toTimestamp, double tolerance) {
+        if (!(tolerance >= 0 && tolerance < Double.POSITIVE_INFINITY)) {
+            throw new IllegalArgumentException("Invalid tolerance " + tolerance);
+        }
+        final PointSelection selection = select(fromTimestamp, toTimestamp);
+        if (tolerance == 0) {
+            return selection;
+        }
+
+        final boolean timeOrdered = fromTimestamp != Long.MIN_VALUE || toTimestamp != Long.MAX_VALUE;
+        final int[] indices = timeOrdered
+                ? Simplifications.simplify(selection, tolerance)
+                : simplifications.indices(this, tolerance);
+        return new PointSelection(this, indices, 0, indices.length, timeOrdered);
+    }
+
+    /**
+     * @return first position in the given order whose timestamp is not less than the given one
+     */
+    private int lowerBound(int[] order, long timestamp) {
+        int low = 0, high = size;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (timestamp(order == null ? middle : order[middle]) < timestamp) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Iterate over a range of points, materializing each one on demand.
+     *
+     * @param from index of the first point
+     * @param to index after the last point
+     * @return
+     */
+    public Iterator<Coordinate> iterator(int from, int to) {
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException("Range [" + from + ", " + to + ") out of bounds for track of size " + size);
+        }
+        return new Iterator<Coordinate>() {
+            private int next = from;
+
+            @Override
+            public boolean hasNext() {
+                return next < to;
+            }
+
+            @Override
+            public Coordinate next() {
+                if (next >= to) {
+                    throw new NoSuchElementException();
+                }
+                return get(next++);
+            }
+        };
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for track of size " + size);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,404 @@
+package de.unia.gvs.grpc.server.store;
+
+import de.unia.gvs.grpc.Coordinate;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe storage for the tracks of all users.
+ * <p>
+ * Every user owns a separate {@link Track}, so requests for different users never contend on a track lock.
+ * Appends to the same track are serialized by that track, reads work on immutable {@link TrackSnapshot}s and
+ * never block. Only the {@link SpatialIndex}, if enabled, is shared: appends and deletes of users in the same of its
+ * stripes briefly wait for each other while the index is updated, and region queries wait for them.
+ * <p>
+ * Stores created by {@link #open(StoreConfig)} with a data directory record every change in a {@link WriteAheadLog}
+ * before applying it. Reads may observe changes which are not durable yet, but appends and deletes only return once
+ * their change is durable according to the configured {@link Durability}.
+ * <p>
+ * Every change is assigned a new version from a store-wide clock, which is reported to {@link TrackListener}s and
+ * available from {@link TrackSnapshot#version()}. The clock starts at the current time in milliseconds shifted by
+ * 20 bits, so versions keep increasing across restarts unless more than a million changes are made per millisecond.
+ */
+public class TrackStore implements Closeable {
+    // Tracks for each user, identified by their ID
+    private final ConcurrentMap<Integer, Track> tracks;
+
+    private final StoreConfig config;
+    private final SegmentFactory segmentFactory;
+    // Null if disabled
+    private final SpatialIndex spatialIndex;
+    // Listeners added through addListener()
+    private final List<TrackListener> listeners;
+    // Notifies the spatial index and all listeners, shared by all tracks
+    private final TrackListener listener;
+    private final AtomicLong versions;
+    private final Journal journal;
+
+    public TrackStore() {
+        this(StoreConfig.defaults());
+    }
+
+    /**
+     * Create an in-memory store.
+     *
+     * @param config
+     * @throws IllegalArgumentException if the configuration has a data directory or off-heap directory, use
+     *                                  {@link #open(StoreConfig)} instead
+     */
+    public TrackStore(StoreConfig config) {
+        this(config, Journal.NONE);
+    }
+
+    /**
+     * Create an in-memory store which records its changes in a journal.
+     *
+     * @param config
+     * @param journal
+     */
+    TrackStore(StoreConfig config, Journal journal) {
+        this(config, inMemorySegments(config), spatialIndex(config), journal, new ConcurrentHashMap<>(),
+                new CopyOnWriteArrayList<>(), new AtomicLong(initialVersion()));
+    }
+
+    private TrackStore(StoreConfig config, SegmentFactory segmentFactory, SpatialIndex spatialIndex, Journal journal,
+                       ConcurrentMap<Integer, Track> tracks, List<TrackListener> listeners, AtomicLong versions) {
+        this.config = config;
+        this.segmentFactory = segmentFactory;
+        this.spatialIndex = spatialIndex;
+        this.listeners = listeners;
+        this.listener = new TrackListener() {
+            @Override
+            public void appended(int userId, TrackSnapshot track, int offset, PointColumns points) {
+                if (spatialIndex != null) {
+                    spatialIndex.appended(userId, track, offset, points);
+                }
+                for (TrackListener registered : listeners) {
+                    registered.appended(userId, track, offset, points);
+                }
+            }
+
+            @Override
+            public void deleted(int userId, long version) {
+                if (spatialIndex != null) {
+                    spatialIndex.deleted(userId, version);
+                }
+                for (TrackListener registered : listeners) {
+                    registered.deleted(userId, version);
+                }
+            }
+        };
+        this.versions = versions;
+        this.journal = journal;
+        this.tracks = tracks;
+    }
+
+    private Track newTrack() {
+        return new Track(config, segmentFactory, listener, versions::incrementAndGet);
+    }
+
+    private static long initialVersion() {
+        return System.currentTimeMillis() << 20;
+    }
+
+    private static SpatialIndex spatialIndex(StoreConfig config) {
+        return config.isSpatialIndexEnabled() ? new SpatialIndex() : null;
+    }
+
+    private static SegmentFactory inMemorySegments(StoreConfig config) {
+        if (config.getDataDirectory() != null || config.getOffHeapDirectory() != null) {
+            throw new IllegalArgumentException("Stores using files must be opened with TrackStore.open()");
+        }
+        try {
+            return SegmentFactory.create(config);
+        } catch (IOException ex) {
+            // Only memory-mapped segments use files
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Open a store as configured.
+     * <p>
+     * If the configuration has a data directory, the latest snapshot in it is loaded and the write-ahead log is
+     * replayed on top. A write-ahead log cut off by a crash is truncated after its last complete record.
+     * <p>
+     * If the configuration has an off-heap directory, a new memory-mapped file for sealed segments is created in
+     * it, which is deleted when the store is closed.
+     *
+     * @param config
+     * @return
+     * @throws IOException if the persisted state cannot be read or is corrupt
+     */
+    public static TrackStore open(StoreConfig config) throws IOException {
+        final SegmentFactory segmentFactory = SegmentFactory.create(config);
+        final SpatialIndex spatialIndex = spatialIndex(config);
+        if (config.getDataDirectory() == null) {
+            return new TrackStore(config, segmentFactory, spatialIndex, Journal.NONE, new ConcurrentHashMap<>(),
+                    new CopyOnWriteArrayList<>(), new AtomicLong(initialVersion()));
+        }
+
+        try {
+            final TrackStore recovered = new TrackStore(config, segmentFactory, spatialIndex, Journal.NONE,
+                    new ConcurrentHashMap<>(), new CopyOnWriteArrayList<>(), new AtomicLong(initialVersion()));
+            final WriteAheadLog log = WriteAheadLog.recover(config, recovered);
+            // Recovered tracks keep notifying the listeners and using the versions of the recovered store
+            final TrackStore store = new TrackStore(config, segmentFactory, spatialIndex, log, recovered.tracks,
+                    recovered.listeners, recovered.versions);
+            log.start(store);
+            return store;
+        } catch (IOException ex) {
+            segmentFactory.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Return the IDs of all users with a non-empty track, in ascending order.
+     *
+     * @return
+     */
+    public List<Integer> listUsers() {
+        final List<Integer> users = new ArrayList<>(tracks.keySet());
+        Collections.sort(users);
+        return users;
+    }
+
+    /**
+     * Append points to a user's track, creating the user if necessary.
+     * <p>
+     * Appending an empty list of points does not create a user.
+     *
+     * @param userId
+     * @param points
+     * @throws IllegalArgumentException if a point has an invalid timestamp, no points are added in this case
+     * @throws UncheckedIOException if the points cannot be persisted
+     */
+    public void append(int userId, List<Coordinate> points) {
+        append(userId, PointColumns.of(points));
+    }
+
+    /**
+     * Append points in columnar form to a user's track, creating the user if necessary.
+     * <p>
+     * Appending an empty list of points does not create a user.
+     *
+     * @param userId
+     * @param points
+     * @throws UncheckedIOException if the points cannot be persisted
+     */
+    public void append(int userId, PointColumns points) {
+        if (points.size() == 0) {
+            return;
+        }
+
+        try {
+            appendUncommitted(userId, points);
+            journal.commit();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Append points to the tracks of many users, creating users if necessary.
+     * <p>
+     * Every track is changed once and the changes are committed together, so durable stores only wait for the
+     * journal once. Each append is atomic, but readers may observe the tracks of some users before others have been
+     * changed.
+     *
+     * @param points points in columnar form per user, appended in iteration order
+     * @throws UncheckedIOException if the points cannot be persisted, the points of users before the failed one may
+     *                              have been appended in this case
+     */
+    public void appendAll(Map<Integer, PointColumns> points) {
+        try {
+            for (Map.Entry<Integer, PointColumns> entry : points.entrySet()) {
+                if (entry.getValue().size() > 0) {
+                    appendUncommitted(entry.getKey(), entry.getValue());
+                }
+            }
+            journal.commit();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private void appendUncommitted(int userId, PointColumns points) throws IOException {
+        // A concurrent delete may retire the track between lookup and append, in that case start over with a new one
+        while (true) {
+            final Track track = tracks.computeIfAbsent(userId, id -> newTrack());
+            try {
+                if (track.append(userId, points, journal)) {
+                    return;
+                }
+            } catch (IOException ex) {
+                // Do not leave a user without points behind if their first append failed. The track is retired
+                // first, so appends of other writers which already found it start over with a new one as well.
+                if (track.retireIfEmpty()) {
+                    tracks.remove(userId, track);
+                }
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Remove a user and their track.
+     *
+     * @param userId
+     * @return true if the user existed
+     * @throws UncheckedIOException if the removal cannot be persisted
+     */
+    public boolean delete(int userId) {
+        try {
+            // The track is retired before it is removed, so appends to a new track are journaled after the removal
+            while (true) {
+                final Track track = tracks.get(userId);
+                if (track == null) {
+                    return false;
+                }
+                if (track.retire(userId, journal)) {
+                    tracks.remove(userId, track);
+                    journal.commit();
+                    return true;
+                }
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Return a consistent view of a user's track.
+     *
+     * @param userId
+     * @return the current snapshot, or empty if the user does not exist
+     */
+    public Optional<TrackSnapshot> snapshot(int userId) {
+        final Track track = tracks.get(userId);
+        return track == null ? Optional.empty() : Optional.of(track.snapshot());
+    }
+
+    /**
+     * Find all users with at least one point in a region.
+     * <p>
+     * Uses the spatial index if enabled, otherwise all points of all tracks are checked.
+     *
+     * @param region
+     * @return IDs of the matching users in ascending order
+     */
+    public List<Integer> usersIn(Region region) {
+        if (spatialIndex != null) {
+            return spatialIndex.query(region, this::snapshot);
+        }
+
+        final List<Integer> users = new ArrayList<>();
+        for (int userId : listUsers()) {
+            snapshot(userId).ifPresent(track -> {
+                for (int i = 0; i < track.size(); ++i) {
+                    if (region.contains(track.latitude(i), track.longitude(i))) {
+                        users.add(userId);
+                        return;
+                    }
+                }
+            });
+        }
+        return users;
+    }
+
+    /**
+     * Register a listener for all later changes.
+     *
+     * @param listener
+     */
+    public void addListener(TrackListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Stop notifying a listener, which may still receive changes that are being applied concurrently.
+     *
+     * @param listener
+     */
+    public void removeListener(TrackListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Capture a user's track for a snapshot of the store.
+     * <p>
+     * Unlike {@link #snapshot(int)}, this waits for a concurrent append or delete of the user to finish, so every
+     * change journaled before the call is contained in the result.
+     *
+     * @param userId
+     * @return the current snapshot, or empty if the user does not exist or is being deleted
+     */
+    Optional<TrackSnapshot> capture(int userId) {
+        final Track track = tracks.get(userId);
+        return track == null ? Optional.empty() : Optional.ofNullable(track.capture());
+    }
+
+    /**
+     * Re-apply a journaled append during recovery.
+     * <p>
+     * Snapshots are taken while the store is modified, so they may already contain some or all of the points. Only
+     * points beyond the current end of the track are appended. An append starting after the current end is not
+     * applied, it is only valid if the snapshot already reflects a later delete of the user.
+     *
+     * @param userId
+     * @param offset number of points in the track before the original append
+     * @param points
+     * @return false if the append starts after the end of the track
+     */
+    boolean replayAppend(int userId, int offset, PointColumns points) throws IOException {
+        final Optional<TrackSnapshot> track = snapshot(userId);
+        final int size = track.map(TrackSnapshot::size).orElse(0);
+        if (offset > size) {
+            return false;
+        }
+        if (offset + points.size() <= size) {
+            return true;
+        }
+        final PointColumns missing = offset == size ? points : points.copyOfRange(size - offset, points.size());
+        tracks.computeIfAbsent(userId, id -> newTrack()).append(userId, missing, Journal.NONE);
+        return true;
+    }
+
+    /**
+     * Re-apply a journaled delete during recovery.
+     *
+     * @param userId
+     */
+    void replayDelete(int userId) {
+        if (tracks.remove(userId) != null) {
+            listener.deleted(userId, versions.incrementAndGet());
+        }
+    }
+
+    /**
+     * Flush and close the write-ahead log of a persistent store and release memory-mapped segments, no further
+     * changes are accepted afterwards.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            journal.close();
+        } finally {
+            segmentFactory.close();
+        }
+    }
+}
@@ -0,0 +1,445 @@
+package de.unia.gvs.grpc.server.store;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of all changes to a persistent {@link TrackStore}.
+ * <p>
+ * The log is split into numbered generations, one file each. Once the current file exceeds the configured size, a
+ * new generation is started and a snapshot of the store is written in the background, after which all older files
+ * are deleted. Snapshots are taken while the store is modified, so replaying the log may encounter changes the
+ * snapshot already contains; appends therefore record the offset at which they were applied.
+ * <p>
+ * Every record consists of its length, the CRC-32 of its body and the body itself. Recovery stops at the first
+ * incomplete or damaged record, which can only be the tail of the newest file after a crash.
+ * <p>
+ * With {@link Durability#GROUP_COMMIT}, the first writer to commit forces the log to disk while holding the sync
+ * lock. Writers that commit in the meantime wait for the lock and are then covered by a single shared flush.
+ */
+final class WriteAheadLog implements Journal {
+    private static final Logger log = Logger.getLogger(WriteAheadLog.class.getSimpleName());
+
+    private static final String FILE_PREFIX = "wal-";
+    private static final String FILE_SUFFIX = ".log";
+
+    private static final byte APPEND = 1;
+    private static final byte DELETE = 2;
+    // Length and checksum of every record
+    private static final int HEADER_SIZE = 8;
+    // Latitude, longitude, altitude and timestamp of a point
+    static final int POINT_SIZE = 32;
+
+    private static final long ASYNC_FLUSH_INTERVAL_MILLIS = 1000;
+
+    private final Path directory;
+    private final Durability durability;
+    private final long snapshotLogSize;
+    private final ScheduledExecutorService executor;
+    private final AtomicBoolean snapshotScheduled = new AtomicBoolean();
+
+    // Guards the current file and the write position
+    private final Object writeLock = new Object();
+    // Held while forcing the log to disk, always acquired before the write lock
+    private final Object syncLock = new Object();
+
+    private long generation;
+    private FileChannel channel;
+    // Bytes written to all generations, and up to the start of the current one
+    private long written;
+    private long generationStart;
+    // Bytes known to be on disk, guarded by the sync lock
+    private long synced;
+    private IOException failure;
+    private boolean closed;
+
+    private volatile TrackStore store;
+
+    private WriteAheadLog(StoreConfig config, long generation) throws IOException {
+        this.directory = config.getDataDirectory();
+        this.durability = config.getDurability();
+        this.snapshotLogSize = config.getSnapshotLogSize();
+        this.generation = generation;
+        this.channel = FileChannel.open(file(directory, generation), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE);
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("write-ahead-log")
+                .setDaemon(true)
+                .build());
+    }
+
+    /**
+     * Restore the latest snapshot and replay the log on top, then start a new generation.
+     *
+     * @param config
+     * @param store empty store receiving the recovered tracks
+     * @return
+     * @throws IOException if the snapshot or log cannot be read or is corrupt
+     */
+    static WriteAheadLog recover(StoreConfig config, TrackStore store) throws IOException {
+        final Path directory = config.getDataDirectory();
+        Files.createDirectories(directory);
+
+        final long snapshot = StoreSnapshots.latest(directory);
+        if (snapshot >= 0) {
+            StoreSnapshots.read(StoreSnapshots.file(directory, snapshot), store);
+        }
+
+        final List<Long> generations = generations(directory, FILE_PREFIX, FILE_SUFFIX);
+        final Set<Integer> gaps = new TreeSet<>();
+        long next = Math.max(snapshot, 0);
+        int records = 0;
+        for (int i = 0; i < generations.size(); ++i) {
+            final long generation = generations.get(i);
+            if (generation >= snapshot) {
+                records += replay(file(directory, generation), store, i == generations.size() - 1, gaps);
+                next = generation + 1;
+            }
+        }
+        // Appends after the end of a track are only expected if the snapshot already omits a user deleted later on
+        if (!gaps.isEmpty()) {
+            throw new IOException("Write-ahead log in " + directory + " is missing appends of users " + gaps);
+        }
+
+        log.info("Recovered " + store.listUsers().size() + " users from " + directory + " (snapshot "
+                + snapshot + ", " + records + " log records)");
+        return new WriteAheadLog(config, next);
+    }
+
+    /**
+     * Start taking snapshots and, if configured, flushing in the background.
+     *
+     * @param store the store whose changes are logged
+     */
+    void start(TrackStore store) {
+        this.store = store;
+        if (durability == Durability.ASYNC) {
+            executor.scheduleWithFixedDelay(this::flush, ASYNC_FLUSH_INTERVAL_MILLIS, ASYNC_FLUSH_INTERVAL_MILLIS,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void logAppend(int userId, int offset, PointColumns points) throws IOException {
+        final ByteBuffer record = allocate(13 + POINT_SIZE * points.size());
+        record.put(APPEND).putInt(userId).putInt(offset).putInt(points.size());
+        for (int i = 0; i < points.size(); ++i) {
+            record.putDouble(points.latitude(i))
+                    .putDouble(points.longitude(i))
+                    .putDouble(points.altitude(i))
+                    .putLong(points.timestamp(i));
+        }
+        write(record);
+    }
+
+    @Override
+    public void logDelete(int userId) throws IOException {
+        final ByteBuffer record = allocate(5);
+        record.put(DELETE).putInt(userId);
+        write(record);
+    }
+
+    @Override
+    public void commit() throws IOException {
+        // Synchronous logs are forced on every write, asynchronous ones in the background
+        if (durability == Durability.GROUP_COMMIT) {
+            sync();
+        }
+    }
+
+    private static ByteBuffer allocate(int bodySize) {
+        final ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + bodySize);
+        record.position(HEADER_SIZE);
+        return record;
+    }
+
+    private void write(ByteBuffer record) throws IOException {
+        final int bodySize = record.position() - HEADER_SIZE;
+        final CRC32 crc = new CRC32();
+        crc.update(record.array(), HEADER_SIZE, bodySize);
+        record.putInt(0, bodySize).putInt(4, (int) crc.getValue());
+        record.flip();
+
+        final long generationSize;
+        synchronized (writeLock) {
+            checkWritable();
+            try {
+                while (record.hasRemaining()) {
+                    channel.write(record);
+                }
+                if (durability == Durability.SYNC) {
+                    channel.force(false);
+                }
+            } catch (IOException ex) {
+                // The file may end in a partial record now, nothing must be appended after it
+                failure = ex;
+                throw ex;
+            }
+            written += record.limit();
+            generationSize = written - generationStart;
+        }
+
+        if (generationSize >= snapshotLogSize && store != null && snapshotScheduled.compareAndSet(false, true)) {
+            executor.execute(this::snapshot);
+        }
+    }
+
+    /**
+     * Force everything written so far to disk, unless a concurrent flush already did.
+     *
+     * @throws IOException
+     */
+    private void sync() throws IOException {
+        final long target;
+        synchronized (writeLock) {
+            target = written;
+        }
+
+        synchronized (syncLock) {
+            if (synced >= target) {
+                return;
+            }
+
+            // Also covers everything written by other threads up to now
+            final FileChannel current;
+            final long position;
+            synchronized (writeLock) {
+                checkWritable();
+                current = channel;
+                position = written;
+            }
+            try {
+                current.force(false);
+            } catch (IOException ex) {
+                synchronized (writeLock) {
+                    failure = ex;
+                }
+                throw ex;
+            }
+            synced = position;
+        }
+    }
+
+    private void flush() {
+        try {
+            sync();
+        } catch (IOException ex) {
+            log.log(Level.WARNING, "Failed to flush write-ahead log", ex);
+        }
+    }
+
+    /**
+     * Start a new generation, write a snapshot of the store and delete all files it makes obsolete.
+     */
+    private void snapshot() {
+        try {
+            final long snapshotGeneration = rotate();
+            StoreSnapshots.write(directory, snapshotGeneration, store);
+
+            for (long obsolete : generations(directory, FILE_PREFIX, FILE_SUFFIX)) {
+                if (obsolete < snapshotGeneration) {
+                    Files.deleteIfExists(file(directory, obsolete));
+                }
+            }
+            StoreSnapshots.deleteBefore(directory, snapshotGeneration);
+        } catch (IOException ex) {
+            log.log(Level.WARNING, "Failed to take snapshot", ex);
+        } finally {
+            snapshotScheduled.set(false);
+        }
+    }
+
+    /**
+     * Close the current file and continue writing to a new one.
+     *
+     * @return the new generation
+     * @throws IOException
+     */
+    private long rotate() throws IOException {
+        synchronized (syncLock) {
+            synchronized (writeLock) {
+                checkWritable();
+                try {
+                    channel.force(false);
+                    channel.close();
+                    channel = FileChannel.open(file(directory, generation + 1), StandardOpenOption.CREATE_NEW,
+                            StandardOpenOption.WRITE);
+                } catch (IOException ex) {
+                    failure = ex;
+                    throw ex;
+                }
+                ++generation;
+                generationStart = written;
+                synced = written;
+                return generation;
+            }
+        }
+    }
+
+    private void checkWritable() throws IOException {
+        if (closed) {
+            throw new IOException("Write-ahead log is closed");
+        }
+        if (failure != null) {
+            throw new IOException("Write-ahead log failed earlier", failure);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Let a running snapshot finish, periodic flushes are cancelled
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.warning("Snapshot still running while closing the write-ahead log");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (syncLock) {
+            synchronized (writeLock) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                try {
+                    if (failure == null) {
+                        channel.force(false);
+                    }
+                } finally {
+                    channel.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Apply all valid records of a log file to the store.
+     *
+     * @param file
+     * @param store
+     * @param last whether this is the newest file, which is truncated after its last valid record
+     * @param gaps users with an append after the end of their track and no delete since
+     * @return number of applied records
+     * @throws IOException if the file cannot be read, or a file other than the newest one is damaged
+     */
+    private static int replay(Path file, TrackStore store, boolean last, Set<Integer> gaps) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final long fileSize = channel.size();
+            if (fileSize > Integer.MAX_VALUE) {
+                throw new IOException("Write-ahead log " + file + " is too large to be mapped");
+            }
+
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+            final CRC32 crc = new CRC32();
+            int records = 0;
+            int valid = 0;
+            while (buffer.remaining() >= HEADER_SIZE) {
+                final int bodySize = buffer.getInt();
+                final int checksum = buffer.getInt();
+                if (bodySize <= 0 || bodySize > buffer.remaining()) {
+                    break;
+                }
+
+                final ByteBuffer body = buffer.slice();
+                body.limit(bodySize);
+                crc.reset();
+                crc.update(body.duplicate());
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+
+                apply(body, store, file, gaps);
+                ++records;
+                valid += HEADER_SIZE + bodySize;
+                buffer.position(valid);
+            }
+
+            if (valid < fileSize) {
+                if (!last) {
+                    throw new IOException("Write-ahead log " + file + " is damaged at offset " + valid);
+                }
+                log.warning("Truncating incomplete write-ahead log " + file + " at offset " + valid);
+                channel.truncate(valid);
+            }
+            return records;
+        }
+    }
+
+    private static void apply(ByteBuffer body, TrackStore store, Path file, Set<Integer> gaps) throws IOException {
+        try {
+            final byte type = body.get();
+            final int userId = body.getInt();
+            switch (type) {
+                case APPEND:
+                    final int offset = body.getInt();
+                    final int count = body.getInt();
+                    if (count < 0 || body.remaining() != (long) count * POINT_SIZE) {
+                        throw new IOException("Malformed record in write-ahead log " + file);
+                    }
+                    final PointColumns points = new PointColumns(count);
+                    for (int i = 0; i < count; ++i) {
+                        points.add(body.getDouble(), body.getDouble(), body.getDouble(), body.getLong());
+                    }
+                    if (!store.replayAppend(userId, offset, points)) {
+                        gaps.add(userId);
+                    }
+                    break;
+                case DELETE:
+                    store.replayDelete(userId);
+                    gaps.remove(userId);
+                    break;
+                default:
+                    throw new IOException("Unknown record type " + type + " in write-ahead log " + file);
+            }
+        } catch (BufferUnderflowException ex) {
+            throw new IOException("Malformed record in write-ahead log " + file, ex);
+        }
+    }
+
+    private static Path file(Path directory, long generation) {
+        return directory.resolve(String.format("%s%016x%s", FILE_PREFIX, generation, FILE_SUFFIX));
+    }
+
+    /**
+     * @return generations of all files in the directory with the given name pattern, in ascending order
+     */
+    static List<Long> generations(Path directory, String prefix, String suffix) throws IOException {
+        final List<Long> generations = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*" + suffix)) {
+            for (Path file : files) {
+                final String name = file.getFileName().toString();
+                try {
+                    generations.add(Long.parseUnsignedLong(
+                            name.substring(prefix.length(), name.length() - suffix.length()), 16));
+                } catch (NumberFormatException ex) {
+                    log.warning("Ignoring unexpected file " + file);
+                }
+            }
+        }
+        Collections.sort(generations);
+        return generations;
+    }
+}
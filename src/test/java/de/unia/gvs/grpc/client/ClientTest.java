@@ -1,6 +1,9 @@
 package de.unia.gvs.grpc.client;
 
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.protobuf.Empty;
+import com.google.protobuf.Timestamp;
 import de.unia.gvs.grpc.*;
 import de.unia.gvs.grpc.PositionLogServiceGrpc.PositionLogServiceImplBase;
 import io.grpc.ManagedChannel;
@@ -17,11 +20,19 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatchers;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.mockito.AdditionalAnswers.delegatesTo;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 /**
@@ -40,7 +51,8 @@ public class ClientTest {
     @Rule
     public final GrpcCleanupRule grpcCleanup = new GrpcCleanupRule();
 
-    private final PositionLogServiceImplBase serviceImpl = mock(PositionLogServiceImplBase.class, delegatesTo(new MockPositionLogServiceImpl()));
+    private final MockPositionLogServiceImpl mockService = new MockPositionLogServiceImpl();
+    private final PositionLogServiceImplBase serviceImpl = mock(PositionLogServiceImplBase.class, delegatesTo(mockService));
 
     private PositionLogClient client;
 
@@ -68,6 +80,46 @@ public class ClientTest {
         verify(serviceImpl).listUsers(captor.capture(), ArgumentMatchers.<StreamObserver<ListUsersReply>>any());
     }
 
+    @Test
+    public void clientImpl_listUsersAsync() throws Exception {
+        assertEquals(Collections.emptyList(), client.listUsersAsync().get());
+        verify(serviceImpl).listUsers(eq(ListUsersRequest.getDefaultInstance()),
+                ArgumentMatchers.<StreamObserver<ListUsersReply>>any());
+    }
+
+    @Test
+    public void clientImpl_getPointsAsync() throws Exception {
+        final PointsRequest request = PointsRequest.newBuilder().setUserId(1234).build();
+        final SettableFuture<Optional<String>> completed = SettableFuture.create();
+        client.getPoints(request, new PointsObserver() {
+            private PointsSubscription subscription;
+
+            @Override
+            public void onStart(PointsSubscription subscription) {
+                this.subscription = subscription;
+                subscription.request(16);
+            }
+
+            @Override
+            public void onNext(Coordinate value) {
+                completed.setException(new AssertionError("Unexpected point " + value));
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                completed.setException(t);
+            }
+
+            @Override
+            public void onCompleted() {
+                completed.set(subscription.getNextPageToken());
+            }
+        });
+
+        assertEquals(Optional.empty(), completed.get(5, TimeUnit.SECONDS));
+        verify(serviceImpl).getPoints(eq(request), ArgumentMatchers.<StreamObserver<Coordinate>>any());
+    }
+
     @Test
     public void clientImpl_deleteUser() {
         final int userId = 1234;
@@ -88,6 +140,27 @@ public class ClientTest {
         assertEquals("Must fetch points for same user ID", userId, captor.getValue().getUserId());
     }
 
+    @Test
+    public void clientImpl_getUserPointsPaged() {
+        final PointsRequest request = PointsRequest.newBuilder().setUserId(1234).setOffset(10).setLimit(20).build();
+
+        final PointsPage page = client.getPoints(request);
+        assertFalse(page.hasNext());
+        verify(serviceImpl).getPoints(eq(request), ArgumentMatchers.<StreamObserver<Coordinate>>any());
+        assertFalse("Last page must not have a next page token", page.getNextPageToken().isPresent());
+    }
+
+    @Test
+    public void clientImpl_getUserPointsChunked() {
+        final PointsRequest request = PointsRequest.newBuilder().setUserId(1234).setChunkSize(2).build();
+
+        final List<Coordinate> points = Lists.newArrayList(client.getPointsChunked(request));
+        verify(serviceImpl).getPointsChunked(eq(request), ArgumentMatchers.<StreamObserver<PointsChunk>>any());
+        assertEquals("Must flatten all chunks", 3, points.size());
+        assertEquals(Coordinate.newBuilder().setLatitude(3).setLongitude(4).build(), points.get(1));
+        assertEquals(Timestamp.newBuilder().setSeconds(1).build(), points.get(2).getTimestamp());
+    }
+
     @Test
     public void clientImpl_getTrackLength() {
         final int userId = 1234;
@@ -98,6 +171,20 @@ public class ClientTest {
         assertEquals("Must fetch track length for same user ID", userId, captor.getValue().getUserId());
     }
 
+    @Test
+    public void clientImpl_queryRegion() {
+        final RegionRequest request = RegionRequest.newBuilder().setMinLatitude(48).setMaxLatitude(49).build();
+        client.queryRegion(request);
+        verify(serviceImpl).queryRegion(eq(request), ArgumentMatchers.<StreamObserver<ListUsersReply>>any());
+    }
+
+    @Test
+    public void clientImpl_queryNearby() {
+        final NearbyRequest request = NearbyRequest.newBuilder().setLatitude(48).setRadius(1000).build();
+        client.queryNearby(request);
+        verify(serviceImpl).queryNearby(eq(request), ArgumentMatchers.<StreamObserver<ListUsersReply>>any());
+    }
+
     @Test
     public void clientImpl_logPoints() {
         final int userId = 1234;
@@ -106,10 +193,63 @@ public class ClientTest {
         verify(serviceImpl).logPosition(eq(request), ArgumentMatchers.<StreamObserver<Empty>>any());
     }
 
+    @Test
+    public void clientImpl_streamPositions() {
+        final LogPositionRequest request1 = LogPositionRequest.newBuilder().setUserId(1).build();
+        final LogPositionRequest request2 = LogPositionRequest.newBuilder().setUserId(2).build();
+
+        final LogSummary summary = client.streamPositions(Arrays.asList(request1, request2).iterator());
+        verify(serviceImpl).streamPositions(ArgumentMatchers.<StreamObserver<LogSummary>>any());
+        assertEquals("Must send all requests of the stream", 2, summary.getNumRequests());
+    }
+
+    @Test
+    public void cachingClient_invalidatedByChanges() {
+        try (CachingPositionLogClient cachingClient = new CachingPositionLogClient(client, 1000)) {
+            cachingClient.listUsers();
+            cachingClient.listUsers();
+            verify(serviceImpl, times(1)).listUsers(any(), ArgumentMatchers.<StreamObserver<ListUsersReply>>any());
+
+            mockService.watcher.onNext(ChangeEvent.newBuilder().setType(ChangeType.CREATED).setUserId(1).build());
+            cachingClient.listUsers();
+            verify(serviceImpl, times(2)).listUsers(any(), ArgumentMatchers.<StreamObserver<ListUsersReply>>any());
+
+            // Appends do not change the user list
+            mockService.watcher.onNext(ChangeEvent.newBuilder().setType(ChangeType.APPENDED).setUserId(1).build());
+            cachingClient.listUsers();
+            verify(serviceImpl, times(2)).listUsers(any(), ArgumentMatchers.<StreamObserver<ListUsersReply>>any());
+        }
+    }
+
+    @Test
+    public void cachingClient_dropsStampsOfDeletedUsers() {
+        try (CachingPositionLogClient cachingClient = new CachingPositionLogClient(client, 1000)) {
+            cachingClient.getTrackLength(1);
+            mockService.watcher.onNext(ChangeEvent.newBuilder().setType(ChangeType.APPENDED).setUserId(1).build());
+            cachingClient.getTrackLength(1);
+            cachingClient.getTrackLength(1);
+            verify(serviceImpl, times(2)).getTrackLength(any(), ArgumentMatchers.<StreamObserver<LengthReply>>any());
+
+            // Only the user list keeps its stamp, responses fetched before the deletion are not used anymore
+            mockService.watcher.onNext(ChangeEvent.newBuilder().setType(ChangeType.DELETED).setUserId(1).build());
+            assertEquals(1, cachingClient.stampedScopes());
+            cachingClient.getTrackLength(1);
+            cachingClient.getTrackLength(1);
+            verify(serviceImpl, times(3)).getTrackLength(any(), ArgumentMatchers.<StreamObserver<LengthReply>>any());
+
+            cachingClient.logPoints(LogPositionRequest.newBuilder().setUserId(2).build());
+            cachingClient.removeUser(2);
+            assertEquals(1, cachingClient.stampedScopes());
+        }
+    }
+
     /**
      * No-op implementation of the service interface used as the mocked request endpoint
      */
     private static class MockPositionLogServiceImpl extends PositionLogServiceImplBase {
+        // Observer of the last WatchChanges call
+        private StreamObserver<ChangeEvent> watcher;
+
         @Override
         public void listUsers(ListUsersRequest request, StreamObserver<ListUsersReply> responseObserver) {
             responseObserver.onNext(ListUsersReply.getDefaultInstance());
@@ -128,15 +268,67 @@ public class ClientTest {
             responseObserver.onCompleted();
         }
 
+        @Override
+        public StreamObserver<LogPositionRequest> streamPositions(StreamObserver<LogSummary> responseObserver) {
+            return new StreamObserver<LogPositionRequest>() {
+                private int numRequests;
+
+                @Override
+                public void onNext(LogPositionRequest value) {
+                    ++numRequests;
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                }
+
+                @Override
+                public void onCompleted() {
+                    responseObserver.onNext(LogSummary.newBuilder().setNumRequests(numRequests).build());
+                    responseObserver.onCompleted();
+                }
+            };
+        }
+
         @Override
         public void getPoints(PointsRequest request, StreamObserver<Coordinate> responseObserver) {
             responseObserver.onCompleted();
         }
 
+        @Override
+        public void getPointsChunked(PointsRequest request, StreamObserver<PointsChunk> responseObserver) {
+            responseObserver.onNext(PointsChunk.newBuilder()
+                    .addLatitude(1).addLongitude(2).addAltitude(0).addTimestamp(Long.MIN_VALUE)
+                    .addLatitude(3).addLongitude(4).addAltitude(0).addTimestamp(Long.MIN_VALUE)
+                    .build());
+            responseObserver.onNext(PointsChunk.newBuilder()
+                    .addLatitude(5).addLongitude(6).addAltitude(0).addTimestamp(1_000_000_000L)
+                    .build());
+            responseObserver.onCompleted();
+        }
+
         @Override
         public void getTrackLength(LengthRequest request, StreamObserver<LengthReply> responseObserver) {
             responseObserver.onNext(LengthReply.getDefaultInstance());
             responseObserver.onCompleted();
         }
+
+        @Override
+        public void queryRegion(RegionRequest request, StreamObserver<ListUsersReply> responseObserver) {
+            responseObserver.onNext(ListUsersReply.getDefaultInstance());
+            responseObserver.onCompleted();
+        }
+
+        @Override
+        public void queryNearby(NearbyRequest request, StreamObserver<ListUsersReply> responseObserver) {
+            responseObserver.onNext(ListUsersReply.getDefaultInstance());
+            responseObserver.onCompleted();
+        }
+
+        @Override
+        public void watchChanges(WatchRequest request, StreamObserver<ChangeEvent> responseObserver) {
+            watcher = responseObserver;
+            responseObserver.onNext(ChangeEvent.newBuilder().setType(ChangeType.STARTED).build());
+        }
     }
 }
@@ -0,0 +1,63 @@
+package de.unia.gvs.grpc.client;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the assignment of users to nodes.
+ */
+@RunWith(JUnit4.class)
+public class HashRingTest {
+    private static final int NUM_USERS = 10_000;
+
+    @Test
+    public void owner_independentOfNodeOrder() {
+        final HashRing ring = new HashRing(Arrays.asList("a:1", "b:2", "c:3"));
+        final HashRing reordered = new HashRing(Arrays.asList("c:3", "a:1", "b:2"));
+        for (int userId = 0; userId < NUM_USERS; ++userId) {
+            assertEquals(ring.owner(userId), reordered.owner(userId));
+        }
+    }
+
+    @Test
+    public void owner_spreadsUsersEvenly() {
+        final HashRing ring = new HashRing(Arrays.asList("a:1", "b:2", "c:3", "d:4"));
+        final Map<String, Integer> users = new HashMap<>();
+        for (int userId = 0; userId < NUM_USERS; ++userId) {
+            users.merge(ring.owner(userId), 1, Integer::sum);
+        }
+        assertEquals(ring.nodes(), users.keySet());
+        for (int count : users.values()) {
+            assertTrue("Every node should own about a quarter of the users, not " + count,
+                    count > NUM_USERS * 0.15 && count < NUM_USERS * 0.35);
+        }
+    }
+
+    @Test
+    public void addingNode_onlyMovesUsersToIt() {
+        final HashRing ring = new HashRing(Arrays.asList("a:1", "b:2", "c:3"));
+        final HashRing grown = new HashRing(Arrays.asList("a:1", "b:2", "c:3", "d:4"));
+        int moved = 0;
+        for (int userId = 0; userId < NUM_USERS; ++userId) {
+            if (!ring.owner(userId).equals(grown.owner(userId))) {
+                assertEquals("d:4", grown.owner(userId));
+                ++moved;
+            }
+        }
+        assertTrue("About a quarter of the users should move, not " + moved,
+                moved > NUM_USERS * 0.15 && moved < NUM_USERS * 0.35);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ring_requiresNodes() {
+        new HashRing(Collections.emptyList());
+    }
+}
@@ -0,0 +1,202 @@
+package de.unia.gvs.grpc.client;
+
+import com.google.common.collect.Lists;
+import de.unia.gvs.grpc.BatchLogPositionRequest;
+import de.unia.gvs.grpc.Coordinate;
+import de.unia.gvs.grpc.LengthReply;
+import de.unia.gvs.grpc.LengthsRequest;
+import de.unia.gvs.grpc.LogPositionRequest;
+import de.unia.gvs.grpc.LogSummary;
+import de.unia.gvs.grpc.metrics.Metrics;
+import de.unia.gvs.grpc.server.ExecutionMode;
+import de.unia.gvs.grpc.server.PositionLogServer;
+import de.unia.gvs.grpc.server.store.StoreConfig;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.testing.GrpcCleanupRule;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Integration tests for sharding users across several servers running on local ports.
+ */
+@RunWith(JUnit4.class)
+public class ShardedClientTest {
+    private static final int NUM_USERS = 60;
+
+    @Rule
+    public final GrpcCleanupRule grpcCleanup = new GrpcCleanupRule();
+
+    private final List<PositionLogServer> servers = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        servers.forEach(PositionLogServer::stop);
+    }
+
+    /**
+     * @param count
+     * @return clients of the started servers, named by their address
+     * @throws IOException
+     */
+    private Map<String, PositionLogClient> startNodes(int count) throws IOException {
+        final Map<String, PositionLogClient> nodes = new LinkedHashMap<>();
+        for (int i = 0; i < count; ++i) {
+            final PositionLogServer server = new PositionLogServer(0, StoreConfig.defaults(), ExecutionMode.DEFAULT,
+                    new Metrics());
+            server.start();
+            servers.add(server);
+            final String target = "localhost:" + server.getPort();
+            nodes.put(target, new PositionLogClientImpl(grpcCleanup.register(
+                    ManagedChannelBuilder.forTarget(target).usePlaintext().build())));
+        }
+        return nodes;
+    }
+
+    private static Map<String, PositionLogClient> subset(Map<String, PositionLogClient> nodes, int from, int to) {
+        final Map<String, PositionLogClient> subset = new LinkedHashMap<>();
+        new ArrayList<>(nodes.keySet()).subList(from, to).forEach(node -> subset.put(node, nodes.get(node)));
+        return subset;
+    }
+
+    private static Coordinate point(int index) {
+        return Coordinate.newBuilder().setLatitude(index * 1e-4).setLongitude(1).build();
+    }
+
+    private static List<Coordinate> points(int count) {
+        return IntStream.range(0, count).mapToObj(ShardedClientTest::point).collect(Collectors.toList());
+    }
+
+    private static List<Integer> allUsers() {
+        return IntStream.rangeClosed(1, NUM_USERS).boxed().collect(Collectors.toList());
+    }
+
+    /**
+     * Assert that every node only holds the users it owns and that the client sees all of them.
+     */
+    private static void assertPlacement(ShardedPositionLogClient client, Map<String, PositionLogClient> nodes,
+                                        List<Integer> users) {
+        int total = 0;
+        for (Map.Entry<String, PositionLogClient> node : nodes.entrySet()) {
+            final List<Integer> nodeUsers = node.getValue().listUsers();
+            for (int user : nodeUsers) {
+                assertEquals("User " + user + " should be held by its owner", client.owner(user), node.getKey());
+            }
+            total += nodeUsers.size();
+        }
+        assertEquals(users.size(), total);
+        assertEquals(users, client.listUsers());
+    }
+
+    @Test
+    public void shardedClient_routesByOwner() throws IOException {
+        final Map<String, PositionLogClient> nodes = startNodes(3);
+        final ShardedPositionLogClient client = new ShardedPositionLogClient(nodes);
+
+        final BatchLogPositionRequest.Builder batch = BatchLogPositionRequest.newBuilder();
+        for (int userId = 1; userId <= NUM_USERS; ++userId) {
+            batch.addGroups(LogPositionRequest.newBuilder().setUserId(userId).addAllPoints(points(userId % 5 + 1)));
+        }
+        final LogSummary summary = client.batchLogPoints(batch.build());
+        assertEquals(NUM_USERS, summary.getNumRequests());
+        assertPlacement(client, nodes, allUsers());
+        for (PositionLogClient node : nodes.values()) {
+            assertFalse("Every node should own some users", node.listUsers().isEmpty());
+        }
+
+        assertEquals(points(8 % 5 + 1), Lists.newArrayList(client.getPoints(8)));
+        final List<LengthReply> lengths = client.getTrackLengths(LengthsRequest.newBuilder()
+                .addUserIds(7).addUserIds(12345).addUserIds(3)
+                .build());
+        assertEquals(2, lengths.size());
+        assertEquals(7, lengths.get(0).getUserId());
+        assertEquals(7 % 5 + 1, lengths.get(0).getNumPoints());
+        assertEquals(3, lengths.get(1).getUserId());
+        assertEquals(allUsers(), client.getTrackLengths(LengthsRequest.getDefaultInstance()).stream()
+                .map(LengthReply::getUserId)
+                .collect(Collectors.toList()));
+
+        client.removeUser(5);
+        assertFalse(client.listUsers().contains(5));
+    }
+
+    @Test
+    public void rebalance_movesTracksToNewOwners() throws Exception {
+        final Map<String, PositionLogClient> nodes = startNodes(3);
+        final ShardedPositionLogClient client = new ShardedPositionLogClient(subset(nodes, 0, 2));
+        for (int userId = 1; userId <= NUM_USERS; ++userId) {
+            client.logPoints(LogPositionRequest.newBuilder().setUserId(userId).addAllPoints(points(userId)).build());
+        }
+
+        final int added = client.rebalance(nodes);
+        assertTrue("Only the users of the new node should move, not " + added, added > 0 && added < NUM_USERS);
+        assertPlacement(client, nodes, allUsers());
+
+        // Remove the first node, whose users all move
+        final int removed = client.rebalance(subset(nodes, 1, 3));
+        assertTrue(removed > 0);
+        assertTrue(nodes.values().iterator().next().listUsers().isEmpty());
+        assertPlacement(client, subset(nodes, 1, 3), allUsers());
+        for (int userId = 1; userId <= NUM_USERS; ++userId) {
+            assertEquals(points(userId), Lists.newArrayList(client.getPoints(userId)));
+        }
+    }
+
+    @Test
+    public void rebalance_keepsConcurrentAppendsInOrder() throws Exception {
+        final Map<String, PositionLogClient> nodes = startNodes(3);
+        final ShardedPositionLogClient client = new ShardedPositionLogClient(subset(nodes, 0, 1));
+        final int numUsers = 20;
+        final AtomicIntegerArray logged = new AtomicIntegerArray(numUsers + 1);
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        // Appends to every user while the tracks are moved
+        final Thread writer = new Thread(() -> {
+            try {
+                while (running.get()) {
+                    for (int userId = 1; userId <= numUsers; ++userId) {
+                        client.logPoints(LogPositionRequest.newBuilder()
+                                .setUserId(userId)
+                                .addPoints(point(logged.get(userId)))
+                                .build());
+                        logged.incrementAndGet(userId);
+                    }
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        writer.start();
+        while (logged.get(numUsers) < 10 && writer.isAlive()) {
+            Thread.sleep(1);
+        }
+        final int moved = client.rebalance(nodes);
+        Thread.sleep(50);
+        running.set(false);
+        writer.join();
+        assertNull(failure.get());
+        assertTrue(moved > 0);
+
+        assertPlacement(client, nodes, IntStream.rangeClosed(1, numUsers).boxed().collect(Collectors.toList()));
+        for (int userId = 1; userId <= numUsers; ++userId) {
+            assertEquals("Points of user " + userId + " should be complete and in order",
+                    points(logged.get(userId)), Lists.newArrayList(client.getPoints(userId)));
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package de.unia.gvs.grpc.codec;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the compact point encoding.
+ */
+@RunWith(JUnit4.class)
+public class CompactPointCodecTest {
+    private final CompactPointCodec codec = new CompactPointCodec();
+
+    private static List<double[]> decode(byte[] data) {
+        final List<double[]> points = new ArrayList<>();
+        CompactPointCodec.decode(data, (latitude, longitude, altitude, timestamp) ->
+                points.add(new double[]{latitude, longitude, altitude, timestamp}));
+        return points;
+    }
+
+    @Test
+    public void roundTrip_withinPrecision() {
+        final Random random = new Random(1);
+        final int count = 1000;
+        final double[] latitudes = new double[count];
+        final double[] longitudes = new double[count];
+        final double[] altitudes = new double[count];
+        final long[] timestamps = new long[count];
+        for (int i = 0; i < count; ++i) {
+            latitudes[i] = random.nextDouble() * 180 - 90;
+            longitudes[i] = random.nextDouble() * 360 - 180;
+            altitudes[i] = random.nextGaussian() * 1000;
+            timestamps[i] = i % 10 == 0 ? CompactPointCodec.NO_TIMESTAMP : random.nextLong();
+        }
+
+        final byte[] data = codec.encode(latitudes, longitudes, altitudes, timestamps, 0, count);
+        assertEquals(count, CompactPointCodec.count(data));
+
+        final long[] decodedTimestamps = new long[count];
+        final double[][] decoded = new double[count][];
+        final int[] next = {0};
+        CompactPointCodec.decode(data, (latitude, longitude, altitude, timestamp) -> {
+            decoded[next[0]] = new double[]{latitude, longitude, altitude};
+            decodedTimestamps[next[0]++] = timestamp;
+        });
+
+        for (int i = 0; i < count; ++i) {
+            assertEquals(latitudes[i], decoded[i][0], 0.5e-7);
+            assertEquals(longitudes[i], decoded[i][1], 0.5e-7);
+            assertEquals(altitudes[i], decoded[i][2], 0.5e-3);
+        }
+        assertArrayEquals("Timestamps must be lossless", timestamps, decodedTimestamps);
+    }
+
+    @Test
+    public void roundTrip_stableForDecodedValues() {
+        final double[] latitudes = {48.1234567891, 48.1234577891, 48.1234587891};
+        final double[] longitudes = {10.9876543219, 10.9876553219, 10.9876563219};
+        final double[] altitudes = {494.12345, 494.5, 495};
+        final long[] timestamps = {1_000_000_000L, 2_000_000_000L, 3_000_000_000L};
+        final byte[] data = codec.encode(latitudes, longitudes, altitudes, timestamps, 0, 3);
+
+        final List<double[]> points = decode(data);
+        final double[] decodedLatitudes = points.stream().mapToDouble(p -> p[0]).toArray();
+        final double[] decodedLongitudes = points.stream().mapToDouble(p -> p[1]).toArray();
+        final double[] decodedAltitudes = points.stream().mapToDouble(p -> p[2]).toArray();
+        assertArrayEquals(data, codec.encode(decodedLatitudes, decodedLongitudes, decodedAltitudes, timestamps, 0, 3));
+    }
+
+    @Test
+    public void encode_compactForRegularTracks() {
+        final int count = 1000;
+        final double[] latitudes = new double[count];
+        final double[] longitudes = new double[count];
+        final double[] altitudes = new double[count];
+        final long[] timestamps = new long[count];
+        for (int i = 0; i < count; ++i) {
+            latitudes[i] = 48.3 + i * 1e-5;
+            longitudes[i] = 10.9 + i * 2e-5;
+            altitudes[i] = 494;
+            timestamps[i] = 1_546_300_800_000_000_000L + i * 1_000_000_000L;
+        }
+
+        final byte[] data = codec.encode(latitudes, longitudes, altitudes, timestamps, 0, count);
+        assertTrue("Expected at most 8 bytes per point, got " + data.length, data.length <= 8 * count);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void encode_rejectsNonFinite() {
+        codec.encode(new double[]{Double.NaN}, new double[1], new double[1], new long[1], 0, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decode_rejectsTruncated() {
+        final byte[] data = codec.encode(new double[]{1, 2}, new double[]{1, 2}, new double[2], new long[2], 0, 2);
+        decode(Arrays.copyOf(data, data.length - 3));
+    }
+}
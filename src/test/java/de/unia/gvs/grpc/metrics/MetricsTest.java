@@ -0,0 +1,154 @@
+package de.unia.gvs.grpc.metrics;
+
+import com.google.protobuf.Empty;
+import de.unia.gvs.grpc.*;
+import de.unia.gvs.grpc.PositionLogServiceGrpc.PositionLogServiceBlockingStub;
+import de.unia.gvs.grpc.PositionLogServiceGrpc.PositionLogServiceImplBase;
+import de.unia.gvs.grpc.server.store.TrackStore;
+import io.grpc.ClientInterceptors;
+import io.grpc.ServerInterceptors;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import io.grpc.testing.GrpcCleanupRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the metrics and their Prometheus output.
+ */
+@RunWith(JUnit4.class)
+public class MetricsTest {
+    @Rule
+    public final GrpcCleanupRule grpcCleanup = new GrpcCleanupRule();
+
+    private final Metrics metrics = new Metrics();
+
+    private String scrape() throws IOException {
+        final StringWriter writer = new StringWriter();
+        metrics.write(writer);
+        return writer.toString();
+    }
+
+    @Test
+    public void histogram_writesCumulativeBuckets() throws IOException {
+        final Histogram histogram = Histogram.sizes();
+        histogram.record(10);
+        histogram.record(100);
+        histogram.record(100_000);
+
+        final StringWriter output = new StringWriter();
+        final PrometheusWriter writer = new PrometheusWriter(output);
+        histogram.write(writer, "size", "a=\"b\"");
+        writer.flush();
+
+        final String text = output.toString();
+        assertThat(text, containsString("size_bucket{a=\"b\",le=\"64\"} 1\n"));
+        assertThat(text, containsString("size_bucket{a=\"b\",le=\"256\"} 2\n"));
+        assertThat(text, containsString("size_bucket{a=\"b\",le=\"65536\"} 2\n"));
+        assertThat(text, containsString("size_bucket{a=\"b\",le=\"+Inf\"} 3\n"));
+        assertThat(text, containsString("size_sum{a=\"b\"} 100110\n"));
+        assertThat(text, containsString("size_count{a=\"b\"} 3\n"));
+    }
+
+    @Test
+    public void histogram_scalesLatenciesToSeconds() throws IOException {
+        final Histogram histogram = Histogram.latency();
+        histogram.record(1_500_000);
+
+        final StringWriter output = new StringWriter();
+        final PrometheusWriter writer = new PrometheusWriter(output);
+        histogram.write(writer, "latency", "");
+        writer.flush();
+
+        final String text = output.toString();
+        assertThat(text, containsString("latency_bucket{le=\"0.001\"} 0\n"));
+        assertThat(text, containsString("latency_bucket{le=\"0.0025\"} 1\n"));
+        assertThat(text, containsString("latency_sum 0.0015\n"));
+    }
+
+    @Test
+    public void interceptors_recordCalls() throws IOException {
+        final PositionLogServiceImplBase service = new PositionLogServiceImplBase() {
+            @Override
+            public void listUsers(ListUsersRequest request, StreamObserver<ListUsersReply> responseObserver) {
+                responseObserver.onNext(ListUsersReply.newBuilder().addAllUsersIds(Arrays.asList(1, 2)).build());
+                responseObserver.onCompleted();
+            }
+
+            @Override
+            public void deleteUser(DeleteUserRequest request, StreamObserver<Empty> responseObserver) {
+                responseObserver.onError(new StatusRuntimeException(Status.NOT_FOUND));
+            }
+        };
+        final String name = InProcessServerBuilder.generateName();
+        grpcCleanup.register(InProcessServerBuilder.forName(name)
+                .directExecutor()
+                .addService(ServerInterceptors.intercept(service, metrics.serverInterceptor()))
+                .build()
+                .start());
+        final PositionLogServiceBlockingStub stub = PositionLogServiceGrpc.newBlockingStub(ClientInterceptors.intercept(
+                grpcCleanup.register(InProcessChannelBuilder.forName(name).directExecutor().build()),
+                metrics.clientInterceptor()));
+
+        stub.listUsers(ListUsersRequest.getDefaultInstance());
+        stub.listUsers(ListUsersRequest.getDefaultInstance());
+        try {
+            stub.deleteUser(DeleteUserRequest.newBuilder().setUserId(1).build());
+            fail("Service should fail the call");
+        } catch (StatusRuntimeException expected) {
+            assertEquals(Status.Code.NOT_FOUND, expected.getStatus().getCode());
+        }
+
+        final String text = scrape();
+        final String labels = "grpc_service=\"" + PositionLogServiceGrpc.SERVICE_NAME + "\"";
+        for (String side : Arrays.asList("server", "client")) {
+            final String prefix = "grpc_" + side + "_";
+            assertThat(text, containsString(prefix + "started_total{" + labels + ",grpc_method=\"ListUsers\"} 2\n"));
+            assertThat(text, containsString(prefix + "handled_total{" + labels
+                    + ",grpc_method=\"ListUsers\",grpc_code=\"OK\"} 2\n"));
+            assertThat(text, containsString(prefix + "handled_total{" + labels
+                    + ",grpc_method=\"DeleteUser\",grpc_code=\"NOT_FOUND\"} 1\n"));
+            assertThat(text, containsString(prefix + "in_flight{" + labels + ",grpc_method=\"ListUsers\"} 0\n"));
+            assertThat(text, containsString(prefix + "handling_seconds_count{" + labels
+                    + ",grpc_method=\"ListUsers\"} 2\n"));
+        }
+        // Both replies with two IDs are a few bytes each
+        assertThat(text, containsString("grpc_server_msg_sent_bytes_bucket{" + labels
+                + ",grpc_method=\"ListUsers\",le=\"64\"} 2\n"));
+        assertThat(text, containsString("grpc_client_msg_received_bytes_count{" + labels
+                + ",grpc_method=\"ListUsers\"} 2\n"));
+    }
+
+    @Test
+    public void monitor_reportsStore() throws IOException {
+        final TrackStore store = new TrackStore();
+        metrics.monitor(store);
+        store.append(1, Arrays.asList(Coordinate.getDefaultInstance(), Coordinate.getDefaultInstance(),
+                Coordinate.getDefaultInstance()));
+        store.append(2, Collections.singletonList(Coordinate.getDefaultInstance()));
+        store.delete(2);
+
+        final String text = scrape();
+        assertThat(text, containsString("positionlog_store_users 1\n"));
+        assertThat(text, containsString("positionlog_store_points 3\n"));
+        assertThat(text, containsString("positionlog_store_track_points_bucket{le=\"10\"} 1\n"));
+        assertThat(text, containsString("positionlog_store_bytes{area=\"off_heap\"} 0\n"));
+        assertThat(text, containsString("positionlog_store_appends_total 2\n"));
+        assertThat(text, containsString("positionlog_store_appended_points_total 4\n"));
+        assertThat(text, containsString("positionlog_store_deletes_total 1\n"));
+        assertFalse("No calls have been made", text.contains("grpc_server_started_total"));
+    }
+}
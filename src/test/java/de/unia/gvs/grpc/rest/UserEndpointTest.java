@@ -0,0 +1,210 @@
+package de.unia.gvs.grpc.rest;
+
+import de.unia.gvs.grpc.Coordinate;
+import de.unia.gvs.grpc.LogPositionRequest;
+import de.unia.gvs.grpc.client.CachingPositionLogClient;
+import de.unia.gvs.grpc.client.PositionLogClient;
+import de.unia.gvs.grpc.client.PositionLogClientImpl;
+import de.unia.gvs.grpc.metrics.Metrics;
+import de.unia.gvs.grpc.server.ExecutionMode;
+import de.unia.gvs.grpc.server.PositionLogServer;
+import de.unia.gvs.grpc.server.store.StoreConfig;
+import io.grpc.testing.GrpcCleanupRule;
+import io.undertow.Undertow;
+import org.jboss.resteasy.plugins.server.undertow.UndertowJaxrsServer;
+import org.jboss.resteasy.spi.ResteasyDeployment;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.ws.rs.core.Application;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringWriter;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * End-to-end tests of the REST web service, which reaches a gRPC server through the in-process transport like the
+ * application does.
+ */
+@RunWith(JUnit4.class)
+public class UserEndpointTest {
+    // More than one window of points, so the response is written while further points are requested
+    private static final int NUM_POINTS = 3000;
+    // Requests which hang fail after this time instead of blocking the test
+    private static final int TIMEOUT_MILLIS = 10_000;
+
+    @Rule
+    public final GrpcCleanupRule grpcCleanup = new GrpcCleanupRule();
+
+    private final ExecutorService responseExecutor = Executors.newCachedThreadPool();
+    private PositionLogServer server;
+    private PositionLogClient client;
+    private UndertowJaxrsServer rest;
+    private int port;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new PositionLogServer(0, StoreConfig.defaults(), ExecutionMode.DEFAULT, new Metrics());
+        server.start();
+        client = new PositionLogClientImpl(grpcCleanup.register(server.inProcessChannel()));
+    }
+
+    @After
+    public void tearDown() {
+        if (rest != null) {
+            rest.stop();
+        }
+        responseExecutor.shutdownNow();
+        server.stop();
+    }
+
+    /**
+     * Start the REST web service on a free port.
+     *
+     * @param endpointClient client used by the endpoint
+     */
+    private void startRest(PositionLogClient endpointClient) throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        rest = new UndertowJaxrsServer();
+        final ResteasyDeployment deployment = new ResteasyDeployment();
+        deployment.setApplication(new Application() {
+            @Override
+            public Set<Object> getSingletons() {
+                return Collections.singleton(new UserEndpoint(endpointClient, responseExecutor));
+            }
+        });
+        rest.deploy(rest.undertowDeployment(deployment)
+                .setClassLoader(UserEndpointTest.class.getClassLoader())
+                .setContextPath("/")
+                .setDeploymentName("rest"));
+        rest.start(Undertow.builder().addHttpListener(port, "localhost"));
+    }
+
+    private HttpURLConnection get(String path) throws IOException {
+        final HttpURLConnection connection =
+                (HttpURLConnection) new URL("http://localhost:" + port + path).openConnection();
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        return connection;
+    }
+
+    private static String body(HttpURLConnection connection) throws IOException {
+        try (InputStream in = connection.getInputStream()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static List<Coordinate> points(int first, int count) {
+        final List<Coordinate> points = new ArrayList<>();
+        for (int i = first; i < first + count; ++i) {
+            points.add(Coordinate.newBuilder().setLatitude(48 + i * 1e-6).setLongitude(10).build());
+        }
+        return points;
+    }
+
+    private void logPoints(int userId, List<Coordinate> points) {
+        client.logPoints(LogPositionRequest.newBuilder().setUserId(userId).addAllPoints(points).build());
+    }
+
+    /**
+     * @return the JSON array of the points list
+     */
+    private static String json(List<Coordinate> points) throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        JsonOutput.coordinates(points.iterator()).write(output);
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the JSON object of a single point
+     */
+    private static String json(Coordinate point) throws IOException {
+        final StringWriter writer = new StringWriter();
+        JsonOutput.writeCoordinate(writer, point);
+        return writer.toString();
+    }
+
+    private static void assertEvent(BufferedReader events, long id, Coordinate point) throws IOException {
+        assertEquals("id: " + id, events.readLine());
+        assertEquals("data: " + json(point), events.readLine());
+        assertEquals("", events.readLine());
+    }
+
+    @Test
+    public void points_streamsWholeTrack() throws IOException {
+        startRest(client);
+        logPoints(1, points(0, NUM_POINTS));
+
+        final HttpURLConnection connection = get("/users/1/points");
+        assertEquals(200, connection.getResponseCode());
+        assertNotNull(connection.getHeaderField("ETag"));
+        assertEquals(json(points(0, NUM_POINTS)), body(connection));
+
+        assertEquals(404, get("/users/2/points").getResponseCode());
+    }
+
+    @Test
+    public void points_replayedFromCache() throws IOException {
+        startRest(new CachingPositionLogClient(client, NUM_POINTS * 2));
+        logPoints(1, points(0, NUM_POINTS));
+
+        // The first request fills the cache, the second one is served from it
+        for (int i = 0; i < 2; ++i) {
+            final HttpURLConnection connection = get("/users/1/points");
+            assertEquals(200, connection.getResponseCode());
+            assertEquals(json(points(0, NUM_POINTS)), body(connection));
+        }
+
+        final String tag = get("/users/1/points").getHeaderField("ETag");
+        final HttpURLConnection notModified = get("/users/1/points");
+        notModified.setRequestProperty("If-None-Match", tag);
+        assertEquals(304, notModified.getResponseCode());
+    }
+
+    @Test
+    public void livePoints_streamsLoggedAndLaterPoints() throws IOException {
+        startRest(client);
+        logPoints(1, points(0, 3));
+
+        final HttpURLConnection connection = get("/users/1/points/live?offset=1");
+        assertEquals(200, connection.getResponseCode());
+        assertTrue(connection.getContentType().startsWith(TrackEvents.MEDIA_TYPE));
+        try (BufferedReader events = new BufferedReader(
+                new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+            assertEvent(events, 2, points(1, 1).get(0));
+            assertEvent(events, 3, points(2, 1).get(0));
+
+            logPoints(1, points(3, 1));
+            assertEvent(events, 4, points(3, 1).get(0));
+        }
+
+        // Reconnecting browsers continue after the last received event
+        final HttpURLConnection reconnected = get("/users/1/points/live");
+        reconnected.setRequestProperty("Last-Event-ID", "3");
+        assertEquals(200, reconnected.getResponseCode());
+        try (BufferedReader events = new BufferedReader(
+                new InputStreamReader(reconnected.getInputStream(), StandardCharsets.UTF_8))) {
+            assertEvent(events, 4, points(3, 1).get(0));
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package de.unia.gvs.grpc.server;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the executors of the different execution modes.
+ */
+@RunWith(JUnit4.class)
+public class ExecutionModeTest {
+    @Test
+    public void createExecutor_defaultUsesLibraryExecutors() {
+        assertNull(ExecutionMode.DEFAULT.createExecutor("test"));
+    }
+
+    @Test
+    public void createExecutor_runsTasks() throws Exception {
+        for (ExecutionMode mode : new ExecutionMode[]{ExecutionMode.FIXED, ExecutionMode.VIRTUAL}) {
+            final ExecutorService executor = mode.createExecutor("test");
+            try {
+                final String name = executor.submit(() -> Thread.currentThread().getName()).get(5, TimeUnit.SECONDS);
+                assertTrue("Threads must be named after the executor: " + name, name.startsWith("test-"));
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+}
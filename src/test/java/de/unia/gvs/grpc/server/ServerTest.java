@@ -1,27 +1,50 @@
 package de.unia.gvs.grpc.server;
 
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.Timestamp;
 import de.unia.gvs.grpc.*;
 import de.unia.gvs.grpc.PositionLogServiceGrpc.PositionLogServiceBlockingStub;
+import de.unia.gvs.grpc.codec.CompactPointCodec;
+import de.unia.gvs.grpc.server.store.TrackStore;
+import io.grpc.Context;
 import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
 import io.grpc.Server;
 import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
 import io.grpc.inprocess.InProcessChannelBuilder;
 import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.internal.testing.StreamRecorder;
+import io.grpc.stub.MetadataUtils;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
 import io.grpc.testing.GrpcCleanupRule;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.hamcrest.CoreMatchers.hasItem;
 import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 /**
  * Unit/integration tests for the gRPC service implementation.
@@ -110,6 +133,100 @@ public class ServerTest {
         assertThat("Track for user must contain logged point", () -> points, hasItem(point));
     }
 
+    @Test
+    public void serviceImpl_streamPositions() throws InterruptedException {
+        final StreamRecorder<LogSummary> recorder = StreamRecorder.create();
+        final StreamObserver<LogPositionRequest> requests = PositionLogServiceGrpc.newStub(channel).streamPositions(recorder);
+        for (int userId = 1; userId <= 3; ++userId) {
+            requests.onNext(LogPositionRequest.newBuilder()
+                    .setUserId(userId)
+                    .addPoints(Coordinate.getDefaultInstance())
+                    .addPoints(Coordinate.getDefaultInstance())
+                    .build());
+        }
+        requests.onCompleted();
+
+        assertTrue(recorder.awaitCompletion(5, TimeUnit.SECONDS));
+        assertEquals(LogSummary.newBuilder().setNumRequests(3).setNumPoints(6).build(), recorder.getValues().get(0));
+        assertEquals(3, stub.listUsers(ListUsersRequest.getDefaultInstance()).getUsersIdsCount());
+    }
+
+    @Test
+    public void serviceImpl_logPositionStream_acknowledges() throws InterruptedException {
+        final int numRequests = 2 * PositionLogServiceImpl.ACK_INTERVAL + 1;
+        final StreamRecorder<LogSummary> recorder = StreamRecorder.create();
+        final StreamObserver<LogPositionRequest> requests = PositionLogServiceGrpc.newStub(channel).logPositionStream(recorder);
+        for (int i = 0; i < numRequests; ++i) {
+            requests.onNext(LogPositionRequest.newBuilder().setUserId(1).addPoints(Coordinate.getDefaultInstance()).build());
+        }
+        requests.onCompleted();
+
+        assertTrue(recorder.awaitCompletion(5, TimeUnit.SECONDS));
+        final List<LogSummary> acks = recorder.getValues();
+        assertEquals("Expecting two acknowledgements and a final summary", 3, acks.size());
+        assertEquals(PositionLogServiceImpl.ACK_INTERVAL, acks.get(0).getNumRequests());
+        assertEquals(numRequests, acks.get(2).getNumPoints());
+
+        final LengthReply reply = stub.getTrackLength(LengthRequest.newBuilder().setUserId(1).build());
+        assertEquals(numRequests, reply.getNumPoints());
+    }
+
+    @Test
+    public void serviceImpl_batchLogPosition() {
+        final LogSummary summary = stub.batchLogPosition(BatchLogPositionRequest.newBuilder()
+                .addGroups(LogPositionRequest.newBuilder().setUserId(2).addPoints(pointAt(1)).addPoints(pointAt(2)))
+                .addGroups(LogPositionRequest.newBuilder().setUserId(1).addPoints(pointAt(1)))
+                .addGroups(LogPositionRequest.newBuilder().setUserId(2).addPoints(pointAt(3)))
+                .build());
+        assertEquals(LogSummary.newBuilder().setNumRequests(3).setNumPoints(4).build(), summary);
+
+        final List<Coordinate> points = Lists.newArrayList(stub.getPoints(PointsRequest.newBuilder().setUserId(2).build()));
+        assertEquals("Groups of the same user are appended in order",
+                Arrays.asList(pointAt(1), pointAt(2), pointAt(3)), points);
+
+        try {
+            stub.batchLogPosition(BatchLogPositionRequest.newBuilder()
+                    .addGroups(LogPositionRequest.newBuilder().setUserId(3).addPoints(pointAt(1)))
+                    .addGroups(LogPositionRequest.newBuilder().setUserId(1).addPoints(Coordinate.newBuilder()
+                            .setTimestamp(Timestamp.newBuilder().setNanos(-1))))
+                    .build());
+            fail("Invalid timestamps should reject the batch");
+        } catch (StatusRuntimeException expected) {
+            assertEquals(Status.Code.INVALID_ARGUMENT, expected.getStatus().getCode());
+        }
+        assertEquals("No group of a rejected batch may be added", Arrays.asList(1, 2),
+                stub.listUsers(ListUsersRequest.getDefaultInstance()).getUsersIdsList());
+    }
+
+    @Test
+    public void serviceImpl_getTrackLengths() {
+        for (int userId = 1; userId <= 3; ++userId) {
+            final LogPositionRequest.Builder request = LogPositionRequest.newBuilder().setUserId(userId);
+            for (int i = 0; i <= userId; ++i) {
+                request.addPoints(Coordinate.newBuilder().setLatitude(i));
+            }
+            stub.logPosition(request.build());
+        }
+
+        final List<LengthReply> all = Lists.newArrayList(stub.getTrackLengths(LengthsRequest.getDefaultInstance()));
+        assertEquals(3, all.size());
+        for (int i = 0; i < all.size(); ++i) {
+            final LengthReply reply = all.get(i);
+            assertEquals("All users are measured in ascending order", i + 1, reply.getUserId());
+            assertEquals(reply.getUserId() + 1, reply.getNumPoints());
+            assertEquals(stub.getTrackLength(LengthRequest.newBuilder().setUserId(reply.getUserId()).build()), reply);
+        }
+
+        final List<LengthReply> selected = Lists.newArrayList(stub.getTrackLengths(LengthsRequest.newBuilder()
+                .addUserIds(3).addUserIds(12345).addUserIds(1)
+                .setAlgorithm(DistanceAlgorithm.HAVERSINE)
+                .build()));
+        assertEquals("Requested order is kept and missing users are skipped", 2, selected.size());
+        assertEquals(3, selected.get(0).getUserId());
+        assertEquals(1, selected.get(1).getUserId());
+        assertEquals(all.get(0).getLength(), selected.get(1).getLength(), all.get(0).getLength() * 1e-2);
+    }
+
     @Test
     public void serviceImpl_getLength_nonExisting() {
         final LengthRequest request = LengthRequest.newBuilder()
@@ -154,6 +271,307 @@ public class ServerTest {
         assertEquals(156.9e3 + 110.57e3, reply.getLength(), 1e1); // expected accuracy +/- 10m
     }
 
+    @Test
+    public void serviceImpl_getLength_approximateAlgorithms() {
+        final int userId = 1234;
+        stub.logPosition(LogPositionRequest.newBuilder()
+                .setUserId(userId)
+                .addPoints(Coordinate.newBuilder().setLatitude(48.3).setLongitude(10.9))
+                .addPoints(Coordinate.newBuilder().setLatitude(48.31).setLongitude(10.91))
+                .addPoints(Coordinate.newBuilder().setLatitude(48.32).setLongitude(10.9))
+                .build());
+
+        final double exact = stub.getTrackLength(LengthRequest.newBuilder().setUserId(userId).build()).getLength();
+        final double vincenty = stub.getTrackLength(LengthRequest.newBuilder()
+                .setUserId(userId).setAlgorithm(DistanceAlgorithm.VINCENTY).build()).getLength();
+        final double haversine = stub.getTrackLength(LengthRequest.newBuilder()
+                .setUserId(userId).setAlgorithm(DistanceAlgorithm.HAVERSINE).build()).getLength();
+        final double equirectangular = stub.getTrackLength(LengthRequest.newBuilder()
+                .setUserId(userId).setAlgorithm(DistanceAlgorithm.EQUIRECTANGULAR).build()).getLength();
+
+        assertEquals(exact, vincenty, 1e-3);
+        assertEquals(exact, haversine, exact * 1e-3);
+        assertEquals(exact, equirectangular, exact * 1e-4);
+    }
+
+    @Test
+    public void serviceImpl_getPoints_largeTrackInOrder() {
+        final int numPoints = 20_000;
+        final LogPositionRequest.Builder builder = LogPositionRequest.newBuilder().setUserId(1);
+        for (int i = 0; i < numPoints; ++i) {
+            builder.addPoints(Coordinate.newBuilder().setLatitude(i * 1e-3));
+        }
+        stub.logPosition(builder.build());
+
+        final Iterator<Coordinate> points = stub.getPoints(PointsRequest.newBuilder().setUserId(1).build());
+        int count = 0;
+        while (points.hasNext()) {
+            assertEquals(count * 1e-3, points.next().getLatitude(), 0);
+            ++count;
+        }
+        assertEquals(numPoints, count);
+    }
+
+    private static Coordinate pointAt(long seconds) {
+        return Coordinate.newBuilder()
+                .setLatitude(seconds)
+                .setTimestamp(Timestamp.newBuilder().setSeconds(seconds))
+                .build();
+    }
+
+    @Test
+    public void serviceImpl_getPoints_timeRangePaged() {
+        final LogPositionRequest.Builder builder = LogPositionRequest.newBuilder().setUserId(1);
+        for (int i = 0; i < 10; ++i) {
+            builder.addPoints(pointAt(100 + i));
+        }
+        stub.logPosition(builder.build());
+
+        final PointsRequest firstRequest = PointsRequest.newBuilder()
+                .setUserId(1)
+                .setFromTimestamp(Timestamp.newBuilder().setSeconds(102))
+                .setToTimestamp(Timestamp.newBuilder().setSeconds(108))
+                .setLimit(4)
+                .build();
+        final AtomicReference<Metadata> headers = new AtomicReference<>();
+        final Iterator<Coordinate> firstPage = MetadataUtils.captureMetadata(createStub(), headers, new AtomicReference<>())
+                .getPoints(firstRequest);
+        final List<Coordinate> first = Lists.newArrayList(firstPage);
+        assertEquals(Arrays.asList(pointAt(102), pointAt(103), pointAt(104), pointAt(105)), first);
+
+        final String token = headers.get().get(PositionLogHeaders.NEXT_PAGE_TOKEN);
+        assertNotNull("Must return a token if more points are available", token);
+
+        final List<Coordinate> second = Lists.newArrayList(stub.getPoints(firstRequest.toBuilder().setPageToken(token).build()));
+        assertEquals(Arrays.asList(pointAt(106), pointAt(107)), second);
+    }
+
+    @Test
+    public void serviceImpl_getPoints_pageTokenSurvivesEarlierAppends() {
+        final LogPositionRequest.Builder builder = LogPositionRequest.newBuilder().setUserId(1);
+        for (int i = 0; i < 10; ++i) {
+            builder.addPoints(pointAt(100 + i));
+        }
+        stub.logPosition(builder.build());
+
+        final PointsRequest firstRequest = PointsRequest.newBuilder()
+                .setUserId(1)
+                .setFromTimestamp(Timestamp.newBuilder().setSeconds(100))
+                .setLimit(5)
+                .build();
+        final AtomicReference<Metadata> headers = new AtomicReference<>();
+        final List<Coordinate> first = Lists.newArrayList(
+                MetadataUtils.captureMetadata(createStub(), headers, new AtomicReference<>()).getPoints(firstRequest));
+        assertEquals(pointAt(104), first.get(4));
+        final String token = headers.get().get(PositionLogHeaders.NEXT_PAGE_TOKEN);
+
+        // Points sorted before the end of the first page must not repeat its last point on the next page
+        stub.logPosition(LogPositionRequest.newBuilder().setUserId(1).addPoints(pointAt(101)).build());
+        final List<Coordinate> second = Lists.newArrayList(
+                stub.getPoints(firstRequest.toBuilder().setPageToken(token).build()));
+        assertEquals(Arrays.asList(pointAt(105), pointAt(106), pointAt(107), pointAt(108), pointAt(109)), second);
+    }
+
+    @Test
+    public void serviceImpl_getPoints_simplified() {
+        final LogPositionRequest.Builder builder = LogPositionRequest.newBuilder().setUserId(1);
+        for (int i = 0; i < 100; ++i) {
+            builder.addPoints(Coordinate.newBuilder().setLatitude(48).setLongitude(10 + i * 1e-4));
+        }
+        stub.logPosition(builder.build());
+
+        final PointsRequest request = PointsRequest.newBuilder().setUserId(1).setTolerance(1).build();
+        final List<Coordinate> points = Lists.newArrayList(stub.getPoints(request));
+        assertEquals("Straight tracks must be reduced to their endpoints",
+                Arrays.asList(builder.getPoints(0), builder.getPoints(99)), points);
+
+        try {
+            stub.getPoints(request.toBuilder().setTolerance(-1).build()).next();
+            fail("Negative tolerances should yield INVALID_ARGUMENT status");
+        } catch (StatusRuntimeException expected) {
+            assertEquals(Status.Code.INVALID_ARGUMENT, expected.getStatus().getCode());
+        }
+    }
+
+    @Test
+    public void serviceImpl_getPoints_timeRangeUnordered() {
+        stub.logPosition(LogPositionRequest.newBuilder()
+                .setUserId(1)
+                .addPoints(pointAt(5))
+                .addPoints(pointAt(1))
+                .addPoints(pointAt(3))
+                .addPoints(Coordinate.getDefaultInstance())
+                .build());
+        stub.logPosition(LogPositionRequest.newBuilder().setUserId(1).addPoints(pointAt(2)).build());
+
+        final PointsRequest request = PointsRequest.newBuilder()
+                .setUserId(1)
+                .setFromTimestamp(Timestamp.newBuilder().setSeconds(2))
+                .build();
+        final List<Coordinate> points = Lists.newArrayList(stub.getPoints(request));
+        assertEquals("Time ranges must be returned in chronological order",
+                Arrays.asList(pointAt(2), pointAt(3), pointAt(5)), points);
+    }
+
+    @Test
+    public void serviceImpl_subscribeTrack() {
+        stub.logPosition(LogPositionRequest.newBuilder()
+                .setUserId(1)
+                .addPoints(pointAt(100))
+                .addPoints(pointAt(101))
+                .build());
+
+        final PointsRequest request = PointsRequest.newBuilder().setUserId(1).setOffset(1).build();
+        final Iterator<Coordinate> points = stub.subscribeTrack(request);
+        assertEquals("Must replay the points after the offset", pointAt(101), points.next());
+
+        stub.logPosition(LogPositionRequest.newBuilder().setUserId(1).addPoints(pointAt(102)).build());
+        assertEquals("Must push newly logged points", pointAt(102), points.next());
+
+        stub.deleteUser(DeleteUserRequest.newBuilder().setUserId(1).build());
+        assertFalse("Deleting the user must complete the subscription", points.hasNext());
+    }
+
+    @Test
+    public void serviceImpl_subscribeTrack_timeRangeLikeGetPoints() {
+        stub.logPosition(LogPositionRequest.newBuilder()
+                .setUserId(1)
+                .addPoints(pointAt(5))
+                .addPoints(pointAt(2))
+                .addPoints(pointAt(3))
+                .addPoints(pointAt(1))
+                .build());
+
+        final PointsRequest request = PointsRequest.newBuilder()
+                .setUserId(1)
+                .setFromTimestamp(Timestamp.newBuilder().setSeconds(2))
+                .setOffset(1)
+                .build();
+        final Iterator<Coordinate> points = stub.subscribeTrack(request);
+        for (Coordinate point : Lists.newArrayList(stub.getPoints(request))) {
+            assertEquals("Must replay the points selected by GetPoints", point, points.next());
+        }
+
+        stub.logPosition(LogPositionRequest.newBuilder()
+                .setUserId(1)
+                .addPoints(pointAt(4))
+                .addPoints(pointAt(0))
+                .addPoints(pointAt(6))
+                .build());
+        assertEquals("Must push newly logged points in the order they are logged", pointAt(4), points.next());
+        assertEquals(pointAt(6), points.next());
+
+        stub.deleteUser(DeleteUserRequest.newBuilder().setUserId(1).build());
+        assertFalse(points.hasNext());
+    }
+
+    @Test
+    public void serviceImpl_subscribeTrack_invalidTimeRange() {
+        stub.logPosition(LogPositionRequest.newBuilder().setUserId(1).addPoints(pointAt(1)).build());
+        // 9999-01-01T00:00:00Z is a valid timestamp, but beyond the range of nanoseconds since the epoch
+        for (Timestamp from : Arrays.asList(Timestamp.newBuilder().setSeconds(253370764800L).build(),
+                Timestamp.newBuilder().setNanos(-1).build())) {
+            try {
+                stub.subscribeTrack(PointsRequest.newBuilder().setUserId(1).setFromTimestamp(from).build()).next();
+                fail("Invalid time bounds should yield INVALID_ARGUMENT status");
+            } catch (StatusRuntimeException expected) {
+                assertEquals(Status.Code.INVALID_ARGUMENT, expected.getStatus().getCode());
+            }
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void trackSubscriber_skipReportsDroppedPoints() {
+        final TrackStore store = new TrackStore();
+        final TrackSubscriptions subscriptions = new TrackSubscriptions(store, MoreExecutors.directExecutor());
+        store.addListener(subscriptions);
+        store.append(1, Collections.singletonList(pointAt(0)));
+
+        final ServerCallStreamObserver<Coordinate> observer = mock(ServerCallStreamObserver.class);
+        final AtomicBoolean ready = new AtomicBoolean(true);
+        final List<Coordinate> received = new ArrayList<>();
+        when(observer.isReady()).thenAnswer(invocation -> ready.get());
+        doAnswer(invocation -> received.add(invocation.getArgument(0))).when(observer).onNext(any());
+        subscriptions.subscribe(PointsRequest.newBuilder()
+                .setUserId(1)
+                .setBacklogPolicy(BacklogPolicy.SKIP)
+                .build(), observer);
+        assertEquals(Collections.singletonList(pointAt(0)), received);
+
+        // The client stops reading while more points than the backlog allows are logged
+        ready.set(false);
+        final List<Coordinate> logged = new ArrayList<>();
+        for (int i = 1; i <= TrackSubscriber.MAX_BACKLOG + 5; ++i) {
+            logged.add(pointAt(i));
+        }
+        store.append(1, logged);
+        ready.set(true);
+        final ArgumentCaptor<Runnable> onReady = ArgumentCaptor.forClass(Runnable.class);
+        verify(observer).setOnReadyHandler(onReady.capture());
+        onReady.getValue().run();
+
+        assertEquals(2, received.size());
+        final Coordinate latest = logged.get(logged.size() - 1);
+        assertEquals("Must announce the dropped points with the latest one",
+                latest.toBuilder().setSkipped(TrackSubscriber.MAX_BACKLOG + 4).build(), received.get(1));
+    }
+
+    @Test
+    public void serviceImpl_getPointsChunked() {
+        final LogPositionRequest.Builder builder = LogPositionRequest.newBuilder().setUserId(1);
+        for (int i = 0; i < 2500; ++i) {
+            builder.addPoints(pointAt(i));
+        }
+        stub.logPosition(builder.build());
+
+        final List<PointsChunk> chunks = Lists.newArrayList(stub.getPointsChunked(PointsRequest.newBuilder()
+                .setUserId(1)
+                .setChunkSize(1000)
+                .build()));
+        assertEquals(3, chunks.size());
+        assertEquals(1000, chunks.get(0).getLatitudeCount());
+        assertEquals(500, chunks.get(2).getTimestampCount());
+        assertEquals(1999.0, chunks.get(1).getLatitude(999), 0);
+        assertEquals(1999_000_000_000L, chunks.get(1).getTimestamp(999));
+    }
+
+    @Test
+    public void serviceImpl_getPointsChunked_compact() {
+        final LogPositionRequest.Builder builder = LogPositionRequest.newBuilder().setUserId(1);
+        for (int i = 0; i < 100; ++i) {
+            builder.addPoints(Coordinate.newBuilder()
+                    .setLatitude(48.3 + i * 1.23456789e-5)
+                    .setLongitude(10.9)
+                    .setTimestamp(Timestamp.newBuilder().setSeconds(i)));
+        }
+        stub.logPosition(builder.build());
+
+        final List<PointsChunk> chunks = Lists.newArrayList(stub.getPointsChunked(PointsRequest.newBuilder()
+                .setUserId(1)
+                .setEncoding(PointEncoding.COMPACT)
+                .build()));
+        assertEquals(1, chunks.size());
+        assertEquals(0, chunks.get(0).getLatitudeCount());
+
+        final List<Double> latitudes = new ArrayList<>();
+        CompactPointCodec.decode(chunks.get(0).getCompact().toByteArray(),
+                (latitude, longitude, altitude, timestamp) -> latitudes.add(latitude));
+        assertEquals(100, latitudes.size());
+        assertEquals(48.3 + 99 * 1.23456789e-5, latitudes.get(99), 0.5e-7);
+    }
+
+    @Test
+    public void serviceImpl_getPoints_invalidPageToken() {
+        stub.logPosition(LogPositionRequest.newBuilder().setUserId(1).addPoints(pointAt(1)).build());
+        try {
+            stub.getPoints(PointsRequest.newBuilder().setUserId(1).setPageToken("invalid").build()).next();
+            fail("Invalid page tokens should yield INVALID_ARGUMENT status");
+        } catch (StatusRuntimeException expected) {
+            assertEquals(Status.Code.INVALID_ARGUMENT, expected.getStatus().getCode());
+        }
+    }
+
     @Test
     public void serviceImpl_getPoints_nonExisting() {
         final PointsRequest request = PointsRequest.newBuilder()
@@ -168,4 +586,82 @@ public class ServerTest {
             assertEquals(Status.NOT_FOUND, expected.getStatus());
         }
     }
+
+    @Test
+    public void serviceImpl_queryRegion() {
+        stub.logPosition(LogPositionRequest.newBuilder().setUserId(1)
+                .addPoints(Coordinate.newBuilder().setLatitude(48.3668).setLongitude(10.8986)).build());
+        stub.logPosition(LogPositionRequest.newBuilder().setUserId(2)
+                .addPoints(Coordinate.newBuilder().setLatitude(48.1374).setLongitude(11.5755)).build());
+
+        final ListUsersReply region = stub.queryRegion(RegionRequest.newBuilder()
+                .setMinLatitude(48.3).setMinLongitude(10.8).setMaxLatitude(48.4).setMaxLongitude(11).build());
+        assertEquals(Arrays.asList(1), region.getUsersIdsList());
+
+        final ListUsersReply nearby = stub.queryNearby(NearbyRequest.newBuilder()
+                .setLatitude(48.3668).setLongitude(10.8986).setRadius(60_000).build());
+        assertEquals(Arrays.asList(1, 2), nearby.getUsersIdsList());
+    }
+
+    @Test
+    public void serviceImpl_queryRegion_invalid() {
+        try {
+            stub.queryRegion(RegionRequest.newBuilder().setMinLatitude(10).setMaxLatitude(5).build());
+            fail("Inverted latitude ranges should yield INVALID_ARGUMENT status");
+        } catch (StatusRuntimeException expected) {
+            assertEquals(Status.Code.INVALID_ARGUMENT, expected.getStatus().getCode());
+        }
+        try {
+            stub.queryNearby(NearbyRequest.newBuilder().setRadius(-1).build());
+            fail("Negative radii should yield INVALID_ARGUMENT status");
+        } catch (StatusRuntimeException expected) {
+            assertEquals(Status.Code.INVALID_ARGUMENT, expected.getStatus().getCode());
+        }
+    }
+
+    @Test
+    public void serviceImpl_trackVersion() {
+        final LogPositionRequest request = LogPositionRequest.newBuilder()
+                .setUserId(1)
+                .addPoints(Coordinate.getDefaultInstance())
+                .build();
+        stub.logPosition(request);
+        final LengthRequest lengthRequest = LengthRequest.newBuilder().setUserId(1).build();
+        final long version = stub.getTrackLength(lengthRequest).getVersion();
+
+        final AtomicReference<Metadata> headers = new AtomicReference<>();
+        Lists.newArrayList(MetadataUtils.captureMetadata(createStub(), headers, new AtomicReference<>())
+                .getPoints(PointsRequest.newBuilder().setUserId(1).build()));
+        assertEquals(Long.toUnsignedString(version), headers.get().get(PositionLogHeaders.TRACK_VERSION));
+
+        stub.logPosition(request);
+        assertNotEquals("Appending must change the version", version, stub.getTrackLength(lengthRequest).getVersion());
+    }
+
+    @Test
+    public void serviceImpl_watchChanges() {
+        final StreamRecorder<ChangeEvent> recorder = StreamRecorder.create();
+        final Context.CancellableContext context = Context.current().withCancellation();
+        context.run(() -> PositionLogServiceGrpc.newStub(channel)
+                .watchChanges(WatchRequest.getDefaultInstance(), recorder));
+
+        final LogPositionRequest request = LogPositionRequest.newBuilder()
+                .setUserId(1)
+                .addPoints(Coordinate.getDefaultInstance())
+                .build();
+        stub.logPosition(request);
+        stub.logPosition(request);
+        stub.deleteUser(DeleteUserRequest.newBuilder().setUserId(1).build());
+        context.cancel(null);
+
+        final List<ChangeEvent> events = recorder.getValues();
+        assertEquals(4, events.size());
+        assertEquals(ChangeType.STARTED, events.get(0).getType());
+        assertEquals(ChangeType.CREATED, events.get(1).getType());
+        assertEquals(ChangeType.APPENDED, events.get(2).getType());
+        assertEquals(2, events.get(2).getNumPoints());
+        assertEquals(ChangeType.DELETED, events.get(3).getType());
+        assertEquals(1, events.get(3).getUserId());
+        assertTrue("Versions must increase", events.get(3).getVersion() > events.get(2).getVersion());
+    }
 }
@@ -0,0 +1,160 @@
+package de.unia.gvs.grpc.server.store;
+
+import de.unia.gvs.grpc.Coordinate;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for region queries, comparing the spatial index against checking every point.
+ */
+@RunWith(JUnit4.class)
+public class SpatialIndexTest {
+    private final TrackStore indexed = new TrackStore();
+    private final TrackStore scanned = new TrackStore(StoreConfig.newBuilder().setSpatialIndexEnabled(false).build());
+
+    private static Coordinate point(double latitude, double longitude) {
+        return Coordinate.newBuilder().setLatitude(latitude).setLongitude(longitude).build();
+    }
+
+    private void append(int userId, List<Coordinate> points) {
+        indexed.append(userId, points);
+        scanned.append(userId, points);
+    }
+
+    @Test
+    public void usersIn_box() {
+        append(1, Arrays.asList(point(48.36, 10.89), point(48.37, 10.90)));
+        append(2, Collections.singletonList(point(48.14, 11.57)));
+        append(3, Collections.singletonList(point(-33.86, 151.21)));
+
+        assertEquals(Collections.singletonList(1), indexed.usersIn(Region.box(48.3, 10.8, 48.4, 11)));
+        assertEquals(Arrays.asList(1, 2), indexed.usersIn(Region.box(48, 10, 49, 12)));
+        assertEquals(Collections.emptyList(), indexed.usersIn(Region.box(48.365, 10.891, 48.366, 10.899)));
+    }
+
+    @Test
+    public void usersIn_boxAcrossAntimeridian() {
+        append(1, Collections.singletonList(point(-17.7, 178.1)));
+        append(2, Collections.singletonList(point(-14.3, -170.7)));
+        append(3, Collections.singletonList(point(-17.7, 0)));
+
+        assertEquals(Arrays.asList(1, 2), indexed.usersIn(Region.box(-20, 170, -10, -160)));
+    }
+
+    @Test
+    public void usersIn_circle() {
+        append(1, Collections.singletonList(point(48.3668, 10.8986)));
+        append(2, Collections.singletonList(point(48.1374, 11.5755)));
+
+        // Augsburg to Munich is about 56 kilometers
+        assertEquals(Collections.singletonList(1), indexed.usersIn(Region.circle(48.3668, 10.8986, 50_000)));
+        assertEquals(Arrays.asList(1, 2), indexed.usersIn(Region.circle(48.3668, 10.8986, 60_000)));
+    }
+
+    @Test
+    public void usersIn_excludesDeletedUsers() {
+        append(1, Collections.singletonList(point(48.36, 10.89)));
+        indexed.delete(1);
+
+        assertEquals(Collections.emptyList(), indexed.usersIn(Region.box(48, 10, 49, 11)));
+
+        append(1, Collections.singletonList(point(52.52, 13.40)));
+        assertEquals(Collections.emptyList(), indexed.usersIn(Region.box(48, 10, 49, 11)));
+        assertEquals(Collections.singletonList(1), indexed.usersIn(Region.box(52, 13, 53, 14)));
+    }
+
+    @Test
+    public void usersIn_matchesScan() {
+        final Random random = new Random(3);
+        for (int userId = 0; userId < 200; ++userId) {
+            // Random walks around a few centers, including one close to the antimeridian
+            final double[][] centers = {{48.37, 10.90}, {-33.86, 151.21}, {0, 179.9}, {78, 15}};
+            final double[] center = centers[random.nextInt(centers.length)];
+            double latitude = center[0] + random.nextGaussian();
+            double longitude = center[1] + random.nextGaussian();
+            final List<Coordinate> points = new ArrayList<>();
+            for (int i = 0; i < 500; ++i) {
+                latitude = Math.max(-90, Math.min(90, latitude + random.nextGaussian() * 0.005));
+                longitude = Math.IEEEremainder(longitude + random.nextGaussian() * 0.005, 360);
+                points.add(point(latitude, longitude));
+            }
+            append(userId, points);
+        }
+        for (int userId = 0; userId < 200; userId += 7) {
+            indexed.delete(userId);
+            scanned.delete(userId);
+        }
+
+        for (int i = 0; i < 500; ++i) {
+            final double latitude = random.nextDouble() * 180 - 90;
+            final double longitude = random.nextDouble() * 360 - 180;
+            final double size = Math.pow(10, random.nextDouble() * 4 - 3);
+            final Region box = Region.box(Math.max(-90, latitude - size), longitude,
+                    Math.min(90, latitude + size), Math.IEEEremainder(longitude + 2 * size, 360));
+            assertEquals(scanned.usersIn(box), indexed.usersIn(box));
+
+            final Region circle = Region.circle(latitude, longitude, size * 100_000);
+            assertEquals(scanned.usersIn(circle), indexed.usersIn(circle));
+        }
+        // Regions around the populated centers
+        for (int i = 0; i < 500; ++i) {
+            final double latitude = (i % 2 == 0 ? 48.37 : -33.86) + random.nextGaussian();
+            final double longitude = (i % 2 == 0 ? 10.90 : 151.21) + random.nextGaussian();
+            final double size = Math.pow(10, random.nextDouble() * 3 - 3);
+            final Region box = Region.box(latitude - size, longitude - size, latitude + size, longitude + size);
+            assertEquals(scanned.usersIn(box), indexed.usersIn(box));
+
+            final Region circle = Region.circle(latitude, longitude, size * 100_000);
+            assertEquals(scanned.usersIn(circle), indexed.usersIn(circle));
+        }
+    }
+
+    @Test
+    public void usersIn_concurrentAppendsAndDeletes() throws InterruptedException {
+        // Users of all stripes are changed at the same time
+        final int numUsers = 4 * SpatialIndex.STRIPES;
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int userId = 0; userId < numUsers; ++userId) {
+            final int user = userId;
+            executor.execute(() -> {
+                for (int i = 0; i < 100; ++i) {
+                    indexed.append(user, Collections.singletonList(point(user * 0.1, i * 0.01)));
+                }
+                if (user % 3 == 0) {
+                    indexed.delete(user);
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+
+        for (int userId = 0; userId < numUsers; ++userId) {
+            final Region box = Region.box(userId * 0.1 - 0.01, 0.5, userId * 0.1 + 0.01, 0.6);
+            assertEquals(userId % 3 == 0 ? Collections.emptyList() : Collections.singletonList(userId),
+                    indexed.usersIn(box));
+        }
+        assertEquals(indexed.listUsers(), indexed.usersIn(Region.box(-1, -1, 90, 2)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void box_rejectsInvertedLatitudes() {
+        Region.box(10, 0, 5, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void circle_rejectsNegativeRadius() {
+        Region.circle(0, 0, -1);
+    }
+}
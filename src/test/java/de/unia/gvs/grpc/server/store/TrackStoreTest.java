@@ -0,0 +1,335 @@
+package de.unia.gvs.grpc.server.store;
+
+import com.google.protobuf.Timestamp;
+import de.unia.gvs.grpc.Coordinate;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the concurrent track store.
+ */
+@RunWith(JUnit4.class)
+public class TrackStoreTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final TrackStore store = new TrackStore();
+
+    private static Coordinate point(double latitude, double longitude) {
+        return Coordinate.newBuilder().setLatitude(latitude).setLongitude(longitude).build();
+    }
+
+    @Test
+    public void append_emptyDoesNotCreateUser() {
+        store.append(1, Collections.emptyList());
+        assertTrue(store.listUsers().isEmpty());
+        assertFalse(store.snapshot(1).isPresent());
+    }
+
+    @Test
+    public void listUsers_sorted() {
+        store.append(3, Collections.singletonList(point(0, 0)));
+        store.append(1, Collections.singletonList(point(0, 0)));
+        store.append(2, Collections.singletonList(point(0, 0)));
+        assertEquals(Arrays.asList(1, 2, 3), store.listUsers());
+    }
+
+    @Test
+    public void snapshot_unaffectedByLaterAppends() {
+        store.append(1, Collections.singletonList(point(1, 1)));
+        final TrackSnapshot before = store.snapshot(1).get();
+
+        final List<Coordinate> more = new ArrayList<>();
+        for (int i = 0; i < 100; ++i) {
+            more.add(point(i, i));
+        }
+        store.append(1, more);
+
+        assertEquals(1, before.size());
+        assertEquals(point(1, 1), before.get(0));
+        assertEquals(101, store.snapshot(1).get().size());
+    }
+
+    @Test
+    public void snapshot_roundTripsAllFields() {
+        final Coordinate withTimestamp = Coordinate.newBuilder()
+                .setLatitude(48.3).setLongitude(10.9).setAltitude(494.5)
+                .setTimestamp(Timestamp.newBuilder().setSeconds(1546300800).setNanos(123456789))
+                .build();
+        final Coordinate withoutTimestamp = point(48.4, 10.8);
+        store.append(1, Arrays.asList(withTimestamp, withoutTimestamp));
+
+        final TrackSnapshot snapshot = store.snapshot(1).get();
+        assertEquals(withTimestamp, snapshot.get(0));
+        assertEquals(withoutTimestamp, snapshot.get(1));
+        assertFalse(snapshot.get(1).hasTimestamp());
+    }
+
+    @Test
+    public void append_invalidTimestampRejectsWholeBatch() {
+        final Coordinate invalid = Coordinate.newBuilder()
+                .setTimestamp(Timestamp.newBuilder().setNanos(-1))
+                .build();
+        try {
+            store.append(1, Arrays.asList(point(1, 1), invalid));
+            fail("Invalid timestamps must be rejected");
+        } catch (IllegalArgumentException expected) {
+            assertFalse(store.snapshot(1).isPresent());
+        }
+    }
+
+    @Test
+    public void length_maintainedAcrossAppends() {
+        store.append(1, Arrays.asList(point(0, 0), point(1, 1)));
+        store.append(1, Collections.singletonList(point(0, 1)));
+
+        // Includes the junction segment between both appends
+        assertEquals(156.9e3 + 110.57e3, store.snapshot(1).get().length(), 1e1);
+    }
+
+    @Test
+    public void length_parallelMatchesSequential() {
+        final Random random = new Random(42);
+        final List<Coordinate> points = new ArrayList<>();
+        for (int i = 0; i < 100_000; ++i) {
+            points.add(point(48 + random.nextDouble(), 10 + random.nextDouble()));
+        }
+
+        final TrackStore sequentialStore = new TrackStore(StoreConfig.newBuilder().setParallelThreshold(Integer.MAX_VALUE).build());
+        final TrackStore parallelStore = new TrackStore(StoreConfig.newBuilder().setParallelThreshold(1000).build());
+        sequentialStore.append(1, points);
+        parallelStore.append(1, points);
+
+        final TrackSnapshot sequential = sequentialStore.snapshot(1).get();
+        final TrackSnapshot parallel = parallelStore.snapshot(1).get();
+        assertEquals(sequential.length(), parallel.length(), sequential.length() * 1e-12);
+        assertEquals(sequential.length(DistanceFunctions.HAVERSINE), parallel.length(DistanceFunctions.HAVERSINE),
+                sequential.length() * 1e-12);
+    }
+
+    @Test
+    public void compression_keepsPointsWithinPrecision() {
+        final TrackStore compressed = new TrackStore(StoreConfig.newBuilder().setSegmentSize(64).build());
+        final Random random = new Random(7);
+        for (int batch = 0; batch < 20; ++batch) {
+            final List<Coordinate> points = new ArrayList<>();
+            for (int i = 0; i < 1 + random.nextInt(40); ++i) {
+                points.add(Coordinate.newBuilder()
+                        .setLatitude(48 + random.nextDouble() * 0.1)
+                        .setLongitude(10 + random.nextDouble() * 0.1)
+                        .setAltitude(500 * random.nextDouble())
+                        .setTimestamp(Timestamp.newBuilder().setSeconds(batch * 100 + i))
+                        .build());
+            }
+            compressed.append(1, points);
+            store.append(1, points);
+        }
+
+        final TrackSnapshot actual = compressed.snapshot(1).get();
+        final TrackSnapshot expected = store.snapshot(1).get();
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); ++i) {
+            assertEquals(expected.latitude(i), actual.latitude(i), 0.5e-7);
+            assertEquals(expected.longitude(i), actual.longitude(i), 0.5e-7);
+            assertEquals(expected.altitude(i), actual.altitude(i), 0.5e-3);
+            assertEquals(expected.timestamp(i), actual.timestamp(i));
+        }
+        assertEquals(expected.length(), actual.length(), 1e-6);
+        assertEquals(expected.length(DistanceFunctions.HAVERSINE), actual.length(DistanceFunctions.HAVERSINE), 1);
+        assertEquals(expected.select(500_000_000_000L, 1500_000_000_000L).size(),
+                actual.select(500_000_000_000L, 1500_000_000_000L).size());
+    }
+
+    @Test
+    public void offHeap_keepsPointsExactly() throws IOException {
+        final StoreConfig.Builder config = StoreConfig.newBuilder()
+                .setSegmentSize(64)
+                .setSegmentStorage(SegmentStorage.OFF_HEAP);
+        for (Path directory : Arrays.asList(null, folder.getRoot().toPath())) {
+            try (TrackStore offHeap = TrackStore.open(config.setOffHeapDirectory(directory).build())) {
+                final TrackStore onHeap = new TrackStore();
+                final Random random = new Random(11);
+                for (int batch = 0; batch < 20; ++batch) {
+                    final List<Coordinate> points = new ArrayList<>();
+                    for (int i = 0; i < 1 + random.nextInt(40); ++i) {
+                        points.add(Coordinate.newBuilder()
+                                .setLatitude(48 + random.nextDouble())
+                                .setLongitude(10 + random.nextDouble())
+                                .setAltitude(random.nextGaussian())
+                                .setTimestamp(Timestamp.newBuilder().setSeconds(random.nextInt()))
+                                .build());
+                    }
+                    offHeap.append(1, points);
+                    onHeap.append(1, points);
+                }
+
+                final TrackSnapshot expected = onHeap.snapshot(1).get();
+                final TrackSnapshot actual = offHeap.snapshot(1).get();
+                assertEquals(expected.size(), actual.size());
+                for (int i = 0; i < expected.size(); ++i) {
+                    assertEquals(expected.get(i), actual.get(i));
+                }
+                assertEquals(expected.length(DistanceFunctions.HAVERSINE), actual.length(DistanceFunctions.HAVERSINE),
+                        1e-6);
+                assertEquals(expected.select(0, Long.MAX_VALUE).size(), actual.select(0, Long.MAX_VALUE).size());
+            }
+        }
+        try (Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+            assertEquals("Memory-mapped file must be deleted on close", 0, files.count());
+        }
+    }
+
+    @Test
+    public void memory_countsSegmentsWhereTheyAreStored() throws IOException {
+        final List<Coordinate> points = new ArrayList<>();
+        for (int i = 0; i < 200; ++i) {
+            points.add(point(48 + i * 1e-4, 10 + i * 1e-4));
+        }
+        final StoreConfig.Builder config = StoreConfig.newBuilder().setSegmentSize(64);
+        try (TrackStore offHeap = TrackStore.open(config.setSegmentStorage(SegmentStorage.OFF_HEAP).build())) {
+            final TrackStore compressed = new TrackStore(config.setSegmentStorage(SegmentStorage.COMPRESSED).build());
+            store.append(1, points);
+            offHeap.append(1, points);
+            compressed.append(1, points);
+
+            final TrackSnapshot uncompressed = store.snapshot(1).get();
+            assertTrue(uncompressed.heapBytes() >= 200 * 4 * Long.BYTES);
+            assertEquals(0, uncompressed.offHeapBytes());
+
+            // Two sealed segments of 64 points with 8 bytes per field, the last block stays uncompressed
+            final TrackSnapshot sealed = offHeap.snapshot(1).get();
+            assertEquals(2 * 64 * 4 * Long.BYTES, sealed.offHeapBytes());
+            assertTrue(sealed.heapBytes() < uncompressed.heapBytes());
+
+            final TrackSnapshot small = compressed.snapshot(1).get();
+            assertEquals(0, small.offHeapBytes());
+            assertTrue(small.heapBytes() < uncompressed.heapBytes());
+        }
+    }
+
+    @Test
+    public void simplify_dropsPointsWithinTolerance() {
+        // Straight line along the equator with a 100 m detour in the middle, points are about 111 m apart
+        final List<Coordinate> points = new ArrayList<>();
+        for (int i = 0; i <= 100; ++i) {
+            points.add(point(i == 50 ? 0.0009 : 0, i * 1e-3));
+        }
+        store.append(1, points);
+        final TrackSnapshot track = store.snapshot(1).get();
+
+        final PointSelection detailed = track.select(Long.MIN_VALUE, Long.MAX_VALUE, 10);
+        assertEquals(5, detailed.size());
+        assertEquals(Arrays.asList(0, 49, 50, 51, 100), indices(detailed));
+
+        final PointSelection coarse = track.select(Long.MIN_VALUE, Long.MAX_VALUE, 200);
+        assertEquals(Arrays.asList(0, 100), indices(coarse));
+
+        assertEquals(101, track.select(Long.MIN_VALUE, Long.MAX_VALUE, 0).size());
+    }
+
+    @Test
+    public void simplify_invalidatedByAppend() {
+        store.append(1, Arrays.asList(point(0, 0), point(0, 1e-3), point(0, 2e-3)));
+        assertEquals(Arrays.asList(0, 2), indices(store.snapshot(1).get().select(Long.MIN_VALUE, Long.MAX_VALUE, 1)));
+
+        store.append(1, Collections.singletonList(point(1e-3, 2e-3)));
+        assertEquals(Arrays.asList(0, 2, 3), indices(store.snapshot(1).get().select(Long.MIN_VALUE, Long.MAX_VALUE, 1)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void simplify_rejectsNegativeTolerance() {
+        store.append(1, Collections.singletonList(point(0, 0)));
+        store.snapshot(1).get().select(Long.MIN_VALUE, Long.MAX_VALUE, -1);
+    }
+
+    private static List<Integer> indices(PointSelection selection) {
+        final List<Integer> indices = new ArrayList<>();
+        for (int position = 0; position < selection.size(); ++position) {
+            indices.add(selection.index(position));
+        }
+        return indices;
+    }
+
+    @Test
+    public void delete_removesUser() {
+        store.append(1, Collections.singletonList(point(1, 1)));
+        assertTrue(store.delete(1));
+        assertFalse(store.delete(1));
+        assertFalse(store.snapshot(1).isPresent());
+    }
+
+    @Test
+    public void version_increasesWithEveryChange() {
+        store.append(1, Collections.singletonList(point(1, 1)));
+        final long first = store.snapshot(1).get().version();
+        store.append(2, Collections.singletonList(point(2, 2)));
+        store.append(1, Collections.singletonList(point(3, 3)));
+        final long second = store.snapshot(1).get().version();
+        assertTrue(second > store.snapshot(2).get().version());
+        assertTrue(store.snapshot(2).get().version() > first);
+    }
+
+    @Test
+    public void listener_receivesChangesUntilRemoved() {
+        final List<String> changes = new ArrayList<>();
+        final TrackListener listener = new TrackListener() {
+            @Override
+            public void appended(int userId, TrackSnapshot track, int offset, PointColumns points) {
+                changes.add("appended " + userId + " " + offset + " " + points.size());
+            }
+
+            @Override
+            public void deleted(int userId, long version) {
+                changes.add("deleted " + userId);
+            }
+        };
+        store.addListener(listener);
+        store.append(1, Arrays.asList(point(1, 1), point(2, 2)));
+        store.append(1, Collections.singletonList(point(3, 3)));
+        store.delete(1);
+        store.removeListener(listener);
+        store.append(1, Collections.singletonList(point(4, 4)));
+
+        assertEquals(Arrays.asList("appended 1 0 2", "appended 1 2 1", "deleted 1"), changes);
+    }
+
+    @Test
+    public void append_concurrentWritersKeepAllPoints() throws InterruptedException {
+        final int threads = 8;
+        final int appendsPerThread = 1000;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; ++t) {
+            executor.execute(() -> {
+                for (int i = 0; i < appendsPerThread; ++i) {
+                    store.append(i % 4, Collections.singletonList(point(i, i)));
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+
+        int total = 0;
+        for (int userId : store.listUsers()) {
+            total += store.snapshot(userId).get().size();
+        }
+        assertEquals(threads * appendsPerThread, total);
+    }
+}
@@ -0,0 +1,364 @@
+package de.unia.gvs.grpc.server.store;
+
+import com.google.protobuf.Timestamp;
+import de.unia.gvs.grpc.Coordinate;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for persistent track stores, which are recovered from their write-ahead log and snapshots.
+ */
+@RunWith(JUnit4.class)
+public class WriteAheadLogTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private StoreConfig config(Durability durability, long snapshotLogSize) throws IOException {
+        return StoreConfig.newBuilder()
+                .setDataDirectory(folder.getRoot().toPath())
+                .setDurability(durability)
+                .setSnapshotLogSize(snapshotLogSize)
+                .build();
+    }
+
+    private static List<Coordinate> points(int first, int count) {
+        final List<Coordinate> points = new ArrayList<>();
+        for (int i = first; i < first + count; ++i) {
+            points.add(Coordinate.newBuilder()
+                    .setLatitude(48 + i * 1e-9)
+                    .setLongitude(10 - i * 1e-9)
+                    .setAltitude(i)
+                    .setTimestamp(Timestamp.newBuilder().setSeconds(i).setNanos(i))
+                    .build());
+        }
+        return points;
+    }
+
+    private static List<Coordinate> track(TrackStore store, int userId) {
+        final TrackSnapshot track = store.snapshot(userId).get();
+        final List<Coordinate> points = new ArrayList<>();
+        track.iterator(0, track.size()).forEachRemaining(points::add);
+        return points;
+    }
+
+    @Test
+    public void open_recoversAppendsAndDeletes() throws IOException {
+        for (Durability durability : Durability.values()) {
+            folder.delete();
+            folder.create();
+
+            try (TrackStore store = TrackStore.open(config(durability, 1 << 20))) {
+                store.append(1, points(0, 10));
+                store.append(2, points(0, 5));
+                store.append(1, points(10, 10));
+                store.append(3, points(0, 1));
+                store.delete(3);
+            }
+
+            try (TrackStore store = TrackStore.open(config(durability, 1 << 20))) {
+                assertEquals(durability.name(), Arrays.asList(1, 2), store.listUsers());
+                assertEquals(points(0, 20), track(store, 1));
+                assertEquals(points(0, 5), track(store, 2));
+                store.append(2, points(5, 5));
+            }
+
+            try (TrackStore store = TrackStore.open(config(durability, 1 << 20))) {
+                assertEquals(points(0, 10), track(store, 2));
+            }
+        }
+    }
+
+    @Test
+    public void appendAll_recoveredLikeSeparateAppends() throws IOException {
+        final Map<Integer, PointColumns> batch = new LinkedHashMap<>();
+        batch.put(2, PointColumns.of(points(0, 5)));
+        batch.put(1, PointColumns.of(points(0, 10)));
+        batch.put(3, PointColumns.of(Collections.emptyList()));
+        try (TrackStore store = TrackStore.open(config(Durability.SYNC, 1 << 20))) {
+            store.append(1, points(0, 3));
+            store.appendAll(batch);
+        }
+
+        try (TrackStore store = TrackStore.open(config(Durability.SYNC, 1 << 20))) {
+            assertEquals(Arrays.asList(1, 2), store.listUsers());
+            final List<Coordinate> expected = new ArrayList<>(points(0, 3));
+            expected.addAll(points(0, 10));
+            assertEquals(expected, track(store, 1));
+            assertEquals(points(0, 5), track(store, 2));
+        }
+    }
+
+    @Test
+    public void open_recoversFromSnapshotsTakenConcurrently() throws Exception {
+        final List<Integer> users = Arrays.asList(1, 2, 3, 4);
+        try (TrackStore store = TrackStore.open(config(Durability.GROUP_COMMIT, 4096))) {
+            final ExecutorService executor = Executors.newFixedThreadPool(users.size());
+            for (int userId : users) {
+                executor.execute(() -> {
+                    for (int i = 0; i < 200; ++i) {
+                        store.append(userId, points(i * 5, 5));
+                        if (userId == 4 && i == 100) {
+                            store.delete(userId);
+                        }
+                    }
+                });
+            }
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+        }
+
+        final List<String> files;
+        try (Stream<Path> list = Files.list(folder.getRoot().toPath())) {
+            files = list.map(file -> file.getFileName().toString()).collect(Collectors.toList());
+        }
+        assertTrue("Expected a snapshot in " + files, files.stream().anyMatch(name -> name.startsWith("snapshot-")));
+
+        try (TrackStore store = TrackStore.open(config(Durability.GROUP_COMMIT, 4096))) {
+            assertEquals(users, store.listUsers());
+            for (int userId = 1; userId <= 3; ++userId) {
+                assertEquals(points(0, 1000), track(store, userId));
+            }
+            assertEquals(points(505, 495), track(store, 4));
+        }
+    }
+
+    @Test
+    public void open_recoversAppendsRacingWithRotation() throws Exception {
+        // Every append exceeds the log size, so the log is rotated and snapshotted while the next appends run
+        final int numUsers = 4;
+        final int numAppends = 200;
+        final int batchSize = 100;
+        try (TrackStore store = TrackStore.open(config(Durability.ASYNC, 1))) {
+            final ExecutorService executor = Executors.newFixedThreadPool(numUsers);
+            for (int userId = 1; userId <= numUsers; ++userId) {
+                final int user = userId;
+                executor.execute(() -> {
+                    for (int i = 0; i < numAppends; ++i) {
+                        store.append(user, points(i * batchSize, batchSize));
+                        // Deletes racing with rotation must not be lost either
+                        store.append(numUsers + user, points(i, 1));
+                        store.delete(numUsers + user);
+                    }
+                });
+            }
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+        }
+
+        try (TrackStore store = TrackStore.open(config(Durability.ASYNC, 1))) {
+            assertEquals(Arrays.asList(1, 2, 3, 4), store.listUsers());
+            for (int userId = 1; userId <= numUsers; ++userId) {
+                assertEquals(points(0, numAppends * batchSize), track(store, userId));
+            }
+        }
+    }
+
+    @Test
+    public void capture_waitsForJournaledAppend() throws Exception {
+        final CountDownLatch logged = new CountDownLatch(1);
+        final CountDownLatch resume = new CountDownLatch(1);
+        // Stops an append after its record has been written, where the log may be rotated
+        final Journal journal = new Journal() {
+            @Override
+            public void logAppend(int userId, int offset, PointColumns points) {
+                logged.countDown();
+                try {
+                    resume.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            @Override
+            public void logDelete(int userId) {
+            }
+
+            @Override
+            public void commit() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        final Track track = new Track(StoreConfig.defaults(), SegmentFactory.create(StoreConfig.defaults()),
+                TrackListener.NONE, System::nanoTime);
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            executor.submit(() -> track.append(1, PointColumns.of(points(0, 3)), journal));
+            logged.await();
+            final Future<TrackSnapshot> captured = executor.submit(track::capture);
+            Thread.sleep(50);
+            assertFalse("Capture must wait for the append", captured.isDone());
+            assertEquals(0, track.snapshot().size());
+
+            resume.countDown();
+            assertEquals(3, captured.get(1, TimeUnit.MINUTES).size());
+        } finally {
+            resume.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void append_notLostAfterFailedFirstAppend() throws Exception {
+        final CountDownLatch failing = new CountDownLatch(1);
+        final CountDownLatch resume = new CountDownLatch(1);
+        final AtomicBoolean failed = new AtomicBoolean();
+        // Fails the first append of the new track while a second append waits for it
+        final Journal journal = new Journal() {
+            @Override
+            public void logAppend(int userId, int offset, PointColumns points) throws IOException {
+                if (failed.compareAndSet(false, true)) {
+                    failing.countDown();
+                    try {
+                        resume.await();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                    throw new IOException("Disk full");
+                }
+            }
+
+            @Override
+            public void logDelete(int userId) {
+            }
+
+            @Override
+            public void commit() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (TrackStore store = new TrackStore(StoreConfig.defaults(), journal)) {
+            final Future<?> first = executor.submit(() -> store.append(1, points(0, 3)));
+            failing.await();
+
+            // The second append finds the new track and waits for its lock
+            final AtomicReference<Throwable> failure = new AtomicReference<>();
+            final Thread second = new Thread(() -> {
+                try {
+                    store.append(1, points(3, 2));
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            });
+            second.start();
+            while (second.getState() != Thread.State.BLOCKED && second.isAlive()) {
+                Thread.sleep(1);
+            }
+
+            resume.countDown();
+            try {
+                first.get(1, TimeUnit.MINUTES);
+                fail("Expected the first append to fail");
+            } catch (ExecutionException ex) {
+                assertTrue(ex.getCause() instanceof UncheckedIOException);
+            }
+            second.join();
+            assertNull(failure.get());
+            assertEquals(Collections.singletonList(1), store.listUsers());
+            assertEquals(points(3, 2), track(store, 1));
+        } finally {
+            resume.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void open_failsOnMissingAppends() throws IOException {
+        try (TrackStore store = TrackStore.open(config(Durability.SYNC, 1 << 20))) {
+            store.append(1, points(0, 3));
+            store.append(1, points(3, 3));
+        }
+
+        // Lose the log holding the first append
+        final Path log;
+        try (Stream<Path> list = Files.list(folder.getRoot().toPath())) {
+            log = list.filter(file -> file.getFileName().toString().startsWith("wal-"))
+                    .max(Path::compareTo)
+                    .get();
+        }
+        final byte[] records = Files.readAllBytes(log);
+        final int firstRecord = 8 + 13 + 3 * WriteAheadLog.POINT_SIZE;
+        Files.write(log, Arrays.copyOfRange(records, firstRecord, records.length));
+
+        try {
+            TrackStore.open(config(Durability.SYNC, 1 << 20)).close();
+            fail("Expected recovery to fail");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("missing appends of users [1]"));
+        }
+    }
+
+    @Test
+    public void open_truncatesIncompleteRecord() throws IOException {
+        try (TrackStore store = TrackStore.open(config(Durability.SYNC, 1 << 20))) {
+            store.append(1, points(0, 3));
+        }
+
+        // Simulate a crash in the middle of writing the next record
+        final Path log;
+        try (Stream<Path> list = Files.list(folder.getRoot().toPath())) {
+            log = list.filter(file -> file.getFileName().toString().startsWith("wal-"))
+                    .max(Path::compareTo)
+                    .get();
+        }
+        Files.write(log, new byte[]{0, 0, 1, 0, 42, 42, 42}, StandardOpenOption.APPEND);
+
+        try (TrackStore store = TrackStore.open(config(Durability.SYNC, 1 << 20))) {
+            assertEquals(points(0, 3), track(store, 1));
+            store.append(1, points(3, 3));
+        }
+        try (TrackStore store = TrackStore.open(config(Durability.SYNC, 1 << 20))) {
+            assertEquals(points(0, 6), track(store, 1));
+        }
+    }
+
+    @Test
+    public void append_failsAfterClose() throws IOException {
+        final TrackStore store = TrackStore.open(config(Durability.GROUP_COMMIT, 1 << 20));
+        store.close();
+        try {
+            store.append(1, points(0, 1));
+            fail("Expected append to fail");
+        } catch (UncheckedIOException ex) {
+            assertEquals(Collections.emptyList(), store.listUsers());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsDataDirectory() throws IOException {
+        new TrackStore(config(Durability.SYNC, 1 << 20));
+    }
+}